@@ -30,13 +30,18 @@ import com.yahoo.sherlock.model.JsonTimeline;
 import com.yahoo.sherlock.model.SlackMetaData;
 import com.yahoo.sherlock.model.UserQuery;
 import com.yahoo.sherlock.query.EgadsConfig;
+import com.yahoo.sherlock.query.EgadsConfigFile;
 import com.yahoo.sherlock.query.Query;
 import com.yahoo.sherlock.query.QueryBuilder;
+import com.yahoo.sherlock.service.DatasourceCache;
 import com.yahoo.sherlock.service.DetectorService;
 import com.yahoo.sherlock.service.DruidQueryService;
+import com.yahoo.sherlock.service.DruidResultCache;
 import com.yahoo.sherlock.service.EmailService;
+import com.yahoo.sherlock.service.HttpService;
 import com.yahoo.sherlock.service.JobExecutionService;
 import com.yahoo.sherlock.service.SchedulerService;
+import com.yahoo.sherlock.service.SeriesHistory;
 import com.yahoo.sherlock.service.ServiceFactory;
 import com.yahoo.sherlock.service.SlackService;
 import com.yahoo.sherlock.settings.CLISettings;
@@ -280,8 +285,10 @@ public class Routes {
             job.setFrequency(granularity.toString());
             job.setEffectiveQueryTime(intervalEndTime);
             // set egads config
-            EgadsConfig config;
-            config = EgadsConfig.fromProperties(EgadsConfig.fromFile());
+            EgadsConfig config = EgadsConfigFile.current().getEgadsConfig();
+            if (config == null) {
+                config = EgadsConfig.create().buildDefault();
+            }
             config.setTsModel(userQuery.getTsModels());
             config.setAdModel(userQuery.getAdModels());
             // detect anomalies
@@ -390,6 +397,7 @@ public class Routes {
         try {
             schedulerService.stopJob(jobId);
             jobAccessor.deleteJobMetadata(jobId);
+            SeriesHistory.instance().remove(jobId);
             return Constants.SUCCESS;
         } catch (IOException | JobNotFoundException | SchedulerException e) {
             response.status(500);
@@ -415,6 +423,7 @@ public class Routes {
         try {
             schedulerService.stopJob(jobIds);
             jobAccessor.deleteJobs(jobIds);
+            jobIds.forEach(id -> SeriesHistory.instance().remove(Integer.valueOf(id)));
             return Constants.SUCCESS;
         } catch (IOException | SchedulerException e) {
             response.status(500);
@@ -594,6 +603,7 @@ public class Routes {
                 schedulerService.scheduleJob(currentJob);
             }
             jobAccessor.putJobMetadata(currentJob);
+            SeriesHistory.instance().remove(jobId);
             response.status(200);
             return Constants.SUCCESS;
         } catch (Exception e) {
@@ -852,16 +862,18 @@ public class Routes {
             params.put(Constants.ERROR, "Invalid Request");
             halt(404, thymeleaf.render(new ModelAndView(params, "404")));
         }
-        // Get the json timeline data from database
+        // Get the json timeline data of the visible window from database
         try {
-            List<AnomalyReport> report = reportAccessor.getAnomalyReportsForJob(jobId, frequency);
+            JobMetadata jobMetadata = jobAccessor.getJobMetadata(jobId);
+            long windowEnd = TimeUtils.getTimestampMinutes();
+            long windowStart = windowEnd - getReportWindowMinutes(Triggers.getValue(frequency), jobMetadata.getHoursOfLag());
+            List<AnomalyReport> report = reportAccessor.getAnomalyReportsForJobInRange(jobId, frequency, windowStart, windowEnd);
             JsonTimeline jsonTimeline = Utils.getAnomalyReportsAsTimeline(report);
             String jsonTimelinePoints = new Gson().toJson(jsonTimeline.getTimelinePoints());
-            JobMetadata jobMetadata = jobAccessor.getJobMetadata(jobId);
             // populate params for visualization
             params.put(Constants.JOB_ID, jobId);
             params.put(Constants.FREQUENCY, frequency);
-            params.put(Constants.HOURS_OF_LAG, jobAccessor.getJobMetadata(jobId).getHoursOfLag());
+            params.put(Constants.HOURS_OF_LAG, jobMetadata.getHoursOfLag());
             params.put(Constants.TIMELINE_POINTS, jsonTimelinePoints);
             params.put(Constants.TITLE, jobMetadata.getTestName());
         } catch (Exception e) {
@@ -872,6 +884,27 @@ public class Routes {
         return new ModelAndView(params, "report");
     }
 
+    /**
+     * Get the length of the time window shown by the report heatmap,
+     * which is six hours of minutes, two weeks of hours, or a year of
+     * days, weeks or months, each rounded up to whole labels.
+     *
+     * @param frequency  job frequency
+     * @param hoursOfLag lag of the job in hours, may be null
+     * @return window length in minutes
+     */
+    protected static long getReportWindowMinutes(Triggers frequency, Integer hoursOfLag) {
+        long lagMinutes = hoursOfLag == null ? 0L : hoursOfLag * 60L;
+        switch (frequency) {
+            case MINUTE:
+                return lagMinutes + 7L * Triggers.HOUR.getMinutes();
+            case HOUR:
+                return lagMinutes + 15L * Triggers.DAY.getMinutes();
+            default:
+                return lagMinutes + 14L * 31L * Triggers.DAY.getMinutes();
+        }
+    }
+
     /**
      * Method to send job report as requested by users based on datetime.
      *
@@ -1060,7 +1093,11 @@ public class Routes {
                 response.status(400);
                 return String.format("Cannot delete cluster with %d associated jobs", associatedJobs.size());
             }
+            DruidCluster cluster = clusterAccessor.getDruidCluster(clusterId.toString());
             clusterAccessor.deleteDruidCluster(clusterId.toString());
+            DatasourceCache.instance().invalidate(clusterId);
+            DruidResultCache.instance().invalidate(clusterId);
+            invalidateHttpClient(cluster.getBaseUrl());
             response.status(200);
             return Constants.SUCCESS;
         } catch (IOException | ClusterNotFoundException e) {
@@ -1070,6 +1107,22 @@ public class Routes {
         }
     }
 
+    /**
+     * Close the pooled http client of a Druid broker
+     * if no remaining cluster uses that broker.
+     *
+     * @param baseUrl the base URL of the broker
+     * @throws IOException if an error occurs while reading the clusters
+     */
+    private static void invalidateHttpClient(String baseUrl) throws IOException {
+        for (DruidCluster cluster : clusterAccessor.getDruidClusterList()) {
+            if (baseUrl.equals(cluster.getBaseUrl())) {
+                return;
+            }
+        }
+        HttpService.invalidate(baseUrl);
+    }
+
     /**
      * Update a Druid cluster with a specified ID and new parameters.
      *
@@ -1091,9 +1144,15 @@ public class Routes {
             updatedCluster = new Gson().fromJson(request.body(), DruidCluster.class);
             updatedCluster.validate();
             boolean requireReschedule = !existingCluster.getHoursOfLag().equals(updatedCluster.getHoursOfLag());
+            String baseUrl = existingCluster.getBaseUrl();
             existingCluster.update(updatedCluster);
             // Put updated cluster in DB
             clusterAccessor.putDruidCluster(existingCluster);
+            DatasourceCache.instance().invalidate(clusterId);
+            DruidResultCache.instance().invalidate(clusterId);
+            if (!baseUrl.equals(existingCluster.getBaseUrl())) {
+                invalidateHttpClient(baseUrl);
+            }
             if (requireReschedule) {
                 log.info("Hours of lag has changed, rescheduling jobs for cluster");
                 List<JobMetadata> rescheduleJobs = jobAccessor
@@ -1601,7 +1660,7 @@ public class Routes {
             return e.getMessage();
         }
         try {
-            jsonDumper.writeRawData(BackupUtils.getDataFromJsonFile(filePath));
+            BackupUtils.restoreFromFile(filePath, jsonDumper);
         } catch (IOException e) {
             log.error("Unable to load data from the file at {} ", filePath, e);
             response.status(500);
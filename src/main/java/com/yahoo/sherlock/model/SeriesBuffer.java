@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.model;
+
+import com.yahoo.egads.data.MetricMeta;
+import com.yahoo.egads.data.TimeSeries;
+
+import java.util.Arrays;
+
+/**
+ * Growable time series of primitive timestamps and values. It is used
+ * to build, fill and aggregate a series without allocating an EGADS
+ * entry for each data point, until it is converted to a {@code TimeSeries}.
+ */
+public class SeriesBuffer {
+
+    /**
+     * Timestamps of the data points in seconds.
+     */
+    private long[] times;
+    /**
+     * Values of the data points.
+     */
+    private float[] values;
+    /**
+     * Number of data points.
+     */
+    private int size = 0;
+
+    /**
+     * Create an empty buffer.
+     */
+    public SeriesBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity initial number of data points
+     */
+    public SeriesBuffer(int capacity) {
+        times = new long[Math.max(1, capacity)];
+        values = new float[Math.max(1, capacity)];
+    }
+
+    /**
+     * Copy the data points of a time series.
+     *
+     * @param timeSeries time series to copy
+     * @return a buffer with the data points of the series
+     */
+    public static SeriesBuffer of(TimeSeries timeSeries) {
+        SeriesBuffer buffer = new SeriesBuffer(timeSeries.data.size());
+        for (TimeSeries.Entry entry : timeSeries.data) {
+            buffer.times[buffer.size] = entry.time;
+            buffer.values[buffer.size] = entry.value;
+            buffer.size++;
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the number of data points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i index of a data point
+     * @return the timestamp of the data point
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * @param i index of a data point
+     * @return the value of the data point
+     */
+    public float value(int i) {
+        return values[i];
+    }
+
+    /**
+     * Append a data point. Like {@code TimeSeries.append}, a data point
+     * which is not after the last data point is rejected.
+     *
+     * @param time  timestamp in seconds
+     * @param value value
+     * @return false if the data point was rejected
+     */
+    public boolean append(long time, float value) {
+        if (size > 0 && time <= times[size - 1]) {
+            return false;
+        }
+        if (size == times.length) {
+            int capacity = times.length + (times.length >> 1) + 1;
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        times[size] = time;
+        values[size] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Fill the gaps between data points with the value of the
+     * previous data point, in steps of the given interval.
+     * A data point closer than the interval to the next one is dropped.
+     *
+     * @param interval interval between data points in seconds
+     * @return a new buffer without gaps
+     */
+    public SeriesBuffer fillGaps(long interval) {
+        SeriesBuffer output = new SeriesBuffer(size);
+        for (int i = 1; i < size; i++) {
+            long gap = times[i] - times[i - 1];
+            if (gap != interval) {
+                int missingPoints = (int) (gap / interval);
+                long curTimestampToFill = times[i - 1];
+                for (int j = missingPoints; j > 0; j--) {
+                    output.append(curTimestampToFill, values[i - 1]);
+                    curTimestampToFill += interval;
+                }
+            } else {
+                output.append(times[i - 1], values[i - 1]);
+            }
+        }
+        if (size > 0) {
+            output.append(times[size - 1], values[size - 1]);
+        }
+        return output;
+    }
+
+    /**
+     * Sum consecutive groups of data points. Each group
+     * takes the timestamp of its first data point.
+     *
+     * @param frequency number of data points in a group
+     * @return a new buffer of the sums
+     */
+    public SeriesBuffer sum(int frequency) {
+        SeriesBuffer output = new SeriesBuffer((size + frequency - 1) / frequency);
+        for (int i = 0; i < size; i += frequency) {
+            float aggr = 0.0F;
+            for (int j = i; j < Math.min(size, i + frequency); ++j) {
+                aggr += values[j];
+            }
+            output.times[output.size] = times[i];
+            output.values[output.size] = aggr;
+            output.size++;
+        }
+        return output;
+    }
+
+    /**
+     * @return the data points as an EGADS data sequence
+     */
+    public TimeSeries.DataSequence toDataSequence() {
+        TimeSeries.DataSequence data = new TimeSeries.DataSequence();
+        data.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            data.add(new TimeSeries.Entry(times[i], values[i]));
+        }
+        return data;
+    }
+
+    /**
+     * Convert the buffer to an EGADS time series.
+     *
+     * @param meta metadata of the time series
+     * @return a time series with the data points of the buffer
+     */
+    public TimeSeries toTimeSeries(MetricMeta meta) {
+        TimeSeries timeSeries = new TimeSeries();
+        timeSeries.meta = meta;
+        timeSeries.data = toDataSequence();
+        return timeSeries;
+    }
+}
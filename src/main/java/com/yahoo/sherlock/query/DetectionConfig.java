@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.query;
+
+import com.yahoo.sherlock.enums.Granularity;
+import com.yahoo.sherlock.settings.Constants;
+
+import java.util.Properties;
+
+/**
+ * Immutable EGADS configuration of a single detection run. Each
+ * {@code with} method returns a modified copy, so a configuration
+ * can be shared between threads and concurrent runs never see
+ * each other's sigma threshold, base windows or detection window.
+ */
+public final class DetectionConfig {
+
+    /**
+     * EGADS properties of the run, never exposed directly.
+     */
+    private final Properties properties;
+
+    /**
+     * @param properties properties owned by this configuration
+     */
+    private DetectionConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Create a run configuration from EGADS properties.
+     *
+     * @param properties EGADS properties, which are copied
+     * @return a run configuration
+     */
+    public static DetectionConfig of(Properties properties) {
+        return new DetectionConfig(copy(properties));
+    }
+
+    /**
+     * @param properties properties to copy
+     * @return a copy of the properties
+     */
+    private static Properties copy(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * @param key EGADS parameter name
+     * @return the value of the parameter or null
+     */
+    public String getProperty(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * @return a copy of the EGADS properties to pass to EGADS
+     */
+    public Properties toProperties() {
+        return copy(properties);
+    }
+
+    /**
+     * @param key   EGADS parameter name
+     * @param value value of the parameter
+     * @return a copy of this configuration with the parameter set
+     */
+    public DetectionConfig withProperty(String key, String value) {
+        Properties copy = copy(properties);
+        copy.setProperty(key, value);
+        return new DetectionConfig(copy);
+    }
+
+    /**
+     * @param sigmaThreshold the sigma threshold
+     * @return a copy of this configuration with the sigma threshold set
+     */
+    public DetectionConfig withSigmaThreshold(Double sigmaThreshold) {
+        return withProperty("AUTO_SENSITIVITY_SD", sigmaThreshold.toString());
+    }
+
+    /**
+     * Set the base windows of the Olympic model based on the period of the time series.
+     *
+     * @param granularity      granularity of data
+     * @param granularityRange granularity to aggregate on
+     * @return a copy of this configuration with the base windows set
+     */
+    public DetectionConfig withBaseWindows(Granularity granularity, Integer granularityRange) {
+        Properties copy = copy(properties);
+        String w1 = "1", w2 = "1";
+        switch (granularity) {
+            case MINUTE:
+                w2 = String.valueOf(Math.round(60.0f / granularityRange));
+                break;
+            case HOUR:
+                w1 = String.valueOf(Math.round(24.0f / granularityRange));
+                w2 = String.valueOf(Math.round(168.0f / granularityRange));
+                break;
+            case DAY:
+                w2 = String.valueOf(Math.round(7.0f / granularityRange));
+                break;
+            case WEEK:
+                w2 = String.valueOf(Math.round(4.0f / granularityRange));
+                break;
+            case MONTH:
+                w2 = String.valueOf(Math.round(12.0f / granularityRange));
+                copy.setProperty("PERIOD", "-1");
+                break;
+            default:
+                break;
+        }
+        copy.setProperty("BASE_WINDOWS", w1 + Constants.COMMA_DELIMITER + w2);
+        return new DetectionConfig(copy);
+    }
+
+    /**
+     * Set the detection window for anomalies.
+     *
+     * @param endTimeMinutes last datapoint timestamp in timeseries
+     * @param frequency      frequency of the job
+     * @param nLookBack      number of frequency to lookback
+     * @return a copy of this configuration with the detection window set
+     */
+    public DetectionConfig withDetectionWindow(Integer endTimeMinutes, String frequency, int nLookBack) {
+        Long detectionStartTime = (endTimeMinutes - nLookBack * Granularity.getValue(frequency).getMinutes()) * 60L;
+        return withProperty("DETECTION_WINDOW_START_TIME", detectionStartTime.toString());
+    }
+}
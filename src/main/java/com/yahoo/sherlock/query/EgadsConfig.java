@@ -5,14 +5,11 @@
  */
 package com.yahoo.sherlock.query;
 
-import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.utils.NumberUtils;
 import com.yahoo.sherlock.utils.Utils;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Field;
@@ -911,22 +908,28 @@ public class EgadsConfig {
     }
 
     /**
-     * Method to read configs from file.
+     * Method to read configs from file. The file is only read
+     * again when it changes, see {@link EgadsConfigFile}.
      * @return configs properties object
      */
     public static Properties fromFile() {
-        Properties p = null;
-        try {
-            // use the egads config file if available
-            InputStream inputStream = new FileInputStream(CLISettings.EGADS_CONFIG_FILENAME);
-            Properties properties = new Properties();
-            properties.load(inputStream);
-            if (!properties.isEmpty()) {
-                p = properties;
-            }
-        } catch (Exception e) {
-            log.error("Error, could not load EGADS configuration from file!", e);
-        }
-        return p;
+        DetectionConfig config = EgadsConfigFile.current().getConfig();
+        return config == null ? null : config.toProperties();
+    }
+
+    /**
+     * @return a copy of this EGADS config
+     */
+    public EgadsConfig copy() {
+        EgadsConfig copy = new EgadsConfig();
+        for (Field configField : Utils.findFields(EgadsConfig.class, EgadsParam.class)) {
+            configField.setAccessible(true);
+            try {
+                configField.set(copy, configField.get(this));
+            } catch (IllegalAccessException e) {
+                log.error("Failed to copy field [{}]!", configField.getName(), e);
+            }
+        }
+        return copy;
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.query;
+
+import com.yahoo.sherlock.settings.CLISettings;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of the EGADS configuration file. The file is read
+ * and parsed once, and read again only when its path, modification time
+ * or size change. Runs derive their configuration from the snapshot with
+ * the copy-on-write methods of {@code DetectionConfig}. If a changed file
+ * cannot be loaded, the last snapshot of the file is kept.
+ */
+@Slf4j
+public final class EgadsConfigFile {
+
+    /**
+     * The current snapshot.
+     */
+    private static volatile EgadsConfigFile current = null;
+
+    /**
+     * Path of the file.
+     */
+    private final String path;
+    /**
+     * Modification time of the file when it was read.
+     */
+    private final long lastModified;
+    /**
+     * Size of the file when it was read.
+     */
+    private final long length;
+    /**
+     * Configuration in the file, or null if it could not be loaded.
+     */
+    private final DetectionConfig config;
+    /**
+     * Parsed EGADS parameters of the file, or null if it could not be loaded.
+     */
+    private final EgadsConfig egadsConfig;
+
+    /**
+     * @param path         path of the file
+     * @param lastModified modification time of the file
+     * @param length       size of the file
+     * @param config       configuration in the file or null
+     */
+    private EgadsConfigFile(String path, long lastModified, long length, @Nullable DetectionConfig config) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.config = config;
+        this.egadsConfig = config == null ? null : EgadsConfig.fromProperties(config.toProperties());
+    }
+
+    /**
+     * Get the snapshot of the file at {@link CLISettings#EGADS_CONFIG_FILENAME},
+     * reading the file again if it changed since the last snapshot.
+     *
+     * @return the current snapshot
+     */
+    public static EgadsConfigFile current() {
+        String path = CLISettings.EGADS_CONFIG_FILENAME;
+        File file = new File(String.valueOf(path));
+        long lastModified = file.lastModified();
+        long length = file.length();
+        EgadsConfigFile snapshot = current;
+        if (snapshot != null && snapshot.isOf(path, lastModified, length)) {
+            return snapshot;
+        }
+        synchronized (EgadsConfigFile.class) {
+            snapshot = current;
+            if (snapshot != null && snapshot.isOf(path, lastModified, length)) {
+                return snapshot;
+            }
+            DetectionConfig config = load(file);
+            if (config == null && snapshot != null && snapshot.config != null && snapshot.path.equals(path)) {
+                log.error("Keeping the last EGADS configuration loaded from [{}]", path);
+                config = snapshot.config;
+            } else if (config != null) {
+                log.info("Loaded EGADS configuration from [{}]", path);
+            }
+            snapshot = new EgadsConfigFile(path, lastModified, length, config);
+            current = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return the configuration in the file, or null if it could not be loaded
+     */
+    @Nullable
+    public DetectionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return a new copy of the EGADS parameters in the file,
+     * or null if it could not be loaded
+     */
+    @Nullable
+    public EgadsConfig getEgadsConfig() {
+        return egadsConfig == null ? null : egadsConfig.copy();
+    }
+
+    /**
+     * @param path         path of the file
+     * @param lastModified modification time of the file
+     * @param length       size of the file
+     * @return true if this snapshot was taken of the same file version
+     */
+    private boolean isOf(String path, long lastModified, long length) {
+        return this.path.equals(path) && this.lastModified == lastModified && this.length == length;
+    }
+
+    /**
+     * @param file the configuration file
+     * @return the configuration in the file, or null if it
+     * cannot be read or has no properties
+     */
+    private static DetectionConfig load(File file) {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            Properties properties = new Properties();
+            properties.load(inputStream);
+            if (properties.isEmpty()) {
+                log.error("EGADS configuration file [{}] is empty!", file);
+                return null;
+            }
+            return DetectionConfig.of(properties);
+        } catch (Exception e) {
+            log.error("Error, could not load EGADS configuration from file!", e);
+            return null;
+        }
+    }
+}
@@ -9,32 +9,42 @@ package com.yahoo.sherlock.query;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.yahoo.egads.data.TimeSeries;
-import com.yahoo.sherlock.exception.LambdaException;
 import com.yahoo.sherlock.exception.SherlockException;
 import com.yahoo.sherlock.model.JsonDataPoint;
+import com.yahoo.sherlock.model.SeriesBuffer;
+import com.yahoo.sherlock.settings.CLISettings;
 import lombok.extern.slf4j.Slf4j;
 
-import java.sql.Timestamp;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
- * Deserializer class for Druid response {@code JsonArray}.
+ * Deserializer class for Druid response {@code JsonArray}, which
+ * can also read the response directly from a {@code JsonReader}.
  */
 @Slf4j
 public class JsonTimeSeries {
@@ -51,30 +61,125 @@ public class JsonTimeSeries {
     private JsonDataSequence jsonDataSequence;
 
     /**
-     * Set to store query groupby dimensions.
+     * Query groupby dimensions in query order.
      */
-    private LinkedHashSet<String> dimensions;
+    private String[] dimensions;
 
     /**
-     * Set to store metrics names.
+     * Index of each groupby dimension name.
      */
-    private Set<String> metrics;
+    private Map<String, Integer> dimensionIndex;
 
     /**
-     * Map to store Unique-timeseries-name to UUID mapping.
+     * Names of the query metrics.
      */
-    private Map<String, UUID> uniqueIDMap;
+    private List<String> metricNames;
+
+    /**
+     * Index of each metric name.
+     */
+    private Map<String, Integer> metricIndex;
+
+    /**
+     * Map to store the series of each tuple of groupby dimension values.
+     */
+    private Map<SeriesKey, SeriesGroup> seriesGroups;
 
     /**
      * Map to store UUID to Unique-timeseries mapping.
      */
     private Map<UUID, TimeSeries> uniqueTimeSeriesMap;
 
+    /**
+     * The last parsed timestamp.
+     */
+    private volatile ParsedTimeStamp lastTimeStamp = null;
+
     /**
      * Dateformat of Druid response timestamp.
      */
     private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
 
+    /**
+     * Marks a datapoint whose timestamp has not been read.
+     */
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * Pool shared by all responses which reads the partitions of large datapoint arrays.
+     */
+    private static ForkJoinPool parsePool = null;
+
+    /**
+     * Get the shared pool which reads datapoint partitions. The pool is replaced
+     * when the parallelism changes, and the old pool finishes its running partitions.
+     *
+     * @param parallelism the number of partitions
+     * @return the shared pool with the given parallelism
+     */
+    protected static synchronized ForkJoinPool getParsePool(int parallelism) {
+        if (parsePool == null || parsePool.getParallelism() != parallelism) {
+            if (parsePool != null) {
+                parsePool.shutdown();
+            }
+            parsePool = new ForkJoinPool(parallelism);
+        }
+        return parsePool;
+    }
+
+    /**
+     * @param size the number of datapoints
+     * @return the number of partitions to read the datapoints in, or 1 to read them in one thread
+     */
+    private static int getPartitions(int size) {
+        int parallelism = getParseParallelism();
+        return CLISettings.PARALLEL_PARSE_ROWS <= 0 || size < CLISettings.PARALLEL_PARSE_ROWS || parallelism < 2 ? 1 : parallelism;
+    }
+
+    /**
+     * Read datapoints in ordered partitions on the parse pool.
+     *
+     * @param size       the number of datapoints
+     * @param partitions the number of partitions
+     * @param parse      function which reads the datapoint at an index
+     * @param <T>        type of a read datapoint
+     * @return the read datapoints in order
+     * @throws InterruptedException if interrupted while waiting for a partition
+     * @throws ExecutionException   if reading a partition failed
+     */
+    private static <T> List<T> parseInPartitions(int size, int partitions, IntFunction<T> parse)
+            throws InterruptedException, ExecutionException {
+        int partitionSize = (size + partitions - 1) / partitions;
+        List<Callable<List<T>>> tasks = new ArrayList<>(partitions);
+        for (int start = 0; start < size; start += partitionSize) {
+            int from = start;
+            int to = Math.min(size, start + partitionSize);
+            Callable<List<T>> task = () -> {
+                List<T> parsed = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    parsed.add(parse.apply(i));
+                }
+                return parsed;
+            };
+            tasks.add(task);
+        }
+        log.debug("Parsing {} datapoints in {} partitions", size, tasks.size());
+        List<T> parsed = new ArrayList<>(size);
+        for (Future<List<T>> task : getParsePool(partitions).invokeAll(tasks)) {
+            parsed.addAll(task.get());
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the number of partitions of a large datapoint array
+     */
+    protected static int getParseParallelism() {
+        return CLISettings.PARSE_PARALLELISM > 0
+                ? CLISettings.PARSE_PARALLELISM
+                : Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * Getter for JSON data sequence.
      *
@@ -85,11 +190,22 @@ public class JsonTimeSeries {
     }
 
     /**
-     * Getter for unique timeseries map.
+     * Getter for unique timeseries map. The data points
+     * parsed so far are moved into the timeseries.
      *
      * @return uniqueTimeSeriesMap
      */
     public Map<UUID, TimeSeries> getUniqueTimeSeriesMap() {
+        for (SeriesGroup group : seriesGroups.values()) {
+            synchronized (group) {
+                for (int i = 0; i < group.buffers.length; i++) {
+                    if (group.buffers[i] != null) {
+                        group.series[i].data = group.buffers[i].toDataSequence();
+                        group.buffers[i] = null;
+                    }
+                }
+            }
+        }
         return uniqueTimeSeriesMap;
     }
 
@@ -100,34 +216,42 @@ public class JsonTimeSeries {
      * @param query     associated query
      */
     public JsonTimeSeries(JsonArray jsonArray, Query query) {
-        this.metrics = query.getMetricNames();
-        this.dimensions = query.getGroupByDimensions();
+        this(query);
         this.jsonDataSequence = new Gson().fromJson(jsonArray, JsonTimeSeries.JsonDataSequence.class);
-        this.uniqueIDMap = new HashMap<>();
-        this.uniqueTimeSeriesMap = new HashMap<>();
     }
 
     /**
-     * Method to generate new UUID for new timeseries.
+     * Constructor to intialize query metadata for reading a Druid
+     * response with {@link #readDataPoints(JsonReader)}.
      *
-     * @param uniqueTimeSeriesName new timeseries name
-     * @return UUID
+     * @param query associated query
      */
-    private UUID getNewUUID(String uniqueTimeSeriesName) {
-        UUID uuid = UUID.randomUUID();
-        uniqueIDMap.put(uniqueTimeSeriesName, uuid);
-        return uuid;
+    public JsonTimeSeries(Query query) {
+        Set<String> groupByDimensions = query.getGroupByDimensions();
+        this.dimensions = groupByDimensions == null ? new String[0] : groupByDimensions.toArray(new String[0]);
+        this.dimensionIndex = new HashMap<>();
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensionIndex.put(dimensions[i], i);
+        }
+        this.metricNames = query.getMetricNames().stream().filter(Objects::nonNull).collect(Collectors.toList());
+        this.metricIndex = new HashMap<>();
+        for (int i = 0; i < metricNames.size(); i++) {
+            metricIndex.put(metricNames.get(i), i);
+        }
+        this.jsonDataSequence = new JsonDataSequence();
+        this.seriesGroups = new ConcurrentHashMap<>();
+        this.uniqueTimeSeriesMap = new ConcurrentHashMap<>();
     }
 
     /**
      * Method to initialize and return new timeseries.
      *
-     * @param uuid            uuid to be used as an unique id for new timeseries
      * @param metricName      metric name associated with the new timeseries
      * @param dimensionValues group by dimensions involved in new timeseries data
      * @return a new time series with the given parameters
      */
-    private TimeSeries getNewTimeSeries(UUID uuid, String metricName, String dimensionValues) {
+    private TimeSeries getNewTimeSeries(String metricName, String dimensionValues) {
+        UUID uuid = UUID.randomUUID();
         TimeSeries timeSeries = new TimeSeries();
         timeSeries.meta.name = metricName;
         timeSeries.meta.id = uuid.toString();
@@ -137,6 +261,42 @@ public class JsonTimeSeries {
         return timeSeries;
     }
 
+    /**
+     * Get the series of a tuple of groupby dimension values,
+     * creating the group the first time the tuple is seen.
+     *
+     * @param seriesKey tuple of groupby dimension values
+     * @return the series group of the tuple
+     */
+    private SeriesGroup getSeriesGroup(SeriesKey seriesKey) {
+        return seriesGroups.computeIfAbsent(seriesKey, key -> new SeriesGroup(
+                getGroupByDimensionLabel(key.values), metricNames.size()));
+    }
+
+    /**
+     * Append a data point to the timeseries of a metric in a series group.
+     *
+     * @param group  series group of the groupby dimension values
+     * @param metric index of the metric
+     * @param time   timestamp in seconds
+     * @param value  metric value
+     * @throws SherlockException if the data point is not after the last one
+     */
+    private void append(SeriesGroup group, int metric, long time, float value) throws SherlockException {
+        synchronized (group) {
+            if (group.series[metric] == null) {
+                group.series[metric] = getNewTimeSeries(metricNames.get(metric), group.source);
+            }
+            if (group.buffers[metric] == null) {
+                group.buffers[metric] = SeriesBuffer.of(group.series[metric]);
+            }
+            if (!group.buffers[metric].append(time, value)) {
+                throw new SherlockException("Data point at " + time + " is not after the last data point of "
+                                            + metricNames.get(metric));
+            }
+        }
+    }
+
     /**
      * Predicate for null datapoint object filter.
      *
@@ -175,44 +335,170 @@ public class JsonTimeSeries {
     }
 
     /**
-     * Method to parse Druid timestamp.
+     * Method to parse Druid timestamp. Consecutive datapoints of a response
+     * usually share their timestamp, so the last parsed timestamp is kept.
      *
      * @param timestamp input format 'yyyy-MM-ddTHH:mm:ss.SSSZ'
      * @return timestamp in seconds
      */
-    private Long parseTimeStamp(String timestamp) throws SherlockException {
-        if (timestamp != null) {
-            timestamp = timestamp.replace("T", " ").replace("Z", "");
-            DateFormat df = new SimpleDateFormat(DATE_FORMAT);
-            df.setTimeZone(TimeZone.getTimeZone("UTC"));
-            Date parsedDate;
-            try {
-                parsedDate = df.parse(timestamp);
-            } catch (ParseException e) {
-                log.error("Druid timestamp parsing error!", e);
-                throw new SherlockException(e.getMessage(), e);
-            }
-            Timestamp tp = new java.sql.Timestamp(parsedDate.getTime());
-            return (tp.getTime() / 1000);
-        } else {
+    private long parseTimeStamp(String timestamp) throws SherlockException {
+        if (timestamp == null) {
             log.info("Found null timestamp in Druid response");
             throw new SherlockException("Null Timestamp in Druid response");
         }
+        ParsedTimeStamp last = lastTimeStamp;
+        if (last != null && last.timestamp.equals(timestamp)) {
+            return last.seconds;
+        }
+        long seconds = parseIsoTimeStamp(timestamp);
+        if (seconds == Long.MIN_VALUE) {
+            seconds = parseTimeStampWithFormat(timestamp);
+        }
+        lastTimeStamp = new ParsedTimeStamp(timestamp, seconds);
+        return seconds;
+    }
+
+    /**
+     * Parse a Druid timestamp in the exact format 'yyyy-MM-ddTHH:mm:ss.SSSZ'
+     * without creating any objects.
+     *
+     * @param timestamp the timestamp
+     * @return timestamp in seconds, or {@code Long.MIN_VALUE} if the
+     * timestamp is not in the exact format or not a valid date
+     */
+    protected static long parseIsoTimeStamp(String timestamp) {
+        if (timestamp.length() != 24
+                || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':' || timestamp.charAt(19) != '.'
+                || timestamp.charAt(23) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(timestamp, 0, 4);
+        int month = digits(timestamp, 5, 2);
+        int day = digits(timestamp, 8, 2);
+        int hour = digits(timestamp, 11, 2);
+        int minute = digits(timestamp, 14, 2);
+        int second = digits(timestamp, 17, 2);
+        int millis = digits(timestamp, 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return Long.MIN_VALUE;
+        }
+        long seconds = epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second;
+        // Seconds are truncated towards zero like integer division of epoch milliseconds
+        return (seconds < 0 && millis > 0) ? seconds + 1 : seconds;
+    }
+
+    /**
+     * @param text  text to read
+     * @param start index of the first digit
+     * @param count number of digits
+     * @return the value of the digits, or -1 if a character is not a digit
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @param year  the year
+     * @param month the month from 1 to 12
+     * @return the number of days in the month
+     */
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     *
+     * @param year  the year
+     * @param month the month from 1 to 12
+     * @param day   the day of the month
+     * @return the epoch day
+     */
+    private static long epochDay(int year, int month, int day) {
+        // Count years from March so that the leap day is the last day of a year
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parse a Druid timestamp which is not in the exact
+     * format with a lenient date format.
+     *
+     * @param timestamp input format 'yyyy-MM-ddTHH:mm:ss.SSSZ'
+     * @return timestamp in seconds
+     * @throws SherlockException if the timestamp cannot be parsed
+     */
+    private static long parseTimeStampWithFormat(String timestamp) throws SherlockException {
+        timestamp = timestamp.replace("T", " ").replace("Z", "");
+        DateFormat df = new SimpleDateFormat(DATE_FORMAT);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date parsedDate;
+        try {
+            parsedDate = df.parse(timestamp);
+        } catch (ParseException e) {
+            log.error("Druid timestamp parsing error!", e);
+            throw new SherlockException(e.getMessage(), e);
+        }
+        return parsedDate.getTime() / 1000;
     }
 
     /**
-     * Method to generate unique name for timeseries based
-     * on values of groupby dimensions.
+     * Method to read the values of the groupby dimensions from a datapoint.
      *
      * @param blob Json representing a datapoint
-     * @return unique name of timeseires(ex. "news_mobile","news_desktop")
+     * @return groupby dimension values in query order, or null if a value is null
+     */
+    private String[] getGroupByDimensionValues(JsonElement blob) {
+        if (Arrays.stream(dimensions).anyMatch(isNullDimensionJsonBlob(blob))) {
+            return null;
+        }
+        String[] dimensionValues = new String[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensionValues[i] = blob.getAsJsonObject().get(dimensions[i]).getAsString();
+        }
+        return dimensionValues;
+    }
+
+    /**
+     * Method to generate the unique name of a timeseries based
+     * on values of groupby dimensions, which is its source.
+     *
+     * @param dimensionValues groupby dimension values in query order
+     * @return unique name of timeseires(ex. "dim = 'news_mobile'")
      */
-    private String getGroupByDimensionValues(JsonElement blob) {
-        return dimensions.stream().anyMatch(isNullDimensionJsonBlob(blob))
-                ? "null"
-                : dimensions.stream()
-                .map(value -> value + " = '" + blob.getAsJsonObject().get(value).getAsString() + "'")
-                .collect(Collectors.joining("\n"));
+    private String getGroupByDimensionLabel(String[] dimensionValues) {
+        StringBuilder label = new StringBuilder();
+        for (int i = 0; i < dimensions.length; i++) {
+            if (i > 0) {
+                label.append('\n');
+            }
+            label.append(dimensions[i]).append(" = '").append(dimensionValues[i]).append('\'');
+        }
+        return label.toString();
     }
 
     /**
@@ -222,29 +508,90 @@ public class JsonTimeSeries {
      * @param parsedTimeStamp parsed timestamp in seconds format
      * @param blob            Json containing datapoint info
      */
-    private void processJsonBlob(Long parsedTimeStamp, JsonElement blob) throws SherlockException {
-        // Get the groupby dimension values comma(,) separated
-        String dimensionValues = (dimensions.size() == 0) ? "" : getGroupByDimensionValues(blob);
+    private void processJsonBlob(long parsedTimeStamp, JsonElement blob) throws SherlockException {
+        mergeBlob(parsedTimeStamp, parseBlob(blob));
+    }
+
+    /**
+     * Method to read the groupby dimension values and metric values
+     * of a JSON datapoint, without modifying any timeseries.
+     *
+     * @param blob Json containing datapoint info
+     * @return the values of the datapoint
+     */
+    private ParsedBlob parseBlob(JsonElement blob) {
+        String[] dimensionValues = getGroupByDimensionValues(blob);
         // Check for 'null' as a dimesional value
-        if (!dimensionValues.contains("null")) {
-            for (String metricName : metrics) {
-                if (metricName == null) {
-                    continue;
-                }
-                String uniqueTimeSeriesName = metricName + "|" + dimensionValues;
-                UUID uuid = uniqueIDMap.containsKey(uniqueTimeSeriesName)
-                        ? uniqueIDMap.get(uniqueTimeSeriesName)
-                        : getNewUUID(uniqueTimeSeriesName);
-                TimeSeries timeSeries = uniqueTimeSeriesMap.containsKey(uuid)
-                        ? uniqueTimeSeriesMap.get(uuid)
-                        : getNewTimeSeries(uuid, metricName, dimensionValues);
-                try {
-                    timeSeries.append(parsedTimeStamp, blob.getAsJsonObject().get(metricName).getAsFloat());
-                } catch (Exception e) {
-                    log.error("Error while populating the time series!", e);
-                    throw new SherlockException(e.getMessage(), e);
-                }
+        if (dimensionValues == null) {
+            return new ParsedBlob(null, 0);
+        }
+        ParsedBlob parsed = new ParsedBlob(new SeriesKey(dimensionValues), metricNames.size());
+        try {
+            for (; parsed.count < metricNames.size(); parsed.count++) {
+                parsed.values[parsed.count] = blob.getAsJsonObject().get(metricNames.get(parsed.count)).getAsFloat();
+            }
+        } catch (Exception e) {
+            parsed.error = e;
+        }
+        return parsed;
+    }
+
+    /**
+     * Method to put the metric values of a parsed JSON
+     * datapoint in their timeseries.
+     *
+     * @param parsedTimeStamp parsed timestamp in seconds format
+     * @param parsed          values of the datapoint
+     * @throws SherlockException if a metric value is missing or not a number
+     */
+    private void mergeBlob(long parsedTimeStamp, ParsedBlob parsed) throws SherlockException {
+        if (parsed.key == null) {
+            return;
+        }
+        SeriesGroup group = getSeriesGroup(parsed.key);
+        if (group.ignored) {
+            return;
+        }
+        try {
+            for (int i = 0; i < parsed.count; i++) {
+                append(group, i, parsedTimeStamp, parsed.values[i]);
+            }
+            if (parsed.error != null) {
+                throw parsed.error;
             }
+        } catch (Exception e) {
+            log.error("Error while populating the time series!", e);
+            throw new SherlockException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to process a JSON array of datapoints in order. Arrays of at least
+     * {@link CLISettings#PARALLEL_PARSE_ROWS} datapoints are split in partitions
+     * which are read on the parse pool, and the partitions are then merged in
+     * order, so the timeseries are the same as when reading the array in one thread.
+     *
+     * @param parsedTimeStamp parsed timestamp in seconds format
+     * @param blobs           JSON array of datapoints
+     * @throws SherlockException if a datapoint cannot be processed
+     */
+    private void processJsonBlobs(long parsedTimeStamp, JsonArray blobs) throws SherlockException {
+        int partitions = getPartitions(blobs.size());
+        if (partitions < 2) {
+            for (JsonElement blob : blobs) {
+                processJsonBlob(parsedTimeStamp, blob);
+            }
+            return;
+        }
+        try {
+            for (ParsedBlob parsed : parseInPartitions(blobs.size(), partitions, i -> parseBlob(blobs.get(i)))) {
+                mergeBlob(parsedTimeStamp, parsed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SherlockException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            throw new SherlockException(e.getCause().getMessage(), e.getCause());
         }
     }
 
@@ -256,15 +603,13 @@ public class JsonTimeSeries {
      * @param jsonDataPoint   JSON datapoint containing timestamp and result
      * @throws SherlockException if an error occurs during parsing
      */
-    private void parseResult(Long parsedTimeStamp, JsonDataPoint jsonDataPoint) throws SherlockException {
+    private void parseResult(long parsedTimeStamp, JsonDataPoint jsonDataPoint) throws SherlockException {
         // Get the result field as a JSON element
         JsonElement result = jsonDataPoint.getResult();
         // If result is an array
         if (result != null && result.isJsonArray() && result.getAsJsonArray().size() > 0) {
-            try (Stream<JsonElement> eventStream = StreamSupport.stream(result.getAsJsonArray().spliterator(), true)) {
-                // For each JSON blob in the array call processJsonBlob method
-                eventStream.forEach(
-                    LambdaException.consumerExceptionHandler(blob -> processJsonBlob(parsedTimeStamp, blob)));
+            try {
+                processJsonBlobs(parsedTimeStamp, result.getAsJsonArray());
             } catch (Exception e) {
                 log.error("Exception caught while iterating though JSON blob array!", e);
                 throw new SherlockException(e.getMessage(), e);
@@ -285,7 +630,7 @@ public class JsonTimeSeries {
      * @param parsedTimeStamp parsed timestamp in seconds format
      * @param jsonDataPoint   JSON datapoint containing timestamp and event
      */
-    private void parseEvent(Long parsedTimeStamp, JsonDataPoint jsonDataPoint) throws SherlockException {
+    private void parseEvent(long parsedTimeStamp, JsonDataPoint jsonDataPoint) throws SherlockException {
         // Get the event field as a JSON element
         JsonElement event = jsonDataPoint.getEvent();
         // Check for JSON object
@@ -304,7 +649,7 @@ public class JsonTimeSeries {
      */
     public void processJsonDataPoint(JsonDataPoint jsonDataPoint) throws SherlockException {
         if (jsonDataPoint != null) {
-            Long parsedTimeStamp = parseTimeStamp(jsonDataPoint.getTimestamp());
+            long parsedTimeStamp = parseTimeStamp(jsonDataPoint.getTimestamp());
             if (jsonDataPoint.getResult() != null) {
                 parseResult(parsedTimeStamp, jsonDataPoint);
             } else {
@@ -314,4 +659,423 @@ public class JsonTimeSeries {
             throw new SherlockException("Null datapoint in Druid response");
         }
     }
+
+    /**
+     * Read a Druid response array token by token and append the metric values
+     * of each datapoint directly to the timeseries, without building a JSON tree
+     * of the response. Datapoints which cannot be processed are logged and skipped.
+     * The rows of large 'result' arrays are read in chunks of
+     * {@link CLISettings#PARALLEL_PARSE_ROWS}, whose metric values and groupby
+     * dimension values are converted in partitions on the parse pool and then
+     * appended in order, so the timeseries are the same as when reading in one thread.
+     *
+     * @param reader reader positioned at the start of the response array
+     * @throws IOException if the response is not a valid JSON array
+     */
+    public void readDataPoints(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readDataPoint(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read one datapoint object of a Druid response. Rows read
+     * before the timestamp are held until the timestamp is known.
+     *
+     * @param reader reader positioned at the datapoint object
+     * @throws IOException if the datapoint is not valid JSON
+     */
+    private void readDataPoint(JsonReader reader) throws IOException {
+        long parsedTimeStamp = NO_TIMESTAMP;
+        List<Row> pending = new ArrayList<>(0);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("timestamp".equals(name) && reader.peek() == JsonToken.STRING) {
+                try {
+                    parsedTimeStamp = parseTimeStamp(reader.nextString());
+                } catch (SherlockException e) {
+                    log.error("Error while processing data point!", e);
+                    pending = null;
+                }
+            } else if (("result".equals(name) || "event".equals(name)) && reader.peek() != JsonToken.NULL) {
+                int rows = readRows(reader, parsedTimeStamp, pending);
+                if (rows == 0) {
+                    log.error("Error in parsing, {} is empty!", name);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (parsedTimeStamp != NO_TIMESTAMP && pending != null) {
+            appendRows(parsedTimeStamp, pending);
+        }
+    }
+
+    /**
+     * Read the 'result' or 'event' value of a datapoint, which is
+     * a JSON object or an array of JSON objects.
+     *
+     * @param reader          reader positioned at the value
+     * @param parsedTimeStamp parsed timestamp in seconds, or {@code NO_TIMESTAMP} if not read yet
+     * @param pending         rows waiting for the timestamp, or null to drop rows
+     * @return the number of rows read
+     * @throws IOException if the value is not valid JSON
+     */
+    private int readRows(JsonReader reader, long parsedTimeStamp, List<Row> pending) throws IOException {
+        int rows = 0;
+        // rows of a known timestamp are appended in chunks, rows of an unknown one wait in pending
+        List<Row> chunk = parsedTimeStamp == NO_TIMESTAMP ? pending : new ArrayList<>();
+        int chunkSize = getPartitions(CLISettings.PARALLEL_PARSE_ROWS) < 2 ? 1 : CLISettings.PARALLEL_PARSE_ROWS;
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    Row row = readRow(reader);
+                    rows += row.isEmpty() ? 0 : 1;
+                    if (!row.isEmpty() && chunk != null) {
+                        chunk.add(row);
+                    }
+                    if (chunk != pending && chunk.size() >= chunkSize) {
+                        appendRows(parsedTimeStamp, chunk);
+                        chunk.clear();
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            Row row = readRow(reader);
+            rows += row.isEmpty() ? 0 : 1;
+            if (!row.isEmpty() && chunk != null) {
+                chunk.add(row);
+            }
+        } else {
+            reader.skipValue();
+        }
+        if (chunk != pending) {
+            appendRows(parsedTimeStamp, chunk);
+        }
+        return rows;
+    }
+
+    /**
+     * Convert the values of rows, in partitions on the parse pool if there are
+     * at least {@link CLISettings#PARALLEL_PARSE_ROWS} of them, and append
+     * them to their timeseries in order.
+     *
+     * @param parsedTimeStamp parsed timestamp in seconds
+     * @param rows            the rows
+     * @throws IOException if interrupted or a partition fails
+     */
+    private void appendRows(long parsedTimeStamp, List<Row> rows) throws IOException {
+        int partitions = getPartitions(rows.size());
+        if (partitions < 2) {
+            for (Row row : rows) {
+                appendRow(parsedTimeStamp, row.convert());
+            }
+            return;
+        }
+        try {
+            for (Row row : parseInPartitions(rows.size(), partitions, i -> rows.get(i).convert())) {
+                appendRow(parsedTimeStamp, row);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Read one JSON object of groupby dimension values and metric values.
+     *
+     * @param reader reader positioned at the object
+     * @return the row
+     * @throws IOException if the object is not valid JSON
+     */
+    private Row readRow(JsonReader reader) throws IOException {
+        Row row = new Row(dimensions.length, metricNames.size());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            row.fields++;
+            Integer metric = metricIndex.get(name);
+            Integer dimension = dimensionIndex.get(name);
+            if (metric == null && dimension == null) {
+                reader.skipValue();
+                continue;
+            }
+            String value = readScalar(reader);
+            if (dimension != null) {
+                row.dimensionValues[dimension] = value;
+            }
+            if (metric != null) {
+                row.rawValues[metric] = value;
+            }
+        }
+        reader.endObject();
+        return row;
+    }
+
+    /**
+     * Read a JSON primitive as a string.
+     *
+     * @param reader reader positioned at the value
+     * @return the value as a string, or null if it is null or not a primitive
+     * @throws IOException if the value is not valid JSON
+     */
+    private static String readScalar(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * Append the metric values of a converted row to their timeseries. Rows
+     * with a 'null' groupby dimension value are ignored, as in
+     * {@link #processJsonDataPoint(JsonDataPoint)}.
+     *
+     * @param parsedTimeStamp parsed timestamp in seconds
+     * @param row             the converted row
+     */
+    private void appendRow(long parsedTimeStamp, Row row) {
+        if (row.key == null) {
+            return;
+        }
+        SeriesGroup group = getSeriesGroup(row.key);
+        if (group.ignored) {
+            return;
+        }
+        for (int i = 0; i < metricNames.size(); i++) {
+            if (!row.present[i]) {
+                log.error("Error while populating the time series! Missing metric {}", metricNames.get(i));
+                return;
+            }
+        }
+        try {
+            for (int i = 0; i < metricNames.size(); i++) {
+                append(group, i, parsedTimeStamp, row.values[i]);
+            }
+        } catch (Exception e) {
+            log.error("Error while populating the time series!", e);
+        }
+    }
+
+    /**
+     * Groupby dimension values and metric values read from one JSON object.
+     */
+    private static class Row {
+
+        /**
+         * Groupby dimension values by dimension index.
+         */
+        private final String[] dimensionValues;
+        /**
+         * Metric values as read by metric index.
+         */
+        private final String[] rawValues;
+        /**
+         * Groupby dimension values as a series key, set when
+         * converted if no dimension value is 'null'.
+         */
+        private SeriesKey key = null;
+        /**
+         * Metric values by metric index, set when converted.
+         */
+        private final float[] values;
+        /**
+         * Whether each metric value was present.
+         */
+        private final boolean[] present;
+        /**
+         * Number of fields in the object.
+         */
+        private int fields = 0;
+
+        /**
+         * @param dimensionCount number of groupby dimensions
+         * @param metricCount    number of metrics
+         */
+        Row(int dimensionCount, int metricCount) {
+            this.dimensionValues = new String[dimensionCount];
+            this.rawValues = new String[metricCount];
+            this.values = new float[metricCount];
+            this.present = new boolean[metricCount];
+        }
+
+        /**
+         * @return true if the object had no fields
+         */
+        boolean isEmpty() {
+            return fields == 0;
+        }
+
+        /**
+         * Convert the metric values to numbers and the groupby dimension
+         * values to a series key. This does not modify any timeseries.
+         *
+         * @return this row
+         */
+        Row convert() {
+            for (String value : dimensionValues) {
+                if (value == null) {
+                    return this;
+                }
+            }
+            key = new SeriesKey(dimensionValues);
+            for (int i = 0; i < rawValues.length; i++) {
+                if (rawValues[i] != null) {
+                    try {
+                        values[i] = Float.parseFloat(rawValues[i]);
+                        present[i] = true;
+                    } catch (NumberFormatException e) {
+                        log.error("Error while populating the time series!", e);
+                    }
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Groupby dimension values and metric values read from
+     * a JSON datapoint, before they are put in the timeseries.
+     */
+    private static class ParsedBlob {
+
+        /**
+         * Tuple of groupby dimension values, or null if a value is null.
+         */
+        private final SeriesKey key;
+        /**
+         * Metric values by metric index.
+         */
+        private final float[] values;
+        /**
+         * Number of metric values read before an error.
+         */
+        private int count = 0;
+        /**
+         * Error reading the next metric value, if any.
+         */
+        private Exception error = null;
+
+        /**
+         * @param key         tuple of groupby dimension values
+         * @param metricCount number of metrics
+         */
+        ParsedBlob(SeriesKey key, int metricCount) {
+            this.key = key;
+            this.values = new float[metricCount];
+        }
+    }
+
+    /**
+     * Tuple of groupby dimension values in query order, with its hash
+     * computed once so that a row finds its series in one lookup.
+     */
+    private static final class SeriesKey {
+
+        /**
+         * Groupby dimension values in query order.
+         */
+        private final String[] values;
+        /**
+         * Hash of the values.
+         */
+        private final int hash;
+
+        /**
+         * @param values groupby dimension values in query order
+         */
+        SeriesKey(String[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SeriesKey && hash == ((SeriesKey) o).hash && Arrays.equals(values, ((SeriesKey) o).values);
+        }
+    }
+
+    /**
+     * Timeseries of each metric for one tuple of groupby dimension values.
+     */
+    private static final class SeriesGroup {
+
+        /**
+         * Source of the timeseries, built from the groupby dimension values.
+         */
+        private final String source;
+        /**
+         * Whether rows of the group are ignored because a dimension value is 'null'.
+         */
+        private final boolean ignored;
+        /**
+         * Timeseries by metric index, created when their first data point is appended.
+         */
+        private final TimeSeries[] series;
+        /**
+         * Data points of the timeseries being parsed by metric index.
+         */
+        private final SeriesBuffer[] buffers;
+
+        /**
+         * @param source      source of the timeseries
+         * @param metricCount number of metrics
+         */
+        SeriesGroup(String source, int metricCount) {
+            this.source = source;
+            this.ignored = source.contains("null");
+            this.series = new TimeSeries[metricCount];
+            this.buffers = new SeriesBuffer[metricCount];
+        }
+    }
+
+    /**
+     * A Druid timestamp and its value in seconds.
+     */
+    private static class ParsedTimeStamp {
+
+        /**
+         * The timestamp as read from the response.
+         */
+        private final String timestamp;
+        /**
+         * The timestamp in seconds.
+         */
+        private final long seconds;
+
+        /**
+         * @param timestamp the timestamp as read from the response
+         * @param seconds   the timestamp in seconds
+         */
+        ParsedTimeStamp(String timestamp, long seconds) {
+            this.timestamp = timestamp;
+            this.seconds = seconds;
+        }
+    }
 }
@@ -100,6 +100,8 @@ public class EgadsTask implements Runnable {
         if (reports.isEmpty()) {
             reports.add(executionService.getSingletonReport(proxyJob));
         }
+        // Release the data while the reports wait to be collected
+        this.timeSeriesList = null;
         this.reports = reports;
     }
 
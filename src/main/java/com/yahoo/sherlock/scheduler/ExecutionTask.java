@@ -10,7 +10,9 @@ import com.yahoo.sherlock.enums.JobStatus;
 import com.yahoo.sherlock.exception.SchedulerException;
 import com.yahoo.sherlock.model.JobMetadata;
 import com.yahoo.sherlock.service.JobExecutionService;
+import com.yahoo.sherlock.service.QueryCoalescer;
 import com.yahoo.sherlock.service.SchedulerService;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.settings.Constants;
 import com.yahoo.sherlock.store.JobMetadataAccessor;
 import com.yahoo.sherlock.store.JobScheduler;
@@ -19,11 +21,29 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ScheduledExecutorService which polls the backend task queue for
  * any pending tasks that need to be ran and then
- * forwards them to the job execution service.
+ * forwards them to the job execution service. Jobs are
+ * executed concurrently on a bounded pool of workers, and
+ * claiming further jobs from the queue waits for a free
+ * worker. Jobs waiting for a slot on their Druid cluster
+ * do not hold a worker, and at most one batch of claimed
+ * jobs waits for a slot, so the other due jobs stay on the
+ * queue instead of outliving the pending timeout.
  */
 @Slf4j
 public class ExecutionTask implements Runnable {
@@ -31,6 +51,9 @@ public class ExecutionTask implements Runnable {
     /** Thread name prefix. */
     private static final String THREAD_NAME_PREFIX = "ExecutionTask-";
 
+    /** Worker thread name prefix. */
+    private static final String WORKER_NAME_PREFIX = "ExecutionWorker-";
+
     /**
      * Job execution service instance, which
      * executes jobs retrieved from the scheduler.
@@ -51,9 +74,53 @@ public class ExecutionTask implements Runnable {
      * that have been ran.
      */
     private final JobMetadataAccessor jobMetadataAccessor;
+    /**
+     * Number of jobs which may be claimed and
+     * executing at the same time.
+     */
+    private final int parallelism;
+    /**
+     * Maximum number of jobs executing at the same
+     * time against one Druid cluster, or 0 for no limit.
+     */
+    private final int maxJobsPerCluster;
+    /**
+     * Maximum number of jobs claimed from
+     * the queue in a single call.
+     */
+    private final int batchSize;
+    /**
+     * Pool of workers on which claimed jobs are executed.
+     */
+    private final ThreadPoolExecutor workers;
+    /**
+     * One permit per worker. A permit is held from the moment a job
+     * is admitted by its cluster lane until the job is finished, and
+     * is then handed over to the next job waiting on that lane.
+     */
+    private final Semaphore workerPermits;
+    /**
+     * One permit per job of a batch. A permit is held from the moment
+     * a job is popped from the queue until the job is admitted by its
+     * cluster lane, so it bounds the claimed jobs waiting for a slot.
+     */
+    private final Semaphore claimPermits;
+    /**
+     * IDs of the jobs that have been claimed and are not finished.
+     */
+    private final Set<String> inFlightJobs = ConcurrentHashMap.newKeySet();
+    /**
+     * Admission lanes for each Druid cluster.
+     */
+    private final Map<String, ClusterLane> clusterLanes = new ConcurrentHashMap<>();
+    /**
+     * Groups the due jobs of a batch which can share a Druid query.
+     */
+    private final QueryCoalescer queryCoalescer = QueryCoalescer.instance();
 
     /**
-     * Create a new execution task.
+     * Create a new execution task with the parallelism
+     * specified in the {@code CLISettings}.
      *
      * @param jobExecutionService job execution service instance to use
      * @param schedulerService    scheduler service to use
@@ -65,11 +132,97 @@ public class ExecutionTask implements Runnable {
             SchedulerService schedulerService,
             JobScheduler jobScheduler,
             JobMetadataAccessor jobMetadataAccessor
+    ) {
+        this(jobExecutionService, schedulerService, jobScheduler, jobMetadataAccessor,
+             CLISettings.EXECUTION_PARALLELISM, CLISettings.MAX_JOBS_PER_CLUSTER);
+    }
+
+    /**
+     * Create a new execution task.
+     *
+     * @param jobExecutionService job execution service instance to use
+     * @param schedulerService    scheduler service to use
+     * @param jobScheduler        job scheduler to use
+     * @param jobMetadataAccessor job accessor instance to use
+     * @param parallelism         number of jobs to execute concurrently
+     * @param maxJobsPerCluster   maximum concurrent jobs per Druid cluster, 0 for no limit
+     */
+    public ExecutionTask(
+            JobExecutionService jobExecutionService,
+            SchedulerService schedulerService,
+            JobScheduler jobScheduler,
+            JobMetadataAccessor jobMetadataAccessor,
+            int parallelism,
+            int maxJobsPerCluster
     ) {
         this.jobExecutionService = jobExecutionService;
         this.schedulerService = schedulerService;
         this.jobScheduler = jobScheduler;
         this.jobMetadataAccessor = jobMetadataAccessor;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxJobsPerCluster = Math.max(0, maxJobsPerCluster);
+        this.batchSize = Math.max(1, CLISettings.QUEUE_BATCH_SIZE);
+        this.workerPermits = new Semaphore(this.parallelism);
+        this.claimPermits = new Semaphore(this.batchSize);
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(
+                this.parallelism, this.parallelism,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, WORKER_NAME_PREFIX + workerCount.incrementAndGet())
+        );
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Tracks the number of executing jobs for a single
+     * Druid cluster and holds the claimed jobs which are
+     * waiting for a free slot on that cluster.
+     */
+    private static class ClusterLane {
+        /** Maximum running jobs, 0 for no limit. */
+        private final int limit;
+        /** Number of running jobs. */
+        private int running = 0;
+        /** Claimed jobs waiting for a slot. */
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+
+        /**
+         * @param limit maximum running jobs, 0 for no limit
+         */
+        ClusterLane(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Take a slot for the job if one is free,
+         * otherwise hold the job until a slot is released.
+         *
+         * @param job the job runnable
+         * @return true if the job may run immediately
+         */
+        synchronized boolean admit(Runnable job) {
+            if (limit > 0 && running >= limit) {
+                waiting.addLast(job);
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        /**
+         * Release the slot of a finished job. If a job is
+         * waiting, the slot is handed over to it.
+         *
+         * @return the next job to run on the slot or null
+         */
+        synchronized Runnable release() {
+            Runnable next = waiting.pollFirst();
+            if (next == null) {
+                running--;
+            }
+            return next;
+        }
     }
 
     /**
@@ -108,46 +261,214 @@ public class ExecutionTask implements Runnable {
     }
 
     /**
-     * Given the current time in minutes, pop tasks from the
-     * queue and execute them, then reschedule them.
+     * Given the current time in minutes, pop batches of tasks
+     * from the queue and hand them to the workers, which execute
+     * them and then reschedule them. Each claimed job waits for
+     * a free worker, and this method returns once all claimed
+     * jobs have finished.
      *
      * @param timestampMinutes the current time in minutes
-     * @throws IOException        if an error retrieving the job occurs
-     * @throws SchedulerException if an error rescheduling the job occurs
+     * @throws IOException if an error retrieving the jobs occurs
      */
-    private void consumeAndExecuteTasks(long timestampMinutes) throws IOException, SchedulerException {
-        JobMetadata jobMetadata;
+    private void consumeAndExecuteTasks(long timestampMinutes) throws IOException {
+        List<JobMetadata> batch;
+        List<JobMetadata> coalesced = new ArrayList<>();
         // CRITICAL REGION: please verify very carefully if you make change to this part
         log.info("Execution task ping for time " + TimeUtils.getTimeFromSeconds(timestampMinutes * 60L, Constants.TIMESTAMP_FORMAT_NO_SECONDS));
-        while ((jobMetadata = jobScheduler.popQueue(timestampMinutes)) != null) {
-            if (isLaggingJob(jobMetadata, timestampMinutes)) {
-                // Perform a backfill instead and schedule for next start time
-                jobExecutionService.backfillJobFromIntervalEnd(jobMetadata);
-                // The run time that the job would have had if it was executed normally
-                Pair<Integer, Integer> nextTimes = schedulerService.jobScheduleTime(jobMetadata);
-                Integer nextQueryTime = nextTimes.getLeft();
-                Integer nextRunTime = nextTimes.getRight();
-                if (nextRunTime <= timestampMinutes) {
-                    int offset = Granularity.getValue(jobMetadata.getFrequency()).getMinutes();
-                    nextQueryTime += offset;
-                    nextRunTime += offset;
+        try {
+            int claims;
+            while ((claims = acquireClaims()) > 0) {
+                batch = jobScheduler.popQueue(timestampMinutes, claims);
+                claimPermits.release(claims - batch.size());
+                if (batch.isEmpty()) {
+                    break;
+                }
+                coalesced.addAll(coalesce(batch));
+                for (int i = 0; i < batch.size(); i++) {
+                    JobMetadata jobMetadata = batch.get(i);
+                    String jobId = jobMetadata.getJobId().toString();
+                    // A job which runs longer than the pending timeout is moved back
+                    // to the queue by the pop script, it must not be executed twice
+                    if (!inFlightJobs.add(jobId)) {
+                        log.info("Job [{}] is already executing, skipping", jobId);
+                        claimPermits.release();
+                        continue;
+                    }
+                    // Jobs left undispatched remain on the pending
+                    // queue and are moved back after the pending timeout
+                    if (!dispatch(jobId, jobMetadata, timestampMinutes)) {
+                        claimPermits.release(batch.size() - i - 1);
+                        return;
+                    }
                 }
-                // If the next runtime still less than current time
-                // Terminate the job as "ZOMBIE" job
-                if (nextRunTime <= timestampMinutes) {
-                    jobMetadata.setJobStatus(JobStatus.ZOMBIE.getValue());
+            }
+        } finally {
+            awaitWorkers();
+            queryCoalescer.release(coalesced);
+        }
+    }
+
+    /**
+     * Register the jobs of a batch which are not already
+     * executing with the query coalescer.
+     *
+     * @param batch the claimed jobs
+     * @return the registered jobs
+     */
+    private List<JobMetadata> coalesce(List<JobMetadata> batch) {
+        if (!QueryCoalescer.isEnabled()) {
+            return new ArrayList<>();
+        }
+        List<JobMetadata> jobs = new ArrayList<>(batch.size());
+        for (JobMetadata jobMetadata : batch) {
+            if (!inFlightJobs.contains(String.valueOf(jobMetadata.getJobId()))) {
+                jobs.add(jobMetadata);
+            }
+        }
+        queryCoalescer.register(jobs);
+        return jobs;
+    }
+
+    /**
+     * Block until a worker is free.
+     *
+     * @return false if interrupted while waiting
+     */
+    private boolean acquireWorker() {
+        try {
+            workerPermits.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for a free worker!");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Block until at least one job may be claimed, and take
+     * the permits of as many jobs as a batch may claim.
+     *
+     * @return the number of jobs which may be claimed, or 0 if interrupted while waiting
+     */
+    private int acquireClaims() {
+        try {
+            claimPermits.acquire();
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the held jobs to start!");
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        return 1 + claimPermits.drainPermits();
+    }
+
+    /**
+     * Block until every claimed job has finished.
+     */
+    private void awaitWorkers() {
+        workerPermits.acquireUninterruptibly(parallelism);
+        workerPermits.release(parallelism);
+    }
+
+    /**
+     * Submit a claimed job to the workers once a worker is free, or hold
+     * it without a worker if its Druid cluster has reached the maximum
+     * number of running jobs. A held job takes over the worker of the
+     * job of its cluster which finishes first. The claim permit
+     * of the job is released once the job is admitted.
+     *
+     * @param jobId            ID of the claimed job
+     * @param jobMetadata      the claimed job
+     * @param timestampMinutes the current time in minutes
+     * @return false if interrupted while waiting for a free worker
+     */
+    private boolean dispatch(String jobId, JobMetadata jobMetadata, long timestampMinutes) {
+        ClusterLane lane = clusterLanes.computeIfAbsent(
+                String.valueOf(jobMetadata.getClusterId()),
+                clusterId -> new ClusterLane(maxJobsPerCluster)
+        );
+        Runnable job = () -> {
+            try {
+                executeAndReschedule(jobMetadata, timestampMinutes);
+            } catch (Exception e) {
+                log.error("Error while executing job [{}]!", jobId, e);
+            } finally {
+                inFlightJobs.remove(jobId);
+                Runnable next = lane.release();
+                if (next != null) {
+                    claimPermits.release();
+                    workers.execute(next);
                 } else {
-                    jobMetadata.setEffectiveQueryTime(nextQueryTime);
-                    jobMetadata.setEffectiveRunTime(nextRunTime);
-                    jobScheduler.pushQueue(nextRunTime, jobMetadata.getJobId().toString());
+                    workerPermits.release();
                 }
+            }
+        };
+        if (!lane.admit(job)) {
+            log.info("Cluster [{}] is at its job limit, job [{}] will wait", jobMetadata.getClusterId(), jobId);
+            return true;
+        }
+        claimPermits.release();
+        if (acquireWorker()) {
+            workers.execute(job);
+            return true;
+        }
+        inFlightJobs.remove(jobId);
+        Runnable next = lane.release();
+        if (next != null) {
+            // a job which was already held must still run
+            claimPermits.release();
+            workerPermits.acquireUninterruptibly();
+            workers.execute(next);
+        }
+        return false;
+    }
+
+    /**
+     * Execute a claimed job, or backfill it if it is lagging,
+     * and then reschedule it. The job is removed from the pending
+     * queue only if this completes without error.
+     *
+     * @param jobMetadata      the job to execute
+     * @param timestampMinutes the current time in minutes
+     * @throws IOException        if an error updating the job occurs
+     * @throws SchedulerException if an error rescheduling the job occurs
+     */
+    private void executeAndReschedule(JobMetadata jobMetadata, long timestampMinutes) throws IOException, SchedulerException {
+        if (isLaggingJob(jobMetadata, timestampMinutes)) {
+            // Perform a backfill instead and schedule for next start time
+            jobExecutionService.backfillJobFromIntervalEnd(jobMetadata);
+            // The run time that the job would have had if it was executed normally
+            Pair<Integer, Integer> nextTimes = schedulerService.jobScheduleTime(jobMetadata);
+            Integer nextQueryTime = nextTimes.getLeft();
+            Integer nextRunTime = nextTimes.getRight();
+            if (nextRunTime <= timestampMinutes) {
+                int offset = Granularity.getValue(jobMetadata.getFrequency()).getMinutes();
+                nextQueryTime += offset;
+                nextRunTime += offset;
+            }
+            // If the next runtime still less than current time
+            // Terminate the job as "ZOMBIE" job
+            if (nextRunTime <= timestampMinutes) {
+                jobMetadata.setJobStatus(JobStatus.ZOMBIE.getValue());
             } else {
-                // Perform regular job execution and schedule for next time
-                jobExecutionService.execute(jobMetadata);
-                schedulerService.rescheduleJob(jobMetadata);
+                jobMetadata.setEffectiveQueryTime(nextQueryTime);
+                jobMetadata.setEffectiveRunTime(nextRunTime);
+                jobScheduler.pushQueue(nextRunTime, jobMetadata.getJobId().toString());
             }
-            jobMetadataAccessor.putJobMetadata(jobMetadata);
-            jobScheduler.removePending(jobMetadata.getJobId());
+        } else {
+            // Perform regular job execution and schedule for next time
+            jobExecutionService.execute(jobMetadata);
+            schedulerService.rescheduleJob(jobMetadata);
         }
+        jobMetadataAccessor.putJobMetadata(jobMetadata);
+        jobScheduler.removePending(jobMetadata.getJobId());
+    }
+
+    /**
+     * Stop the workers. Jobs that are already
+     * submitted are allowed to finish.
+     */
+    public void shutdown() {
+        workers.shutdown();
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.JsonArray;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.settings.CLISettings;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of the datasource list of each Druid cluster, keyed on the cluster ID.
+ * Lists are kept for {@link CLISettings#DATASOURCE_CACHE_TTL} seconds and are
+ * refreshed in the background once half of that has passed, so scheduled jobs
+ * rarely wait on the broker. Failed lookups are cached for
+ * {@link CLISettings#DATASOURCE_NEGATIVE_TTL} seconds. Concurrent lookups of a
+ * cluster which is not cached share a single broker request.
+ */
+@Slf4j
+public class DatasourceCache {
+
+    private static DatasourceCache instance = null;
+
+    /**
+     * @return the process-wide datasource cache
+     */
+    public static synchronized DatasourceCache instance() {
+        if (instance == null) {
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "datasource-refresh");
+                thread.setDaemon(true);
+                return thread;
+            };
+            instance = new DatasourceCache(Executors.newSingleThreadExecutor(threadFactory), System::currentTimeMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the datasource list of a cluster from its broker.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * @param cluster the Druid cluster
+         * @return the datasources of the cluster
+         * @throws DruidException if the broker request fails
+         */
+        JsonArray load(DruidCluster cluster) throws DruidException;
+    }
+
+    /**
+     * Cached lookup of a cluster.
+     */
+    private static class Entry {
+
+        /**
+         * Broker URL of the cluster when it was loaded, which
+         * detects clusters that were edited since.
+         */
+        private final String brokerUrl;
+        /**
+         * Completes with the datasource list or the failure.
+         */
+        private final CompletableFuture<JsonArray> result = new CompletableFuture<>();
+        /**
+         * Time the lookup completed, in milliseconds.
+         */
+        private volatile long loadedAt = Long.MAX_VALUE;
+        /**
+         * Whether a background refresh has been started.
+         */
+        private volatile boolean refreshing = false;
+
+        /**
+         * @param brokerUrl broker URL of the cluster
+         */
+        Entry(String brokerUrl) {
+            this.brokerUrl = brokerUrl;
+        }
+
+        /**
+         * @return true if the lookup completed with a failure
+         */
+        boolean failed() {
+            return result.isCompletedExceptionally();
+        }
+
+        /**
+         * @param now current time in milliseconds
+         * @return age of the completed lookup in milliseconds, 0 while loading
+         */
+        long age(long now) {
+            return Math.max(0L, now - loadedAt);
+        }
+    }
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Executor refreshExecutor;
+    private final LongSupplier clock;
+
+    /**
+     * @param refreshExecutor executor which runs background refreshes
+     * @param clock           current time in milliseconds
+     */
+    protected DatasourceCache(Executor refreshExecutor, LongSupplier clock) {
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the datasources of a cluster from the cache, loading them if they are
+     * missing or expired. A background refresh is started once the cached list
+     * is older than half of the TTL.
+     *
+     * @param cluster the Druid cluster
+     * @param loader  loads the datasources from the broker
+     * @return the datasources of the cluster
+     * @throws DruidException if the lookup failed, including a cached failure
+     */
+    public JsonArray getDatasources(DruidCluster cluster, Loader loader) throws DruidException {
+        long ttl = TimeUnit.SECONDS.toMillis(CLISettings.DATASOURCE_CACHE_TTL);
+        JsonArray datasources = getDatasources(cluster, loader, ttl);
+        Entry entry = cluster.getClusterId() == null ? null : entries.get(cluster.getClusterId());
+        if (entry != null && !entry.failed() && !entry.refreshing && entry.age(clock.getAsLong()) > ttl / 2) {
+            entry.refreshing = true;
+            refreshExecutor.execute(() -> refresh(cluster, loader, entry));
+        }
+        return datasources;
+    }
+
+    /**
+     * Get the datasources of a cluster from the cache only if the
+     * cached lookup is at most {@code maxAgeMillis} old, otherwise
+     * load them from the broker.
+     *
+     * @param cluster      the Druid cluster
+     * @param loader       loads the datasources from the broker
+     * @param maxAgeMillis maximum age of a cached list in milliseconds
+     * @return the datasources of the cluster
+     * @throws DruidException if the lookup failed, including a cached failure
+     */
+    public JsonArray getDatasources(DruidCluster cluster, Loader loader, long maxAgeMillis) throws DruidException {
+        Integer clusterId = cluster.getClusterId();
+        if (clusterId == null || CLISettings.DATASOURCE_CACHE_TTL <= 0) {
+            return loader.load(cluster);
+        }
+        long negativeTtl = TimeUnit.SECONDS.toMillis(CLISettings.DATASOURCE_NEGATIVE_TTL);
+        String brokerUrl = cluster.getBrokerUrl();
+        Entry created = new Entry(brokerUrl);
+        BiFunction<Integer, Entry, Entry> reuse = (id, old) -> {
+            if (old == null || !old.brokerUrl.equals(brokerUrl)) {
+                return created;
+            }
+            long age = old.age(clock.getAsLong());
+            return age > (old.failed() ? Math.min(negativeTtl, maxAgeMillis) : maxAgeMillis) ? created : old;
+        };
+        Entry entry = entries.compute(clusterId, reuse);
+        if (entry == created) {
+            load(cluster, loader, entry);
+        }
+        try {
+            return entry.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DruidException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DruidException) {
+                throw (DruidException) e.getCause();
+            }
+            throw new DruidException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Remove the cached datasources of a cluster.
+     *
+     * @param clusterId the cluster ID
+     */
+    public void invalidate(Integer clusterId) {
+        if (clusterId != null) {
+            entries.remove(clusterId);
+        }
+    }
+
+    /**
+     * Load the datasources of a cluster into an entry.
+     *
+     * @param cluster the Druid cluster
+     * @param loader  loads the datasources from the broker
+     * @param entry   the entry to complete
+     */
+    private void load(DruidCluster cluster, Loader loader, Entry entry) {
+        try {
+            JsonArray datasources = loader.load(cluster);
+            entry.loadedAt = clock.getAsLong();
+            entry.result.complete(datasources);
+        } catch (Exception e) {
+            log.error("Caching failed datasource lookup for cluster [{}]", cluster.getClusterId());
+            entry.loadedAt = clock.getAsLong();
+            entry.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Reload the datasources of a cluster in the background and replace the
+     * entry if it is still cached. Failed refreshes keep the previous list.
+     *
+     * @param cluster the Druid cluster
+     * @param loader  loads the datasources from the broker
+     * @param entry   the entry being refreshed
+     */
+    private void refresh(DruidCluster cluster, Loader loader, Entry entry) {
+        log.info("Refreshing datasources of cluster [{}]", cluster.getClusterId());
+        Entry refreshed = new Entry(entry.brokerUrl);
+        load(cluster, loader, refreshed);
+        if (refreshed.failed()) {
+            log.error("Background datasource refresh failed for cluster [{}]", cluster.getClusterId());
+            entry.refreshing = false;
+            return;
+        }
+        entries.replace(cluster.getClusterId(), entry, refreshed);
+    }
+}
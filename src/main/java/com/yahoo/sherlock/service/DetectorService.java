@@ -15,8 +15,10 @@ import com.yahoo.sherlock.model.EgadsResult;
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.model.DruidCluster;
 import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.query.DetectionConfig;
 import com.yahoo.sherlock.query.EgadsConfig;
 import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.egads.data.Anomaly;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.utils.TimeUtils;
@@ -24,8 +26,18 @@ import com.yahoo.sherlock.utils.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Service class for anomaly detection.
@@ -43,6 +55,26 @@ public class DetectorService {
      */
     private HttpService httpService = new HttpService();
 
+    /**
+     * Cache of the datasources of each Druid cluster.
+     */
+    private DatasourceCache datasourceCache = DatasourceCache.instance();
+
+    /**
+     * Cache of the time series returned by Druid queries.
+     */
+    private DruidResultCache druidResultCache = DruidResultCache.instance();
+
+    /**
+     * History of the time series of each job for incremental detection.
+     */
+    private SeriesHistory seriesHistory = SeriesHistory.instance();
+
+    /**
+     * Coalesces the queries of due jobs which share a query.
+     */
+    private QueryCoalescer queryCoalescer = QueryCoalescer.instance();
+
     /**
      * Class time series parser service instance.
      */
@@ -58,6 +90,30 @@ public class DetectorService {
      */
     private static final String AD_MODEL = "AD_MODEL";
 
+    /**
+     * Pool on which the time series of all jobs are scored.
+     */
+    private static ForkJoinPool scoringPool = null;
+
+    /**
+     * @return the shared pool which scores time series
+     */
+    protected static synchronized ForkJoinPool getScoringPool() {
+        if (scoringPool == null) {
+            scoringPool = new ForkJoinPool(getScoringParallelism());
+        }
+        return scoringPool;
+    }
+
+    /**
+     * @return the maximum number of time series scored in parallel
+     */
+    protected static int getScoringParallelism() {
+        return CLISettings.DETECTION_PARALLELISM > 0
+                ? CLISettings.DETECTION_PARALLELISM
+                : Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * Empty constructor.
      */
@@ -81,12 +137,98 @@ public class DetectorService {
         Granularity granularity = Granularity.getValue(jobMetadata.getGranularity());
         Query query = queryService.build(jobMetadata.getQuery(), granularity, jobMetadata.getGranularityRange(), jobMetadata.getEffectiveQueryTime(), jobMetadata.getTimeseriesRange());
         log.info("Query generation successful.");
-        return detect(query, jobMetadata.getSigmaThreshold(), cluster, jobMetadata.getFrequency(), jobMetadata.getGranularityRange());
+        checkDatasource(query, cluster);
+        List<TimeSeries> timeSeriesList;
+        if (!CLISettings.INCREMENTAL_DETECTION || jobMetadata.getJobId() == null) {
+            timeSeriesList = queryCoalescer.getTimeSeries(
+                    jobMetadata,
+                    query,
+                    cluster,
+                    this::queryTimeSeries,
+                    httpService::queryDruid,
+                    parserService::parseTimeSeries
+            );
+        } else {
+            timeSeriesList = queryIncremental(query, cluster, jobMetadata);
+        }
+        return runDetection(timeSeriesList, query, jobMetadata.getSigmaThreshold(), null, jobMetadata.getFrequency(), jobMetadata.getGranularityRange());
+    }
+
+    /**
+     * Get the time series of a job by querying Druid only for the intervals
+     * since the last interval returned to the previous run of the job, and
+     * replacing those intervals in the history of the job. The full query is
+     * sent when the history is missing, was built with other job settings,
+     * does not end on an interval of the query, does not have a series
+     * of the new intervals or a new data point is out of order.
+     *
+     * @param query       the full query of the job
+     * @param cluster     the cluster to query
+     * @param jobMetadata job metadata
+     * @return the valid time series of the full query
+     * @throws SherlockException if an error occurs while building the query
+     * @throws DruidException    if an error occurs while calling druid
+     */
+    protected List<TimeSeries> queryIncremental(
+            Query query,
+            DruidCluster cluster,
+            JobMetadata jobMetadata
+    ) throws SherlockException, DruidException {
+        Integer jobId = jobMetadata.getJobId();
+        String signature = SeriesHistory.getSignature(jobMetadata);
+        Integer since = seriesHistory.getNextStart(jobId, signature);
+        List<TimeSeries> timeSeriesList = null;
+        if (since != null && isIntervalStart(query, since)) {
+            Query increment = queryService.buildSince(
+                    jobMetadata.getQuery(),
+                    query.getGranularity(),
+                    query.getGranularityRange(),
+                    since / 60,
+                    jobMetadata.getEffectiveQueryTime()
+            );
+            log.info("Querying the intervals of job [{}] since {}", jobId, TimeUtils.getFormattedTimeMinutes(since / 60));
+            List<TimeSeries> incrementList = readAllTimeSeries(increment, cluster);
+            timeSeriesList = seriesHistory.update(jobId, signature, incrementList, query.getStartTime());
+        }
+        if (timeSeriesList == null) {
+            log.info("Querying the full history of job [{}]", jobId);
+            timeSeriesList = seriesHistory.replace(jobId, signature, readAllTimeSeries(query, cluster), query.getStartTime());
+        }
+        timeSeriesList = timeSeriesList.stream().filter(parserService.isValidTimeSeries(query)).collect(Collectors.toList());
+        if (timeSeriesList.isEmpty()) {
+            log.error("Query to Druid returned no valid time series!");
+        }
+        return timeSeriesList;
+    }
+
+    /**
+     * Check that a time is after the start of a query and is the
+     * start of one of its intervals, so that a query starting at
+     * that time has the same intervals as the end of the query.
+     *
+     * @param query the query
+     * @param time  time in seconds
+     * @return true if the time is the start of an interval of the query
+     */
+    private static boolean isIntervalStart(Query query, int time) {
+        if (time <= query.getStartTime() || time >= query.getRunTime()) {
+            return false;
+        }
+        ZonedDateTime end = ZonedDateTime.ofInstant(Instant.ofEpochSecond(query.getRunTime()), ZoneOffset.UTC);
+        int step = query.getGranularityRange();
+        for (int intervals = step; ; intervals += step) {
+            long start = query.getGranularity().subtractIntervals(end, intervals, step).toEpochSecond();
+            if (start <= time) {
+                return start == time;
+            }
+        }
     }
 
     /**
      * Check to ensure that the datasource in the query exists
-     * in the specified cluster.
+     * in the specified cluster. The datasources of the cluster
+     * are cached, and looked up again when the datasource is not
+     * found in a list older than the negative cache TTL.
      *
      * @param query   the query to check
      * @param cluster the druid cluster to check
@@ -94,7 +236,11 @@ public class DetectorService {
      */
     public void checkDatasource(Query query, DruidCluster cluster) throws DruidException {
         JsonElement datasource = query.getDatasource();
-        JsonArray druidDatasources = httpService.queryDruidDatasources(cluster);
+        JsonArray druidDatasources = datasourceCache.getDatasources(cluster, httpService::queryDruidDatasources);
+        if (!druidDatasources.contains(datasource)) {
+            long maxAge = TimeUnit.SECONDS.toMillis(CLISettings.DATASOURCE_NEGATIVE_TTL);
+            druidDatasources = datasourceCache.getDatasources(cluster, httpService::queryDruidDatasources, maxAge);
+        }
         if (!druidDatasources.contains(datasource)) {
             log.error("Druid datasource {} does not exist!", datasource);
             throw new DruidException("Querying unknown datasource: " + datasource);
@@ -120,6 +266,61 @@ public class DetectorService {
         return druidResponse;
     }
 
+    /**
+     * Send the query to druid and parse the time series
+     * while the response is read.
+     *
+     * @param query   the query to execute
+     * @param cluster the cluster to query
+     * @return the parsed time series
+     * @throws DruidException if an error occurs while calling druid or reading the response
+     */
+    public List<TimeSeries> queryTimeSeries(Query query, DruidCluster cluster) throws DruidException {
+        List<TimeSeries> timeSeriesList = druidResultCache.getTimeSeries(query, cluster, this::readTimeSeries);
+        if (timeSeriesList.isEmpty()) {
+            log.error("Query to Druid returned no valid time series!");
+        }
+        return timeSeriesList;
+    }
+
+    /**
+     * Send the query to druid and parse the time series
+     * while the response is read, without the result cache.
+     *
+     * @param query   the query to execute
+     * @param cluster the cluster to query
+     * @return the parsed time series
+     * @throws DruidException if an error occurs while calling druid or reading the response
+     */
+    private List<TimeSeries> readTimeSeries(Query query, DruidCluster cluster) throws DruidException {
+        List<TimeSeries> timeSeriesList = httpService.queryDruid(
+                cluster,
+                query.getQueryJsonObject(),
+                reader -> parserService.readTimeSeries(reader, query)
+        );
+        log.info("Druid response received successfully");
+        return timeSeriesList;
+    }
+
+    /**
+     * Send the query to druid and parse all time series, including
+     * the ones which are not valid, without the result cache.
+     *
+     * @param query   the query to execute
+     * @param cluster the cluster to query
+     * @return the parsed time series
+     * @throws DruidException if an error occurs while calling druid or reading the response
+     */
+    private List<TimeSeries> readAllTimeSeries(Query query, DruidCluster cluster) throws DruidException {
+        List<TimeSeries> timeSeriesList = httpService.queryDruid(
+                cluster,
+                query.getQueryJsonObject(),
+                reader -> parserService.readAllTimeSeries(reader, query)
+        );
+        log.info("Druid response received successfully");
+        return timeSeriesList;
+    }
+
     /**
      * Run the detection job on a predefined query.
      *
@@ -161,6 +362,30 @@ public class DetectorService {
             Integer granularityRange
     ) throws SherlockException {
         List<TimeSeries> timeSeriesList = parserService.parseTimeSeries(druidResponse, query);
+        return runDetection(timeSeriesList, query, sigmaThreshold, config, frequency, granularityRange);
+    }
+
+    /**
+     * Run detection with a provided EGADS configuration on
+     * the time series of a Druid query.
+     *
+     * @param timeSeriesList   time series from Druid
+     * @param query            the Druid query
+     * @param sigmaThreshold   job sigma threshold
+     * @param config           EGADS configuration
+     * @param frequency        frequency of the job
+     * @param granularityRange granularity range to aggregate on
+     * @return anomalies from detection
+     * @throws SherlockException if an error occurs during analysis
+     */
+    public List<Anomaly> runDetection(
+            List<TimeSeries> timeSeriesList,
+            Query query,
+            Double sigmaThreshold,
+            EgadsConfig config,
+            String frequency,
+            Integer granularityRange
+    ) throws SherlockException {
         // The value of the last timestamp expected to be returned by Druid
         Integer expectedEnd = (query.getRunTime() / 60) - (query.getGranularity().getMinutes() * granularityRange);
         log.info("Expected timestamp of last data point in timeseries: {}", TimeUtils.getFormattedTimeMinutes(expectedEnd));
@@ -170,7 +395,10 @@ public class DetectorService {
     }
 
     /**
-     * Run detection on a list of time series.
+     * Run detection on a list of time series. Each run uses its own
+     * EGADS configuration, so runs may execute concurrently. The time
+     * series are scored in parallel and the anomalies are returned
+     * in the order of the time series.
      *
      * @param timeSeriesList   time series to analyze
      * @param sigmaThreshold   job sigma threshold
@@ -181,7 +409,7 @@ public class DetectorService {
      * @return list of anomalies from the detection job
      * @throws SherlockException if an error occurs during analysis
      */
-    public synchronized List<Anomaly> runDetection(
+    public List<Anomaly> runDetection(
             List<TimeSeries> timeSeriesList,
             Double sigmaThreshold,
             EgadsConfig egadsConfig,
@@ -190,40 +418,105 @@ public class DetectorService {
             Granularity granularity,
             Integer granularityRange
     ) throws SherlockException {
-        if (egadsConfig != null) {
-            egads.configureWith(egadsConfig);
-        } else {
-            egads.preRunConfigure(sigmaThreshold, granularity, granularityRange);
+        DetectionConfig detectionConfig = egads.newDetectionConfig(egadsConfig);
+        if (egadsConfig == null) {
+            detectionConfig = detectionConfig
+                    .withSigmaThreshold(sigmaThreshold)
+                    .withBaseWindows(granularity, granularityRange);
         }
         // Configure the detection window for anomaly detection
-        egads.configureDetectionWindow(endTimeMinutes, frequency, granularityRange);
+        detectionConfig = detectionConfig.withDetectionWindow(endTimeMinutes, frequency, granularityRange);
         List<Anomaly> anomalies = new ArrayList<>(timeSeriesList.size());
         if (timeSeriesList.isEmpty()) {
-            anomalies.add(getNoDataAnomaly(new TimeSeries()));
+            anomalies.add(getNoDataAnomaly(new TimeSeries(), detectionConfig));
+        }
+        for (List<Anomaly> scored : scoreAll(timeSeriesList, detectionConfig, endTimeMinutes)) {
+            anomalies.addAll(scored);
+        }
+        return anomalies;
+    }
+
+    /**
+     * Score a list of time series, in parallel on the shared
+     * scoring pool if there is more than one.
+     *
+     * @param timeSeriesList  time series to analyze
+     * @param detectionConfig configuration of the detection run
+     * @param endTimeMinutes  the expected last data point time in minutes
+     * @return the anomalies of each time series, in the order of the time series
+     * @throws SherlockException if an error occurs during analysis
+     */
+    private List<List<Anomaly>> scoreAll(
+            List<TimeSeries> timeSeriesList,
+            DetectionConfig detectionConfig,
+            Integer endTimeMinutes
+    ) throws SherlockException {
+        List<List<Anomaly>> scored = new ArrayList<>(timeSeriesList.size());
+        if (timeSeriesList.size() < 2 || getScoringParallelism() < 2) {
+            for (TimeSeries timeSeries : timeSeriesList) {
+                scored.add(score(timeSeries, detectionConfig, endTimeMinutes));
+            }
+            return scored;
         }
+        List<Callable<List<Anomaly>>> tasks = new ArrayList<>(timeSeriesList.size());
         for (TimeSeries timeSeries : timeSeriesList) {
-            if (timeSeries.data.isEmpty() ||
-                    timeSeries.data.get(timeSeries.data.size() - 1).time != endTimeMinutes * 60L) {
-                anomalies.add(getNoDataAnomaly(timeSeries));
-            } else {
-                anomalies.addAll(egads.runEGADS(timeSeries, sigmaThreshold));
+            tasks.add(() -> score(timeSeries, detectionConfig, endTimeMinutes));
+        }
+        log.debug("Scoring {} time series in parallel", tasks.size());
+        for (Future<List<Anomaly>> result : getScoringPool().invokeAll(tasks)) {
+            try {
+                scored.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SherlockException(e.getMessage(), e);
+            } catch (ExecutionException e) {
+                // Fork-join tasks wrap the checked exceptions of callables
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof SherlockException) {
+                        throw (SherlockException) cause;
+                    }
+                }
+                throw new SherlockException(e.getCause().getMessage(), e.getCause());
             }
         }
-        return anomalies;
+        return scored;
     }
 
     /**
-     * @param timeSeries time series for which to generate empty anomaly
+     * Score a single time series.
+     *
+     * @param timeSeries      time series to analyze
+     * @param detectionConfig configuration of the detection run
+     * @param endTimeMinutes  the expected last data point time in minutes
+     * @return the anomalies of the time series
+     * @throws SherlockException if an error occurs during analysis
+     */
+    private List<Anomaly> score(
+            TimeSeries timeSeries,
+            DetectionConfig detectionConfig,
+            Integer endTimeMinutes
+    ) throws SherlockException {
+        if (timeSeries.data.isEmpty() ||
+                timeSeries.data.get(timeSeries.data.size() - 1).time != endTimeMinutes * 60L) {
+            return Collections.singletonList(getNoDataAnomaly(timeSeries, detectionConfig));
+        }
+        return egads.runEGADS(timeSeries, detectionConfig);
+    }
+
+    /**
+     * @param timeSeries      time series for which to generate empty anomaly
+     * @param detectionConfig configuration of the detection run
      * @return an anomaly that represents no data
      */
-    private Anomaly getNoDataAnomaly(TimeSeries timeSeries) {
+    private Anomaly getNoDataAnomaly(TimeSeries timeSeries, DetectionConfig detectionConfig) {
         Anomaly anomaly = new Anomaly();
         anomaly.metricMetaData.name = JobStatus.NODATA.getValue();
         anomaly.metricMetaData.source = timeSeries.meta.source;
         anomaly.metricMetaData.id = timeSeries.meta.id;
         anomaly.id = timeSeries.meta.id;
         anomaly.intervals = new Anomaly.IntervalSequence();
-        anomaly.modelName = (egads.getP() != null) ? egads.getP().getProperty(AD_MODEL) : "";
+        String modelName = detectionConfig.getProperty(AD_MODEL);
+        anomaly.modelName = (modelName != null) ? modelName : "";
         return anomaly;
     }
 
@@ -272,8 +565,8 @@ public class DetectorService {
             Integer granularityRange
     ) throws SherlockException, DruidException {
         checkDatasource(query, cluster);
-        JsonArray druidResponse = queryDruid(query, cluster);
-        return runDetection(druidResponse, query, sigmaThreshold, config, frequency, granularityRange);
+        List<TimeSeries> timeSeriesList = queryTimeSeries(query, cluster);
+        return runDetection(timeSeriesList, query, sigmaThreshold, config, frequency, granularityRange);
     }
 
     /**
@@ -297,18 +590,18 @@ public class DetectorService {
             @Nullable EgadsConfig config
     ) throws SherlockException, DruidException {
         checkDatasource(query, cluster);
-        JsonArray druidResponse = queryDruid(query, cluster);
-        List<TimeSeries> timeSeriesList = parserService.parseTimeSeries(druidResponse, query);
+        List<TimeSeries> timeSeriesList = queryTimeSeries(query, cluster);
         List<EgadsResult> results = new ArrayList<>(timeSeriesList.size());
-        if (config != null) {
-            egads.configureWith(config);
-        }
-        egads.preRunConfigure(sigmaThreshold, query.getGranularity(), query.getGranularityRange());
+        DetectionConfig detectionConfig = egads.newDetectionConfig(config)
+                .withSigmaThreshold(sigmaThreshold)
+                .withBaseWindows(query.getGranularity(), query.getGranularityRange());
         if (detectionWindow != null) {
-            egads.configureDetectionWindow(query.getRunTime() / 60, query.getGranularity().toString(), detectionWindow + 1);
+            detectionConfig = detectionConfig.withDetectionWindow(query.getRunTime() / 60, query.getGranularity().toString(), detectionWindow + 1);
         }
+        // For now, instant query will show all anomalies on the graph
+        detectionConfig = detectionConfig.withProperty("MAX_ANOMALY_TIME_AGO", "99999999");
         for (TimeSeries timeSeries : timeSeriesList) {
-            results.add(egads.detectAnomaliesResult(timeSeries));
+            results.add(egads.detectAnomaliesResult(timeSeries, detectionConfig));
         }
         return results;
     }
@@ -13,6 +13,10 @@ import com.yahoo.sherlock.query.Query;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
 /**
  * Service class to validate user query and generate new query with given granularity.
  */
@@ -39,4 +43,26 @@ public class DruidQueryService {
             .intervals(intervals)
             .build();
     }
+
+    /**
+     * Method to build new query for the intervals between a start time and an end time.
+     *
+     * @param queryString input druid query from user
+     * @param granularity input granularity value for query
+     * @param granularityRange range of granularity to aggregate on
+     * @param intervalStartTime interval start time of query in minutes
+     * @param intervalEndTime interval end time of query in minutes
+     * @return query object with new generated query
+     * @throws SherlockException exception while parsing user query
+     */
+    public Query buildSince(String queryString, Granularity granularity, Integer granularityRange, Integer intervalStartTime, Integer intervalEndTime)
+        throws SherlockException {
+        return QueryBuilder.start()
+            .startAt(ZonedDateTime.ofInstant(Instant.ofEpochSecond(intervalStartTime * 60L), ZoneOffset.UTC))
+            .endAt(intervalEndTime)
+            .granularity(granularity)
+            .granularityRange(granularityRange)
+            .queryString(queryString)
+            .build();
+    }
 }
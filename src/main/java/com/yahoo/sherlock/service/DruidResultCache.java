@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of the time series returned by Druid queries, keyed on a hash of the
+ * normalized query JSON and the cluster. Results are kept for the hours of
+ * lag of the cluster, at most {@link CLISettings#DRUID_CACHE_TTL} seconds,
+ * and the least recently used
+ * results are evicted once the cache holds more than
+ * {@link CLISettings#DRUID_CACHE_POINTS} data points. Only queries whose
+ * interval ended before the hours of lag of the cluster are cached, since
+ * Druid may still ingest data for the later intervals.
+ */
+@Slf4j
+public class DruidResultCache {
+
+    private static DruidResultCache instance = null;
+
+    /**
+     * @return the process-wide Druid result cache
+     */
+    public static synchronized DruidResultCache instance() {
+        if (instance == null) {
+            instance = new DruidResultCache(System::currentTimeMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the time series of a query from Druid.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * @param query   the query to execute
+         * @param cluster the cluster to query
+         * @return the parsed time series
+         * @throws DruidException if the query fails
+         */
+        List<TimeSeries> load(Query query, DruidCluster cluster) throws DruidException;
+    }
+
+    /**
+     * Cached result of a query.
+     */
+    private static class Entry {
+
+        /**
+         * ID of the queried cluster.
+         */
+        private final Integer clusterId;
+        /**
+         * The time series, which are copied before they are returned.
+         */
+        private final List<TimeSeries> timeSeries;
+        /**
+         * Number of data points of the time series.
+         */
+        private final long points;
+        /**
+         * Time the result was loaded, in milliseconds.
+         */
+        private final long loadedAt;
+        /**
+         * Time for which the result is kept, in milliseconds.
+         */
+        private final long ttl;
+
+        /**
+         * @param clusterId  ID of the queried cluster
+         * @param timeSeries the time series
+         * @param loadedAt   time the result was loaded in milliseconds
+         * @param ttl        time for which the result is kept in milliseconds
+         */
+        Entry(Integer clusterId, List<TimeSeries> timeSeries, long loadedAt, long ttl) {
+            this.clusterId = clusterId;
+            this.timeSeries = timeSeries;
+            this.points = timeSeries.stream().mapToLong(TimeSeries::size).sum();
+            this.loadedAt = loadedAt;
+            this.ttl = ttl;
+        }
+    }
+
+    /**
+     * Results in least recently used order.
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongSupplier clock;
+    private long points = 0;
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    protected DruidResultCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the time series of a query from the cache, loading them if they
+     * are missing or expired. The returned time series are always new
+     * objects, which the caller may modify.
+     *
+     * @param query   the query to execute
+     * @param cluster the cluster to query
+     * @param loader  loads the time series from Druid
+     * @return the time series of the query
+     * @throws DruidException if the query fails
+     */
+    public List<TimeSeries> getTimeSeries(Query query, DruidCluster cluster, Loader loader) throws DruidException {
+        if (!isCacheable(query, cluster)) {
+            return loader.load(query, cluster);
+        }
+        String key = getKey(query.getQueryJsonObject(), cluster);
+        Entry entry = get(key);
+        if (entry != null) {
+            log.info("Using cached Druid result for cluster [{}]", cluster.getClusterId());
+            return copy(entry.timeSeries);
+        }
+        List<TimeSeries> timeSeries = loader.load(query, cluster);
+        put(key, new Entry(cluster.getClusterId(), copy(timeSeries), clock.getAsLong(), getTtl(cluster)));
+        return timeSeries;
+    }
+
+    /**
+     * Remove the cached results of a cluster.
+     *
+     * @param clusterId the cluster ID
+     */
+    public synchronized void invalidate(Integer clusterId) {
+        if (clusterId == null) {
+            return;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (clusterId.equals(entry.clusterId)) {
+                points -= entry.points;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A query is cached if caching is enabled and the end of its
+     * interval is before the hours of lag of the cluster.
+     *
+     * @param query   the query
+     * @param cluster the cluster to query
+     * @return true if the result of the query can be cached
+     */
+    protected boolean isCacheable(Query query, DruidCluster cluster) {
+        if (CLISettings.DRUID_CACHE_TTL <= 0 || CLISettings.DRUID_CACHE_POINTS <= 0) {
+            return false;
+        }
+        if (cluster.getClusterId() == null || query.getQueryJsonObject() == null || query.getRunTime() == null) {
+            return false;
+        }
+        int hoursOfLag = cluster.getHoursOfLag() == null ? 0 : cluster.getHoursOfLag();
+        long closedBefore = TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong()) - TimeUnit.HOURS.toSeconds(hoursOfLag);
+        return query.getRunTime() <= closedBefore;
+    }
+
+    /**
+     * Results are kept for the hours of lag of the cluster, since
+     * Druid may revise the recent data of the cluster within that
+     * time, and at most {@link CLISettings#DRUID_CACHE_TTL} seconds.
+     * Clusters without lag use the latter.
+     *
+     * @param cluster the queried cluster
+     * @return time for which a result of the cluster is kept in milliseconds
+     */
+    protected static long getTtl(DruidCluster cluster) {
+        long ttl = TimeUnit.SECONDS.toMillis(CLISettings.DRUID_CACHE_TTL);
+        Integer hoursOfLag = cluster.getHoursOfLag();
+        if (hoursOfLag == null || hoursOfLag <= 0) {
+            return ttl;
+        }
+        return Math.min(ttl, TimeUnit.HOURS.toMillis(hoursOfLag));
+    }
+
+    /**
+     * @param key cache key
+     * @return the cached result, or null if it is missing or expired
+     */
+    private synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.loadedAt > entry.ttl) {
+            entries.remove(key);
+            points -= entry.points;
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache a result and evict the least recently used
+     * results until the cache is within its size.
+     *
+     * @param key   cache key
+     * @param entry the result
+     */
+    private synchronized void put(String key, Entry entry) {
+        if (entry.points > CLISettings.DRUID_CACHE_POINTS) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        points += entry.points - (old == null ? 0 : old.points);
+        Iterator<Entry> it = entries.values().iterator();
+        while (points > CLISettings.DRUID_CACHE_POINTS && it.hasNext()) {
+            points -= it.next().points;
+            it.remove();
+        }
+    }
+
+    /**
+     * Hash the normalized query and the cluster. Object members of the
+     * query are sorted, so that equal queries have the same key.
+     *
+     * @param queryJson the query JSON
+     * @param cluster   the cluster to query
+     * @return the cache key
+     */
+    protected static String getKey(JsonObject queryJson, DruidCluster cluster) {
+        String normalized = cluster.getClusterId() + "|" + cluster.getBrokerUrl() + "|" + normalize(queryJson);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return normalized;
+        }
+    }
+
+    /**
+     * @param element a JSON element
+     * @return the element as a JSON string with sorted object members
+     */
+    protected static String normalize(JsonElement element) {
+        if (element.isJsonObject()) {
+            Map<String, JsonElement> members = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                members.put(member.getKey(), member.getValue());
+            }
+            StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, JsonElement> member : members.entrySet()) {
+                json.append(json.length() > 1 ? "," : "").append(new JsonPrimitive(member.getKey()))
+                    .append(':').append(normalize(member.getValue()));
+            }
+            return json.append('}').toString();
+        }
+        if (element.isJsonArray()) {
+            StringBuilder json = new StringBuilder("[");
+            JsonArray array = element.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                json.append(i > 0 ? "," : "").append(normalize(array.get(i)));
+            }
+            return json.append(']').toString();
+        }
+        return element.toString();
+    }
+
+    /**
+     * Copy time series so that cached entries are never shared.
+     *
+     * @param timeSeriesList the time series
+     * @return copies of the time series
+     */
+    private static List<TimeSeries> copy(List<TimeSeries> timeSeriesList) {
+        List<TimeSeries> copies = new ArrayList<>(timeSeriesList.size());
+        for (TimeSeries timeSeries : timeSeriesList) {
+            TimeSeries copy = new TimeSeries();
+            copy.meta = TimeSeriesParserService.copyMetricMeta(timeSeries.meta);
+            copy.data.ensureCapacity(timeSeries.size());
+            for (TimeSeries.Entry entry : timeSeries.data) {
+                copy.data.add(new TimeSeries.Entry(entry.time, entry.value));
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+}
@@ -14,19 +14,26 @@ import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.exception.SherlockException;
 import com.yahoo.sherlock.model.EgadsResult;
+import com.yahoo.sherlock.query.DetectionConfig;
 import com.yahoo.sherlock.query.EgadsConfig;
-import com.yahoo.sherlock.settings.Constants;
+import com.yahoo.sherlock.query.EgadsConfigFile;
 import com.yahoo.sherlock.utils.EgadsUtils;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
 /**
- * Service class for Egads API.
+ * Service class for Egads API. Detection jobs pass an immutable
+ * {@code DetectionConfig} to each call, so a single instance can
+ * run detections concurrently. The configure methods and
+ * the single-argument detection methods use the mutable
+ * instance properties and are not thread-safe.
  */
 @Slf4j
 @Data
@@ -37,6 +44,12 @@ public class EgadsService {
      */
     private Properties p = null;
 
+    /**
+     * Default run configuration, used when the
+     * config file cannot be loaded.
+     */
+    private volatile DetectionConfig defaults = null;
+
     /**
      * Default configuration of egads.
      */
@@ -51,29 +64,7 @@ public class EgadsService {
      * @param granularityRange granularity to aggregate on
      */
     private void updateBaseWindow(Granularity granularity, Integer granularityRange) {
-        String w1 = "1", w2 = "1";
-        switch (granularity) {
-            case MINUTE:
-                w2 = String.valueOf(Math.round(60.0f / granularityRange));
-                break;
-            case HOUR:
-                w1 = String.valueOf(Math.round(24.0f / granularityRange));
-                w2 = String.valueOf(Math.round(168.0f / granularityRange));
-                break;
-            case DAY:
-                w2 = String.valueOf(Math.round(7.0f / granularityRange));
-                break;
-            case WEEK:
-                w2 = String.valueOf(Math.round(4.0f / granularityRange));
-                break;
-            case MONTH:
-                w2 = String.valueOf(Math.round(12.0f / granularityRange));
-                p.setProperty("PERIOD", "-1");
-                break;
-            default:
-                break;
-        }
-        p.setProperty("BASE_WINDOWS", w1 + Constants.COMMA_DELIMITER + w2);
+        p = DetectionConfig.of(p).withBaseWindows(granularity, granularityRange).toProperties();
         log.info("Updated BASE_WINDOWS: {}", p.getProperty("BASE_WINDOWS"));
     }
 
@@ -101,6 +92,47 @@ public class EgadsService {
         return anomalies;
     }
 
+    /**
+     * Method to call egads with a run configuration.
+     *
+     * @param timeseries input timeseries
+     * @param config     configuration of the detection run
+     * @return list of detected anomalies
+     * @throws SherlockException exception in egads API
+     */
+    public List<Anomaly> runEGADS(TimeSeries timeseries, DetectionConfig config) throws SherlockException {
+        log.debug("Call to egads API for sigma [{}] and timeseries [{}]", config.getProperty("AUTO_SENSITIVITY_SD"), timeseries.meta.id);
+        List<Anomaly> anomalies = detectAnomalies(timeseries, config);
+        log.debug("Egads completed");
+        return anomalies;
+    }
+
+    /**
+     * Get the configuration on which a detection run is based.
+     * Without a job configuration this is the snapshot of the
+     * EGADS config file, which is reloaded when the file changes,
+     * or the default configuration if the file cannot be loaded.
+     *
+     * @param config EGADS configuration of the job, may be null
+     * @return the base run configuration
+     */
+    public DetectionConfig newDetectionConfig(@Nullable EgadsConfig config) {
+        if (config != null) {
+            return DetectionConfig.of(config.asProperties());
+        }
+        DetectionConfig base = EgadsConfigFile.current().getConfig();
+        if (base != null) {
+            return base;
+        }
+        base = defaults;
+        if (base == null) {
+            log.error("Could not load Egads properties from file, using the default configuration.");
+            base = DetectionConfig.of(EgadsConfig.create().buildDefault().asProperties());
+            defaults = base;
+        }
+        return base;
+    }
+
     /**
      * Before-run EGADS configuration. Ensures that
      * there is an existing properties object
@@ -172,6 +204,28 @@ public class EgadsService {
         return anomalies;
     }
 
+    /**
+     * Method to run egads api to detect anomalies with a run configuration.
+     *
+     * @param timeseries input timeseries
+     * @param config     configuration of the detection run
+     * @return list of anomalies
+     * @throws SherlockException exception
+     */
+    @SuppressWarnings("unchecked")
+    protected List<Anomaly> detectAnomalies(TimeSeries timeseries, DetectionConfig config) throws SherlockException {
+        List<Anomaly> anomalies = new ArrayList<>();
+        try {
+            ProcessableObject processableObject = getEgadsProcessableObject(timeseries, config.toProperties());
+            processableObject.process();
+            anomalies.addAll((ArrayList<Anomaly>) processableObject.result());
+        } catch (Exception e) {
+            log.error("Exception from EGADS!", e);
+            throw new SherlockException(e.getMessage());
+        }
+        return anomalies;
+    }
+
     /**
      * Run an anomaly detection job, returning the list of
      * anomalies and the forecasted sequence through
@@ -184,22 +238,51 @@ public class EgadsService {
     @SuppressWarnings("unchecked")
     public EgadsResult detectAnomaliesResult(TimeSeries timeseries) throws SherlockException {
         try {
-            EgadsConfig config = EgadsConfig.fromProperties(p);
             // For now, instant query will show all anomalies on the graph
-            config.setMaxAnomalyTimeAgo("99999999");
-            p = config.asProperties();
-            ProcessableObject processableObject = getEgadsProcessableObject(timeseries);
-            processableObject.process();
-            List<Anomaly> anomalies = (List<Anomaly>) processableObject.result();
-            ModelAdapter modelAdapter = EgadsUtils.getModelAdapter(processableObject);
-            List<TimeSeries.DataSequence> expected = EgadsUtils.getModelForecast(timeseries, modelAdapter);
-            return new EgadsResult(anomalies, timeseries, expected.get(0));
+            p.setProperty("MAX_ANOMALY_TIME_AGO", "99999999");
+            return getEgadsResult(timeseries, getEgadsProcessableObject(timeseries));
+        } catch (Exception e) {
+            log.error("Error in EGADS!", e);
+            throw new SherlockException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run an anomaly detection job with a run configuration,
+     * returning the anomalies and the forecasted sequence.
+     *
+     * @param timeseries the time series to analyze
+     * @param config     configuration of the detection run
+     * @return an EGADS result object containing the above
+     * @throws SherlockException if an error occurs during detection
+     */
+    public EgadsResult detectAnomaliesResult(TimeSeries timeseries, DetectionConfig config) throws SherlockException {
+        try {
+            return getEgadsResult(timeseries, getEgadsProcessableObject(timeseries, config.toProperties()));
         } catch (Exception e) {
             log.error("Error in EGADS!", e);
             throw new SherlockException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Process a time series and collect the anomalies
+     * and the forecasted sequence of the model.
+     *
+     * @param timeseries        the time series to analyze
+     * @param processableObject EGADS processable object of the time series
+     * @return an EGADS result object
+     * @throws Exception if an error occurs in EGADS
+     */
+    @SuppressWarnings("unchecked")
+    private EgadsResult getEgadsResult(TimeSeries timeseries, ProcessableObject processableObject) throws Exception {
+        processableObject.process();
+        List<Anomaly> anomalies = (List<Anomaly>) processableObject.result();
+        ModelAdapter modelAdapter = EgadsUtils.getModelAdapter(processableObject);
+        List<TimeSeries.DataSequence> expected = EgadsUtils.getModelForecast(timeseries, modelAdapter);
+        return new EgadsResult(anomalies, timeseries, expected.get(0));
+    }
+
     /**
      * Mehtod to get processable object from egads.
      *
@@ -207,7 +290,18 @@ public class EgadsService {
      * @return ProcessableObject instance
      */
     protected ProcessableObject getEgadsProcessableObject(TimeSeries timeseries) throws SherlockException {
-        return ProcessableObjectFactory.create(EgadsUtils.fillMissingData(timeseries, p), p);
+        return getEgadsProcessableObject(timeseries, p);
+    }
+
+    /**
+     * Method to get processable object from egads with the given properties.
+     *
+     * @param timeseries input timeseries
+     * @param properties egads properties, owned by the processable object
+     * @return ProcessableObject instance
+     */
+    protected ProcessableObject getEgadsProcessableObject(TimeSeries timeseries, Properties properties) throws SherlockException {
+        return ProcessableObjectFactory.create(EgadsUtils.fillMissingData(timeseries, properties), properties);
     }
 
     /**
@@ -217,7 +311,6 @@ public class EgadsService {
      * @param nLookBack number of frequency to lookback
      */
     public void configureDetectionWindow(Integer endTimeMinutes, String frequency, int nLookBack) {
-        Long detectionStartTime = (endTimeMinutes - nLookBack * Granularity.getValue(frequency).getMinutes()) * 60L;
-        p.setProperty("DETECTION_WINDOW_START_TIME", detectionStartTime.toString());
+        p = DetectionConfig.of(p).withDetectionWindow(endTimeMinutes, frequency, nLookBack).toProperties();
     }
 }
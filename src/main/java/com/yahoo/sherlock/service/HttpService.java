@@ -9,7 +9,9 @@ package com.yahoo.sherlock.service;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.exception.SherlockException;
 import com.yahoo.sherlock.model.DruidCluster;
 import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.settings.DruidConstants;
@@ -22,14 +24,25 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service class for http rest calls.
@@ -38,31 +51,100 @@ import java.io.InputStreamReader;
 public class HttpService {
 
     /**
-     * Method to get new HttpClient.
+     * Context attribute holding the number of times a request may be retried.
+     */
+    private static final String RETRIES = "sherlock.http.retries";
+
+    /**
+     * Pooled clients for each Druid broker, kept until
+     * no Druid cluster uses the broker any more.
+     */
+    private static final Map<String, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Get the pooled HttpClient of the broker of a Druid cluster,
+     * creating it on first use. Clusters on the same broker
+     * share a client.
      *
-     * @param timeout the connection timeout
-     * @param retries the number of times the client should reattempt connections
+     * @param cluster the Druid cluster
+     * @return HttpClient object
+     */
+    protected HttpClient getHttpClient(DruidCluster cluster) {
+        return CLIENTS.computeIfAbsent(cluster.getBaseUrl(), this::newHttpClient);
+    }
+
+    /**
+     * Remove the pooled HttpClient of a Druid broker and close its
+     * connections. Requests in progress on the client fail, and
+     * the next request to the broker creates a new client.
+     *
+     * @param baseUrl the base URL of the broker
+     */
+    public static void invalidate(String baseUrl) {
+        HttpClient client = baseUrl == null ? null : CLIENTS.remove(baseUrl);
+        if (client instanceof Closeable) {
+            log.info("Closing pooled http client for [{}]", baseUrl);
+            try {
+                ((Closeable) client).close();
+            } catch (IOException e) {
+                log.error("Error while closing the http client of [{}]!", baseUrl, e);
+            }
+        }
+    }
+
+    /**
+     * Method to get a new pooled HttpClient with keep-alive connections.
+     * At most {@link CLISettings#DRUID_MAX_CONNECTIONS} connections are
+     * kept and those idle for {@link CLISettings#DRUID_IDLE_TIMEOUT}
+     * seconds are evicted.
+     *
+     * @param baseUrl the base URL the client connects to
      * @return HttpClient object
      */
-    protected HttpClient newHttpClient(int timeout, int retries) {
-        RequestConfig config = RequestConfig.custom()
+    protected HttpClient newHttpClient(String baseUrl) {
+        log.info("Creating pooled http client for [{}]", baseUrl);
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(CLISettings.DRUID_MAX_CONNECTIONS);
+        manager.setDefaultMaxPerRoute(CLISettings.DRUID_MAX_CONNECTIONS);
+        long idleMillis = TimeUnit.SECONDS.toMillis(CLISettings.DRUID_IDLE_TIMEOUT);
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, idleMillis) : idleMillis;
+        };
+        return HttpClientBuilder.create()
+                .setConnectionManager(manager)
+                .setKeepAliveStrategy(keepAlive)
+                .setRetryHandler(new RetryHandler())
+                .setDefaultRequestConfig(newRequestConfig(CLISettings.HTTP_CLIENT_TIMEOUT))
+                .evictExpiredConnections()
+                .evictIdleConnections(CLISettings.DRUID_IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Get a request config with the given timeouts.
+     *
+     * @param timeout the connection timeout
+     * @return RequestConfig object
+     */
+    protected static RequestConfig newRequestConfig(int timeout) {
+        return RequestConfig.custom()
                 .setConnectTimeout(timeout)
                 .setSocketTimeout(timeout)
                 .setConnectionRequestTimeout(timeout)
                 .build();
-        return HttpClientBuilder.create()
-                .setRetryHandler(new DefaultHttpRequestRetryHandler(retries, false))
-                .setDefaultRequestConfig(config)
-                .build();
     }
 
     /**
-     * Get a new {@code HttpClient} with a {@link CLISettings#HTTP_CLIENT_TIMEOUT} timeout.
+     * Get a new execution context for a request.
      *
-     * @return HttpClient
+     * @param retries the number of times the request should be reattempted
+     * @return HttpClientContext object
      */
-    protected HttpClient newHttpClient() {
-        return newHttpClient(CLISettings.HTTP_CLIENT_TIMEOUT, 3);
+    protected static HttpClientContext newContext(int retries) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(RETRIES, retries);
+        return context;
     }
 
     /**
@@ -95,15 +177,34 @@ public class HttpService {
      * @throws DruidException http request exception while querying druid
      */
     public JsonArray queryDruid(DruidCluster cluster, JsonObject druidQuery) throws DruidException {
+        JsonArray jsonArray = queryDruid(cluster, druidQuery, reader -> new Gson().fromJson(reader, JsonArray.class));
+        log.info("Parsed druid response to json array.");
+        return jsonArray;
+    }
+
+    /**
+     * Service method to call druid and read the response
+     * directly from the response stream.
+     *
+     * @param cluster    the Druid cluster to issue the query
+     * @param druidQuery druid query json object
+     * @param parser     reads the druid response
+     * @param <T>        type of the parsed response
+     * @return the parsed druid response
+     * @throws DruidException http request exception while querying druid
+     */
+    public <T> T queryDruid(DruidCluster cluster, JsonObject druidQuery, ResponseParser<T> parser) throws DruidException {
         log.info("Calling druid broker.");
         String url = cluster.getBrokerUrl();
-        HttpClient client = newHttpClient();
+        HttpClient client = getHttpClient(cluster);
         HttpPost httpPost = newHttpPost(url);
+        httpPost.setConfig(newRequestConfig(CLISettings.HTTP_CLIENT_TIMEOUT));
+        HttpResponse response = null;
         try {
             HttpEntity httpEntity = new StringEntity(druidQuery.toString(), ContentType.APPLICATION_JSON);
             httpPost.setEntity(httpEntity);
             // Execute query to Druid
-            HttpResponse response = client.execute(httpPost);
+            response = client.execute(httpPost, newContext(3));
             int statusCode = response.getStatusLine().getStatusCode();
             if (statusCode != HttpStatus.SC_OK) {
                 log.error("Post request to broker endpoint failed: {}", response.getStatusLine());
@@ -111,16 +212,13 @@ public class HttpService {
             }
             // Read the response body.
             InputStream inputStream = response.getEntity().getContent();
-            Gson gson = new Gson();
-            // get the response as json array
-            JsonArray jsonArray = gson.fromJson(new InputStreamReader(inputStream), JsonArray.class);
-            log.info("Parsed druid response to json array.");
-            return jsonArray;
+            return parser.parse(new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
         } catch (Exception e) {
             log.error("Error while sending druid query!", e);
             throw new DruidException(e.getMessage(), e);
         } finally {
-            // Release the connection.
+            // Release the connection to the pool.
+            release(response);
             httpPost.releaseConnection();
         }
     }
@@ -136,10 +234,12 @@ public class HttpService {
     public JsonArray queryDruidDatasources(DruidCluster cluster) throws DruidException {
         log.info("Calling Druid broker for datasource list.");
         String url = cluster.getBrokerUrl() + DruidConstants.DATASOURCES;
-        HttpClient client = newHttpClient(2000, 2);
+        HttpClient client = getHttpClient(cluster);
         HttpGet httpGet = newHttpGet(url);
+        httpGet.setConfig(newRequestConfig(2000));
+        HttpResponse response = null;
         try {
-            HttpResponse response = client.execute(httpGet);
+            response = client.execute(httpGet, newContext(2));
             int statusCode = response.getStatusLine().getStatusCode();
             if (statusCode != HttpStatus.SC_OK) {
                 log.error("Get request to datasources endpoint failed: {}", response.getStatusLine());
@@ -154,6 +254,7 @@ public class HttpService {
             log.error("Error while querying druid datasources!", e);
             throw new DruidException(e.getMessage(), e);
         } finally {
+            release(response);
             httpGet.releaseConnection();
         }
     }
@@ -169,14 +270,71 @@ public class HttpService {
         log.info("Calling Druid broker for status.");
         String url = cluster.getBaseUrl() + DruidConstants.STATUS;
         HttpGet httpGet = newHttpGet(url);
-        HttpClient client = newHttpClient(300, 0);
+        httpGet.setConfig(newRequestConfig(300));
+        HttpClient client = getHttpClient(cluster);
+        HttpResponse response = null;
         try {
-            HttpResponse response = client.execute(httpGet);
+            response = client.execute(httpGet, newContext(0));
             return response.getStatusLine().getStatusCode();
         } catch (IOException e) {
             throw new DruidException(e.getMessage(), e);
         } finally {
+            release(response);
             httpGet.releaseConnection();
         }
     }
+
+    /**
+     * Consume the rest of a response body, which returns
+     * its connection to the pool instead of closing it.
+     *
+     * @param response the response, may be null
+     */
+    protected static void release(HttpResponse response) {
+        if (response != null) {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * Reads a druid response from a JSON stream.
+     *
+     * @param <T> type of the parsed response
+     */
+    @FunctionalInterface
+    public interface ResponseParser<T> {
+
+        /**
+         * Parse the response.
+         *
+         * @param reader reader of the response body
+         * @return the parsed response
+         * @throws IOException       if the response cannot be read
+         * @throws SherlockException if the response is invalid
+         */
+        T parse(JsonReader reader) throws IOException, SherlockException;
+    }
+
+    /**
+     * Retry handler which reads the number of allowed retries
+     * of a request from its execution context.
+     */
+    protected static class RetryHandler extends DefaultHttpRequestRetryHandler {
+
+        /**
+         * Retry requests without a context limit 3 times.
+         */
+        RetryHandler() {
+            super(3, false);
+        }
+
+        @Override
+        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+            Object retries = context.getAttribute(RETRIES);
+            if (retries instanceof Integer && executionCount > (Integer) retries) {
+                return false;
+            }
+            return super.retryRequest(exception, executionCount, context);
+        }
+    }
 }
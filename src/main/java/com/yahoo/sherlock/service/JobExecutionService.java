@@ -7,7 +7,6 @@
 package com.yahoo.sherlock.service;
 
 import com.beust.jcommander.internal.Lists;
-import com.google.gson.JsonArray;
 import com.yahoo.egads.data.Anomaly;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.enums.Granularity;
@@ -25,6 +24,7 @@ import com.yahoo.sherlock.query.EgadsConfig;
 import com.yahoo.sherlock.query.Query;
 import com.yahoo.sherlock.query.QueryBuilder;
 import com.yahoo.sherlock.scheduler.EgadsTask;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.settings.Constants;
 import com.yahoo.sherlock.store.AnomalyReportAccessor;
 import com.yahoo.sherlock.store.DruidClusterAccessor;
@@ -43,8 +43,16 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -54,6 +62,11 @@ import java.util.stream.Collectors;
 @Data
 public class JobExecutionService {
 
+    /**
+     * Executor which runs the intervals of all backfill jobs.
+     */
+    private static ExecutorService backfillExecutor = null;
+
     /**
      * Class service factory instance.
      */
@@ -225,7 +238,9 @@ public class JobExecutionService {
     /**
      * Perform a backfill job starting at a date and
      * then at each incremented granularity after that
-     * date a certain number of times.
+     * date a certain number of times. The intervals run
+     * on the shared backfill executor and their reports
+     * are stored in batches as they complete.
      *
      * @param job         the job details
      * @param cluster     the druid cluster for the job
@@ -254,35 +269,87 @@ public class JobExecutionService {
         log.info("Job granularity is [{}]", granularity.toString());
         DetectorService detectorService = serviceFactory.newDetectorServiceInstance();
         TimeSeriesParserService parserService = serviceFactory.newTimeSeriesParserServiceInstance();
-        JsonArray druidResponse = detectorService.queryDruid(query, cluster);
-        List<TimeSeries> sourceSeries = parserService.parseTimeSeries(druidResponse, query);
-        List<TimeSeries>[] fillSeriesList = parserService.subseries(sourceSeries, start, end, granularity, query.getGranularityRange(), intervals);
-        List<Thread> threads = new ArrayList<>(fillSeriesList.length);
-        List<EgadsTask> tasks = new ArrayList<>(fillSeriesList.length);
+        List<TimeSeries> sourceSeries = detectorService.queryTimeSeries(query, cluster);
+        Iterator<List<TimeSeries>> fillSeries = parserService.subseriesIterator(sourceSeries, start, end, granularity, query.getGranularityRange(), intervals);
+        CompletionService<EgadsTask> completionService = new ExecutorCompletionService<>(getBackfillExecutor());
+        // Only build the sub series of the next intervals when a thread is about to be free
+        int maxPending = 2 * getBackfillThreads();
+        int pending = 0;
+        List<AnomalyReport> reports = new ArrayList<>();
         Integer singleInterval = granularity.getMinutes();
         Integer subEnd = start + singleInterval;
-        for (List<TimeSeries> fillSeries : fillSeriesList) {
+        while (fillSeries.hasNext()) {
+            if (pending >= maxPending) {
+                collectBackfillReports(completionService, reports);
+                pending--;
+            }
             EgadsTask task = createTask(
                     job,
                     subEnd,
-                    fillSeries,
+                    fillSeries.next(),
                     detectorService
             );
-            tasks.add(task);
-            Thread thread = new Thread(task);
-            thread.start();
-            threads.add(thread);
+            completionService.submit(task, task);
+            pending++;
             subEnd += singleInterval;
         }
-        List<AnomalyReport> reports = new ArrayList<>();
-        for (int i = 0; i < threads.size(); i++) {
-            threads.get(i).join();
-            reports.addAll(tasks.get(i).getReports());
+        for (; pending > 0; pending--) {
+            collectBackfillReports(completionService, reports);
+        }
+        if (!reports.isEmpty()) {
+            anomalyReportAccessor.putAnomalyReportsForEmails(reports, new ArrayList<>());
         }
-        anomalyReportAccessor.putAnomalyReportsForEmails(reports, new ArrayList<>());
         log.info("Backfill is complete");
     }
 
+    /**
+     * Wait for the next backfill interval to complete and add its
+     * reports, storing the reports once there is a full batch.
+     *
+     * @param completionService completion service of the backfill tasks
+     * @param reports           reports which have not been stored yet
+     * @throws SherlockException    if a backfill task failed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if an error occurs while storing the reports
+     */
+    private void collectBackfillReports(
+            CompletionService<EgadsTask> completionService,
+            List<AnomalyReport> reports
+    ) throws SherlockException, InterruptedException, IOException {
+        try {
+            reports.addAll(completionService.take().get().getReports());
+        } catch (ExecutionException e) {
+            throw new SherlockException(e.getCause().getMessage(), e.getCause());
+        }
+        if (reports.size() >= CLISettings.BACKFILL_BATCH_SIZE) {
+            anomalyReportAccessor.putAnomalyReportsForEmails(reports, new ArrayList<>());
+            reports.clear();
+        }
+    }
+
+    /**
+     * @return the number of threads which run backfill intervals
+     */
+    protected static int getBackfillThreads() {
+        return Math.max(1, CLISettings.BACKFILL_THREADS);
+    }
+
+    /**
+     * @return the executor shared by all backfill jobs
+     */
+    protected static synchronized ExecutorService getBackfillExecutor() {
+        if (backfillExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "backfill-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            backfillExecutor = Executors.newFixedThreadPool(getBackfillThreads(), threadFactory);
+        }
+        return backfillExecutor;
+    }
+
     /**
      * Create a new egads task.
      *
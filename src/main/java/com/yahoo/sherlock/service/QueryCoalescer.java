@@ -0,0 +1,395 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.enums.Granularity;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.exception.SherlockException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
+import com.yahoo.sherlock.settings.QueryConstants;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the Druid queries of due jobs which only differ in their
+ * aggregations and post aggregations, that is jobs on the same cluster
+ * with the same datasource, filters, dimensions, interval and granularity.
+ * The jobs of a group share one query with the aggregations of all jobs,
+ * which is sent by the first job of the group to need it, and each job
+ * parses its own metrics from the shared response.
+ */
+@Slf4j
+public class QueryCoalescer {
+
+    private static QueryCoalescer instance = null;
+
+    /**
+     * @return the process-wide query coalescer
+     */
+    public static synchronized QueryCoalescer instance() {
+        if (instance == null) {
+            instance = new QueryCoalescer();
+        }
+        return instance;
+    }
+
+    /**
+     * Sends a query to Druid.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+
+        /**
+         * @param cluster the cluster to query
+         * @param query   the query JSON
+         * @return the Druid response
+         * @throws DruidException if the query fails
+         */
+        JsonArray fetch(DruidCluster cluster, JsonObject query) throws DruidException;
+    }
+
+    /**
+     * Parses the time series of a query from a Druid response.
+     */
+    @FunctionalInterface
+    public interface Parser {
+
+        /**
+         * @param response the Druid response
+         * @param query    the query of a job
+         * @return the time series of the query
+         * @throws SherlockException if the response cannot be parsed
+         */
+        List<TimeSeries> parse(JsonArray response, Query query) throws SherlockException;
+    }
+
+    /**
+     * Jobs sharing one query.
+     */
+    private static class Group {
+
+        /**
+         * The merged query.
+         */
+        private final JsonObject query;
+        /**
+         * Aggregations of the merged query by name.
+         */
+        private final Map<String, JsonElement> aggregations = new LinkedHashMap<>();
+        /**
+         * Post aggregations of the merged query by name.
+         */
+        private final Map<String, JsonElement> postAggregations = new LinkedHashMap<>();
+        /**
+         * Number of jobs which have not used the response.
+         */
+        private int pending = 0;
+        /**
+         * The response, once fetched.
+         */
+        private JsonArray response = null;
+        /**
+         * The failure of the query, once fetched.
+         */
+        private DruidException failure = null;
+
+        /**
+         * @param query query of the first job, without its aggregations
+         */
+        Group(JsonObject query) {
+            this.query = query;
+        }
+
+        /**
+         * Add the aggregations of a job to the group.
+         *
+         * @param job query of the job
+         * @return false if an aggregation of the job has the name
+         * of a different aggregation of the group
+         */
+        boolean add(JsonObject job) {
+            if (!canMerge(aggregations, job.get(QueryConstants.AGGREGATIONS))
+                || !canMerge(postAggregations, job.get(QueryConstants.POSTAGGREGATIONS))) {
+                return false;
+            }
+            merge(aggregations, job.get(QueryConstants.AGGREGATIONS));
+            merge(postAggregations, job.get(QueryConstants.POSTAGGREGATIONS));
+            pending++;
+            return true;
+        }
+
+        /**
+         * @return the query with the aggregations of all jobs
+         */
+        JsonObject getMergedQuery() {
+            JsonObject merged = copy(query);
+            JsonArray aggs = new JsonArray();
+            aggregations.values().forEach(aggs::add);
+            merged.add(QueryConstants.AGGREGATIONS, aggs);
+            if (!postAggregations.isEmpty()) {
+                JsonArray postAggs = new JsonArray();
+                postAggregations.values().forEach(postAggs::add);
+                merged.add(QueryConstants.POSTAGGREGATIONS, postAggs);
+            }
+            return merged;
+        }
+
+        /**
+         * Get the response of the merged query, sending it if no job has.
+         *
+         * @param cluster the cluster to query
+         * @param fetcher sends the query
+         * @return the response
+         * @throws DruidException if the query failed
+         */
+        synchronized JsonArray fetch(DruidCluster cluster, Fetcher fetcher) throws DruidException {
+            if (response == null && failure == null) {
+                log.info("Sending query coalesced from {} jobs", pending);
+                try {
+                    response = fetcher.fetch(cluster, getMergedQuery());
+                } catch (DruidException e) {
+                    failure = e;
+                }
+            }
+            JsonArray result = response;
+            DruidException error = failure;
+            if (--pending <= 0) {
+                // Drop the response once every job has used it
+                response = null;
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A registered job.
+     */
+    private static class Member {
+
+        /**
+         * The group of the job.
+         */
+        private final Group group;
+        /**
+         * Normalized query of the job when it was registered.
+         */
+        private final String query;
+
+        /**
+         * @param group the group of the job
+         * @param query normalized query of the job
+         */
+        Member(Group group, String query) {
+            this.group = group;
+            this.query = query;
+        }
+    }
+
+    private final DruidQueryService queryService = new DruidQueryService();
+    private final Map<Integer, Member> members = new ConcurrentHashMap<>();
+
+    /**
+     * Queries are coalesced if enabled and incremental detection is
+     * off, since incremental runs query only the intervals since the
+     * last run of each job, which differ between jobs.
+     *
+     * @return true if due jobs are coalesced
+     */
+    public static boolean isEnabled() {
+        return CLISettings.COALESCE_QUERIES && !CLISettings.INCREMENTAL_DETECTION;
+    }
+
+    /**
+     * Group the due jobs whose queries can be coalesced. Jobs
+     * which cannot be grouped with another job are not registered.
+     *
+     * @param jobs the due jobs
+     */
+    public void register(Collection<JobMetadata> jobs) {
+        if (!isEnabled() || jobs.size() < 2) {
+            return;
+        }
+        Map<String, List<Group>> groups = new LinkedHashMap<>();
+        Map<Integer, Member> registered = new LinkedHashMap<>();
+        for (JobMetadata job : jobs) {
+            JsonObject query = buildQuery(job);
+            if (query == null) {
+                continue;
+            }
+            JsonObject shared = copy(query);
+            shared.remove(QueryConstants.AGGREGATIONS);
+            shared.remove(QueryConstants.POSTAGGREGATIONS);
+            String key = job.getClusterId() + "|" + DruidResultCache.normalize(shared);
+            List<Group> candidates = groups.computeIfAbsent(key, k -> new ArrayList<>());
+            Group group = null;
+            for (Group candidate : candidates) {
+                if (candidate.add(query)) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new Group(shared);
+                group.add(query);
+                candidates.add(group);
+            }
+            registered.put(job.getJobId(), new Member(group, DruidResultCache.normalize(query)));
+        }
+        int coalesced = 0;
+        for (Map.Entry<Integer, Member> member : registered.entrySet()) {
+            if (member.getValue().group.pending > 1) {
+                members.put(member.getKey(), member.getValue());
+                coalesced++;
+            }
+        }
+        if (coalesced > 0) {
+            log.info("Coalescing the queries of {} of {} due jobs", coalesced, jobs.size());
+        }
+    }
+
+    /**
+     * Remove the registered jobs which did not use their group.
+     *
+     * @param jobs the jobs to remove
+     */
+    public void release(Collection<JobMetadata> jobs) {
+        for (JobMetadata job : jobs) {
+            if (job.getJobId() != null) {
+                members.remove(job.getJobId());
+            }
+        }
+    }
+
+    /**
+     * Get the time series of a job. A registered job uses the response of
+     * the coalesced query of its group, and other jobs query Druid alone.
+     *
+     * @param job     the job
+     * @param query   the query of the job
+     * @param cluster the cluster to query
+     * @param loader  queries the time series of the job alone
+     * @param fetcher sends the coalesced query
+     * @param parser  parses the time series of the job from the coalesced response
+     * @return the time series of the job
+     * @throws DruidException    if the query fails
+     * @throws SherlockException if the response cannot be parsed
+     */
+    public List<TimeSeries> getTimeSeries(
+            JobMetadata job,
+            Query query,
+            DruidCluster cluster,
+            DruidResultCache.Loader loader,
+            Fetcher fetcher,
+            Parser parser
+    ) throws DruidException, SherlockException {
+        Member member = job.getJobId() == null ? null : members.remove(job.getJobId());
+        if (member == null || !member.query.equals(DruidResultCache.normalize(query.getQueryJsonObject()))) {
+            return loader.load(query, cluster);
+        }
+        JsonArray response;
+        try {
+            response = member.group.fetch(cluster, fetcher);
+        } catch (DruidException e) {
+            log.error("Coalesced query failed, querying job [{}] alone", job.getJobId(), e);
+            return loader.load(query, cluster);
+        }
+        return parser.parse(response, query);
+    }
+
+    /**
+     * @param job a due job
+     * @return the query JSON of the job, or null if it cannot be built
+     */
+    private JsonObject buildQuery(JobMetadata job) {
+        if (job.getJobId() == null || job.getClusterId() == null) {
+            return null;
+        }
+        try {
+            Query query = queryService.build(job.getQuery(), Granularity.getValue(job.getGranularity()),
+                                             job.getGranularityRange(), job.getEffectiveQueryTime(), job.getTimeseriesRange());
+            return query.getQueryJsonObject();
+        } catch (Exception e) {
+            log.info("Not coalescing the query of job [{}]: {}", job.getJobId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param aggregations named aggregations
+     * @param added        JSON array of aggregations to add
+     * @return false if an added aggregation has the name of a different aggregation
+     */
+    private static boolean canMerge(Map<String, JsonElement> aggregations, JsonElement added) {
+        if (added == null || !added.isJsonArray()) {
+            return true;
+        }
+        for (JsonElement aggregation : added.getAsJsonArray()) {
+            JsonElement existing = aggregations.get(getName(aggregation));
+            if (existing != null && !DruidResultCache.normalize(existing).equals(DruidResultCache.normalize(aggregation))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param aggregations named aggregations
+     * @param added        JSON array of aggregations to add
+     */
+    private static void merge(Map<String, JsonElement> aggregations, JsonElement added) {
+        if (added == null || !added.isJsonArray()) {
+            return;
+        }
+        for (JsonElement aggregation : added.getAsJsonArray()) {
+            aggregations.putIfAbsent(getName(aggregation), aggregation);
+        }
+    }
+
+    /**
+     * @param aggregation an aggregation or post aggregation
+     * @return its output name, which is nested in filtered aggregations
+     */
+    private static String getName(JsonElement aggregation) {
+        if (!aggregation.isJsonObject()) {
+            return aggregation.toString();
+        }
+        JsonObject object = aggregation.getAsJsonObject();
+        if (object.has("name")) {
+            return object.get("name").getAsString();
+        }
+        if (object.has("aggregator")) {
+            return getName(object.get("aggregator"));
+        }
+        return DruidResultCache.normalize(object);
+    }
+
+    /**
+     * @param object a JSON object
+     * @return a deep copy of the object
+     */
+    private static JsonObject copy(JsonObject object) {
+        return new Gson().fromJson(object.toString(), JsonObject.class);
+    }
+}
@@ -206,6 +206,7 @@ public class SchedulerService {
             log.info("Execution task already stopped");
             return;
         }
+        executionTask.shutdown();
         executionTask = null;
         recoverableThreadScheduler.shutdown();
     }
@@ -216,6 +217,7 @@ public class SchedulerService {
     public void destroyMasterScheduler() {
         if (executionTask != null) {
             recoverableThreadScheduler.shutdown();
+            executionTask.shutdown();
             executionTask = null;
         }
         if (recoverableThreadScheduler != null) {
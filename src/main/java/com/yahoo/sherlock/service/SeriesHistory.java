@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.yahoo.egads.data.MetricMeta;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.model.SeriesBuffer;
+import com.yahoo.sherlock.settings.CLISettings;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent history of the time series of each job, used by incremental
+ * detection to query Druid only for the intervals since the last run.
+ * The data points of each series are held in a {@code SeriesBuffer}.
+ * A history is only used by runs of the job with the same query, granularity,
+ * range and cluster it was built with. The next query of a job starts at the
+ * last interval Druid returned, so that interval is queried again and late
+ * data in it replaces the stored data points, and intervals which Druid did
+ * not return yet are queried again by the next run. At most
+ * {@link CLISettings#INCREMENTAL_HISTORY_JOBS} histories are kept, and the
+ * least recently used ones are evicted first.
+ */
+@Slf4j
+public class SeriesHistory {
+
+    private static SeriesHistory instance = null;
+
+    /**
+     * @return the process-wide series history
+     */
+    public static synchronized SeriesHistory instance() {
+        if (instance == null) {
+            instance = new SeriesHistory();
+        }
+        return instance;
+    }
+
+    /**
+     * History of the time series of a job.
+     */
+    private static class History {
+
+        /**
+         * Signature of the job the history was built with.
+         */
+        private final String signature;
+        /**
+         * Start time in seconds of the next query, which is the
+         * start of the last interval returned by Druid.
+         */
+        private final int nextStart;
+        /**
+         * Data points of each series by metric name and source.
+         */
+        private final Map<String, Series> series;
+
+        /**
+         * @param signature signature of the job
+         * @param nextStart start time of the next query in seconds
+         * @param series    data points of each series
+         */
+        History(String signature, int nextStart, Map<String, Series> series) {
+            this.signature = signature;
+            this.nextStart = nextStart;
+            this.series = series;
+        }
+    }
+
+    /**
+     * Data points of a series with its metadata.
+     */
+    private static class Series {
+
+        /**
+         * Metadata of the series.
+         */
+        private final MetricMeta meta;
+        /**
+         * Data points of the series.
+         */
+        private final SeriesBuffer buffer;
+
+        /**
+         * @param meta   metadata of the series
+         * @param buffer data points of the series
+         */
+        Series(MetricMeta meta, SeriesBuffer buffer) {
+            this.meta = meta;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Histories of the jobs in least recently used order.
+     */
+    private final Map<Integer, History> histories = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param job the job
+     * @return the signature of the job settings which its history depends on
+     */
+    public static String getSignature(JobMetadata job) {
+        return job.getClusterId() + "|" + job.getGranularity() + "|" + job.getGranularityRange()
+               + "|" + job.getTimeseriesRange() + "|" + job.getQuery();
+    }
+
+    /**
+     * Get the start time of the next query of a job.
+     *
+     * @param jobId     the job ID
+     * @param signature signature of the job
+     * @return the start time in seconds, or null if the job has no history
+     * or its history was built with other settings
+     */
+    public Integer getNextStart(Integer jobId, String signature) {
+        History history = get(jobId);
+        return history == null || !history.signature.equals(signature) ? null : history.nextStart;
+    }
+
+    /**
+     * Replace the history of a job with the time series of a full query.
+     *
+     * @param jobId      the job ID
+     * @param signature  signature of the job
+     * @param timeSeries time series of the query
+     * @param startTime  start time of the query in seconds
+     * @return copies of the time series
+     */
+    public List<TimeSeries> replace(Integer jobId, String signature, List<TimeSeries> timeSeries, int startTime) {
+        Map<String, Series> series = new LinkedHashMap<>();
+        for (TimeSeries source : timeSeries) {
+            series.put(getKey(source.meta), new Series(source.meta, SeriesBuffer.of(source)));
+        }
+        History history = new History(signature, getNextStart(series, startTime), series);
+        put(jobId, history);
+        return copy(history);
+    }
+
+    /**
+     * Replace the data points since the start of the last query of a job with
+     * the time series of the new query, and drop the data points before the start
+     * of the new window. Series without data points in the new window are removed.
+     *
+     * @param jobId     the job ID
+     * @param signature signature of the job
+     * @param increment time series of the intervals since the start of the last query
+     * @param startTime start time of the new window in seconds
+     * @return the time series of the new window, or null if the history is
+     * missing, a series of the increment is not in the history or a data
+     * point of the increment is out of order
+     */
+    public List<TimeSeries> update(Integer jobId, String signature, List<TimeSeries> increment, int startTime) {
+        History history = get(jobId);
+        if (history == null || !history.signature.equals(signature)) {
+            return null;
+        }
+        // an empty increment keeps the stored intervals it should have returned again
+        long end = increment.isEmpty() ? Long.MAX_VALUE : history.nextStart;
+        Map<String, Series> series = new LinkedHashMap<>();
+        for (Map.Entry<String, Series> entry : history.series.entrySet()) {
+            SeriesBuffer old = entry.getValue().buffer;
+            SeriesBuffer buffer = new SeriesBuffer(old.size());
+            for (int i = 0; i < old.size(); i++) {
+                if (old.time(i) >= startTime && old.time(i) < end) {
+                    buffer.append(old.time(i), old.value(i));
+                }
+            }
+            series.put(entry.getKey(), new Series(entry.getValue().meta, buffer));
+        }
+        for (TimeSeries source : increment) {
+            Series target = series.get(getKey(source.meta));
+            if (target == null) {
+                log.info("New time series [{}] in the history of job [{}]", source.meta.source, jobId);
+                return null;
+            }
+            for (TimeSeries.Entry entry : source.data) {
+                if (entry.time >= startTime && !target.buffer.append(entry.time, entry.value)) {
+                    log.warn("Out of order data point at {} in time series [{}] of job [{}]", entry.time, source.meta.source, jobId);
+                    return null;
+                }
+            }
+        }
+        series.values().removeIf(entry -> entry.buffer.size() == 0);
+        History updated = new History(signature, getNextStart(series, history.nextStart), series);
+        put(jobId, updated);
+        return copy(updated);
+    }
+
+    /**
+     * Remove the history of a job.
+     *
+     * @param jobId the job ID
+     */
+    public synchronized void remove(Integer jobId) {
+        if (jobId != null) {
+            histories.remove(jobId);
+        }
+    }
+
+    /**
+     * @param jobId the job ID
+     * @return the history of the job or null
+     */
+    private synchronized History get(Integer jobId) {
+        return histories.get(jobId);
+    }
+
+    /**
+     * Store the history of a job and evict the least recently
+     * used histories until at most the maximum are kept.
+     *
+     * @param jobId   the job ID
+     * @param history the history
+     */
+    private synchronized void put(Integer jobId, History history) {
+        histories.put(jobId, history);
+        Iterator<History> it = histories.values().iterator();
+        while (histories.size() > Math.max(0, CLISettings.INCREMENTAL_HISTORY_JOBS) && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @param series   data points of each series
+     * @param fallback start time if no series has data points
+     * @return the start of the last interval with a data point in any series
+     */
+    private static int getNextStart(Map<String, Series> series, int fallback) {
+        long last = -1;
+        for (Series entry : series.values()) {
+            if (entry.buffer.size() > 0) {
+                last = Math.max(last, entry.buffer.time(entry.buffer.size() - 1));
+            }
+        }
+        return last < 0 ? fallback : (int) last;
+    }
+
+    /**
+     * @param meta metadata of a series
+     * @return key of the series in a history
+     */
+    private static String getKey(MetricMeta meta) {
+        return meta.name + "|" + meta.source;
+    }
+
+    /**
+     * Copy the series of a history.
+     *
+     * @param history the history
+     * @return copies of the series
+     */
+    private static List<TimeSeries> copy(History history) {
+        List<TimeSeries> copies = new ArrayList<>(history.series.size());
+        for (Series series : history.series.values()) {
+            copies.add(series.buffer.toTimeSeries(TimeSeriesParserService.copyMetricMeta(series.meta)));
+        }
+        return copies;
+    }
+}
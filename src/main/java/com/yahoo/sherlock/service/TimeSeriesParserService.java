@@ -7,6 +7,8 @@
 package com.yahoo.sherlock.service;
 
 import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.yahoo.sherlock.exception.LambdaException;
 import com.yahoo.sherlock.query.JsonTimeSeries;
 import com.yahoo.sherlock.settings.CLISettings;
@@ -19,10 +21,14 @@ import com.yahoo.sherlock.query.Query;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -62,15 +68,75 @@ public class TimeSeriesParserService {
                             log.error("Error while processing data point!", e);
                         }
                     });
-            jsonTimeSeries.getUniqueTimeSeriesMap()
-                .values()
-                .stream()
-                .filter(isValidTimeSeries(query))
-                .forEach(timeSeriesList::add);                      // get the list of timeseries
+            timeSeriesList = getValidTimeSeries(jsonTimeSeries, query);
         }
         return timeSeriesList;
     }
 
+    /**
+     * Method to generate timeseries while reading a druid response
+     * from a stream, without materializing the response JSON.
+     *
+     * @param reader reader of the druid response
+     * @param query  associated query object
+     * @return list of timeseries
+     * @throws SherlockException if the druid response is null
+     * @throws IOException       if the druid response is not a valid JSON array
+     */
+    public List<TimeSeries> readTimeSeries(JsonReader reader, Query query) throws SherlockException, IOException {
+        return getValidTimeSeries(readJsonTimeSeries(reader, query), query);
+    }
+
+    /**
+     * Parse all timeseries from a druid response stream as
+     * it is read, including the timeseries which are not valid.
+     *
+     * @param reader reader of the druid response
+     * @param query  associated query object
+     * @return list of timeseries
+     * @throws SherlockException if the druid response is null
+     * @throws IOException       if the druid response is not a valid JSON array
+     */
+    public List<TimeSeries> readAllTimeSeries(JsonReader reader, Query query) throws SherlockException, IOException {
+        return new ArrayList<>(readJsonTimeSeries(reader, query).getUniqueTimeSeriesMap().values());
+    }
+
+    /**
+     * Read a druid response stream.
+     *
+     * @param reader reader of the druid response
+     * @param query  associated query object
+     * @return the parsed druid response
+     * @throws SherlockException if the druid response is null
+     * @throws IOException       if the druid response is not a valid JSON array
+     */
+    private JsonTimeSeries readJsonTimeSeries(JsonReader reader, Query query) throws SherlockException, IOException {
+        log.info("Parsing druid response stream.");
+        if (reader.peek() == JsonToken.NULL) {
+            log.error("Error in druid response.");
+            throw new SherlockException("Null druid response!");
+        }
+        JsonTimeSeries jsonTimeSeries = new JsonTimeSeries(query);
+        jsonTimeSeries.readDataPoints(reader);
+        log.info("Read {} timeseries from druid response.", jsonTimeSeries.getUniqueTimeSeriesMap().size());
+        return jsonTimeSeries;
+    }
+
+    /**
+     * Get the valid timeseries parsed from a druid response.
+     *
+     * @param jsonTimeSeries the parsed druid response
+     * @param query          associated query object
+     * @return list of valid timeseries
+     */
+    private List<TimeSeries> getValidTimeSeries(JsonTimeSeries jsonTimeSeries, Query query) {
+        return jsonTimeSeries.getUniqueTimeSeriesMap()
+            .values()
+            .stream()
+            .filter(isValidTimeSeries(query))
+            .collect(Collectors.toList());
+    }
+
     /**
      * Filter for bad timeseries.
      * @param query input Query for timeseries
@@ -133,45 +199,129 @@ public class TimeSeriesParserService {
      */
     public List<TimeSeries>[] subseries(List<TimeSeries> sources, long start, long end, Granularity granularity, Integer granularityRange, int intervals)
         throws SherlockException {
-        long singleInterval = (long) (intervals - (intervals % granularityRange)) * granularity.getMinutes();
         int fillIntervals = (int) ((end - start) / granularity.getMinutes());
         @SuppressWarnings("unchecked") List<TimeSeries>[] result = (List<TimeSeries>[]) new List[fillIntervals];
         if (sources.isEmpty()) {
             return result;
         }
+        Iterator<List<TimeSeries>> subseries = subseriesIterator(sources, start, end, granularity, granularityRange, intervals);
+        for (int intervalIndex = 0; subseries.hasNext(); intervalIndex++) {
+            result[intervalIndex] = subseries.next();
+        }
+        return result;
+    }
+
+    /**
+     * Lazily partition a list of time series for an entire time frame into
+     * the sub series lists of each backfill period, in the same way as
+     * {@link #subseries(List, long, long, Granularity, Integer, int)}.
+     * Each sub series list is only built when it is requested, so a caller
+     * which processes the periods in turn never holds all of them at once.
+     * If there are no sources, each sub series list is empty.
+     *
+     * @param sources          the source time series
+     * @param start            start of backfill job window
+     * @param end              end of backfill job window
+     * @param granularity      the data granularity
+     * @param granularityRange granularity range to aggregate on
+     * @param intervals        intervals to lookback
+     * @return an iterator over the time series lists of each period
+     * @throws SherlockException if filling the missing data of a sub series fails,
+     *                           which is thrown by the iterator
+     */
+    public Iterator<List<TimeSeries>> subseriesIterator(
+            List<TimeSeries> sources,
+            long start,
+            long end,
+            Granularity granularity,
+            Integer granularityRange,
+            int intervals
+    ) throws SherlockException {
+        long singleInterval = (long) (intervals - (intervals % granularityRange)) * granularity.getMinutes();
+        int fillIntervals = (int) ((end - start) / granularity.getMinutes());
         // sort the datapoints
         for (TimeSeries source : sources) {
             source.data.sort(Comparator.comparingLong(a -> a.time));
         }
         long queryWindowStart = start - singleInterval;
-        int intervalIndex = 0;
-        // collect all subtimeseries
-        for (long i = queryWindowStart ; intervalIndex < fillIntervals ; i += granularity.getMinutes()) {
-            final long localStart = i * 60;
-            final long localEnd = (i + singleInterval) * 60;
-            List<TimeSeries> subTimeseriesList;
-            subTimeseriesList = sources.stream().map(source -> {
-                    TimeSeries subTimeseries = new TimeSeries();
-                    // copy meta info
-                    subTimeseries.meta = copyMetricMeta(source.meta);
-                    // copy datapoints for sub timeseries
-                    source.data.stream()
-                        .filter(datapoint -> datapoint.time > localStart && datapoint.time <= localEnd)
-                        .forEach(datapoint -> {
-                                try {
-                                    subTimeseries.append(datapoint.time, datapoint.value);
-                                } catch (Exception e) {
-                                    log.error("Error while appending data to sub timeseries!");
-                                }
-                            });
-                    return subTimeseries;
-                })
-                .map(LambdaException.functionalExceptionHandler(timeSeries -> EgadsUtils.fillMissingData(timeSeries, granularityRange, 1)))
-                .collect(Collectors.toList());
-            result[intervalIndex] = subTimeseriesList;
-            intervalIndex += 1;
+        Function<TimeSeries, TimeSeries> fill = LambdaException.functionalExceptionHandler(
+                timeSeries -> EgadsUtils.fillMissingData(timeSeries, granularityRange, 1));
+        return new Iterator<List<TimeSeries>>() {
+            private int intervalIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return intervalIndex < fillIntervals;
+            }
+
+            @Override
+            public List<TimeSeries> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long i = queryWindowStart + (long) intervalIndex * granularity.getMinutes();
+                intervalIndex += 1;
+                return subseries(sources, i * 60, (i + singleInterval) * 60, fill);
+            }
+        };
+    }
+
+    /**
+     * Collect the sub series of each source time series
+     * with the data points in a time range. The bounds of the range
+     * are found by binary search and the sub series share the data point
+     * entries of the sources, which are only copied when the missing
+     * data is filled.
+     *
+     * @param sources    the source time series, with sorted data points
+     * @param localStart exclusive start of the range in seconds
+     * @param localEnd   inclusive end of the range in seconds
+     * @param fill       fills the missing data of a sub series
+     * @return the list of sub series
+     */
+    private List<TimeSeries> subseries(List<TimeSeries> sources, long localStart, long localEnd, Function<TimeSeries, TimeSeries> fill) {
+        List<TimeSeries> subTimeseriesList = new ArrayList<>(sources.size());
+        for (TimeSeries source : sources) {
+            TimeSeries subTimeseries = new TimeSeries();
+            // copy meta info
+            subTimeseries.meta = copyMetricMeta(source.meta);
+            int from = firstAfter(source.data, localStart);
+            int to = firstAfter(source.data, localEnd);
+            subTimeseries.data.ensureCapacity(to - from);
+            for (int i = from; i < to; i++) {
+                TimeSeries.Entry datapoint = source.data.get(i);
+                // skip duplicate timestamps like TimeSeries.append
+                if (subTimeseries.data.isEmpty() || datapoint.time > subTimeseries.lastTime()) {
+                    subTimeseries.data.add(datapoint);
+                } else {
+                    log.error("Error while appending data to sub timeseries!");
+                }
+            }
+            subTimeseriesList.add(fill.apply(subTimeseries));
         }
-        return result;
+        return subTimeseriesList;
+    }
+
+    /**
+     * Binary search for the first data point after a time.
+     *
+     * @param data sorted data points
+     * @param time time in seconds
+     * @return index of the first data point with a greater time,
+     * or the number of data points if there is none
+     */
+    protected static int firstAfter(List<TimeSeries.Entry> data, long time) {
+        int low = 0;
+        int high = data.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (data.get(mid).time <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     /**
@@ -181,7 +331,7 @@ public class TimeSeriesParserService {
      * @param source object to copy
      * @return a copy of the object with a new ID
      */
-    public MetricMeta copyMetricMeta(MetricMeta source) {
+    public static MetricMeta copyMetricMeta(MetricMeta source) {
         MetricMeta copy = new MetricMeta();
         copy.name = source.name;
         copy.source = source.source;
@@ -173,6 +173,24 @@ public class CLISettings {
     @Parameter(names = "--execution-delay", description = "the number of seconds between each check(ping to redis) on jobs. (default 30)")
     public static int EXECUTION_DELAY = 30;
 
+    /**
+     * Number of jobs executed concurrently by the execution task.
+     */
+    @Parameter(names = "--execution-parallelism", description = "Number of jobs that are executed concurrently. (default 8)")
+    public static int EXECUTION_PARALLELISM = 8;
+
+    /**
+     * Maximum number of concurrently executing jobs per Druid cluster.
+     */
+    @Parameter(names = "--max-jobs-per-cluster", description = "Maximum number of jobs executing concurrently against a single Druid cluster, 0 for no limit. (default 4)")
+    public static int MAX_JOBS_PER_CLUSTER = 4;
+
+    /**
+     * Maximum number of due jobs claimed from the queue in one call.
+     */
+    @Parameter(names = "--queue-batch-size", description = "Maximum number of due jobs claimed from the job queue in one round trip. (default 64)")
+    public static int QUEUE_BATCH_SIZE = 64;
+
     /**
      * Comma-delimited list of valid email domains.
      */
@@ -204,6 +222,12 @@ public class CLISettings {
     @Parameter(names = "--redis-timeout", description = "Timeout when connecting to Redis. (default 5000)")
     public static int REDIS_TIMEOUT = 5000;
 
+    /**
+     * Maximum number of idle pipelining connections kept per codec.
+     */
+    @Parameter(names = "--redis-pipeline-pool-size", description = "Maximum number of idle Redis connections kept for pipelined commands, 0 to close them after use. (default 8)")
+    public static int REDIS_PIPELINE_POOL_SIZE = 8;
+
     /**
      * The password to use when authenticating a Redis server,
      * if the server requires a password.
@@ -247,12 +271,116 @@ public class CLISettings {
     @Parameter(names = "--http-client-timeout", description = "Timeout for http client. (default 20000)")
     public static int HTTP_CLIENT_TIMEOUT = 20000;
 
+    /**
+     * Maximum number of pooled connections to each Druid broker.
+     */
+    @Parameter(names = "--druid-max-connections", description = "Maximum number of pooled connections to each Druid broker. (default 20)")
+    public static int DRUID_MAX_CONNECTIONS = 20;
+
+    /**
+     * Seconds after which idle pooled Druid connections are closed.
+     */
+    @Parameter(names = "--druid-idle-timeout", description = "Seconds after which idle pooled Druid connections are closed. (default 60)")
+    public static int DRUID_IDLE_TIMEOUT = 60;
+
+    /**
+     * Seconds for which the datasource list of a Druid cluster is cached.
+     */
+    @Parameter(names = "--datasource-cache-ttl", description = "Seconds for which the datasource list of a Druid cluster is cached, 0 to disable. (default 600)")
+    public static int DATASOURCE_CACHE_TTL = 600;
+
+    /**
+     * Seconds for which a failed datasource lookup is cached.
+     */
+    @Parameter(names = "--datasource-negative-ttl", description = "Seconds for which a failed datasource lookup is cached. (default 30)")
+    public static int DATASOURCE_NEGATIVE_TTL = 30;
+
+    /**
+     * Seconds for which the time series of a Druid query are cached.
+     */
+    @Parameter(names = "--druid-cache-ttl", description = "Maximum seconds for which the time series of a Druid query are cached, within the hours of lag of the cluster, 0 to disable. (default 600)")
+    public static int DRUID_CACHE_TTL = 600;
+
+    /**
+     * Maximum number of data points in the Druid result cache.
+     */
+    @Parameter(names = "--druid-cache-points", description = "Maximum number of data points in the Druid result cache. (default 1000000)")
+    public static int DRUID_CACHE_POINTS = 1000000;
+
+    /**
+     * Maximum number of time series of all jobs scored in parallel.
+     */
+    @Parameter(names = "--detection-parallelism", description = "Maximum number of time series scored in parallel, 0 for the number of processors. (default 0)")
+    public static int DETECTION_PARALLELISM = 0;
+
+    /**
+     * Query only the intervals since the last run of a job.
+     */
+    @Parameter(names = "--incremental-detection", description = "Query Druid only for the intervals since the last run of a job, and keep the recent time series of each job in memory.")
+    public static boolean INCREMENTAL_DETECTION = false;
+
+    /**
+     * Maximum number of job histories kept for incremental detection.
+     */
+    @Parameter(names = "--incremental-history-jobs", description = "The maximum number of jobs whose time series are kept in memory for incremental detection. (default 10000)")
+    public static int INCREMENTAL_HISTORY_JOBS = 10000;
+
+    /**
+     * Share one Druid query between due jobs which only differ in their aggregations.
+     */
+    @Parameter(names = "--coalesce-queries", description = "Send one Druid query for the due jobs of a batch which only differ in their aggregations. Not applied with --incremental-detection.")
+    public static boolean COALESCE_QUERIES = false;
+
+    /**
+     * Number of threads which run the intervals of backfill jobs.
+     */
+    @Parameter(names = "--backfill-threads", description = "Number of threads which run the intervals of backfill jobs. (default 4)")
+    public static int BACKFILL_THREADS = 4;
+
+    /**
+     * Number of backfill reports stored at once.
+     */
+    @Parameter(names = "--backfill-batch-size", description = "Number of backfill reports stored at once. (default 1000)")
+    public static int BACKFILL_BATCH_SIZE = 1000;
+
+    /**
+     * Number of datapoints of a Druid result array above which it is parsed in parallel,
+     * and the size of the chunks in which streamed result arrays are parsed in parallel.
+     */
+    @Parameter(names = "--parallel-parse-rows", description = "Number of datapoints of a Druid result array above which it is parsed in parallel, 0 to disable. (default 10000)")
+    public static int PARALLEL_PARSE_ROWS = 10000;
+
+    /**
+     * Number of partitions of a Druid result array parsed in parallel.
+     */
+    @Parameter(names = "--parse-parallelism", description = "Number of partitions of a Druid result array parsed in parallel, 0 for the number of processors. (default 0)")
+    public static int PARSE_PARALLELISM = 0;
+
     /**
      * Backup redis DB local json dump file path.
      */
     @Parameter(names = "--backup-redis-db-path", description = "Backup redis DB local json dump file path. (default null i.e no backup)")
     public static String BACKUP_REDIS_DB_PATH;
 
+    /**
+     * Number of keys scanned and fetched at once by a backup,
+     * and number of entries written at once by a restore.
+     */
+    @Parameter(names = "--backup-batch-size", description = "Number of Redis keys scanned and fetched at once when the database is backed up or written at once when it is restored. (default 1000)")
+    public static int BACKUP_BATCH_SIZE = 1000;
+
+    /**
+     * Format of the backup file.
+     */
+    @Parameter(names = "--backup-format", description = "Format of the redis DB backup file, json or binary. (default json)")
+    public static String BACKUP_FORMAT = "json";
+
+    /**
+     * Whether to compress the blocks of a binary backup.
+     */
+    @Parameter(names = "--backup-compression", description = "Compress the blocks of a binary redis DB backup. (default false)")
+    public static boolean BACKUP_COMPRESSION = false;
+
     /**
      * File path to specify the whitelisted druid broker hosts.
      */
@@ -35,6 +35,10 @@ public class DatabaseConstants {
      * The name of the Redis timeout parameter.
      */
     public static final String REDIS_TIMEOUT = "redisTimeout";
+    /**
+     * The name of the Redis pipelining connection pool size parameter.
+     */
+    public static final String REDIS_PIPELINE_POOL_SIZE = "redisPipelinePoolSize";
     /**
      * The name and value of the report job ID index parameter.
      */
@@ -47,6 +51,11 @@ public class DatabaseConstants {
      * The name and value of the job frequency index.
      */
     public static final String INDEX_FREQUENCY = "frequencyIndex";
+    /**
+     * The name and value of the per job and frequency report
+     * timeline index, which is scored by report query end time.
+     */
+    public static final String INDEX_REPORT_TIMELINE = "reportTimelineIndex";
     /**
      * The name and value of the deleted job ID index parameter.
      */
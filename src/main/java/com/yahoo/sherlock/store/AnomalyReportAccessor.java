@@ -58,6 +58,34 @@ public interface AnomalyReportAccessor {
     @NonNull
     List<AnomalyReport> getAnomalyReportsForJob(String jobId, String frequency) throws IOException;
 
+    /**
+     * Get a list of anomaly reports that have the specified job ID
+     * and frequency and whose query end time is within a range.
+     * Only the reports in the range should be read from the database.
+     * @param jobId the job ID for which to find reports
+     * @param frequency frequency of the job
+     * @param start start of the range in minutes, inclusive
+     * @param end end of the range in minutes, inclusive
+     * @return a list of matching reports ordered by query end time, which may be empty
+     * @throws IOException if an error occurs
+     */
+    @NonNull
+    List<AnomalyReport> getAnomalyReportsForJobInRange(String jobId, String frequency, long start, long end) throws IOException;
+
+    /**
+     * Get a page of the most recent anomaly reports that have the
+     * specified job ID and frequency, ordered from newest to oldest
+     * by query end time.
+     * @param jobId the job ID for which to find reports
+     * @param frequency frequency of the job
+     * @param offset number of most recent reports to skip
+     * @param count maximum number of reports to return
+     * @return a list of matching reports, which may be empty
+     * @throws IOException if an error occurs
+     */
+    @NonNull
+    List<AnomalyReport> getLatestAnomalyReportsForJob(String jobId, String frequency, int offset, int count) throws IOException;
+
     /**
      * Get a list of anomaly reports that are present in given emailId Index.
      * This method should search the database for all anomaly reports
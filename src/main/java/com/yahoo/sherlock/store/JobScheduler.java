@@ -120,6 +120,20 @@ public interface JobScheduler {
      */
     JobMetadata popQueue(long timestampMinutes) throws IOException;
 
+    /**
+     * Pop up to {@code maxBatch} jobs from the queue whose execution
+     * time is equal to or less than the provided time. The jobs are
+     * claimed atomically and moved to the pending queue. Jobs whose
+     * metadata no longer exists are dropped from the pending queue
+     * and are not returned.
+     *
+     * @param timestampMinutes the current time in minutes
+     * @param maxBatch         the maximum number of jobs to claim
+     * @return the claimed jobs in queue order, empty if there are none
+     * @throws IOException if an error occurs while getting the jobs
+     */
+    List<JobMetadata> popQueue(long timestampMinutes, int maxBatch) throws IOException;
+
     /**
      * When jobs are popped from the job queue, they may be added
      * to a pending queue in case a job runner fails. This method
@@ -12,6 +12,10 @@ import com.yahoo.sherlock.settings.DatabaseConstants;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 /**
@@ -43,6 +47,20 @@ public interface JsonDumper {
      */
     List<ImmutablePair<String, String>> getQueuedJobs() throws IOException;
 
+    /**
+     * Receives the progress of a restore.
+     */
+    @FunctionalInterface
+    interface RestoreProgress {
+
+        /**
+         * Called after each batch of entries is written to the backend.
+         * @param entries number of entries of the JSON object written so far
+         * @throws IOException if the progress cannot be recorded
+         */
+        void restored(long entries) throws IOException;
+    }
+
     /**
      * Returns the raw data of the backend as it is stored
      * as a JSON object.
@@ -51,6 +69,23 @@ public interface JsonDumper {
      */
     JsonObject getRawData() throws IOException;
 
+    /**
+     * Write the raw data of the backend as it is stored as a JSON
+     * object to a writer, without holding the whole backend in memory.
+     * @param writer the writer of the JSON object
+     * @throws IOException if an error reading the backend or writing occurs
+     */
+    void dumpRawData(Writer writer) throws IOException;
+
+    /**
+     * Write the data of the backend as a binary snapshot to a channel,
+     * without holding the whole backend in memory.
+     * @param channel  the channel of the snapshot
+     * @param compress whether to compress the blocks of the snapshot
+     * @throws IOException if an error reading the backend or writing occurs
+     */
+    void dumpSnapshot(WritableByteChannel channel, boolean compress) throws IOException;
+
     /**
      * Update the backend with the data stored in the provided
      * JSON object. This method does not flush the backend
@@ -60,4 +95,33 @@ public interface JsonDumper {
      */
     void writeRawData(JsonObject json) throws IOException;
 
+    /**
+     * Update the backend with the data of a JSON object which is
+     * read one entry at a time and written in batches, without holding
+     * the whole object in memory. This method does not flush the
+     * backend before writing.
+     * @param reader   the reader of the JSON object
+     * @param skip     number of leading entries to skip, which
+     *                 an earlier restore has already written
+     * @param progress receives the number of entries written after each batch
+     * @return the number of entries of the JSON object
+     * @throws IOException if the JSON cannot be read or an error writing to the backend occurs
+     */
+    long restoreRawData(Reader reader, long skip, RestoreProgress progress) throws IOException;
+
+    /**
+     * Update the backend with the data of a binary snapshot, which
+     * is read one block at a time and written in batches. A snapshot
+     * read from a seekable channel, such as a file, is checked to be
+     * complete before anything is written. This method does not flush
+     * the backend before writing.
+     * @param channel  the channel of the snapshot
+     * @param skip     number of leading records to skip, which
+     *                 an earlier restore has already written
+     * @param progress receives the number of records written after each batch
+     * @return the number of records of the snapshot
+     * @throws IOException if the snapshot cannot be read or an error writing to the backend occurs
+     */
+    long restoreSnapshot(ReadableByteChannel channel, long skip, RestoreProgress progress) throws IOException;
+
 }
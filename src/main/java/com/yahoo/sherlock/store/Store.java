@@ -90,6 +90,7 @@ public class Store {
                 put(DatabaseConstants.REDIS_PORT, String.valueOf(CLISettings.REDIS_PORT));
                 put(DatabaseConstants.REDIS_SSL, CLISettings.REDIS_SSL ? "true" : "false");
                 put(DatabaseConstants.REDIS_TIMEOUT, String.valueOf(CLISettings.REDIS_TIMEOUT));
+                put(DatabaseConstants.REDIS_PIPELINE_POOL_SIZE, String.valueOf(CLISettings.REDIS_PIPELINE_POOL_SIZE));
                 put(DatabaseConstants.REDIS_PASSWORD, CLISettings.REDIS_PASSWORD);
                 put(DatabaseConstants.REDIS_CLUSTERED, CLISettings.REDIS_CLUSTERED ? "true" : null);
                 put(DatabaseConstants.INDEX_REPORT_JOB_ID, DatabaseConstants.INDEX_REPORT_JOB_ID);
@@ -99,6 +100,7 @@ public class Store {
                 put(DatabaseConstants.INDEX_QUERY_ID, DatabaseConstants.INDEX_QUERY_ID);
                 put(DatabaseConstants.INDEX_JOB_ID, DatabaseConstants.INDEX_JOB_ID);
                 put(DatabaseConstants.INDEX_FREQUENCY, DatabaseConstants.INDEX_FREQUENCY);
+                put(DatabaseConstants.INDEX_REPORT_TIMELINE, DatabaseConstants.INDEX_REPORT_TIMELINE);
                 put(DatabaseConstants.INDEX_EMAILID_REPORT, DatabaseConstants.INDEX_EMAILID_REPORT);
                 put(DatabaseConstants.INDEX_EMAILID_TRIGGER, DatabaseConstants.INDEX_EMAILID_TRIGGER);
                 put(DatabaseConstants.INDEX_EMAILID_JOBID, DatabaseConstants.INDEX_EMAILID_JOBID);
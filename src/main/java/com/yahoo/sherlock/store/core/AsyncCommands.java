@@ -1,11 +1,18 @@
 package com.yahoo.sherlock.store.core;
 
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.Range;
 import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
 import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * This interface is used to wrap either a {@code io.lettuce.core.api.async.RedisAsyncCommands} or {@code RedisClusterAsyncComamands}
@@ -33,6 +40,14 @@ public interface AsyncCommands<K> extends AutoCloseable {
      */
     RedisFuture<List<K>> keys(K pattern);
 
+    /**
+     * @param cursor cursor of the last call, or {@code ScanCursor.INITIAL}
+     * @param args   scan arguments
+     * @return the next keys and the cursor to resume from
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#scan(ScanCursor, ScanArgs)
+     */
+    RedisFuture<KeyScanCursor<K>> scan(ScanCursor cursor, ScanArgs args);
+
     /**
      * @param key key to get
      * @param value value of the key
@@ -85,6 +100,21 @@ public interface AsyncCommands<K> extends AutoCloseable {
      */
     RedisFuture<Set<K>> smembers(K key);
 
+    /**
+     * @param keys set keys to intersect
+     * @return members present in every set
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#sinter(Object[])
+     */
+    RedisFuture<Set<K>> sinter(K... keys);
+
+    /**
+     * @param key    set key
+     * @param member member to check
+     * @return whether the member is in the set
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#sismember(Object, Object)
+     */
+    RedisFuture<Boolean> sismember(K key, K member);
+
     /**
      * @param key hash key
      * @param h   hash map to use
@@ -117,6 +147,38 @@ public interface AsyncCommands<K> extends AutoCloseable {
      */
     RedisFuture<List<ScoredValue<K>>> zrangeWithScores(K key, long start, long end);
 
+    /**
+     * @param key   sorted set key
+     * @param range score range
+     * @return list of values with a score in the range, by ascending score
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#zrangebyscore(Object, Range)
+     */
+    RedisFuture<List<K>> zrangebyscore(K key, Range<? extends Number> range);
+
+    /**
+     * @param key   sorted set key
+     * @param start start index
+     * @param end   end index
+     * @return list of values in those indices, by descending score
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#zrevrange(Object, long, long)
+     */
+    RedisFuture<List<K>> zrevrange(K key, long start, long end);
+
+    /**
+     * @param key    sorted set key
+     * @param values values to remove
+     * @return number of removed elements
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#zrem(Object, Object[])
+     */
+    RedisFuture<Long> zrem(K key, K... values);
+
+    /**
+     * @param keys keys to check
+     * @return number of existing keys
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#exists(Object[])
+     */
+    RedisFuture<Long> exists(K... keys);
+
     /**
      * @param key key name
      * @param seconds time in seconds
@@ -124,6 +186,71 @@ public interface AsyncCommands<K> extends AutoCloseable {
      */
     RedisFuture<Boolean> expire(K key, long seconds);
 
+    /**
+     * @param script String of the script to execute
+     * @param type   script return value type token
+     * @param keys   keys operated on by the script
+     * @param values script arguments
+     * @param <T>    script return type
+     * @return script results
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#eval(String, ScriptOutputType, Object[], Object[])
+     */
+    <T> RedisFuture<T> eval(String script, ScriptOutputType type, K[] keys, K... values);
+
+    /**
+     * @param digest SHA1 digest of a loaded script
+     * @param type   script return value type token
+     * @param keys   keys operated on by the script
+     * @param values script arguments
+     * @param <T>    script return type
+     * @return script results
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#evalsha(String, ScriptOutputType, Object[], Object[])
+     */
+    <T> RedisFuture<T> evalsha(String digest, ScriptOutputType type, K[] keys, K... values);
+
+    /**
+     * @param script script to load into the script cache
+     * @return SHA1 digest of the script
+     * @see io.lettuce.core.api.async.RedisAsyncCommands#scriptLoad(Object)
+     */
+    RedisFuture<String> scriptLoad(K script);
+
+    /**
+     * Execute a script by its digest, falling back to {@code EVAL}
+     * if the script is not in the cache of the node that owns the keys.
+     * The fallback is flushed immediately, even if commands are
+     * not automatically flushed.
+     *
+     * @param script the script to execute
+     * @param type   script return value type token
+     * @param keys   keys operated on by the script
+     * @param values script arguments
+     * @param <T>    script return type
+     * @return future of the script results
+     * @see SyncCommands#eval(RedisScript, ScriptOutputType, Object[], Object[])
+     */
+    default <T> CompletableFuture<T> eval(RedisScript script, ScriptOutputType type, K[] keys, K... values) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        BiConsumer<T, Throwable> forward = (value, err) -> {
+            if (err == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(err);
+            }
+        };
+        BiConsumer<T, Throwable> reload = (value, err) -> {
+            if (err == null || !RedisScript.isNoScript(err)) {
+                forward.accept(value, err);
+            } else {
+                RedisFuture<T> future = eval(script.getSource(), type, keys, values);
+                flushCommands();
+                future.whenComplete(forward);
+            }
+        };
+        this.<T>evalsha(script.getDigest(), type, keys, values).whenComplete(reload);
+        return result;
+    }
+
     /**
      * Command to dump snapshot of redis data.
      * @return OK string
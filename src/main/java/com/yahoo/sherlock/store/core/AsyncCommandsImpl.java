@@ -1,7 +1,12 @@
 package com.yahoo.sherlock.store.core;
 
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.Range;
 import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
 import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.async.RedisAsyncCommands;
 
 import java.util.List;
@@ -39,6 +44,11 @@ public class AsyncCommandsImpl<K> implements AsyncCommands<K> {
         return commands.keys(pattern);
     }
 
+    @Override
+    public RedisFuture<KeyScanCursor<K>> scan(ScanCursor cursor, ScanArgs args) {
+        return commands.scan(cursor, args);
+    }
+
     @Override
     public RedisFuture<String> set(K key, K value) {
         return commands.set(key, value);
@@ -74,6 +84,16 @@ public class AsyncCommandsImpl<K> implements AsyncCommands<K> {
         return commands.smembers(key);
     }
 
+    @Override
+    public RedisFuture<Set<K>> sinter(K... keys) {
+        return commands.sinter(keys);
+    }
+
+    @Override
+    public RedisFuture<Boolean> sismember(K key, K member) {
+        return commands.sismember(key, member);
+    }
+
     @Override
     public RedisFuture<String> hmset(K key, Map<K, K> h) {
         return commands.hmset(key, h);
@@ -94,11 +114,46 @@ public class AsyncCommandsImpl<K> implements AsyncCommands<K> {
         return commands.zrangeWithScores(key, start, end);
     }
 
+    @Override
+    public RedisFuture<List<K>> zrangebyscore(K key, Range<? extends Number> range) {
+        return commands.zrangebyscore(key, range);
+    }
+
+    @Override
+    public RedisFuture<List<K>> zrevrange(K key, long start, long end) {
+        return commands.zrevrange(key, start, end);
+    }
+
+    @Override
+    public RedisFuture<Long> zrem(K key, K... values) {
+        return commands.zrem(key, values);
+    }
+
+    @Override
+    public RedisFuture<Long> exists(K... keys) {
+        return commands.exists(keys);
+    }
+
     @Override
     public RedisFuture<Boolean> expire(K key, long seconds) {
         return commands.expire(key, seconds);
     }
 
+    @Override
+    public <T> RedisFuture<T> eval(String script, ScriptOutputType type, K[] keys, K... values) {
+        return commands.eval(script, type, keys, values);
+    }
+
+    @Override
+    public <T> RedisFuture<T> evalsha(String digest, ScriptOutputType type, K[] keys, K... values) {
+        return commands.evalsha(digest, type, keys, values);
+    }
+
+    @Override
+    public RedisFuture<String> scriptLoad(K script) {
+        return commands.scriptLoad(script);
+    }
+
     @Override
     public RedisFuture<String> bgsave() {
         return commands.bgsave();
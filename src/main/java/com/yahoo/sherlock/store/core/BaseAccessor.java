@@ -11,6 +11,7 @@ import com.yahoo.sherlock.store.StoreParams;
 public abstract class BaseAccessor {
 
     private final ConnectionProducer producer;
+    private final boolean clustered;
 
     /**
      * @param params parameters to use for the clients
@@ -18,6 +19,14 @@ public abstract class BaseAccessor {
      */
     public BaseAccessor(StoreParams params, boolean clustered) {
         producer = clustered ? new ConnectionProducerClusterImpl(params) : new ConnectionProducerImpl(params);
+        this.clustered = clustered;
+    }
+
+    /**
+     * @return whether this accessor uses clustered connections
+     */
+    public boolean isClustered() {
+        return clustered;
     }
 
     /**
@@ -32,6 +32,8 @@ public class Client {
 
     private RedisClient redisClient;
     private RedisClusterClient redisClusterClient;
+    private SharedConnections redisConnections;
+    private SharedConnections redisClusterConnections;
 
     /**
      * @param hostname Redis hostname to validate
@@ -97,6 +99,17 @@ public class Client {
         return builder.build();
     }
 
+    /**
+     * @param poolSizeStr pipeline pool size as a String value
+     * @return maximum number of idle pipelining connections
+     */
+    protected static int getPipelinePoolSize(String poolSizeStr) {
+        if (poolSizeStr == null) {
+            return 0;
+        }
+        return getPortNumber(poolSizeStr); // same logic for both
+    }
+
     /**
      * @param params Store params from which to create a Redis URI
      * @return a Redis URI used to create clients
@@ -121,6 +134,7 @@ public class Client {
             return;
         }
         redisClient = RedisClient.create(produceURI(params));
+        redisConnections = new SharedConnections(getPipelinePoolSize(params.get(DatabaseConstants.REDIS_PIPELINE_POOL_SIZE)));
     }
 
     /**
@@ -133,6 +147,7 @@ public class Client {
             return;
         }
         redisClusterClient = RedisClusterClient.create(produceURI(params));
+        redisClusterConnections = new SharedConnections(getPipelinePoolSize(params.get(DatabaseConstants.REDIS_PIPELINE_POOL_SIZE)));
         // Adaptive cluster topology refresh for redis cluster client
         ClusterTopologyRefreshOptions topologyRefreshOptions = ClusterTopologyRefreshOptions.builder()
             .enablePeriodicRefresh(true)
@@ -163,9 +178,31 @@ public class Client {
     }
 
     /**
-     * Shutdown the clients.
+     * @return the shared connections of the RedisClient
+     */
+    public SharedConnections getRedisConnections() {
+        return redisConnections;
+    }
+
+    /**
+     * @return the shared connections of the RedisClusterClient
+     */
+    public SharedConnections getRedisClusterConnections() {
+        return redisClusterConnections;
+    }
+
+    /**
+     * Close the shared connections and shutdown the clients.
      */
     public void destroy() {
+        if (redisConnections != null) {
+            redisConnections.close();
+            redisConnections = null;
+        }
+        if (redisClusterConnections != null) {
+            redisClusterConnections.close();
+            redisClusterConnections = null;
+        }
         if (redisClient != null) {
             redisClient.shutdown();
             redisClient = null;
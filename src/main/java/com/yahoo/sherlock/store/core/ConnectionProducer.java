@@ -8,6 +8,9 @@ import io.lettuce.core.codec.RedisCodec;
 public interface ConnectionProducer {
 
     /**
+     * Produce a connection handle. The underlying connections are
+     * shared, and closing the handle releases them for reuse.
+     *
      * @param codec Redis codec to use
      * @param <K> codec primary type
      * @return a redis connection
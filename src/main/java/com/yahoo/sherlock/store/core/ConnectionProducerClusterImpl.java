@@ -4,7 +4,7 @@ import io.lettuce.core.codec.RedisCodec;
 import com.yahoo.sherlock.store.StoreParams;
 
 /**
- * This class manages a cluster client to produce cluster-based connections.
+ * This class manages a cluster client to produce shared cluster-based connections.
  */
 public class ConnectionProducerClusterImpl implements ConnectionProducer {
 
@@ -17,6 +17,15 @@ public class ConnectionProducerClusterImpl implements ConnectionProducer {
 
     @Override
     public <K> RedisConnection<K> produce(RedisCodec<K, K> codec) {
+        return Client.get().getRedisClusterConnections().produce(codec, this::open);
+    }
+
+    /**
+     * @param codec Redis codec to use
+     * @param <K>   codec primary type
+     * @return a new connection to the cluster
+     */
+    private <K> RedisConnection<K> open(RedisCodec<K, K> codec) {
         return new RedisConnectionClusterImpl<>(Client.get().getRedisClusterClient().connect(codec));
     }
 }
@@ -4,7 +4,7 @@ import io.lettuce.core.codec.RedisCodec;
 import com.yahoo.sherlock.store.StoreParams;
 
 /**
- * This class manages a standalone redis client instance to produce basic connections.
+ * This class manages a standalone redis client instance to produce shared connections.
  */
 public class ConnectionProducerImpl implements ConnectionProducer {
 
@@ -17,6 +17,15 @@ public class ConnectionProducerImpl implements ConnectionProducer {
 
     @Override
     public <K> RedisConnection<K> produce(RedisCodec<K, K> codec) {
+        return Client.get().getRedisConnections().produce(codec, this::open);
+    }
+
+    /**
+     * @param codec Redis codec to use
+     * @param <K>   codec primary type
+     * @return a new connection to the standalone instance
+     */
+    private <K> RedisConnection<K> open(RedisCodec<K, K> codec) {
         return new RedisConnectionImpl<>(Client.get().getRedisClient().connect(codec));
     }
 }
@@ -18,6 +18,11 @@ public interface RedisConnection<K> extends AutoCloseable {
      */
     SyncCommands<K> sync();
 
+    /**
+     * @return whether the connection is open
+     */
+    boolean isOpen();
+
     @Override
     void close();
 }
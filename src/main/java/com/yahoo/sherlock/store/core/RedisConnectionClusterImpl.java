@@ -28,6 +28,11 @@ public class RedisConnectionClusterImpl<K> implements RedisConnection<K> {
         return new SyncCommandsClusterImpl<>(connection.sync());
     }
 
+    @Override
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
     @Override
     public void close() {
         connection.close();
@@ -28,6 +28,11 @@ public class RedisConnectionImpl<K> implements RedisConnection<K> {
         return  new SyncCommandsImpl<>(connection.sync());
     }
 
+    @Override
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
     @Override
     public void close() {
         connection.close();
@@ -0,0 +1,66 @@
+package com.yahoo.sherlock.store.core;
+
+import io.lettuce.core.LettuceStrings;
+import io.lettuce.core.RedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Lua script together with its SHA1 digest, which allows
+ * the script to be executed with {@code EVALSHA} instead of
+ * sending the script body on every call.
+ */
+public class RedisScript {
+
+    /**
+     * The Lua source of the script.
+     */
+    private final String source;
+    /**
+     * The SHA1 digest of the script.
+     */
+    private final String digest;
+
+    /**
+     * @param source Lua script source
+     */
+    public RedisScript(String source) {
+        this.source = source;
+        this.digest = LettuceStrings.digest(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the Lua source of the script
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the SHA1 digest of the script
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Check whether an exception, or one of its causes, indicates that
+     * the script is not present in the script cache of the Redis node.
+     *
+     * @param e exception thrown by an {@code EVALSHA} command
+     * @return true if the exception is a {@code NOSCRIPT} error
+     */
+    public static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RedisNoScriptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return digest;
+    }
+}
@@ -0,0 +1,196 @@
+package com.yahoo.sherlock.store.core;
+
+import io.lettuce.core.codec.RedisCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Function;
+
+/**
+ * This class holds the long-lived connections of a Redis client. One
+ * multiplexed connection is shared for each codec, since Lettuce connections
+ * are thread-safe. Asynchronous commands are usually pipelined by turning off
+ * auto-flushing, which affects the whole connection, so they run on
+ * dedicated connections leased from a bounded pool of idle connections.
+ */
+@Slf4j
+public class SharedConnections {
+
+    /**
+     * Maximum number of idle pipelining connections kept for each codec.
+     */
+    private final int maxIdle;
+    /**
+     * Shared connection for each codec type.
+     */
+    private final Map<Class<?>, RedisConnection<?>> shared = new ConcurrentHashMap<>();
+    /**
+     * Idle pipelining connections for each codec type.
+     */
+    private final Map<Class<?>, Deque<RedisConnection<?>>> idle = new ConcurrentHashMap<>();
+    /**
+     * Whether the connections have been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxIdle maximum number of idle pipelining connections
+     *                kept for each codec, 0 to close them after use
+     */
+    public SharedConnections(int maxIdle) {
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    /**
+     * Produce a connection handle. Synchronous commands run on the shared
+     * connection until asynchronous commands are requested, after which
+     * the handle uses a leased connection until it is closed.
+     *
+     * @param codec  Redis codec to use
+     * @param opener function which opens a new connection with a codec
+     * @param <K>    codec primary type
+     * @return a connection handle which must be closed after use
+     */
+    public <K> RedisConnection<K> produce(RedisCodec<K, K> codec, Function<RedisCodec<K, K>, RedisConnection<K>> opener) {
+        if (closed) {
+            throw new IllegalStateException("Redis connections have been closed");
+        }
+        return new Handle<>(codec, opener);
+    }
+
+    /**
+     * Get or open the shared connection for a codec.
+     *
+     * @param codec  Redis codec to use
+     * @param opener function which opens a new connection
+     * @param <K>    codec primary type
+     * @return the shared connection
+     */
+    @SuppressWarnings("unchecked")
+    private <K> RedisConnection<K> shared(RedisCodec<K, K> codec, Function<RedisCodec<K, K>, RedisConnection<K>> opener) {
+        RedisConnection<K> conn = (RedisConnection<K>) shared.get(codec.getClass());
+        if (conn != null && conn.isOpen()) {
+            return conn;
+        }
+        synchronized (shared) {
+            conn = (RedisConnection<K>) shared.get(codec.getClass());
+            if (conn == null || !conn.isOpen()) {
+                log.info("Opening shared Redis connection for {}", codec.getClass().getSimpleName());
+                conn = opener.apply(codec);
+                shared.put(codec.getClass(), conn);
+            }
+            return conn;
+        }
+    }
+
+    /**
+     * Take an idle connection from the pool or open a new one.
+     *
+     * @param codec  Redis codec to use
+     * @param opener function which opens a new connection
+     * @param <K>    codec primary type
+     * @return a dedicated connection
+     */
+    @SuppressWarnings("unchecked")
+    private <K> RedisConnection<K> lease(RedisCodec<K, K> codec, Function<RedisCodec<K, K>, RedisConnection<K>> opener) {
+        Deque<RedisConnection<?>> pool = idle.get(codec.getClass());
+        RedisConnection<K> conn;
+        while (pool != null && (conn = (RedisConnection<K>) pool.pollFirst()) != null) {
+            if (conn.isOpen()) {
+                return conn;
+            }
+        }
+        return opener.apply(codec);
+    }
+
+    /**
+     * Return a dedicated connection to the pool, restoring
+     * auto-flushing, or close it if the pool is full.
+     *
+     * @param codecType codec class of the connection
+     * @param conn      the connection to release
+     */
+    private void release(Class<?> codecType, RedisConnection<?> conn) {
+        if (!closed && maxIdle > 0 && conn.isOpen()) {
+            AsyncCommands<?> cmd = conn.async();
+            cmd.flushCommands();
+            cmd.setAutoFlushCommands(true);
+            Deque<RedisConnection<?>> pool = idle.computeIfAbsent(codecType, type -> new ConcurrentLinkedDeque<>());
+            if (pool.size() < maxIdle) {
+                pool.offerFirst(conn);
+                return;
+            }
+        }
+        conn.close();
+    }
+
+    /**
+     * Close the shared and idle connections. Connections that
+     * are leased are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        List<RedisConnection<?>> connections = new ArrayList<>(shared.values());
+        shared.clear();
+        for (Deque<RedisConnection<?>> pool : idle.values()) {
+            connections.addAll(pool);
+        }
+        idle.clear();
+        for (RedisConnection<?> conn : connections) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Connection handle returned to the accessors.
+     *
+     * @param <K> codec primary type
+     */
+    private class Handle<K> implements RedisConnection<K> {
+
+        private final RedisCodec<K, K> codec;
+        private final Function<RedisCodec<K, K>, RedisConnection<K>> opener;
+        private RedisConnection<K> leased = null;
+
+        /**
+         * @param codec  Redis codec to use
+         * @param opener function which opens a new connection
+         */
+        Handle(RedisCodec<K, K> codec, Function<RedisCodec<K, K>, RedisConnection<K>> opener) {
+            this.codec = codec;
+            this.opener = opener;
+        }
+
+        @Override
+        public AsyncCommands<K> async() {
+            if (leased == null) {
+                leased = lease(codec, opener);
+            }
+            return leased.async();
+        }
+
+        @Override
+        public SyncCommands<K> sync() {
+            // Keep commands ordered with any pipelined commands of this handle
+            return leased != null ? leased.sync() : shared(codec, opener).sync();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public void close() {
+            if (leased != null) {
+                release(codec.getClass(), leased);
+                leased = null;
+            }
+        }
+    }
+}
@@ -104,6 +104,49 @@ public interface SyncCommands<K> extends AutoCloseable {
      */
     <T> T eval(String script, ScriptOutputType type, K[] keys, K... values);
 
+    /**
+     * @param digest SHA1 digest of a loaded script
+     * @param type   script return value type token
+     * @param keys   keys operated on by the script
+     * @param values script arguments
+     * @param <T>    script return type
+     * @return script results
+     * @see io.lettuce.core.api.sync.RedisCommands#evalsha(String, ScriptOutputType, Object[], Object[])
+     */
+    <T> T evalsha(String digest, ScriptOutputType type, K[] keys, K... values);
+
+    /**
+     * @param script script to load into the script cache
+     * @return SHA1 digest of the script
+     * @see io.lettuce.core.api.sync.RedisCommands#scriptLoad(Object)
+     */
+    String scriptLoad(K script);
+
+    /**
+     * Execute a script by its digest. If the script is not in the
+     * cache of the node that owns the keys, it is executed once with
+     * {@code EVAL}, which also caches it on that node. {@code SCRIPT LOAD}
+     * is not used for the reload since on a cluster it may reach a
+     * different node than the script keys.
+     *
+     * @param script the script to execute
+     * @param type   script return value type token
+     * @param keys   keys operated on by the script
+     * @param values script arguments
+     * @param <T>    script return type
+     * @return script results
+     */
+    default <T> T eval(RedisScript script, ScriptOutputType type, K[] keys, K... values) {
+        try {
+            return evalsha(script.getDigest(), type, keys, values);
+        } catch (RuntimeException e) {
+            if (!RedisScript.isNoScript(e)) {
+                throw e;
+            }
+            return eval(script.getSource(), type, keys, values);
+        }
+    }
+
     /**
      * @param key key name
      * @param seconds time in seconds
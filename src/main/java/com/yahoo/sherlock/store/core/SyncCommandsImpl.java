@@ -80,6 +80,16 @@ public class SyncCommandsImpl<K> implements SyncCommands<K> {
         return commands.eval(script, type, keys, values);
     }
 
+    @Override
+    public <T> T evalsha(String digest, ScriptOutputType type, K[] keys, K... values) {
+        return commands.evalsha(digest, type, keys, values);
+    }
+
+    @Override
+    public String scriptLoad(K script) {
+        return commands.scriptLoad(script);
+    }
+
     @Override
     public Boolean expire(K key, long seconds) {
         return expire(key, seconds);
@@ -1,6 +1,7 @@
 package com.yahoo.sherlock.store.redis;
 
 import com.beust.jcommander.internal.Lists;
+import io.lettuce.core.Range;
 import io.lettuce.core.RedisFuture;
 import io.lettuce.core.ScoredValue;
 import com.yahoo.sherlock.model.AnomalyReport;
@@ -15,6 +16,8 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +38,13 @@ public class LettuceAnomalyReportAccessor
     private final String frequencyName;
     private final String emailIdReportName;
     private final String slackIdReportName;
+    private final String timelineName;
+
+    /**
+     * Suffix of the key which marks a report timeline
+     * as holding every report of the job and frequency.
+     */
+    private static final String TIMELINE_BUILT = "built";
 
     /**
      * @param params store params
@@ -46,6 +56,17 @@ public class LettuceAnomalyReportAccessor
         this.frequencyName = params.get(DatabaseConstants.INDEX_FREQUENCY);
         this.emailIdReportName = params.get(DatabaseConstants.INDEX_EMAILID_REPORT);
         this.slackIdReportName = params.get(DatabaseConstants.INDEX_SLACKID_REPORT);
+        this.timelineName = params.get(DatabaseConstants.INDEX_REPORT_TIMELINE);
+    }
+
+    /**
+     * @param frequency job frequency of the reports
+     * @return retention of the reports and their indices in seconds
+     */
+    protected static long expirationSeconds(String frequency) {
+        return Constants.SECONDS_IN_DAY * (frequency.equalsIgnoreCase(Constants.HOUR) ?
+                                           Constants.REDIS_RETENTION_WEEKS_IN_DAYS : (frequency.equalsIgnoreCase(Constants.MINUTE) ?
+                                                                                      Constants.REDIS_RETENTION_ONE_DAY : Constants.REDIS_RETENTION_YEARS_IN_DAYS));
     }
 
     /**
@@ -86,13 +107,14 @@ public class LettuceAnomalyReportAccessor
                 requireId.clear();
             }
             List<RedisFuture> arrFutures = new ArrayList<>(ready.size() + 1);
-            RedisFuture[] saddFutures = new RedisFuture[ready.size() * (6 + 2 * emailIds.size())];
+            RedisFuture[] saddFutures = new RedisFuture[ready.size() * (8 + 2 * emailIds.size())];
             int i = 0;
-            long expirationTime = Constants.SECONDS_IN_DAY * (ready.get(0).getJobFrequency().equalsIgnoreCase(Constants.HOUR) ?
-                                                              Constants.REDIS_RETENTION_WEEKS_IN_DAYS : (ready.get(0).getJobFrequency().equalsIgnoreCase(Constants.MINUTE) ?
-                                                                                                        Constants.REDIS_RETENTION_ONE_DAY : Constants.REDIS_RETENTION_YEARS_IN_DAYS));
+            long expirationTime = expirationSeconds(ready.get(0).getJobFrequency());
             for (AnomalyReport report : ready) {
                 arrFutures.addAll(writeReport(bin, cmd, report, expirationTime, this));
+                String timeline = index(timelineName, report.getJobId(), report.getJobFrequency());
+                saddFutures[i++] = cmd.zadd(timeline, ScoredValue.fromNullable((double) report.getReportQueryEndTime(), report.getUniqueId()));
+                saddFutures[i++] = cmd.expire(timeline, expirationTime);
                 saddFutures[i++] = cmd.sadd(index(jobIdName, report.getJobId()), report.getUniqueId());
                 saddFutures[i++] = cmd.expire(index(jobIdName, report.getJobId()), expirationTime);
                 saddFutures[i++] = cmd.sadd(index(frequencyName, report.getJobFrequency()), report.getUniqueId());
@@ -142,13 +164,14 @@ public class LettuceAnomalyReportAccessor
                 requireId.clear();
             }
             List<RedisFuture> arrFutures = new ArrayList<>(ready.size() + 1);
-            RedisFuture[] saddFutures = new RedisFuture[ready.size() * (6 + 2 * slackIds.size())];
+            RedisFuture[] saddFutures = new RedisFuture[ready.size() * (8 + 2 * slackIds.size())];
             int i = 0;
-            long expirationTime = Constants.SECONDS_IN_DAY * (ready.get(0).getJobFrequency().equalsIgnoreCase(Constants.HOUR) ?
-                    Constants.REDIS_RETENTION_WEEKS_IN_DAYS : (ready.get(0).getJobFrequency().equalsIgnoreCase(Constants.MINUTE) ?
-                    Constants.REDIS_RETENTION_ONE_DAY : Constants.REDIS_RETENTION_YEARS_IN_DAYS));
+            long expirationTime = expirationSeconds(ready.get(0).getJobFrequency());
             for (AnomalyReport report : ready) {
                 arrFutures.addAll(writeReport(bin, cmd, report, expirationTime, this));
+                String timeline = index(timelineName, report.getJobId(), report.getJobFrequency());
+                saddFutures[i++] = cmd.zadd(timeline, ScoredValue.fromNullable((double) report.getReportQueryEndTime(), report.getUniqueId()));
+                saddFutures[i++] = cmd.expire(timeline, expirationTime);
                 saddFutures[i++] = cmd.sadd(index(jobIdName, report.getJobId()), report.getUniqueId());
                 saddFutures[i++] = cmd.expire(index(jobIdName, report.getJobId()), expirationTime);
                 saddFutures[i++] = cmd.sadd(index(frequencyName, report.getJobFrequency()), report.getUniqueId());
@@ -174,12 +197,7 @@ public class LettuceAnomalyReportAccessor
         try (RedisConnection<String> conn = connect()) {
             AsyncCommands<String> cmd = conn.async();
             cmd.setAutoFlushCommands(false);
-            RedisFuture<Set<String>> jobReportIds = cmd.smembers(index(jobIdName, jobId));
-            RedisFuture<Set<String>> freqReportIds = cmd.smembers(index(frequencyName, frequency));
-            cmd.flushCommands();
-            await(jobReportIds, freqReportIds);
-            Set<String> reportIds = jobReportIds.get();
-            reportIds.retainAll(freqReportIds.get());
+            Set<String> reportIds = getJobReportIds(cmd, jobId, index(frequencyName, frequency));
             return getAnomalyReports(reportIds, this);
         } catch (InterruptedException | ExecutionException e) {
             log.error("Error occurred while getting anomaly reports!", e);
@@ -187,6 +205,87 @@ public class LettuceAnomalyReportAccessor
         }
     }
 
+    @Override
+    public List<AnomalyReport> getAnomalyReportsForJobInRange(String jobId, String frequency, long start, long end) throws IOException {
+        log.info("Getting anomaly reports for job [{}] with frequency [{}] between [{}] and [{}]", jobId, frequency, start, end);
+        try (RedisConnection<String> conn = connect()) {
+            AsyncCommands<String> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            String timeline = getTimeline(cmd, jobId, frequency);
+            RedisFuture<List<String>> reportIds = cmd.zrangebyscore(timeline, Range.create(start, end));
+            cmd.flushCommands();
+            await(reportIds);
+            return getAnomalyReports(new LinkedHashSet<>(reportIds.get()), this);
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error occurred while getting anomaly reports!", e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<AnomalyReport> getLatestAnomalyReportsForJob(String jobId, String frequency, int offset, int count) throws IOException {
+        log.info("Getting [{}] anomaly reports for job [{}] with frequency [{}] from offset [{}]", count, jobId, frequency, offset);
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        try (RedisConnection<String> conn = connect()) {
+            AsyncCommands<String> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            String timeline = getTimeline(cmd, jobId, frequency);
+            RedisFuture<List<String>> reportIds = cmd.zrevrange(timeline, offset, (long) offset + count - 1);
+            cmd.flushCommands();
+            await(reportIds);
+            return getAnomalyReports(new LinkedHashSet<>(reportIds.get()), this);
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error occurred while getting anomaly reports!", e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the key of the report timeline of a job and frequency. Reports
+     * written before the timeline existed are only in the set indices,
+     * so the first time a timeline is read it is built from them and
+     * marked as built with the same retention as the reports.
+     *
+     * @param cmd       string commands with auto-flush disabled
+     * @param jobId     the job ID
+     * @param frequency frequency of the job
+     * @return the timeline key
+     * @throws IOException          if an error occurs while reading the reports
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if a command fails
+     */
+    private String getTimeline(
+            AsyncCommands<String> cmd,
+            String jobId,
+            String frequency
+    ) throws IOException, InterruptedException, ExecutionException {
+        String timeline = index(timelineName, jobId, frequency);
+        String built = index(timeline, TIMELINE_BUILT);
+        RedisFuture<Long> exists = cmd.exists(built);
+        cmd.flushCommands();
+        await(exists);
+        if (exists.get() > 0) {
+            return timeline;
+        }
+        log.info("Building report timeline for job [{}] with frequency [{}]", jobId, frequency);
+        long expirationTime = expirationSeconds(frequency);
+        List<AnomalyReport> reports = getAnomalyReports(getJobReportIds(cmd, jobId, index(frequencyName, frequency)), this);
+        List<RedisFuture> futures = new ArrayList<>(reports.size() + 3);
+        for (AnomalyReport report : reports) {
+            if (report.getReportQueryEndTime() != null && report.getUniqueId() != null) {
+                futures.add(cmd.zadd(timeline, ScoredValue.fromNullable((double) report.getReportQueryEndTime(), report.getUniqueId())));
+            }
+        }
+        futures.add(cmd.expire(timeline, expirationTime));
+        futures.add(cmd.set(built, jobId));
+        futures.add(cmd.expire(built, expirationTime));
+        cmd.flushCommands();
+        awaitRaw(futures);
+        return timeline;
+    }
+
     @Override
     public List<AnomalyReport> getAnomalyReportsForEmailId(String emailId) throws IOException {
         log.info("Getting anomaly reports for Email ID [{}]", emailId);
@@ -249,14 +348,7 @@ public class LettuceAnomalyReportAccessor
         try (RedisConnection<String> conn = connect()) {
             AsyncCommands<String> cmd = conn.async();
             cmd.setAutoFlushCommands(false);
-            RedisFuture<Set<String>> jobRepIds = cmd.smembers(index(jobIdName, jobId));
-            RedisFuture<Set<String>> jobTimeIds = cmd.smembers(index(timeName, time));
-            RedisFuture<Set<String>> jobFreqIds = cmd.smembers(index(frequencyName, frequency));
-            cmd.flushCommands();
-            await(jobRepIds, jobTimeIds, jobFreqIds);
-            Set<String> reportIds = jobRepIds.get();
-            reportIds.retainAll(jobTimeIds.get());
-            reportIds.retainAll(jobFreqIds.get());
+            Set<String> reportIds = getJobReportIds(cmd, jobId, index(timeName, time), index(frequencyName, frequency));
             return getAnomalyReports(reportIds, this);
         } catch (InterruptedException | ExecutionException e) {
             log.error("Error occurred while getting anomaly reports!", e);
@@ -277,19 +369,23 @@ public class LettuceAnomalyReportAccessor
             cmd.setAutoFlushCommands(false);
             bin.setAutoFlushCommands(false);
             List<AnomalyReport> reports = getAnomalyReports(reportIds, this);
-            RedisFuture[] futures = new RedisFuture[5 * reports.size() + 1];
-            int i = 0;
+            List<RedisFuture> futures = new ArrayList<>(5 * reports.size() + 1);
+            Set<String> timelines = new HashSet<>();
             for (AnomalyReport report : reports) {
-                futures[i++] = cmd.srem(index(timeName, report.getReportQueryEndTime()), report.getUniqueId());
-                futures[i++] = cmd.srem(index(frequencyName, report.getJobFrequency()), report.getUniqueId());
-                futures[i++] = cmd.del(key(report.getUniqueId()));
-                futures[i++] = bin.del(encode(key(report.getUniqueId(), DatabaseConstants.ANOMALY_TIMESTAMP, "start")));
-                futures[i++] = bin.del(encode(key(report.getUniqueId(), DatabaseConstants.ANOMALY_TIMESTAMP, "end")));
+                futures.add(cmd.srem(index(timeName, report.getReportQueryEndTime()), report.getUniqueId()));
+                futures.add(cmd.srem(index(frequencyName, report.getJobFrequency()), report.getUniqueId()));
+                futures.add(cmd.del(key(report.getUniqueId())));
+                futures.add(bin.del(encode(key(report.getUniqueId(), DatabaseConstants.ANOMALY_TIMESTAMP, "start"))));
+                futures.add(bin.del(encode(key(report.getUniqueId(), DatabaseConstants.ANOMALY_TIMESTAMP, "end"))));
+                timelines.add(index(timelineName, jobId, report.getJobFrequency()));
+            }
+            for (String timeline : timelines) {
+                futures.add(cmd.del(timeline, index(timeline, TIMELINE_BUILT)));
             }
-            futures[i] = cmd.del(index(jobIdName, jobId));
+            futures.add(cmd.del(index(jobIdName, jobId)));
             cmd.flushCommands();
             bin.flushCommands();
-            await(futures);
+            awaitRaw(futures);
         } catch (InterruptedException | ExecutionException e) {
             log.error("Error while deleting anomaly reports!", e);
             throw new IOException(e.getMessage(), e);
@@ -307,22 +403,16 @@ public class LettuceAnomalyReportAccessor
             AsyncCommands<String> cmd = conn.async();
             AsyncCommands<byte[]> bin = binary.async();
             cmd.setAutoFlushCommands(false);
-            RedisFuture<Set<String>> jobRepIds = cmd.smembers(index(jobIdName, jobId));
-            RedisFuture<Set<String>> jobTimeIds = cmd.smembers(index(timeName, time));
-            RedisFuture<Set<String>> jobFreqIds = cmd.smembers(index(frequencyName, frequency));
-            cmd.flushCommands();
-            await(jobRepIds, jobTimeIds, jobFreqIds);
-            Set<String> reportIds = jobRepIds.get();
-            reportIds.retainAll(jobTimeIds.get());
-            reportIds.retainAll(jobFreqIds.get());
+            Set<String> reportIds = getJobReportIds(cmd, jobId, index(timeName, time), index(frequencyName, frequency));
             // Delete the reports
             cmd.setAutoFlushCommands(false);
             bin.setAutoFlushCommands(false);
             List<AnomalyReport> reports = getAnomalyReports(reportIds, this);
-            RedisFuture[] futures = new RedisFuture[6 * reports.size()];
+            RedisFuture[] futures = new RedisFuture[7 * reports.size()];
             int i = 0;
             for (AnomalyReport report : reports) {
                 futures[i++] = cmd.srem(index(jobIdName, report.getJobId()), report.getUniqueId());
+                futures[i++] = cmd.zrem(index(timelineName, report.getJobId(), report.getJobFrequency()), report.getUniqueId());
                 futures[i++] = cmd.srem(index(timeName, report.getReportQueryEndTime()), report.getUniqueId());
                 futures[i++] = cmd.srem(index(frequencyName, report.getJobFrequency()), report.getUniqueId());
                 futures[i++] = cmd.del(key(report.getUniqueId()));
@@ -338,6 +428,63 @@ public class LettuceAnomalyReportAccessor
         }
     }
 
+    /**
+     * Get the IDs of the reports of a job which are also members of
+     * every given index. On a standalone instance the sets are intersected
+     * by Redis with {@code SINTER}. Index keys may live on different slots
+     * in a cluster, so there the job's report IDs are checked against each
+     * index with pipelined {@code SISMEMBER} commands instead. Either way,
+     * only the job's reports are sent over the wire, not the whole index.
+     *
+     * @param cmd     string commands with auto-flush disabled
+     * @param jobId   the job ID
+     * @param indices keys of the indices to intersect with
+     * @return set of report IDs
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if a command fails
+     */
+    private Set<String> getJobReportIds(
+            AsyncCommands<String> cmd,
+            String jobId,
+            String... indices
+    ) throws InterruptedException, ExecutionException {
+        String jobIndex = index(jobIdName, jobId);
+        if (!isClustered()) {
+            String[] keys = new String[indices.length + 1];
+            keys[0] = jobIndex;
+            System.arraycopy(indices, 0, keys, 1, indices.length);
+            RedisFuture<Set<String>> reportIds = cmd.sinter(keys);
+            cmd.flushCommands();
+            await(reportIds);
+            return reportIds.get();
+        }
+        RedisFuture<Set<String>> jobReportIds = cmd.smembers(jobIndex);
+        cmd.flushCommands();
+        await(jobReportIds);
+        List<String> candidates = new ArrayList<>(jobReportIds.get());
+        RedisFuture[] memberships = new RedisFuture[candidates.size() * indices.length];
+        int i = 0;
+        for (String reportId : candidates) {
+            for (String index : indices) {
+                memberships[i++] = cmd.sismember(index, reportId);
+            }
+        }
+        cmd.flushCommands();
+        await(memberships);
+        Set<String> reportIds = new HashSet<>();
+        i = 0;
+        for (String reportId : candidates) {
+            boolean member = true;
+            for (int j = 0; j < indices.length; j++) {
+                member &= Boolean.TRUE.equals(memberships[i++].get());
+            }
+            if (member) {
+                reportIds.add(reportId);
+            }
+        }
+        return reportIds;
+    }
+
     /**
      * Write a report to the store, exacting the timestamps and
      * encoding them as bytes.
@@ -12,6 +12,7 @@ import com.yahoo.sherlock.store.JobScheduler;
 import com.yahoo.sherlock.store.Store;
 import com.yahoo.sherlock.store.StoreParams;
 import com.yahoo.sherlock.store.core.RedisConnection;
+import com.yahoo.sherlock.store.core.RedisScript;
 import com.yahoo.sherlock.store.core.SyncCommands;
 import com.yahoo.sherlock.utils.TimeUtils;
 
@@ -20,7 +21,9 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -53,6 +56,31 @@ public class LettuceJobScheduler
                     "redis.call('zadd', KEYS[2], time, jobId);\n" +
                     "return {jobId, time};";
 
+    /**
+     * Batch variant of {@link #SCRIPT_ZREMRANGEBYSCORE} which claims up to
+     * {@code ARGV[2]} due entries in one call. Claimed entries are scored in
+     * the pending queue by the claim time so that they are only moved back
+     * once the pending timeout has passed since they were claimed.
+     */
+    public static final String SCRIPT_ZPOPRANGEBYSCORE_BATCH =
+            "local pending = redis.call('zrangebyscore', KEYS[2], 0, tonumber(ARGV[1]) - 5, 'WITHSCORES');\n" +
+                    "for i = 1, #pending, 2 do\n" +
+                    "\tredis.call('zrem', KEYS[2], pending[i]);\n" +
+                    "\tredis.call('zadd', KEYS[1], pending[i + 1], pending[i]);\n" +
+                    "end\n" +
+                    "local entries = redis.call('zrangebyscore', KEYS[1], 0, tonumber(ARGV[1]), 'LIMIT', 0, tonumber(ARGV[2]));\n" +
+                    "for i = 1, #entries do\n" +
+                    "\tredis.call('zrem', KEYS[1], entries[i]);\n" +
+                    "\tredis.call('zadd', KEYS[2], tonumber(ARGV[1]), entries[i]);\n" +
+                    "end\n" +
+                    "return entries;";
+
+    /** Cached single pop script. */
+    private static final RedisScript POP_SCRIPT = new RedisScript(SCRIPT_ZREMRANGEBYSCORE);
+
+    /** Cached batch pop script. */
+    private static final RedisScript POP_BATCH_SCRIPT = new RedisScript(SCRIPT_ZPOPRANGEBYSCORE_BATCH);
+
     private String queueName;
     private String pendingQueueName;
     private final JobMetadataAccessor jobAccessor;
@@ -147,7 +175,7 @@ public class LettuceJobScheduler
             SyncCommands<String> syncCmd = conn.sync();
             String[] keys = {queueName, pendingQueueName};
             List<Object> result = syncCmd.eval(
-                    SCRIPT_ZREMRANGEBYSCORE,
+                    POP_SCRIPT,
                     ScriptOutputType.MULTI,
                     keys, String.valueOf(timestampMinutes));
             if (result.isEmpty()) {
@@ -165,6 +193,41 @@ public class LettuceJobScheduler
         }
     }
 
+    @Override
+    public List<JobMetadata> popQueue(long timestampMinutes, int maxBatch) throws IOException {
+        log.debug("Popping up to [{}] jobs from the queue with time [{}]", maxBatch, timestampMinutes);
+        if (maxBatch <= 0) {
+            return Collections.emptyList();
+        }
+        try (RedisConnection<String> conn = connect()) {
+            SyncCommands<String> syncCmd = conn.sync();
+            String[] keys = {queueName, pendingQueueName};
+            List<Object> result = syncCmd.eval(
+                    POP_BATCH_SCRIPT,
+                    ScriptOutputType.MULTI,
+                    keys, String.valueOf(timestampMinutes), String.valueOf(maxBatch));
+            if (result.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Set<String> jobIds = new LinkedHashSet<>((int) (1.5 * result.size()));
+            for (Object jobId : result) {
+                jobIds.add((String) jobId);
+            }
+            log.info("Found [{}] jobs on queue for time [{}]", jobIds.size(), TimeUtils
+                .getTimeFromSeconds(timestampMinutes * 60L, Constants.TIMESTAMP_FORMAT_NO_SECONDS));
+            List<JobMetadata> jobs = jobAccessor.getJobMetadata(jobIds);
+            if (jobs.size() < jobIds.size()) {
+                Set<String> missing = new HashSet<>(jobIds);
+                for (JobMetadata job : jobs) {
+                    missing.remove(job.getJobId().toString());
+                }
+                log.info("Dropping [{}] claimed jobs that no longer exist", missing.size());
+                syncCmd.zrem(pendingQueueName, missing.toArray(new String[missing.size()]));
+            }
+            return jobs;
+        }
+    }
+
     @Override
     public void removePending(String jobId) throws IOException {
         log.info("Removing job [{}] from the pending queue", jobId);
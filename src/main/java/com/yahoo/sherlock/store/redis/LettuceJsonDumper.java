@@ -3,9 +3,17 @@ package com.yahoo.sherlock.store.redis;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.lettuce.core.KeyScanCursor;
 import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
 import io.lettuce.core.ScoredValue;
 import com.yahoo.sherlock.enums.JobStatus;
 import com.yahoo.sherlock.model.AnomalyReport;
@@ -20,6 +28,7 @@ import com.yahoo.sherlock.store.Store;
 import com.yahoo.sherlock.store.StoreParams;
 import com.yahoo.sherlock.store.core.AsyncCommands;
 import com.yahoo.sherlock.store.core.RedisConnection;
+import com.yahoo.sherlock.utils.NumberUtils;
 import com.yahoo.sherlock.utils.TimeUtils;
 
 import lombok.extern.slf4j.Slf4j;
@@ -27,8 +36,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,12 +68,16 @@ public class LettuceJsonDumper
     /* expiry time for reports in redis */
     private final long expirationTime = Constants.SECONDS_IN_DAY * 100;
 
+    /* name of the report timeline index */
+    private final String timelineName;
+
     /**
      * @param params store params
      */
     public LettuceJsonDumper(StoreParams params) {
         super(params);
         gson = new Gson();
+        this.timelineName = params.get(DatabaseConstants.INDEX_REPORT_TIMELINE);
     }
 
     @Override
@@ -117,8 +137,161 @@ public class LettuceJsonDumper
         return new ImmutablePair<>(jobId.toString(), time);
     }
 
+    /**
+     * Receives the keys of the backend and their values.
+     */
+    private interface RawDataConsumer {
+
+        /**
+         * @param key   Redis key of a job queue
+         * @param queue the queued jobs
+         * @throws IOException if the value cannot be written
+         */
+        void queue(String key, List<ScoredValue<String>> queue) throws IOException;
+
+        /**
+         * @param key   Redis key of an ID
+         * @param value the ID, or null if it is not set
+         * @throws IOException if the value cannot be written
+         */
+        void id(String key, String value) throws IOException;
+
+        /**
+         * @param key     Redis key of an index
+         * @param members the members of the index
+         * @throws IOException if the value cannot be written
+         */
+        void index(String key, Set<String> members) throws IOException;
+
+        /**
+         * @param key    Redis key of an object
+         * @param fields the fields of the object
+         * @throws IOException if the value cannot be written
+         */
+        void hash(String key, Map<String, String> fields) throws IOException;
+
+        /**
+         * @param key        Redis key of anomaly timestamps
+         * @param timestamps the anomaly timestamps
+         * @throws IOException if the value cannot be written
+         */
+        void timestamps(String key, List<ScoredValue<byte[]>> timestamps) throws IOException;
+    }
+
+    /**
+     * Receives the keys of the backend and their values as JSON.
+     */
+    @FunctionalInterface
+    private interface JsonConsumer {
+
+        /**
+         * @param key   Redis key
+         * @param value value of the key as JSON
+         * @throws IOException if the value cannot be written
+         */
+        void accept(String key, JsonElement value) throws IOException;
+    }
+
+    /**
+     * @param json receives the values as JSON
+     * @return a consumer which converts the values to JSON
+     */
+    private static RawDataConsumer toJson(JsonConsumer json) {
+        return new RawDataConsumer() {
+            @Override
+            public void queue(String key, List<ScoredValue<String>> queue) throws IOException {
+                json.accept(key, gson.toJsonTree(queue, new TypeToken<List<ScoredValue<String>>>() { }.getType()));
+            }
+
+            @Override
+            public void id(String key, String value) throws IOException {
+                json.accept(key, value == null ? JsonNull.INSTANCE : new JsonPrimitive(value));
+            }
+
+            @Override
+            public void index(String key, Set<String> members) throws IOException {
+                json.accept(key, gson.toJsonTree(members, new TypeToken<Set<String>>() { }.getType()));
+            }
+
+            @Override
+            public void hash(String key, Map<String, String> fields) throws IOException {
+                json.accept(key, gson.toJsonTree(fields, new TypeToken<Map<String, String>>() { }.getType()));
+            }
+
+            @Override
+            public void timestamps(String key, List<ScoredValue<byte[]>> timestamps) throws IOException {
+                json.accept(key, gson.toJsonTree(timestamps, new TypeToken<List<ScoredValue<byte[]>>>() { }.getType()));
+            }
+        };
+    }
+
     @Override
     public JsonObject getRawData() throws IOException {
+        JsonObject result = new JsonObject();
+        readRawData(toJson(result::add));
+        log.info("sending back the json with {} keys", result.size());
+        return result;
+    }
+
+    @Override
+    public void dumpRawData(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        JsonConsumer consumer = (key, value) -> {
+            json.name(key);
+            gson.toJson(value, json);
+        };
+        readRawData(toJson(consumer));
+        json.endObject();
+        json.flush();
+    }
+
+    @Override
+    public void dumpSnapshot(WritableByteChannel channel, boolean compress) throws IOException {
+        RedisSnapshot.Encoder snapshot = new RedisSnapshot.Encoder(channel, compress, CLISettings.BACKUP_BATCH_SIZE);
+        readRawData(new RawDataConsumer() {
+            @Override
+            public void queue(String key, List<ScoredValue<String>> queue) {
+                // queues are rebuilt from the restored jobs
+            }
+
+            @Override
+            public void id(String key, String value) throws IOException {
+                if (value != null) {
+                    snapshot.id(key, value);
+                }
+            }
+
+            @Override
+            public void index(String key, Set<String> members) throws IOException {
+                snapshot.set(key, members);
+            }
+
+            @Override
+            public void hash(String key, Map<String, String> fields) throws IOException {
+                snapshot.hash(key, fields);
+            }
+
+            @Override
+            public void timestamps(String key, List<ScoredValue<byte[]>> timestamps) throws IOException {
+                snapshot.zset(key, timestamps);
+            }
+        });
+        snapshot.finish();
+        log.info("Wrote a snapshot of {} records", snapshot.getRecords());
+    }
+
+    /**
+     * Read the queues, IDs, indices and objects of the backend. Keys are
+     * listed with {@code SCAN}, so Redis is never blocked by a listing of
+     * the whole key space, and the values of each scanned batch are fetched
+     * in one pipeline and handed to the consumer before the next batch.
+     * A key may be scanned more than once if the key space is rehashed.
+     *
+     * @param consumer receives each key and its value
+     * @throws IOException if an error reading the backend occurs
+     */
+    private void readRawData(RawDataConsumer consumer) throws IOException {
         try (
                 RedisConnection<String> conn = connect();
                 RedisConnection<byte[]> binary = binary()
@@ -128,12 +301,8 @@ public class LettuceJsonDumper
             AsyncCommands<String> cmd = conn.async();
             AsyncCommands<byte[]> bin = binary.async();
             Map<String, RedisFuture<String>> globals = new TreeMap<>();
-            Map<String, RedisFuture<Set<String>>> indices = new TreeMap<>();
-            Map<String, RedisFuture<Map<String, String>>> hashes = new TreeMap<>();
-            Map<String, RedisFuture<List<ScoredValue<byte[]>>>> binaries = new TreeMap<>();
-            Map<String, RedisFuture<List<String>>> hashKeys = new TreeMap<>();
-            Map<String, RedisFuture<List<String>>> indexKeys = new TreeMap<>();
-            List<String> binaryKeys = new LinkedList<>();
+            Set<String> indexPrefixes = new HashSet<>();
+            Set<String> hashPrefixes = new HashSet<>();
             StoreParams params = Store.getParamsFor(Store.AccessorType.ANOMALY_REPORT);
             cmd.setAutoFlushCommands(false);
             bin.setAutoFlushCommands(false);
@@ -147,76 +316,102 @@ public class LettuceJsonDumper
             RedisFuture<List<ScoredValue<String>>> pendingQueue = cmd.zrangeWithScores(
                 pendingQueueName + "Pending", 0, -1
             );
-            log.info("Fetched queued jobs...");
             for (String indexKey : INDEX_NAMES) {
-                indexKeys.put(params.get(indexKey), cmd.keys(index(params.get(indexKey), "*")));
+                indexPrefixes.add(index(params.get(indexKey), ""));
             }
             for (Store.AccessorType type : Store.AccessorType.values()) {
                 params = Store.getParamsFor(type);
                 globals.put(params.get(DatabaseConstants.ID_NAME), cmd.get(params.get(DatabaseConstants.ID_NAME)));
-                hashKeys.put(params.get(DatabaseConstants.DB_NAME), cmd.keys(index(params.get(DatabaseConstants.DB_NAME), "*")));
+                hashPrefixes.add(index(params.get(DatabaseConstants.DB_NAME), ""));
             }
-            log.info("Fetched all keys...");
             futures.add(jobQueue);
             futures.add(pendingQueue);
-            futures.addAll(indexKeys.values());
             futures.addAll(globals.values());
-            futures.addAll(hashKeys.values());
             cmd.flushCommands();
             awaitRaw(futures);
             futures.clear();
-            for (RedisFuture<List<String>> indexKeyList : indexKeys.values()) {
-                for (String indexKey : indexKeyList.get()) {
-                    indices.put(indexKey, cmd.smembers(indexKey));
-                }
-            }
-            for (RedisFuture<List<String>> hashKeyList : hashKeys.values()) {
-                for (String hashKey : hashKeyList.get()) {
-                    if (hashKey.contains(DatabaseConstants.ANOMALY_TIMESTAMP)) {
-                        binaryKeys.add(hashKey);
-                    } else {
-                        hashes.put(hashKey, cmd.hgetall(hashKey));
-                    }
-                }
-            }
-            for (String binaryKey : binaryKeys) {
-                byte[] key = encode(binaryKey);
-                binaries.put(binaryKey, bin.zrangeWithScores(key, 0, -1));
-            }
-            cmd.flushCommands();
-            bin.flushCommands();
-            futures.addAll(binaries.values());
-            futures.addAll(hashes.values());
-            futures.addAll(indices.values());
-            awaitRaw(futures);
-            futures.clear();
-            log.info("Fetched all objects...");
-            JsonObject result = new JsonObject();
-            JsonElement queueEl = gson.toJsonTree(jobQueue.get(), new TypeToken<List<ScoredValue<String>>>() { }.getType());
-            JsonElement pendingEl = gson.toJsonTree(pendingQueue.get(), new TypeToken<List<ScoredValue<String>>>() { }.getType());
-            result.add(params.get(DatabaseConstants.QUEUE_JOB_SCHEDULE), queueEl);
-            result.add(params.get(DatabaseConstants.QUEUE_JOB_SCHEDULE) + "Pending", pendingEl);
+            log.info("Fetched queued jobs...");
+            consumer.queue(params.get(DatabaseConstants.QUEUE_JOB_SCHEDULE), jobQueue.get());
+            consumer.queue(params.get(DatabaseConstants.QUEUE_JOB_SCHEDULE) + "Pending", pendingQueue.get());
             for (Map.Entry<String, RedisFuture<String>> global : globals.entrySet()) {
-                result.addProperty(global.getKey(), global.getValue().get());
-            }
-            for (Map.Entry<String, RedisFuture<Set<String>>> index : indices.entrySet()) {
-                result.add(index.getKey(), gson.toJsonTree(index.getValue().get(), new TypeToken<Set<String>>() { }.getType()));
-
-            }
-            for (Map.Entry<String, RedisFuture<Map<String, String>>> hash : hashes.entrySet()) {
-                result.add(hash.getKey(), gson.toJsonTree(hash.getValue().get(), new TypeToken<Map<String, String>>() { }.getType()));
-            }
-            for (Map.Entry<String, RedisFuture<List<ScoredValue<byte[]>>>> binEl : binaries.entrySet()) {
-                result.add(binEl.getKey(), gson.toJsonTree(binEl.getValue().get(), new TypeToken<List<ScoredValue<byte[]>>>() { }.getType()));
+                consumer.id(global.getKey(), global.getValue().get());
             }
-            log.info("sending back the json with {} keys", result.size());
-            return result;
+            ScanArgs scanArgs = ScanArgs.Builder.limit(Math.max(1, CLISettings.BACKUP_BATCH_SIZE));
+            ScanCursor cursor = ScanCursor.INITIAL;
+            long count = 0;
+            do {
+                RedisFuture<KeyScanCursor<String>> scan = cmd.scan(cursor, scanArgs);
+                cmd.flushCommands();
+                await(scan);
+                KeyScanCursor<String> keys = scan.get();
+                count += readObjects(keys.getKeys(), cmd, bin, indexPrefixes, hashPrefixes, consumer);
+                cursor = keys;
+            } while (!cursor.isFinished());
+            log.info("Fetched {} objects", count);
         } catch (InterruptedException | ExecutionException e) {
             log.error("Error while retrieving Redis database!", e);
             throw new IOException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Fetch the values of a batch of scanned keys in one pipeline. Keys
+     * which are not an index or an object of an accessor are skipped.
+     *
+     * @param keys          the scanned keys
+     * @param cmd           string commands
+     * @param bin           binary commands
+     * @param indexPrefixes prefixes of the index keys
+     * @param hashPrefixes  prefixes of the object keys
+     * @param consumer      receives each key and its value
+     * @return the number of keys handed to the consumer
+     * @throws IOException          if a value cannot be written
+     * @throws InterruptedException if interrupted while fetching
+     * @throws ExecutionException   if a command fails
+     */
+    private int readObjects(
+            List<String> keys,
+            AsyncCommands<String> cmd,
+            AsyncCommands<byte[]> bin,
+            Set<String> indexPrefixes,
+            Set<String> hashPrefixes,
+            RawDataConsumer consumer
+    ) throws IOException, InterruptedException, ExecutionException {
+        Map<String, RedisFuture<Set<String>>> indices = new LinkedHashMap<>();
+        Map<String, RedisFuture<Map<String, String>>> hashes = new LinkedHashMap<>();
+        Map<String, RedisFuture<List<ScoredValue<byte[]>>>> binaries = new LinkedHashMap<>();
+        for (String key : keys) {
+            int separator = key.indexOf(':');
+            String prefix = separator < 0 ? key : key.substring(0, separator + 1);
+            if (indexPrefixes.contains(prefix)) {
+                indices.put(key, cmd.smembers(key));
+            } else if (!hashPrefixes.contains(prefix)) {
+                continue;
+            } else if (key.contains(DatabaseConstants.ANOMALY_TIMESTAMP)) {
+                binaries.put(key, bin.zrangeWithScores(encode(key), 0, -1));
+            } else {
+                hashes.put(key, cmd.hgetall(key));
+            }
+        }
+        cmd.flushCommands();
+        bin.flushCommands();
+        List<RedisFuture> futures = new ArrayList<>(indices.size() + hashes.size() + binaries.size());
+        futures.addAll(indices.values());
+        futures.addAll(hashes.values());
+        futures.addAll(binaries.values());
+        awaitRaw(futures);
+        for (Map.Entry<String, RedisFuture<Set<String>>> index : indices.entrySet()) {
+            consumer.index(index.getKey(), index.getValue().get());
+        }
+        for (Map.Entry<String, RedisFuture<Map<String, String>>> hash : hashes.entrySet()) {
+            consumer.hash(hash.getKey(), hash.getValue().get());
+        }
+        for (Map.Entry<String, RedisFuture<List<ScoredValue<byte[]>>>> binEl : binaries.entrySet()) {
+            consumer.timestamps(binEl.getKey(), binEl.getValue().get());
+        }
+        return futures.size();
+    }
+
     /**
      * Helper to instantiate jobs.
      * @param job job json object
@@ -240,83 +435,241 @@ public class LettuceJsonDumper
         return jobMetadata;
     }
 
+    /**
+     * Raw data entries sorted by the way they are written to the backend.
+     */
+    private static class RawDataBatch {
+
+        private final Map<String, Map<String, String>> modelObjectKeys = new HashMap<>();
+        private final Map<String, String[]> indexKeys = new HashMap<>();
+        private final Map<String, List<ScoredValue<byte[]>>> anomalyTimestampKeys = new HashMap<>();
+        private final Map<String, String> idKeys = new HashMap<>();
+        private final Mapper<String> jobObjectMapper = new HashMapper();
+        private final Mapper<String> emailObjectMapper = new HashMapper();
+        private final Mapper<String> reportObjectMapper = new HashMapper();
+        private final Mapper<String> druidClusterObjectMapper = new HashMapper();
+    }
+
+    /**
+     * Add a raw data entry to the batch it is written with.
+     * @param batch the batch
+     * @param key   Redis key
+     * @param value value of the key as JSON
+     */
+    private void addRawData(RawDataBatch batch, String key, JsonElement value) {
+        if (value.isJsonObject()) {
+            JsonObject object = value.getAsJsonObject();
+            if (key.contains(DatabaseConstants.JOBS) && !key.contains(DatabaseConstants.DELETED_JOBS)) {
+                batch.modelObjectKeys.put(key, batch.jobObjectMapper.map(instantiateJobs(object)));
+            } else if (key.contains(DatabaseConstants.REPORTS)) {
+                batch.modelObjectKeys.put(key, batch.reportObjectMapper.map(gson.fromJson(object, AnomalyReport.class)));
+            } else if (key.contains(DatabaseConstants.EMAILS)) {
+                batch.modelObjectKeys.put(key, batch.emailObjectMapper.map(gson.fromJson(object, EmailMetaData.class)));
+            } else if (key.contains(DatabaseConstants.DRUID_CLUSTERS)) {
+                batch.modelObjectKeys.put(key, batch.druidClusterObjectMapper.map(gson.fromJson(object, DruidCluster.class)));
+            }
+        } else if (value.isJsonArray()) {
+            if (key.contains(DatabaseConstants.ANOMALY_TIMESTAMP)) {
+                batch.anomalyTimestampKeys.put(key, gson.fromJson(value, new TypeToken<List<ScoredValue<byte[]>>>() { }.getType()));
+            } else if (key.contains(DatabaseConstants.INDEX) && !key.contains(DatabaseConstants.DELETED)) {
+                batch.indexKeys.put(key, gson.fromJson(value, String[].class));
+            }
+        } else if (value.isJsonPrimitive() && (key.equals(DatabaseConstants.CLUSTER_ID) || key.equals(DatabaseConstants.JOB_ID))) {
+            batch.idKeys.put(key, value.getAsString());
+        } else {
+            log.error("Key is not a Json object, Json array or Json primitive: key = {}", key);
+        }
+    }
+
     @Override
     public void writeRawData(JsonObject json) throws IOException {
-        Set<String> jsonKeys = json.keySet();
-        Map<String, Map<String, String>> modelObjectKeys = new HashMap<>();
-        Map<String, String[]> indexKeys = new HashMap<>();
-        Map<String, List<ScoredValue<byte[]>>> anomalyTimestampKeys = new HashMap<>();
-        Map<String, String> idKeys = new HashMap<>();
-        Mapper<String> jobObjectMapper = new HashMapper();
-        Mapper<String> emailObjectMapper = new HashMapper();
-        Mapper<String> reportObjectMapper = new HashMapper();
-        Mapper<String> druidClusterObjectMapper = new HashMapper();
-
-        for (String key : jsonKeys) {
-            if (json.get(key).isJsonObject()) {
-                if (key.contains(DatabaseConstants.JOBS) && !key.contains(DatabaseConstants.DELETED_JOBS)) {
-                    modelObjectKeys.put(key, jobObjectMapper.map(instantiateJobs(json.getAsJsonObject(key))));
-                } else if (key.contains(DatabaseConstants.REPORTS)) {
-                    modelObjectKeys.put(key, reportObjectMapper.map(gson.fromJson(json.getAsJsonObject(key), AnomalyReport.class)));
-                } else if (key.contains(DatabaseConstants.EMAILS)) {
-                    modelObjectKeys.put(key, emailObjectMapper.map(gson.fromJson(json.getAsJsonObject(key), EmailMetaData.class)));
-                } else if (key.contains(DatabaseConstants.DRUID_CLUSTERS)) {
-                    modelObjectKeys.put(key, druidClusterObjectMapper.map(gson.fromJson(json.getAsJsonObject(key), DruidCluster.class)));
-                }
-            } else if (json.get(key).isJsonArray()) {
-                if (key.contains(DatabaseConstants.ANOMALY_TIMESTAMP)) {
-                    anomalyTimestampKeys.put(key, gson.fromJson(json.getAsJsonArray(key), new TypeToken<List<ScoredValue<byte[]>>>() { }.getType()));
-                } else if (key.contains(DatabaseConstants.INDEX) && !key.contains(DatabaseConstants.DELETED)) {
-                    indexKeys.put(key, gson.fromJson(json.getAsJsonArray(key), String[].class));
-                }
-            } else if (key.equals(DatabaseConstants.CLUSTER_ID) || key.equals(DatabaseConstants.JOB_ID)) {
-                idKeys.put(key, json.getAsJsonPrimitive(key).getAsString());
-            } else {
-                log.error("Key is not a Json object, Json array or Json primitive: key = {}", key);
-            }
+        RawDataBatch batch = new RawDataBatch();
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            addRawData(batch, entry.getKey(), entry.getValue());
         }
-        if (modelObjectKeys.size() > 0) {
-            writeObjectsToRedis(modelObjectKeys);
+        if (batch.modelObjectKeys.size() > 0) {
+            writeObjectsToRedis(batch.modelObjectKeys);
         } else {
             log.info("Found zero objects in json dump!");
         }
-        if (anomalyTimestampKeys.size() > 0) {
-            writeAnomalyTimestampsToRedis(anomalyTimestampKeys);
+        if (batch.anomalyTimestampKeys.size() > 0) {
+            writeAnomalyTimestampsToRedis(batch.anomalyTimestampKeys);
         } else {
             log.info("Found zero anomaly timestamps in json dump!");
         }
-        if (indexKeys.size() > 0) {
-            writeIndexesToRedis(indexKeys);
+        if (batch.indexKeys.size() > 0) {
+            writeIndexesToRedis(batch.indexKeys);
         } else {
             log.info("Found zero index keys in json dump!");
         }
-        if (idKeys.size() > 0) {
-            writeIdsToRedis(idKeys);
+        if (batch.idKeys.size() > 0) {
+            writeIdsToRedis(batch.idKeys);
         } else {
             log.info("Found zero Ids in json dump!");
         }
         log.info("Json dump is populated into redis.");
     }
 
+    @Override
+    public long restoreRawData(Reader reader, long skip, RestoreProgress progress) throws IOException {
+        int batchSize = Math.max(1, CLISettings.BACKUP_BATCH_SIZE);
+        RawDataBatch batch = new RawDataBatch();
+        JsonReader json = new JsonReader(reader);
+        long entries = 0;
+        int pending = 0;
+        try {
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                entries++;
+                if (entries <= skip) {
+                    json.skipValue();
+                    continue;
+                }
+                addRawData(batch, key, gson.fromJson(json, JsonElement.class));
+                if (++pending >= batchSize) {
+                    writeBatch(batch);
+                    batch = new RawDataBatch();
+                    pending = 0;
+                    progress.restored(entries);
+                }
+            }
+            json.endObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            log.error("Error while reading the Json dump!", e);
+            throw new IOException(e.getMessage(), e);
+        }
+        if (pending > 0) {
+            writeBatch(batch);
+            progress.restored(entries);
+        }
+        log.info("Json dump of {} entries is populated into redis.", entries);
+        return entries;
+    }
+
+    @Override
+    public long restoreSnapshot(ReadableByteChannel channel, long skip, RestoreProgress progress) throws IOException {
+        int batchSize = Math.max(1, CLISettings.BACKUP_BATCH_SIZE);
+        RawDataBatch batch = new RawDataBatch();
+        if (channel instanceof SeekableByteChannel) {
+            log.info("Validated a snapshot of {} records", RedisSnapshot.validate((SeekableByteChannel) channel));
+        }
+        RedisSnapshot.Decoder snapshot = new RedisSnapshot.Decoder(channel);
+        snapshot.skip(skip);
+        int pending = 0;
+        for (RedisSnapshot.Record record = snapshot.next(); record != null; record = snapshot.next()) {
+            addRecord(batch, record);
+            if (++pending >= batchSize) {
+                writeBatch(batch);
+                batch = new RawDataBatch();
+                pending = 0;
+                progress.restored(snapshot.getRecords());
+            }
+        }
+        if (pending > 0) {
+            writeBatch(batch);
+            progress.restored(snapshot.getRecords());
+        }
+        log.info("Snapshot of {} records is populated into redis.", snapshot.getRecords());
+        return snapshot.getRecords();
+    }
+
+    /**
+     * Add a snapshot record to the batch it is written with. Objects are
+     * read through their models, as they are from a Json dump.
+     * @param batch  the batch
+     * @param record the record
+     */
+    private void addRecord(RawDataBatch batch, RedisSnapshot.Record record) {
+        switch (record.type) {
+            case RedisSnapshot.ID:
+                addRawData(batch, record.key, record.string == null ? JsonNull.INSTANCE : new JsonPrimitive(record.string));
+                break;
+            case RedisSnapshot.HASH:
+                addRawData(batch, record.key, gson.toJsonTree(record.hash));
+                break;
+            case RedisSnapshot.SET:
+                if (record.key.contains(DatabaseConstants.INDEX) && !record.key.contains(DatabaseConstants.DELETED)) {
+                    batch.indexKeys.put(record.key, record.set.toArray(new String[record.set.size()]));
+                }
+                break;
+            case RedisSnapshot.ZSET:
+                if (record.key.contains(DatabaseConstants.ANOMALY_TIMESTAMP)) {
+                    batch.anomalyTimestampKeys.put(record.key, record.zset);
+                }
+                break;
+            default:
+                log.error("Unknown snapshot record type {}: key = {}", record.type, record.key);
+        }
+    }
+
+    /**
+     * Write the entries of a batch to redis.
+     * @param batch the batch
+     */
+    private void writeBatch(RawDataBatch batch) {
+        if (!batch.modelObjectKeys.isEmpty()) {
+            writeObjectsToRedis(batch.modelObjectKeys);
+        }
+        if (!batch.anomalyTimestampKeys.isEmpty()) {
+            writeAnomalyTimestampsToRedis(batch.anomalyTimestampKeys);
+        }
+        if (!batch.indexKeys.isEmpty()) {
+            writeIndexesToRedis(batch.indexKeys);
+        }
+        if (!batch.idKeys.isEmpty()) {
+            writeIdsToRedis(batch.idKeys);
+        }
+    }
+
     /**
      * Method to write objects ({@link com.yahoo.sherlock.model.JobMetadata}, {@link com.yahoo.sherlock.model.EmailMetaData etc.}) to redis.
+     * Reports are also added to the report timeline of their job and frequency,
+     * since a timeline which is already built is not rebuilt from the set indices.
      * @param objects map : key - object key, value - object fields as a map of strings
      */
     public void writeObjectsToRedis(Map<String, Map<String, String>> objects) {
-        RedisConnection<String> conn = connect();
-        List<RedisFuture> futures = new LinkedList<>();
-        AsyncCommands<String> cmd = conn.async();
-        cmd.setAutoFlushCommands(false);
-        log.info("Adding {} objects to redis", objects.size());
-        for (Map.Entry<String, Map<String, String>> object : objects.entrySet()) {
-            futures.add(cmd.hmset(object.getKey(), object.getValue()));
-            if (object.getKey().contains(DatabaseConstants.REPORTS)) {
-                futures.add(cmd.expire(object.getKey(), expirationTime));
+        try (RedisConnection<String> conn = connect()) {
+            List<RedisFuture> futures = new LinkedList<>();
+            AsyncCommands<String> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            log.info("Adding {} objects to redis", objects.size());
+            for (Map.Entry<String, Map<String, String>> object : objects.entrySet()) {
+                futures.add(cmd.hmset(object.getKey(), object.getValue()));
+                if (object.getKey().contains(DatabaseConstants.REPORTS)) {
+                    futures.add(cmd.expire(object.getKey(), expirationTime));
+                    addToTimeline(cmd, object.getKey(), object.getValue(), futures);
+                }
             }
+            cmd.flushCommands();
+            awaitRaw(futures);
+            log.info("Added all objects to redis");
         }
-        cmd.flushCommands();
-        awaitRaw(futures);
-        log.info("Added all objects to redis");
+    }
+
+    /**
+     * Add a restored report to the timeline of its job and frequency.
+     * Reports without a job, frequency or query end time are skipped.
+     * @param cmd     string commands
+     * @param key     report key
+     * @param fields  report fields
+     * @param futures futures of the pipeline
+     */
+    private void addToTimeline(AsyncCommands<String> cmd, String key, Map<String, String> fields, List<RedisFuture> futures) {
+        String jobId = fields.get("jobId");
+        String frequency = fields.get("jobFrequency");
+        String uniqueId = fields.get("uniqueId");
+        Integer endTime = NumberUtils.parseInt(fields.get("reportQueryEndTime"));
+        if (jobId == null || frequency == null || endTime == null) {
+            log.error("Report is missing its job, frequency or query end time: key = {}", key);
+            return;
+        }
+        if (uniqueId == null) {
+            uniqueId = key.substring(key.lastIndexOf(':') + 1);
+        }
+        String timeline = index(timelineName, jobId, frequency);
+        futures.add(cmd.zadd(timeline, ScoredValue.fromNullable((double) endTime, uniqueId)));
+        futures.add(cmd.expire(timeline, LettuceAnomalyReportAccessor.expirationSeconds(frequency)));
     }
 
     /**
@@ -324,18 +677,19 @@ public class LettuceJsonDumper
      * @param anomalyTimestamps map : key - redis key, value - list of timestamps as {@link io.lettuce.core.ScoredValue}
      */
     public void writeAnomalyTimestampsToRedis(Map<String, List<ScoredValue<byte[]>>> anomalyTimestamps) {
-        RedisConnection<byte[]> conn = binary();
-        List<RedisFuture> futures = new LinkedList<>();
-        AsyncCommands<byte[]> cmd = conn.async();
-        cmd.setAutoFlushCommands(false);
-        log.info("Adding {} anomaly timestamps to redis", anomalyTimestamps.size());
-        for (Map.Entry<String, List<ScoredValue<byte[]>>> anomalyTimestamp : anomalyTimestamps.entrySet()) {
-            futures.add(cmd.zadd(encode(anomalyTimestamp.getKey()), anomalyTimestamp.getValue().toArray(new ScoredValue[anomalyTimestamp.getValue().size()])));
-            futures.add(cmd.expire(encode(anomalyTimestamp.getKey()), expirationTime));
+        try (RedisConnection<byte[]> conn = binary()) {
+            List<RedisFuture> futures = new LinkedList<>();
+            AsyncCommands<byte[]> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            log.info("Adding {} anomaly timestamps to redis", anomalyTimestamps.size());
+            for (Map.Entry<String, List<ScoredValue<byte[]>>> anomalyTimestamp : anomalyTimestamps.entrySet()) {
+                futures.add(cmd.zadd(encode(anomalyTimestamp.getKey()), anomalyTimestamp.getValue().toArray(new ScoredValue[anomalyTimestamp.getValue().size()])));
+                futures.add(cmd.expire(encode(anomalyTimestamp.getKey()), expirationTime));
+            }
+            cmd.flushCommands();
+            awaitRaw(futures);
+            log.info("Added all anomaly timestamps to redis");
         }
-        cmd.flushCommands();
-        awaitRaw(futures);
-        log.info("Added all anomaly timestamps to redis");
     }
 
     /**
@@ -343,17 +697,18 @@ public class LettuceJsonDumper
      * @param indices map : key - index key, value - string array of index values
      */
     public void writeIndexesToRedis(Map<String, String[]> indices) {
-        RedisConnection<String> conn = connect();
-        List<RedisFuture<Long>> futures = new LinkedList<>();
-        AsyncCommands<String> cmd = conn.async();
-        cmd.setAutoFlushCommands(false);
-        log.info("Adding {} indices to redis", indices.size());
-        for (Map.Entry<String, String[]> index : indices.entrySet()) {
-            futures.add(cmd.sadd(index.getKey(), index.getValue()));
+        try (RedisConnection<String> conn = connect()) {
+            List<RedisFuture<Long>> futures = new LinkedList<>();
+            AsyncCommands<String> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            log.info("Adding {} indices to redis", indices.size());
+            for (Map.Entry<String, String[]> index : indices.entrySet()) {
+                futures.add(cmd.sadd(index.getKey(), index.getValue()));
+            }
+            cmd.flushCommands();
+            await(futures);
+            log.info("Added all indices to redis");
         }
-        cmd.flushCommands();
-        await(futures);
-        log.info("Added all indices to redis");
     }
 
     /**
@@ -361,16 +716,17 @@ public class LettuceJsonDumper
      * @param ids map : key - id name, value - id value
      */
     public void writeIdsToRedis(Map<String, String> ids) {
-        RedisConnection<String> conn = connect();
-        List<RedisFuture<String>> futures = new LinkedList<>();
-        AsyncCommands<String> cmd = conn.async();
-        cmd.setAutoFlushCommands(false);
-        log.info("Adding {} Ids to redis", ids.size());
-        for (Map.Entry<String, String> id : ids.entrySet()) {
-            futures.add(cmd.set(id.getKey(), id.getValue()));
+        try (RedisConnection<String> conn = connect()) {
+            List<RedisFuture<String>> futures = new LinkedList<>();
+            AsyncCommands<String> cmd = conn.async();
+            cmd.setAutoFlushCommands(false);
+            log.info("Adding {} Ids to redis", ids.size());
+            for (Map.Entry<String, String> id : ids.entrySet()) {
+                futures.add(cmd.set(id.getKey(), id.getValue()));
+            }
+            cmd.flushCommands();
+            await(futures);
+            log.info("Added all Ids to redis");
         }
-        cmd.flushCommands();
-        await(futures);
-        log.info("Added all Ids to redis");
     }
 }
@@ -0,0 +1,627 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.store.redis;
+
+import io.lettuce.core.ScoredValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary snapshot format of the Redis backups, which is an alternative
+ * to the JSON dump. A snapshot starts with a header of magic bytes and a
+ * version, followed by blocks of length-prefixed records and an end marker
+ * with the number of records. Each block holds a dictionary of the hash
+ * field names of its records, which the records refer to by index, and may
+ * be compressed with Deflate. Block headers hold the number of records of
+ * the block so that a resumed restore skips whole blocks without reading them.
+ */
+public final class RedisSnapshot {
+
+    /**
+     * Magic bytes at the start of a snapshot.
+     */
+    private static final byte[] MAGIC = "SHRLKSNP".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Version of the format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Marker of a block.
+     */
+    private static final byte BLOCK = 'B';
+    /**
+     * Marker of the end of the snapshot.
+     */
+    private static final byte END = 'E';
+    /**
+     * Block flag of a compressed block.
+     */
+    private static final byte DEFLATED = 1;
+    /**
+     * Size of a block header after its marker:
+     * flags, number of records, raw size and stored size.
+     */
+    private static final int BLOCK_HEADER = 1 + 3 * Integer.BYTES;
+
+    /**
+     * Record of a string value.
+     */
+    static final byte ID = 1;
+    /**
+     * Record of a hash.
+     */
+    static final byte HASH = 2;
+    /**
+     * Record of a set.
+     */
+    static final byte SET = 3;
+    /**
+     * Record of a sorted set of binary values.
+     */
+    static final byte ZSET = 4;
+
+    private RedisSnapshot() {
+    }
+
+    /**
+     * @param path path of a backup file
+     * @return true if the file starts with the snapshot magic bytes
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    /**
+     * Check that a snapshot is complete before it is restored. Only the
+     * block headers are read, and the payloads are skipped, so a snapshot
+     * which is truncated or whose end marker does not match its blocks is
+     * rejected before any record is written. The position of the channel
+     * is restored afterwards.
+     *
+     * @param channel the channel of the snapshot
+     * @return the number of records of the snapshot
+     * @throws IOException if the snapshot is truncated or corrupt
+     */
+    static long validate(SeekableByteChannel channel) throws IOException {
+        long start = channel.position();
+        long size = channel.size();
+        Decoder decoder = new Decoder(channel);
+        decoder.skip(Long.MAX_VALUE);
+        if (channel.position() > size) {
+            throw new EOFException("Redis snapshot is truncated");
+        }
+        channel.position(start);
+        return decoder.getRecords();
+    }
+
+    /**
+     * Write a buffer fully to a channel.
+     *
+     * @param channel the channel
+     * @param buffer  the buffer
+     * @throws IOException if the write fails
+     */
+    private static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @param out   the stream
+     * @param value a string or null
+     * @throws IOException if the write fails
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes records to a snapshot, in blocks of a fixed number of records.
+     */
+    static final class Encoder {
+
+        private final WritableByteChannel channel;
+        private final boolean compress;
+        private final int blockRecords;
+        /**
+         * Hash field names of the current block by index.
+         */
+        private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(recordBytes);
+        private int blockCount = 0;
+        private long records = 0;
+
+        /**
+         * Write the snapshot header.
+         *
+         * @param channel      the channel of the snapshot
+         * @param compress     whether to compress the blocks
+         * @param blockRecords number of records of a block
+         * @throws IOException if the write fails
+         */
+        Encoder(WritableByteChannel channel, boolean compress, int blockRecords) throws IOException {
+            this.channel = channel;
+            this.compress = compress;
+            this.blockRecords = Math.max(1, blockRecords);
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + Integer.BYTES);
+            header.put(MAGIC).putInt(VERSION);
+            header.flip();
+            write(channel, header);
+        }
+
+        /**
+         * @param key   Redis key
+         * @param value string value
+         * @throws IOException if the write fails
+         */
+        void id(String key, String value) throws IOException {
+            begin(ID, key);
+            writeString(out, value);
+            end();
+        }
+
+        /**
+         * @param key    Redis key
+         * @param fields fields of the hash
+         * @throws IOException if the write fails
+         */
+        void hash(String key, Map<String, String> fields) throws IOException {
+            begin(HASH, key);
+            out.writeInt(fields.size());
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                Integer index = dictionary.get(field.getKey());
+                if (index == null) {
+                    index = dictionary.size();
+                    dictionary.put(field.getKey(), index);
+                }
+                out.writeInt(index);
+                writeString(out, field.getValue());
+            }
+            end();
+        }
+
+        /**
+         * @param key     Redis key
+         * @param members members of the set
+         * @throws IOException if the write fails
+         */
+        void set(String key, Collection<String> members) throws IOException {
+            begin(SET, key);
+            out.writeInt(members.size());
+            for (String member : members) {
+                writeString(out, member);
+            }
+            end();
+        }
+
+        /**
+         * @param key    Redis key
+         * @param values values of the sorted set
+         * @throws IOException if the write fails
+         */
+        void zset(String key, List<ScoredValue<byte[]>> values) throws IOException {
+            begin(ZSET, key);
+            out.writeInt(values.size());
+            for (ScoredValue<byte[]> value : values) {
+                byte[] bytes = value.getValueOrElse(new byte[0]);
+                out.writeDouble(value.getScore());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            end();
+        }
+
+        /**
+         * Write the last block and the end marker.
+         *
+         * @throws IOException if the write fails
+         */
+        void finish() throws IOException {
+            flushBlock();
+            ByteBuffer end = ByteBuffer.allocate(1 + Long.BYTES);
+            end.put(END).putLong(records);
+            end.flip();
+            write(channel, end);
+        }
+
+        /**
+         * @return the number of records written
+         */
+        long getRecords() {
+            return records;
+        }
+
+        private void begin(byte type, String key) throws IOException {
+            out.writeByte(type);
+            writeString(out, key);
+        }
+
+        private void end() throws IOException {
+            records++;
+            if (++blockCount >= blockRecords) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * Write the dictionary and records of the current block.
+         *
+         * @throws IOException if the write fails
+         */
+        private void flushBlock() throws IOException {
+            if (blockCount == 0) {
+                return;
+            }
+            out.flush();
+            ByteArrayOutputStream block = new ByteArrayOutputStream(recordBytes.size() + 16 * dictionary.size() + Integer.BYTES);
+            DataOutputStream data = new DataOutputStream(block);
+            data.writeInt(dictionary.size());
+            for (String name : dictionary.keySet()) {
+                writeString(data, name);
+            }
+            recordBytes.writeTo(data);
+            data.flush();
+            byte[] raw = block.toByteArray();
+            byte[] stored = compress ? deflate(raw) : raw;
+            boolean deflated = stored.length < raw.length;
+            if (!deflated) {
+                stored = raw;
+            }
+            ByteBuffer header = ByteBuffer.allocate(1 + BLOCK_HEADER);
+            header.put(BLOCK).put(deflated ? DEFLATED : 0).putInt(blockCount).putInt(raw.length).putInt(stored.length);
+            header.flip();
+            write(channel, header);
+            write(channel, ByteBuffer.wrap(stored));
+            dictionary.clear();
+            recordBytes.reset();
+            blockCount = 0;
+        }
+
+        /**
+         * @param raw bytes to compress
+         * @return the compressed bytes
+         */
+        private static byte[] deflate(byte[] raw) {
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * A record read from a snapshot. Only the value field
+     * of the record type is set.
+     */
+    static final class Record {
+
+        final byte type;
+        final String key;
+        String string;
+        Map<String, String> hash;
+        List<String> set;
+        List<ScoredValue<byte[]>> zset;
+
+        /**
+         * @param type record type
+         * @param key  Redis key
+         */
+        Record(byte type, String key) {
+            this.type = type;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Reads the records of a snapshot one block at a time.
+     */
+    static final class Decoder {
+
+        private final ReadableByteChannel channel;
+        private ByteBuffer block = null;
+        private String[] dictionary = null;
+        /**
+         * Records left in the current block.
+         */
+        private int remaining = 0;
+        /**
+         * Records read or skipped.
+         */
+        private long records = 0;
+        private boolean finished = false;
+
+        /**
+         * Read the snapshot header.
+         *
+         * @param channel the channel of the snapshot
+         * @throws IOException if the channel does not hold a snapshot
+         */
+        Decoder(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            ByteBuffer header = read(MAGIC.length + Integer.BYTES);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a Redis snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported Redis snapshot version " + version);
+            }
+        }
+
+        /**
+         * @return the number of records read or skipped
+         */
+        long getRecords() {
+            return records;
+        }
+
+        /**
+         * Skip records. Blocks whose records are all skipped are not read.
+         *
+         * @param count number of records to skip
+         * @throws IOException if the snapshot cannot be read
+         */
+        void skip(long count) throws IOException {
+            long left = count;
+            while (left > 0 && !finished) {
+                if (remaining > 0) {
+                    next();
+                    left--;
+                } else {
+                    left -= Math.max(0, readBlock(left));
+                }
+            }
+        }
+
+        /**
+         * @return the next record, or null at the end of the snapshot
+         * @throws IOException if the snapshot cannot be read or is corrupt
+         */
+        Record next() throws IOException {
+            while (remaining == 0) {
+                if (finished || readBlock(0) < 0) {
+                    return null;
+                }
+            }
+            try {
+                Record record = new Record(block.get(), readString());
+                int size;
+                switch (record.type) {
+                    case ID:
+                        record.string = readString();
+                        break;
+                    case HASH:
+                        size = readSize();
+                        record.hash = new LinkedHashMap<>(size * 2);
+                        for (int i = 0; i < size; i++) {
+                            String name = dictionary[block.getInt()];
+                            record.hash.put(name, readString());
+                        }
+                        break;
+                    case SET:
+                        size = readSize();
+                        record.set = new ArrayList<>(size);
+                        for (int i = 0; i < size; i++) {
+                            record.set.add(readString());
+                        }
+                        break;
+                    case ZSET:
+                        size = readSize();
+                        record.zset = new ArrayList<>(size);
+                        for (int i = 0; i < size; i++) {
+                            double score = block.getDouble();
+                            byte[] bytes = new byte[readSize()];
+                            block.get(bytes);
+                            record.zset.add(ScoredValue.fromNullable(score, bytes));
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + record.type + " in Redis snapshot");
+                }
+                remaining--;
+                records++;
+                return record;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt Redis snapshot block", e);
+            }
+        }
+
+        /**
+         * Read the header of the next block, and its dictionary
+         * unless all the records of the block are skipped.
+         *
+         * @param skip number of records to skip
+         * @return the number of skipped records of the block,
+         * or -1 at the end of the snapshot
+         * @throws IOException if the snapshot cannot be read or is corrupt
+         */
+        private long readBlock(long skip) throws IOException {
+            byte marker = read(1).get();
+            if (marker == END) {
+                long total = read(Long.BYTES).getLong();
+                if (total != records) {
+                    throw new IOException("Redis snapshot holds " + total + " records but " + records + " were read");
+                }
+                finished = true;
+                return -1;
+            }
+            if (marker != BLOCK) {
+                throw new IOException("Corrupt Redis snapshot block marker " + marker);
+            }
+            ByteBuffer header = read(BLOCK_HEADER);
+            byte flags = header.get();
+            int count = header.getInt();
+            int rawLength = header.getInt();
+            int storedLength = header.getInt();
+            if (count < 0 || rawLength < 0 || storedLength < 0) {
+                throw new IOException("Corrupt Redis snapshot block header");
+            }
+            if (count <= skip) {
+                discard(storedLength);
+                records += count;
+                return count;
+            }
+            byte[] stored = read(storedLength).array();
+            block = ByteBuffer.wrap((flags & DEFLATED) != 0 ? inflate(stored, rawLength) : stored);
+            try {
+                dictionary = new String[readSize()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString();
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt Redis snapshot block", e);
+            }
+            remaining = count;
+            return 0;
+        }
+
+        /**
+         * @return a size read from the block
+         */
+        private int readSize() {
+            int size = block.getInt();
+            if (size < 0 || size > block.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            return size;
+        }
+
+        /**
+         * @return a string read from the block, or null
+         */
+        private String readString() {
+            int length = block.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > block.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            String value = new String(block.array(), block.arrayOffset() + block.position(), length, StandardCharsets.UTF_8);
+            block.position(block.position() + length);
+            return value;
+        }
+
+        /**
+         * @param length number of bytes to read
+         * @return a buffer of the bytes, ready to be read
+         * @throws IOException if the channel ends first
+         */
+        private ByteBuffer read(int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Redis snapshot is truncated");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * @param length number of bytes to skip
+         * @throws IOException if the channel cannot be read
+         */
+        private void discard(int length) throws IOException {
+            if (channel instanceof SeekableByteChannel) {
+                SeekableByteChannel seekable = (SeekableByteChannel) channel;
+                seekable.position(seekable.position() + length);
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 8192));
+            int left = length;
+            while (left > 0) {
+                buffer.clear();
+                buffer.limit(Math.min(left, buffer.capacity()));
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new EOFException("Redis snapshot is truncated");
+                }
+                left -= read;
+            }
+        }
+
+        /**
+         * @param stored    compressed bytes
+         * @param rawLength size of the bytes once inflated
+         * @return the inflated bytes
+         * @throws IOException if the bytes are corrupt
+         */
+        private static byte[] inflate(byte[] stored, int rawLength) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                byte[] raw = new byte[rawLength];
+                int offset = 0;
+                while (offset < rawLength) {
+                    int inflated = inflater.inflate(raw, offset, rawLength - offset);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    offset += inflated;
+                }
+                if (offset != rawLength) {
+                    throw new IOException("Corrupt compressed Redis snapshot block");
+                }
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed Redis snapshot block", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package com.yahoo.sherlock.utils;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonReader;
 import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.store.JsonDumper;
 import com.yahoo.sherlock.store.Store;
+import com.yahoo.sherlock.store.redis.RedisSnapshot;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,34 +27,132 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class BackupUtils {
 
-    /* Gson object */
-    private static Gson gson = new Gson();
+    /* Value of {@link CLISettings#BACKUP_FORMAT} for binary snapshots */
+    private static final String BINARY_FORMAT = "binary";
+
+    /* Number of leading bytes of a backup file hashed into its checkpoint identity */
+    private static final int IDENTITY_BYTES = 65536;
 
     /**
-     * Method to backup redis data into a file at {@link CLISettings#BACKUP_REDIS_DB_PATH}.
+     * Method to backup redis data into a file at {@link CLISettings#BACKUP_REDIS_DB_PATH},
+     * as a json dump or as a binary snapshot if {@link CLISettings#BACKUP_FORMAT} is binary.
+     * The data is streamed to a temporary file, which replaces the
+     * backup file once it is complete.
      * @throws IOException IO exception
      */
     public static void startBackup() throws IOException {
         JsonDumper jsonDumper = Store.getJsonDumper();
-        JsonObject jsonObject = jsonDumper.getRawData();
-        log.info("Got the json object");
-        try (FileWriter file = new FileWriter(CLISettings.BACKUP_REDIS_DB_PATH)) {
-            log.info("Writing to the file {}", CLISettings.BACKUP_REDIS_DB_PATH);
-            file.write(gson.toJson(jsonObject));
-            file.close();
-            log.info("Successfully wrote redis data to json file");
+        Path backup = Paths.get(CLISettings.BACKUP_REDIS_DB_PATH);
+        Path temp = Paths.get(CLISettings.BACKUP_REDIS_DB_PATH + ".tmp");
+        log.info("Writing to the file {}", temp);
+        try {
+            if (BINARY_FORMAT.equalsIgnoreCase(CLISettings.BACKUP_FORMAT)) {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    jsonDumper.dumpSnapshot(channel, CLISettings.BACKUP_COMPRESSION);
+                }
+            } else {
+                try (Writer file = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    jsonDumper.dumpRawData(file);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, backup, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Successfully wrote redis data to backup file {}", backup);
+    }
+
+    /**
+     * Method to restore redis data from a backup file, which is either a
+     * json dump or a binary snapshot. The file is read and
+     * written to redis in batches of {@link CLISettings#BACKUP_BATCH_SIZE}
+     * entries, and after each batch the number of entries written is saved
+     * to a checkpoint file next to the backup, with the identity of the file.
+     * A restore of the same file resumes after the checkpointed entries, a
+     * checkpoint of another file, such as a newer backup at the same path,
+     * is ignored, and the checkpoint
+     * is deleted once the whole file is restored. Restored values are set,
+     * not appended, so entries written after the last checkpoint of a
+     * failed restore are simply written again.
+     * @param path       full system path to the file
+     * @param jsonDumper the json dumper of the backend
+     * @throws IOException if the file cannot be read or an error writing to the backend occurs
+     */
+    public static void restoreFromFile(String path, JsonDumper jsonDumper) throws IOException {
+        Path backup = Paths.get(path);
+        Path checkpoint = Paths.get(path + ".checkpoint");
+        String identity = getIdentity(backup);
+        long skip = readCheckpoint(checkpoint, identity);
+        if (skip > 0) {
+            log.info("Resuming the restore of {} after {} entries", path, skip);
+        }
+        JsonDumper.RestoreProgress progress = entries -> {
+            Files.write(checkpoint, (identity + " " + entries).getBytes(StandardCharsets.UTF_8));
+            log.info("Restored {} entries from {}", entries, path);
+        };
+        if (RedisSnapshot.isSnapshot(backup)) {
+            try (FileChannel channel = FileChannel.open(backup, StandardOpenOption.READ)) {
+                jsonDumper.restoreSnapshot(channel, skip, progress);
+            }
+        } else {
+            try (Reader file = Files.newBufferedReader(backup, StandardCharsets.UTF_8)) {
+                jsonDumper.restoreRawData(file, skip, progress);
+            }
+        }
+        Files.deleteIfExists(checkpoint);
+        log.info("Successfully restored redis data from backup file {}", path);
+    }
+
+    /**
+     * Identify a backup file by its size, modification time and a
+     * SHA-256 hash of its first {@value #IDENTITY_BYTES} bytes.
+     * @param backup path of the backup file
+     * @return the identity of the file
+     * @throws IOException if the file cannot be read
+     */
+    protected static String getIdentity(Path backup) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
+        try (FileChannel channel = FileChannel.open(backup, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(IDENTITY_BYTES);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                continue;
+            }
+            head.flip();
+            digest.update(head);
+        }
+        StringBuilder identity = new StringBuilder();
+        identity.append(Files.size(backup)).append(':').append(Files.getLastModifiedTime(backup).toMillis()).append(':');
+        for (byte b : digest.digest()) {
+            identity.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return identity.toString();
     }
 
     /**
-     * Method to read data from backup file.
-     * @param path full system path to the file
-     * @return redis data as json object
-     * @throws FileNotFoundException exception if file not found
+     * @param checkpoint path of the checkpoint file
+     * @param identity   identity of the backup file
+     * @return the number of entries written by an earlier restore of
+     * the backup file, or 0 if there is no checkpoint of this file
      */
-    public static JsonObject getDataFromJsonFile(String path) throws FileNotFoundException {
-        JsonReader reader = new JsonReader(new FileReader(path));
-        JsonObject jsonObject = gson.fromJson(reader, JsonObject.class);
-        return jsonObject;
+    private static long readCheckpoint(Path checkpoint, String identity) {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        try {
+            String[] values = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(" ");
+            if (values.length == 2 && values[0].equals(identity)) {
+                return Long.parseLong(values[1]);
+            }
+            log.info("Ignoring checkpoint {} of another backup file", checkpoint);
+        } catch (IOException | NumberFormatException e) {
+            log.error("Ignoring unreadable checkpoint {}", checkpoint, e);
+        }
+        return 0;
     }
 }
@@ -11,6 +11,7 @@ import com.yahoo.egads.control.ModelAdapter;
 import com.yahoo.egads.control.ProcessableObject;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.exception.SherlockException;
+import com.yahoo.sherlock.model.SeriesBuffer;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -40,9 +41,7 @@ public class EgadsUtils {
      * @return processed time series
      */
     public static TimeSeries fillMissingData(TimeSeries timeseries, int aggr, int fillMissing) throws SherlockException {
-        TimeSeries output = new TimeSeries();
         Long interval = timeseries.mostFrequentPeriod();
-        output.meta = timeseries.meta;
 
         // sanity check
         if (interval == 0L) {
@@ -50,41 +49,17 @@ public class EgadsUtils {
             throw new SherlockException("Most frequent periods(granularity):" + interval);
         }
         log.debug("starting filling...");
-        if (fillMissing == 1) {
-            for (int i = 1; i < timeseries.size(); i++) {
-                if (timeseries.data.get(i).time - timeseries.data.get(i - 1).time != interval) {
-                    int missingPoints = (int) ((timeseries.data.get(i).time - timeseries.data.get(i - 1).time) / interval);
-                    Long curTimestampToFill = timeseries.data.get(i - 1).time;
-                    for (int j = missingPoints; j > 0; j--) {
-                        try {
-                            output.append(curTimestampToFill, timeseries.value(i - 1));
-                        } catch (Exception e) {
-                            log.error("Error while filling missing data in timeseries!", e);
-                        }
-                        curTimestampToFill += interval;
-                    }
-                } else {
-                    try {
-                        output.append(timeseries.time(i - 1), timeseries.value(i - 1));
-                    } catch (Exception e) {
-                        log.error("Error while filling missing data in timeseries!", e);
-                    }
-                }
-            }
-            try {
-                output.append(timeseries.time(timeseries.size() - 1), timeseries.value(timeseries.size() - 1));
-            } catch (Exception e) {
-                log.error("Error while filling missing data in timeseries!", e);
-            }
-        } else {
+        if (fillMissing != 1) {
             return timeseries;
         }
+        // Fill and aggregate on primitive arrays, creating the entries only once
+        SeriesBuffer output = SeriesBuffer.of(timeseries).fillGaps(interval);
 
         // Handle aggregation.
         if (aggr > 1) {
-            output.data = sumAggregator(output, aggr);
+            output = output.sum(aggr);
         }
-        return output;
+        return output.toTimeSeries(timeseries.meta);
     }
 
     /**
@@ -94,17 +69,7 @@ public class EgadsUtils {
      * @return aggregated timeseries
      */
     public static TimeSeries.DataSequence sumAggregator(TimeSeries timeSeries, int frequency) {
-        TimeSeries.DataSequence output = new TimeSeries.DataSequence();
-
-        for (int i = 0; i < timeSeries.data.size(); i += frequency) {
-            Float aggr = 0.0F;
-            Long time = (timeSeries.data.get(i)).time;
-            for (int j = i; j < Math.min(timeSeries.data.size(), i + frequency); ++j) {
-                aggr = aggr + (timeSeries.data.get(j)).value;
-            }
-            output.add(new TimeSeries.Entry(time, aggr));
-        }
-        return output;
+        return SeriesBuffer.of(timeSeries).sum(frequency).toDataSequence();
     }
 
     /**
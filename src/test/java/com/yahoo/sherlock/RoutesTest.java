@@ -11,6 +11,7 @@ import com.google.gson.JsonObject;
 import com.yahoo.egads.data.Anomaly;
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.enums.JobStatus;
+import com.yahoo.sherlock.enums.Triggers;
 import com.yahoo.sherlock.exception.ClusterNotFoundException;
 import com.yahoo.sherlock.exception.EmailNotFoundException;
 import com.yahoo.sherlock.exception.JobNotFoundException;
@@ -67,6 +68,7 @@ import java.util.Set;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
@@ -75,6 +77,7 @@ import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -558,7 +561,7 @@ public class RoutesTest {
         when(req.params(Constants.FREQUENCY_PARAM)).thenReturn("day");
         JobMetadata jm = new JobMetadata();
         List<AnomalyReport> lar = Collections.emptyList();
-        when(ara.getAnomalyReportsForJob(anyString(), anyString())).thenReturn(lar);
+        when(ara.getAnomalyReportsForJobInRange(anyString(), anyString(), anyLong(), anyLong())).thenReturn(lar);
         inject("reportAccessor", ara);
         inject("jobAccessor", jma);
         when(jma.getJobMetadata(anyString())).thenReturn(jm);
@@ -566,6 +569,15 @@ public class RoutesTest {
         assertEquals(mav.getViewName(), "report");
         assertEquals(params(mav).get(Constants.FREQUENCY), "day");
         assertTrue(params(mav).containsKey(Constants.TIMELINE_POINTS));
+        verify(ara, never()).getAnomalyReportsForJob(anyString(), anyString());
+    }
+
+    @Test
+    public void testGetReportWindowMinutes() {
+        assertEquals(Routes.getReportWindowMinutes(Triggers.MINUTE, null), 420L);
+        assertEquals(Routes.getReportWindowMinutes(Triggers.MINUTE, 2), 540L);
+        assertEquals(Routes.getReportWindowMinutes(Triggers.HOUR, 0), 15L * 1440L);
+        assertEquals(Routes.getReportWindowMinutes(Triggers.MONTH, 0), 434L * 1440L);
     }
 
     @Test
@@ -701,11 +713,16 @@ public class RoutesTest {
         mocks();
         when(req.params(Constants.ID)).thenReturn("1");
         when(jma.getJobsAssociatedWithCluster(anyString())).thenReturn(Collections.emptyList());
+        DruidCluster dc = new DruidCluster();
+        dc.setBrokerHost("localhost");
+        dc.setBrokerPort(1234);
+        when(dca.getDruidCluster("1")).thenReturn(dc);
         inject("jobAccessor", jma);
         inject("clusterAccessor", dca);
         assertEquals(Routes.deleteDruidCluster(req, res), Constants.SUCCESS);
         verify(res, times(1)).status(200);
         verify(dca, times(1)).deleteDruidCluster("1");
+        verify(dca, times(1)).getDruidClusterList();
     }
 
     @Test
@@ -771,6 +788,8 @@ public class RoutesTest {
         assertEquals(dc.getBrokerPort(), (Integer) 431);
         verify(res, times(1)).status(200);
         verify(dca, times(1)).putDruidCluster(dc);
+        // the client of the old broker is closed as no cluster uses it
+        verify(dca, times(1)).getDruidClusterList();
     }
 
     @Test
@@ -1237,7 +1256,7 @@ public class RoutesTest {
         inject("schedulerService", ss);
         JsonDumper jd = mock(JsonDumper.class);
         inject("jsonDumper", jd);
-        doNothing().when(jd).writeRawData(any());
+        when(jd.restoreRawData(any(), anyLong(), any())).thenReturn(0L);
         doNothing().when(ss).removeAllJobsFromQueue();
         String response = Routes.restoreRedisDB(req, res);
         assertNotEquals(response, Constants.SUCCESS);
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.model;
+
+import com.yahoo.egads.data.MetricMeta;
+import com.yahoo.egads.data.TimeSeries;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test for the primitive series buffer.
+ */
+public class SeriesBufferTest {
+
+    @Test
+    public void testAppendGrowsAndRejectsOutOfOrder() {
+        SeriesBuffer buffer = new SeriesBuffer(1);
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(buffer.append(i * 60L, i));
+        }
+        assertFalse(buffer.append(6000L, 1.0f));
+        assertFalse(buffer.append(60L, 1.0f));
+        assertEquals(buffer.size(), 100);
+        assertEquals(buffer.time(99), 6000L);
+        assertEquals(buffer.value(99), 100.0f);
+    }
+
+    @Test
+    public void testFillGapsAndSum() throws Exception {
+        TimeSeries series = new TimeSeries(new long[]{60, 120, 300, 330, 360}, new float[]{1, 2, 3, 4, 5});
+        SeriesBuffer filled = SeriesBuffer.of(series).fillGaps(60L);
+        assertEquals(filled.toDataSequence().getTimes(), new long[]{60, 120, 180, 240, 360});
+        assertEquals(filled.toDataSequence().getValues(), new float[]{1, 2, 2, 2, 5});
+        SeriesBuffer sums = filled.sum(2);
+        assertEquals(sums.toDataSequence().getTimes(), new long[]{60, 180, 360});
+        assertEquals(sums.toDataSequence().getValues(), new float[]{3, 4, 5});
+    }
+
+    @Test
+    public void testToTimeSeries() {
+        SeriesBuffer buffer = new SeriesBuffer();
+        buffer.append(60L, 1.5f);
+        buffer.append(120L, 2.5f);
+        MetricMeta meta = new MetricMeta();
+        TimeSeries series = buffer.toTimeSeries(meta);
+        assertSame(series.meta, meta);
+        assertEquals(series.data.size(), 2);
+        assertEquals(series.data.get(1).time, 120L);
+        assertEquals(series.data.get(1).value, 2.5f);
+        assertEquals(SeriesBuffer.of(new TimeSeries()).size(), 0);
+        assertEquals(new SeriesBuffer().fillGaps(60L).size(), 0);
+    }
+}
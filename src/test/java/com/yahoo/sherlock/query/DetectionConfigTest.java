@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.query;
+
+import com.yahoo.sherlock.enums.Granularity;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Test for the per-run detection configuration.
+ */
+public class DetectionConfigTest {
+
+    @Test
+    public void testCopiesAreIndependent() {
+        Properties p = new Properties();
+        p.setProperty("AD_MODEL", "KSigmaModel");
+        DetectionConfig base = DetectionConfig.of(p);
+        p.setProperty("AD_MODEL", "changed");
+        assertEquals(base.getProperty("AD_MODEL"), "KSigmaModel");
+        DetectionConfig run = base.withSigmaThreshold(2.5);
+        assertEquals(run.getProperty("AUTO_SENSITIVITY_SD"), "2.5");
+        assertNull(base.getProperty("AUTO_SENSITIVITY_SD"));
+        Properties out = run.toProperties();
+        assertNotSame(out, run.toProperties());
+        out.setProperty("AUTO_SENSITIVITY_SD", "9.0");
+        assertEquals(run.getProperty("AUTO_SENSITIVITY_SD"), "2.5");
+    }
+
+    @Test
+    public void testWithBaseWindows() {
+        DetectionConfig base = DetectionConfig.of(new Properties());
+        assertEquals(base.withBaseWindows(Granularity.MINUTE, 5).getProperty("BASE_WINDOWS"), "1,12");
+        assertEquals(base.withBaseWindows(Granularity.HOUR, 2).getProperty("BASE_WINDOWS"), "12,84");
+        assertEquals(base.withBaseWindows(Granularity.DAY, 1).getProperty("BASE_WINDOWS"), "1,7");
+        assertEquals(base.withBaseWindows(Granularity.WEEK, 1).getProperty("BASE_WINDOWS"), "1,4");
+        DetectionConfig month = base.withBaseWindows(Granularity.MONTH, 1);
+        assertEquals(month.getProperty("BASE_WINDOWS"), "1,12");
+        assertEquals(month.getProperty("PERIOD"), "-1");
+        assertNull(base.getProperty("PERIOD"));
+    }
+
+    @Test
+    public void testWithDetectionWindow() {
+        DetectionConfig config = DetectionConfig.of(new Properties()).withDetectionWindow(61, "hour", 1);
+        assertEquals(config.getProperty("DETECTION_WINDOW_START_TIME"), "60");
+    }
+}
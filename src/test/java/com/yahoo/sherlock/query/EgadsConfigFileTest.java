@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.query;
+
+import com.yahoo.sherlock.settings.CLISettings;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Test for the snapshot of the EGADS configuration file.
+ */
+public class EgadsConfigFileTest {
+
+    private String tempConfig;
+    private File file;
+
+    private void write(String content, long lastModified) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(lastModified);
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        tempConfig = CLISettings.EGADS_CONFIG_FILENAME;
+        file = File.createTempFile("egads_config", ".ini");
+        CLISettings.EGADS_CONFIG_FILENAME = file.getPath();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        CLISettings.EGADS_CONFIG_FILENAME = tempConfig;
+        file.delete();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        write("AD_MODEL = KSigmaModel\nTS_MODEL = OlympicModel\n", 1000000L);
+        EgadsConfigFile snapshot = EgadsConfigFile.current();
+        assertEquals(snapshot.getConfig().getProperty("AD_MODEL"), "KSigmaModel");
+        // the file is not read again while it is unchanged
+        assertSame(EgadsConfigFile.current(), snapshot);
+        assertSame(EgadsConfigFile.current().getConfig(), snapshot.getConfig());
+        assertEquals(EgadsConfig.fromFile().getProperty("TS_MODEL"), "OlympicModel");
+        // each caller gets its own copy of the parsed parameters
+        EgadsConfig config = snapshot.getEgadsConfig();
+        assertEquals(config.getTsModel(), "OlympicModel");
+        config.setTsModel("AutoForecastModel");
+        assertNotSame(snapshot.getEgadsConfig(), config);
+        assertEquals(snapshot.getEgadsConfig().getTsModel(), "OlympicModel");
+        // a changed file is reloaded
+        write("AD_MODEL = ExtremeLowDensityModel\n", 2000000L);
+        assertEquals(EgadsConfigFile.current().getConfig().getProperty("AD_MODEL"), "ExtremeLowDensityModel");
+        assertNull(EgadsConfigFile.current().getConfig().getProperty("TS_MODEL"));
+        // a file which cannot be loaded keeps the last configuration
+        write("", 3000000L);
+        assertEquals(EgadsConfigFile.current().getConfig().getProperty("AD_MODEL"), "ExtremeLowDensityModel");
+    }
+
+    @Test
+    public void testMissingFile() {
+        CLISettings.EGADS_CONFIG_FILENAME = "/xxxxx.con";
+        assertNull(EgadsConfigFile.current().getConfig());
+        assertNull(EgadsConfigFile.current().getEgadsConfig());
+        assertNull(EgadsConfig.fromFile());
+    }
+}
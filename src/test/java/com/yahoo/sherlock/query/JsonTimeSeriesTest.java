@@ -10,18 +10,30 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.yahoo.egads.data.TimeSeries;
 
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.exception.SherlockException;
+import com.yahoo.sherlock.settings.CLISettings;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Test class for JsonTimeSeries.
@@ -75,7 +87,7 @@ public class JsonTimeSeriesTest {
      */
     @Test
     public void testGetGroupByDimensionValues() throws Exception {
-        String expected = "dim1 = \'xyz\'";
+        String[] expected = {"xyz"};
         String inputBlob = "{\n"
                            + "    \"dim1\" : \"xyz\",\n"
                            + "    \"m1\" : 111,\n"
@@ -85,7 +97,10 @@ public class JsonTimeSeriesTest {
         JsonElement jsonElement = gson.fromJson(inputBlob , JsonElement.class);
         Method method = JsonTimeSeries.class.getDeclaredMethod("getGroupByDimensionValues", JsonElement.class);
         method.setAccessible(true);
-        Assert.assertEquals(expected, method.invoke(jsonTimeSeriesWithResultJsonArray, jsonElement));
+        Assert.assertEquals((String[]) method.invoke(jsonTimeSeriesWithResultJsonArray, jsonElement), expected);
+        method = JsonTimeSeries.class.getDeclaredMethod("getGroupByDimensionLabel", String[].class);
+        method.setAccessible(true);
+        Assert.assertEquals(method.invoke(jsonTimeSeriesWithResultJsonArray, (Object) expected), "dim1 = \'xyz\'");
     }
 
     /**
@@ -143,6 +158,28 @@ public class JsonTimeSeriesTest {
         Assert.assertEquals(method.invoke(jsonTimeSeriesWithResultJsonArray, timestamp), expected);
     }
 
+    @Test
+    public void testParseIsoTimeStamp() throws Throwable {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long millis = (long) (random.nextDouble() * 8000000000000L) - 1000000000000L;
+            String timestamp = Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC)
+                    .format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"));
+            Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp(timestamp), millis / 1000, timestamp);
+        }
+        Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp("2016-02-29T23:59:59.999Z"), 1456790399L);
+        Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp("2017-02-29T00:00:00.000Z"), Long.MIN_VALUE);
+        Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp("2017-10-12T24:00:00.000Z"), Long.MIN_VALUE);
+        Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp("2017-10-12T00:00:00.00aZ"), Long.MIN_VALUE);
+        Assert.assertEquals(JsonTimeSeries.parseIsoTimeStamp("2017-10-12T00:00:00Z"), Long.MIN_VALUE);
+        // other formats are parsed leniently as before
+        Method method = JsonTimeSeries.class.getDeclaredMethod("parseTimeStamp", String.class);
+        method.setAccessible(true);
+        Assert.assertEquals(method.invoke(jsonTimeSeriesWithResultJsonArray, "2017-10-12T00:00:01.5Z"), 1507766401L);
+        Assert.assertEquals(method.invoke(jsonTimeSeriesWithResultJsonArray, "2017-10-12T00:00:01.5Z"), 1507766401L);
+        Assert.assertEquals(method.invoke(jsonTimeSeriesWithResultJsonArray, "2017-10-12T00:00:02.000Z"), 1507766402L);
+    }
+
     @Test(expectedExceptions = SherlockException.class)
     public void testParseTimeStampInvalidFormat() throws Throwable {
         String timestamp = "2017-10-12 00:00:00";
@@ -211,4 +248,193 @@ public class JsonTimeSeriesTest {
         }
     }
 
+    /**
+     * Collect the datapoints of parsed timeseries by metric and dimension values.
+     * @param jsonTimeSeries parsed timeseries
+     * @return datapoints as strings by timeseries name
+     */
+    private static Map<String, String> datapoints(JsonTimeSeries jsonTimeSeries) {
+        Map<String, String> points = new HashMap<>();
+        for (TimeSeries timeSeries : jsonTimeSeries.getUniqueTimeSeriesMap().values()) {
+            StringBuilder sb = new StringBuilder();
+            for (TimeSeries.Entry entry : timeSeries.data) {
+                sb.append(entry.time).append('=').append(entry.value).append(',');
+            }
+            points.put(timeSeries.meta.name + "|" + timeSeries.meta.source, sb.toString());
+        }
+        return points;
+    }
+
+    /**
+     * Test that reading a response stream gives the same timeseries as processing the parsed response.
+     * @throws Exception exception
+     */
+    @Test
+    public void testReadDataPointsMatchesProcessJsonDataPoint() throws Exception {
+        String[][] files = {
+            {"druid_valid_response_1.json", "druid_query_1.json"},
+            {"druid_valid_response_2.json", "druid_query_2.json"},
+            {"druid_valid_response_3.json", "druid_query_3.json"}
+        };
+        for (String[] file : files) {
+            String druidResponse = new String(Files.readAllBytes(Paths.get("src/test/resources/" + file[0])));
+            String queryString = new String(Files.readAllBytes(Paths.get("src/test/resources/" + file[1])));
+            Query fileQuery = new Query(gson.fromJson(queryString, JsonObject.class), 123, 1234, Granularity.HOUR, 1);
+            JsonTimeSeries parsed = new JsonTimeSeries(gson.fromJson(druidResponse, JsonArray.class), fileQuery);
+            for (int i = 0; i < parsed.getJsonDataSequence().size(); i++) {
+                parsed.processJsonDataPoint(parsed.getJsonDataSequence().get(i));
+            }
+            JsonTimeSeries read = new JsonTimeSeries(fileQuery);
+            read.readDataPoints(new JsonReader(new StringReader(druidResponse)));
+            Assert.assertFalse(read.getUniqueTimeSeriesMap().isEmpty());
+            Assert.assertTrue(read.getJsonDataSequence().isEmpty());
+            Assert.assertEquals(datapoints(read), datapoints(parsed));
+        }
+    }
+
+    /**
+     * Test reading datapoints with the timestamp after the result, null dimensions and bad rows.
+     * @throws Exception exception
+     */
+    @Test
+    public void testReadDataPointsIrregularResponse() throws Exception {
+        String queryString = new String(Files.readAllBytes(Paths.get("src/test/resources/druid_query_2.json")));
+        Query fileQuery = new Query(gson.fromJson(queryString, JsonObject.class), 123, 1234, Granularity.HOUR, 1);
+        String dimension = fileQuery.getGroupByDimensions().iterator().next();
+        String metric = fileQuery.getMetricNames().iterator().next();
+        String response = "[{\"result\":[{\"" + dimension + "\":\"a\",\"" + metric + "\":1.5}],"
+                          + "\"timestamp\":\"2017-10-12T00:00:00.000Z\"},"
+                          + "{\"timestamp\":\"2017-10-12T01:00:00.000Z\",\"result\":["
+                          + "{\"" + dimension + "\":null,\"" + metric + "\":2},"
+                          + "{\"" + dimension + "\":\"a\"},"
+                          + "{\"" + dimension + "\":\"a\",\"" + metric + "\":\"3\",\"other\":{\"x\":[1]}}]},"
+                          + "{\"timestamp\":\"bad\",\"result\":[{\"" + dimension + "\":\"a\",\"" + metric + "\":4}]},"
+                          + "{\"result\":[]}, 5]";
+        JsonTimeSeries read = new JsonTimeSeries(fileQuery);
+        read.readDataPoints(new JsonReader(new StringReader(response)));
+        Assert.assertEquals(read.getUniqueTimeSeriesMap().size(), 1);
+        TimeSeries timeSeries = read.getUniqueTimeSeriesMap().values().iterator().next();
+        Assert.assertEquals(timeSeries.meta.source, dimension + " = 'a'");
+        Assert.assertEquals(timeSeries.size(), 2);
+        Assert.assertEquals(timeSeries.data.get(0).time, 1507766400L);
+        Assert.assertEquals(timeSeries.data.get(0).value, 1.5f);
+        Assert.assertEquals(timeSeries.data.get(1).time, 1507770000L);
+        Assert.assertEquals(timeSeries.data.get(1).value, 3f);
+    }
+
+    /**
+     * Test that rows with the same groupby dimension values are appended to the same timeseries.
+     * @throws Exception exception
+     */
+    @Test
+    public void testSeriesPerDimensionValues() throws Exception {
+        String queryString = new String(Files.readAllBytes(Paths.get("src/test/resources/druid_query_2.json")));
+        Query fileQuery = new Query(gson.fromJson(queryString, JsonObject.class), 123, 1234, Granularity.HOUR, 1);
+        String dimension = fileQuery.getGroupByDimensions().iterator().next();
+        int metricCount = fileQuery.getMetricNames().size();
+        StringBuilder response = new StringBuilder("[");
+        for (int hour = 0; hour < 3; hour++) {
+            response.append(hour == 0 ? "" : ",").append("{\"timestamp\":\"2017-10-12T0").append(hour).append(":00:00.000Z\",\"result\":[");
+            for (String value : new String[]{"a", "b", "nullable"}) {
+                response.append(value.equals("a") ? "" : ",").append("{\"").append(dimension).append("\":\"").append(value).append('"');
+                for (String metric : fileQuery.getMetricNames()) {
+                    response.append(",\"").append(metric).append("\":").append(hour);
+                }
+                response.append('}');
+            }
+            response.append("]}");
+        }
+        response.append(']');
+        JsonTimeSeries read = new JsonTimeSeries(fileQuery);
+        read.readDataPoints(new JsonReader(new StringReader(response.toString())));
+        JsonTimeSeries parsed = new JsonTimeSeries(gson.fromJson(response.toString(), JsonArray.class), fileQuery);
+        for (int i = 0; i < parsed.getJsonDataSequence().size(); i++) {
+            parsed.processJsonDataPoint(parsed.getJsonDataSequence().get(i));
+        }
+        Assert.assertEquals(datapoints(read), datapoints(parsed));
+        Map<UUID, TimeSeries> series = read.getUniqueTimeSeriesMap();
+        Assert.assertEquals(series.size(), 2 * metricCount);
+        for (Map.Entry<UUID, TimeSeries> entry : series.entrySet()) {
+            TimeSeries timeSeries = entry.getValue();
+            Assert.assertEquals(timeSeries.meta.id, entry.getKey().toString());
+            Assert.assertTrue(timeSeries.meta.source.equals(dimension + " = 'a'") || timeSeries.meta.source.equals(dimension + " = 'b'"));
+            Assert.assertEquals(timeSeries.size(), 3);
+            Assert.assertEquals(timeSeries.data.get(2).value, 2f);
+        }
+    }
+
+    /**
+     * Parse a response by processing each datapoint.
+     * @param response Druid response
+     * @param query    query of the response
+     * @return the parsed timeseries
+     */
+    private JsonTimeSeries process(String response, Query query) {
+        JsonTimeSeries parsed = new JsonTimeSeries(gson.fromJson(response, JsonArray.class), query);
+        for (int i = 0; i < parsed.getJsonDataSequence().size(); i++) {
+            try {
+                parsed.processJsonDataPoint(parsed.getJsonDataSequence().get(i));
+            } catch (SherlockException e) {
+                Assert.assertNotNull(e);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Test that large result arrays parsed or streamed in partitions give the same timeseries.
+     * @throws Exception exception
+     */
+    @Test
+    public void testParallelParse() throws Exception {
+        String queryString = new String(Files.readAllBytes(Paths.get("src/test/resources/druid_query_2.json")));
+        Query fileQuery = new Query(gson.fromJson(queryString, JsonObject.class), 123, 1234, Granularity.HOUR, 1);
+        String dimension = fileQuery.getGroupByDimensions().iterator().next();
+        StringBuilder response = new StringBuilder("[");
+        for (int hour = 0; hour < 4; hour++) {
+            response.append(hour == 0 ? "" : ",").append("{\"timestamp\":\"2017-10-12T0").append(hour).append(":00:00.000Z\",\"result\":[");
+            for (int row = 0; row < 100; row++) {
+                response.append(row == 0 ? "" : ",").append("{\"").append(dimension).append("\":\"v").append(row).append('"');
+                for (String metric : fileQuery.getMetricNames()) {
+                    // the last datapoint misses its metrics from the middle of the array
+                    if (hour < 3 || row < 50) {
+                        response.append(",\"").append(metric).append("\":").append(hour * row);
+                    }
+                }
+                response.append('}');
+            }
+            response.append("]}");
+        }
+        response.append(']');
+        int parallelParseRows = CLISettings.PARALLEL_PARSE_ROWS;
+        int parseParallelism = CLISettings.PARSE_PARALLELISM;
+        try {
+            CLISettings.PARALLEL_PARSE_ROWS = 0;
+            JsonTimeSeries sequential = process(response.toString(), fileQuery);
+            JsonTimeSeries sequentialRead = new JsonTimeSeries(fileQuery);
+            sequentialRead.readDataPoints(new JsonReader(new StringReader(response.toString())));
+            CLISettings.PARALLEL_PARSE_ROWS = 10;
+            CLISettings.PARSE_PARALLELISM = 3;
+            JsonTimeSeries parallel = process(response.toString(), fileQuery);
+            ForkJoinPool pool = JsonTimeSeries.getParsePool(3);
+            // the streamed rows are converted in chunks on a pool resized to the new parallelism
+            CLISettings.PARSE_PARALLELISM = 4;
+            JsonTimeSeries parallelRead = new JsonTimeSeries(fileQuery);
+            parallelRead.readDataPoints(new JsonReader(new StringReader(response.toString())));
+            Assert.assertTrue(pool.isShutdown());
+            Assert.assertEquals(datapoints(parallelRead), datapoints(sequentialRead));
+            Assert.assertEquals(sequentialRead.getUniqueTimeSeriesMap().size(), 100 * fileQuery.getMetricNames().size());
+            Assert.assertEquals(sequential.getUniqueTimeSeriesMap().size(), 100 * fileQuery.getMetricNames().size());
+            Assert.assertEquals(datapoints(parallel), datapoints(sequential));
+            int points = 0;
+            for (TimeSeries timeSeries : parallel.getUniqueTimeSeriesMap().values()) {
+                points += timeSeries.size();
+            }
+            Assert.assertEquals(points, 350 * fileQuery.getMetricNames().size());
+        } finally {
+            CLISettings.PARALLEL_PARSE_ROWS = parallelParseRows;
+            CLISettings.PARSE_PARALLELISM = parseParallelism;
+        }
+    }
+
 }
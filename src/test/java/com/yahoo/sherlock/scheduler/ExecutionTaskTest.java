@@ -12,6 +12,7 @@ import com.yahoo.sherlock.model.JobMetadata;
 import com.yahoo.sherlock.service.EmailService;
 import com.yahoo.sherlock.service.JobExecutionService;
 import com.yahoo.sherlock.service.SchedulerService;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.store.JobMetadataAccessor;
 import com.yahoo.sherlock.store.JobScheduler;
 
@@ -24,9 +25,17 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class ExecutionTaskTest {
@@ -50,34 +59,176 @@ public class ExecutionTaskTest {
         JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
         EmailService ems = Mockito.mock(EmailService.class);
         ExecutionTask et = new ExecutionTask(jes, ss, js, jma);
+        Mockito.when(js.popQueue(anyLong(), anyInt()))
+            .thenReturn(Arrays.asList(makeJob(4, 1), makeJob(3, 1), makeJob(2, 1), makeJob(1, 1)))
+            .thenReturn(Collections.emptyList());
+        Mockito.doNothing().when(ems).sendConsolidatedEmail(any(), any());
+        Method m = et.getClass().getDeclaredMethod("consumeAndExecuteTasks", long.class);
+        m.setAccessible(true);
+        m.invoke(et, 12345);
+        Mockito.verify(js, Mockito.times(2)).popQueue(12345, CLISettings.QUEUE_BATCH_SIZE);
+        Mockito.verify(jes, Mockito.times(4)).execute(any(JobMetadata.class));
+        Mockito.verify(ss, Mockito.times(4)).rescheduleJob(any(JobMetadata.class));
+        Mockito.verify(jma, Mockito.times(4)).putJobMetadata(any(JobMetadata.class));
+    }
+
+    private static JobMetadata makeJob(int jobId, int clusterId) {
         JobMetadata jm = new JobMetadata();
-        Integer[] idPtr = new Integer[] {5};
-        jm.setJobId(idPtr[0]);
+        jm.setJobId(jobId);
+        jm.setClusterId(clusterId);
         jm.setEffectiveRunTime(12340);
         jm.setGranularity(Granularity.HOUR.toString());
         jm.setFrequency(Granularity.HOUR.toString());
         jm.setJobStatus(JobStatus.RUNNING.getValue());
-        Mockito.when(js.popQueue(anyLong())).then(new Answer<Object>() {
+        return jm;
+    }
+
+    @Test
+    public void testExecutionTaskClusterLimit() throws Exception {
+        JobExecutionService jes = Mockito.mock(JobExecutionService.class);
+        JobScheduler js = Mockito.mock(JobScheduler.class);
+        SchedulerService ss = Mockito.mock(SchedulerService.class);
+        JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
+        ExecutionTask et = new ExecutionTask(jes, ss, js, jma, 4, 2);
+        Mockito.when(js.popQueue(anyLong(), anyInt()))
+            .thenReturn(Arrays.asList(makeJob(1, 1), makeJob(2, 1), makeJob(3, 1), makeJob(4, 1)))
+            .thenReturn(Arrays.asList(makeJob(5, 1), makeJob(6, 1)))
+            .thenReturn(Collections.emptyList());
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock iom) throws Throwable {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                Thread.sleep(50);
+                running.decrementAndGet();
+                return null;
+            }
+        }).when(jes).execute(any(JobMetadata.class));
+        Method m = et.getClass().getDeclaredMethod("consumeAndExecuteTasks", long.class);
+        m.setAccessible(true);
+        m.invoke(et, 12345);
+        et.shutdown();
+        Mockito.verify(jes, Mockito.times(6)).execute(any(JobMetadata.class));
+        Mockito.verify(js, Mockito.times(6)).removePending(any(Integer.class));
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(running.get(), 0);
+    }
+
+    @Test
+    public void testExecutionTaskHeldJobsDoNotHoldWorkers() throws Exception {
+        JobExecutionService jes = Mockito.mock(JobExecutionService.class);
+        JobScheduler js = Mockito.mock(JobScheduler.class);
+        SchedulerService ss = Mockito.mock(SchedulerService.class);
+        JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
+        ExecutionTask et = new ExecutionTask(jes, ss, js, jma, 2, 1);
+        // the jobs of cluster 1 wait for the job of cluster 2, which needs a worker
+        Mockito.when(js.popQueue(anyLong(), anyInt()))
+            .thenReturn(Arrays.asList(makeJob(1, 1), makeJob(2, 1), makeJob(3, 1), makeJob(4, 2)))
+            .thenReturn(Collections.emptyList());
+        CountDownLatch otherCluster = new CountDownLatch(1);
+        AtomicInteger released = new AtomicInteger(0);
+        Mockito.doAnswer(new Answer<Object>() {
             @Override
             public Object answer(InvocationOnMock iom) throws Throwable {
-                Mockito.doAnswer(this).when(js).popQueue(anyLong());
-                idPtr[0]--;
-                jm.setJobId(idPtr[0]);
-                if (idPtr[0] <= 0) {
+                JobMetadata job = (JobMetadata) iom.getArguments()[0];
+                if (job.getClusterId() == 2) {
+                    otherCluster.countDown();
+                } else if (otherCluster.await(5, TimeUnit.SECONDS)) {
+                    released.incrementAndGet();
+                }
+                return null;
+            }
+        }).when(jes).execute(any(JobMetadata.class));
+        Method m = et.getClass().getDeclaredMethod("consumeAndExecuteTasks", long.class);
+        m.setAccessible(true);
+        m.invoke(et, 12345);
+        et.shutdown();
+        Mockito.verify(jes, Mockito.times(4)).execute(any(JobMetadata.class));
+        assertEquals(released.get(), 3);
+    }
+
+    @Test
+    public void testExecutionTaskBoundsHeldJobs() throws Exception {
+        int queueBatchSize = CLISettings.QUEUE_BATCH_SIZE;
+        CLISettings.QUEUE_BATCH_SIZE = 2;
+        try {
+            JobExecutionService jes = Mockito.mock(JobExecutionService.class);
+            JobScheduler js = Mockito.mock(JobScheduler.class);
+            SchedulerService ss = Mockito.mock(SchedulerService.class);
+            JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
+            ExecutionTask et = new ExecutionTask(jes, ss, js, jma, 4, 1);
+            AtomicInteger queued = new AtomicInteger(10);
+            AtomicInteger claimed = new AtomicInteger(0);
+            AtomicInteger started = new AtomicInteger(0);
+            AtomicInteger maxWaiting = new AtomicInteger(0);
+            // every job is on the busy cluster 1, so all but one wait for its slot
+            Mockito.when(js.popQueue(anyLong(), anyInt())).then(new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock iom) {
+                    maxWaiting.accumulateAndGet(claimed.get() - started.get(), Math::max);
+                    int count = Math.min((Integer) iom.getArguments()[1], queued.get());
+                    JobMetadata[] jobs = new JobMetadata[count];
+                    for (int i = 0; i < count; i++) {
+                        jobs[i] = makeJob(queued.getAndDecrement(), 1);
+                    }
+                    claimed.addAndGet(count);
+                    return Arrays.asList(jobs);
+                }
+            });
+            Mockito.doAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock iom) throws Throwable {
+                    started.incrementAndGet();
+                    Thread.sleep(10);
                     return null;
-                } else {
-                    return jm;
                 }
+            }).when(jes).execute(any(JobMetadata.class));
+            Method m = et.getClass().getDeclaredMethod("consumeAndExecuteTasks", long.class);
+            m.setAccessible(true);
+            m.invoke(et, 12345);
+            et.shutdown();
+            Mockito.verify(jes, Mockito.times(10)).execute(any(JobMetadata.class));
+            // at most one batch is claimed and waiting when the queue is popped
+            assertTrue(maxWaiting.get() <= 2);
+        } finally {
+            CLISettings.QUEUE_BATCH_SIZE = queueBatchSize;
+        }
+    }
+
+    @Test
+    public void testExecutionTaskSkipsInFlightJob() throws Exception {
+        JobExecutionService jes = Mockito.mock(JobExecutionService.class);
+        JobScheduler js = Mockito.mock(JobScheduler.class);
+        SchedulerService ss = Mockito.mock(SchedulerService.class);
+        JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
+        ExecutionTask et = new ExecutionTask(jes, ss, js, jma, 2, 0);
+        CountDownLatch drained = new CountDownLatch(1);
+        AtomicInteger pops = new AtomicInteger(0);
+        Mockito.when(js.popQueue(anyLong(), anyInt())).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock iom) {
+                if (pops.incrementAndGet() > 2) {
+                    drained.countDown();
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(makeJob(7, 1));
             }
         });
-        Mockito.doNothing().when(ems).sendConsolidatedEmail(any(), any());
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock iom) throws Throwable {
+                return drained.await(5, TimeUnit.SECONDS);
+            }
+        }).when(jes).execute(any(JobMetadata.class));
         Method m = et.getClass().getDeclaredMethod("consumeAndExecuteTasks", long.class);
         m.setAccessible(true);
         m.invoke(et, 12345);
-        Mockito.verify(js, Mockito.times(5)).popQueue(12345);
-        Mockito.verify(jes, Mockito.times(4)).execute(any(JobMetadata.class));
-        Mockito.verify(ss, Mockito.times(4)).rescheduleJob(any(JobMetadata.class));
-        Mockito.verify(jma, Mockito.times(4)).putJobMetadata(any(JobMetadata.class));
+        et.shutdown();
+        Mockito.verify(js, Mockito.times(3)).popQueue(12345, CLISettings.QUEUE_BATCH_SIZE);
+        Mockito.verify(jes, Mockito.times(1)).execute(any(JobMetadata.class));
+        Mockito.verify(jma, Mockito.times(1)).putJobMetadata(any(JobMetadata.class));
     }
 
     @Test
@@ -87,11 +238,11 @@ public class ExecutionTaskTest {
         SchedulerService ss = Mockito.mock(SchedulerService.class);
         JobMetadataAccessor jma = Mockito.mock(JobMetadataAccessor.class);
         ExecutionTask et = new ExecutionTask(jes, ss, js, jma);
-        Mockito.when(js.popQueue(anyLong())).thenThrow(new IOException());
+        Mockito.when(js.popQueue(anyLong(), anyInt())).thenThrow(new IOException());
         et.run();
         Mockito.verify(jes, Mockito.times(0)).execute(any(JobMetadata.class));
         Mockito.verify(ss, Mockito.times(0)).rescheduleJob(any(JobMetadata.class));
-        Mockito.verify(js, Mockito.times(1)).popQueue(anyLong());
+        Mockito.verify(js, Mockito.times(1)).popQueue(anyLong(), anyInt());
         Mockito.verify(jma, Mockito.times(0)).putJobMetadata(any(JobMetadata.class));
     }
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.JsonArray;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.settings.CLISettings;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test for the datasource cache.
+ */
+public class DatasourceCacheTest {
+
+    private long[] now;
+    private List<Runnable> refreshes;
+    private DatasourceCache cache;
+    private DruidCluster cluster;
+    private int loads;
+    private boolean failing;
+
+    @BeforeMethod
+    public void setUp() {
+        CLISettings.DATASOURCE_CACHE_TTL = 600;
+        CLISettings.DATASOURCE_NEGATIVE_TTL = 30;
+        now = new long[]{1000000L};
+        refreshes = new ArrayList<>();
+        cache = new DatasourceCache(refreshes::add, () -> now[0]);
+        cluster = new DruidCluster();
+        cluster.setClusterId(1);
+        cluster.setBrokerHost("localhost");
+        cluster.setBrokerPort(8082);
+        cluster.setBrokerEndpoint("druid/v2");
+        loads = 0;
+        failing = false;
+    }
+
+    private JsonArray load(DruidCluster cluster) throws DruidException {
+        loads++;
+        if (failing) {
+            throw new DruidException("broker down");
+        }
+        JsonArray datasources = new JsonArray();
+        datasources.add("datasource" + loads);
+        return datasources;
+    }
+
+    @Test
+    public void testCachedWithinTtl() throws DruidException {
+        JsonArray first = cache.getDatasources(cluster, this::load);
+        now[0] += 200000L;
+        assertSame(cache.getDatasources(cluster, this::load), first);
+        assertEquals(loads, 1);
+        assertTrue(refreshes.isEmpty());
+        now[0] += 500000L;
+        assertEquals(cache.getDatasources(cluster, this::load).get(0).getAsString(), "datasource2");
+        assertEquals(loads, 2);
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws DruidException {
+        JsonArray first = cache.getDatasources(cluster, this::load);
+        now[0] += 301000L;
+        assertSame(cache.getDatasources(cluster, this::load), first);
+        assertSame(cache.getDatasources(cluster, this::load), first);
+        assertEquals(refreshes.size(), 1);
+        assertEquals(loads, 1);
+        refreshes.get(0).run();
+        assertEquals(loads, 2);
+        assertEquals(cache.getDatasources(cluster, this::load).get(0).getAsString(), "datasource2");
+        // failed refresh keeps the cached list
+        now[0] += 301000L;
+        cache.getDatasources(cluster, this::load);
+        failing = true;
+        refreshes.get(1).run();
+        assertEquals(cache.getDatasources(cluster, this::load).get(0).getAsString(), "datasource2");
+        assertEquals(loads, 3);
+    }
+
+    @Test
+    public void testFailuresAreCached() {
+        failing = true;
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getDatasources(cluster, this::load);
+                fail();
+            } catch (DruidException e) {
+                assertEquals(e.getMessage(), "broker down");
+            }
+        }
+        assertEquals(loads, 1);
+        now[0] += 31000L;
+        failing = false;
+        try {
+            assertEquals(cache.getDatasources(cluster, this::load).get(0).getAsString(), "datasource2");
+        } catch (DruidException e) {
+            fail();
+        }
+        assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testMaxAgeAndInvalidation() throws DruidException {
+        cache.getDatasources(cluster, this::load);
+        now[0] += 5000L;
+        cache.getDatasources(cluster, this::load, 10000L);
+        assertEquals(loads, 1);
+        cache.getDatasources(cluster, this::load, 1000L);
+        assertEquals(loads, 2);
+        cache.invalidate(1);
+        cache.getDatasources(cluster, this::load);
+        assertEquals(loads, 3);
+        cluster.setBrokerPort(8083);
+        cache.getDatasources(cluster, this::load);
+        assertEquals(loads, 4);
+    }
+
+    @Test
+    public void testUncachedLookups() throws DruidException {
+        cluster.setClusterId(null);
+        cache.getDatasources(cluster, this::load);
+        cache.getDatasources(cluster, this::load);
+        assertEquals(loads, 2);
+        cluster.setClusterId(1);
+        CLISettings.DATASOURCE_CACHE_TTL = 0;
+        cache.getDatasources(cluster, this::load);
+        cache.getDatasources(cluster, this::load);
+        assertEquals(loads, 4);
+        CLISettings.DATASOURCE_CACHE_TTL = 600;
+    }
+}
@@ -10,6 +10,7 @@ import com.beust.jcommander.internal.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import com.yahoo.egads.data.Anomaly;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.enums.Granularity;
@@ -17,14 +18,20 @@ import com.yahoo.sherlock.exception.SherlockException;
 import com.yahoo.sherlock.model.DruidCluster;
 import com.yahoo.sherlock.model.EgadsResult;
 import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.query.DetectionConfig;
 import com.yahoo.sherlock.query.EgadsConfig;
 import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.store.DBTestHelper;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.StringReader;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -36,8 +43,10 @@ import java.util.Properties;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -149,12 +158,28 @@ public class DetectorServiceTest {
         httpService = mockHttpService;
         DetectorService detectorService = new MockDetectorService();
         inject(detectorService, "httpService", httpService);
+        long[] now = {0L};
+        inject(detectorService, "datasourceCache", new DatasourceCache(Runnable::run, () -> now[0]));
+        DruidCluster cluster = DBTestHelper.getNewDruidCluster();
+        cluster.setClusterId(1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                detectorService.detect(cluster, job);
+                Assert.fail();
+            } catch (Exception e) {
+                assertEquals(e.getMessage(), "Querying unknown datasource: \"s1\"");
+            }
+        }
+        verify(mockHttpService, times(1)).queryDruidDatasources(any());
+        // a missing datasource is looked up again once the list is older than the negative TTL
+        now[0] += 60000L;
         try {
-            detectorService.detect(DBTestHelper.getNewDruidCluster(), job);
+            detectorService.detect(cluster, job);
             Assert.fail();
         } catch (Exception e) {
             assertEquals(e.getMessage(), "Querying unknown datasource: \"s1\"");
         }
+        verify(mockHttpService, times(2)).queryDruidDatasources(any());
     }
 
     private DetectorService ds;
@@ -168,6 +193,7 @@ public class DetectorServiceTest {
         egads = mock(EgadsService.class);
         inject(ds, "parserService", ps);
         inject(ds, "egads", egads);
+        when(egads.newDetectionConfig(any())).thenReturn(DetectionConfig.of(new Properties()));
     }
 
     @Test
@@ -177,6 +203,8 @@ public class DetectorServiceTest {
                 .thenReturn(Collections.singletonList(new Anomaly()));
         when(ds.runDetection(any(JsonArray.class), any(), anyDouble(), any(EgadsConfig.class), anyString(), anyInt()))
                 .thenCallRealMethod();
+        when(ds.runDetection(anyListOf(TimeSeries.class), any(Query.class), anyDouble(), any(EgadsConfig.class), anyString(), anyInt()))
+                .thenCallRealMethod();
         Query query = mock(Query.class);
         when(query.getRunTime()).thenReturn(100000);
         when(query.getGranularity()).thenReturn(Granularity.HOUR);
@@ -190,7 +218,7 @@ public class DetectorServiceTest {
         when(ds.runDetection(any(), anyDouble(), any(EgadsConfig.class), anyInt(), anyString(), any(Granularity.class), anyInt()))
                 .thenReturn(Collections.singletonList(new Anomaly()));
         when(ds.runDetection(any(), anyDouble(), any(), anyInt(), anyString(), any(Granularity.class), anyInt())).thenCallRealMethod();
-        assertEquals(ds.runDetection(Collections.emptyList(), 0.0, null, 1234, null, null, 1).size(), 1);
+        assertEquals(ds.runDetection(Collections.emptyList(), 0.0, null, 1234, "day", Granularity.DAY, 1).size(), 1);
     }
 
     @Test
@@ -203,35 +231,221 @@ public class DetectorServiceTest {
         List<TimeSeries> tslist = Lists.newArrayList(endSeries, new TimeSeries());
         Properties p = new Properties();
         p.setProperty("AD_MODEL", "model1");
-        when(egads.getP()).thenReturn(p);
-        when(egads.runEGADS(any(), anyDouble())).thenReturn(anomalies);
+        EgadsConfig config = mock(EgadsConfig.class);
+        when(egads.newDetectionConfig(null)).thenReturn(DetectionConfig.of(p));
+        when(egads.newDetectionConfig(config)).thenReturn(DetectionConfig.of(p).withProperty("AUTO_SENSITIVITY_SD", "2.0"));
+        List<DetectionConfig> configs = new ArrayList<>();
+        when(egads.runEGADS(any(), any(DetectionConfig.class))).then(new Answer<List<Anomaly>>() {
+            @Override
+            public List<Anomaly> answer(InvocationOnMock invocation) {
+                configs.add((DetectionConfig) invocation.getArguments()[1]);
+                return anomalies;
+            }
+        });
         when(ds.runDetection(any(), anyDouble(), any(EgadsConfig.class), anyInt(), anyString(), any(Granularity.class), anyInt()))
                 .thenCallRealMethod();
         List<Anomaly> result = ds.runDetection(tslist, 3.0, null, 123, "day", Granularity.DAY, 1);
         assertEquals(result.size(), 3);
-        result = ds.runDetection(tslist, 3.0, mock(EgadsConfig.class), 123, "day", Granularity.DAY, 1);
+        assertEquals(result.get(2).modelName, "model1");
+        result = ds.runDetection(tslist, 3.0, config, 123, "day", Granularity.DAY, 1);
         assertEquals(result.size(), 3);
-        verify(egads, times(2)).runEGADS(any(), any());
-        verify(egads, times(1)).preRunConfigure(any(), any(), anyInt());
-        verify(egads, times(1)).configureWith(any());
+        assertEquals(configs.size(), 2);
+        assertEquals(configs.get(0).getProperty("AUTO_SENSITIVITY_SD"), "3.0");
+        assertEquals(configs.get(0).getProperty("BASE_WINDOWS"), "1,7");
+        assertEquals(configs.get(0).getProperty("DETECTION_WINDOW_START_TIME"), String.valueOf((123 - 1440) * 60L));
+        assertEquals(configs.get(1).getProperty("AUTO_SENSITIVITY_SD"), "2.0");
+        assertEquals(configs.get(1).getProperty("BASE_WINDOWS"), null);
+        // the base configuration is never modified by a run
+        assertEquals(p.getProperty("AUTO_SENSITIVITY_SD"), null);
+        verify(egads, never()).preRunConfigure(any(), any(), anyInt());
+        verify(egads, never()).configureWith(any());
+    }
+
+    @Test
+    public void testRunDetectionParallel() throws Exception {
+        initMocks();
+        int parallelism = CLISettings.DETECTION_PARALLELISM;
+        CLISettings.DETECTION_PARALLELISM = 4;
+        List<TimeSeries> tslist = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TimeSeries timeSeries = new TimeSeries();
+            timeSeries.meta.id = String.valueOf(i);
+            if (i % 7 != 0) {
+                timeSeries.append(123 * 60, i);
+            }
+            tslist.add(timeSeries);
+        }
+        when(egads.runEGADS(any(), any(DetectionConfig.class))).then(new Answer<List<Anomaly>>() {
+            @Override
+            public List<Anomaly> answer(InvocationOnMock invocation) throws Exception {
+                TimeSeries timeSeries = (TimeSeries) invocation.getArguments()[0];
+                if ("13".equals(timeSeries.meta.id) && timeSeries.meta.name != null) {
+                    throw new SherlockException("error in egads");
+                }
+                Thread.sleep(50 - Integer.parseInt(timeSeries.meta.id));
+                Anomaly first = new Anomaly();
+                first.id = timeSeries.meta.id;
+                Anomaly second = new Anomaly();
+                second.id = timeSeries.meta.id;
+                return Lists.newArrayList(first, second);
+            }
+        });
+        when(ds.runDetection(any(), anyDouble(), any(EgadsConfig.class), anyInt(), anyString(), any(Granularity.class), anyInt()))
+                .thenCallRealMethod();
+        try {
+            List<Anomaly> result = ds.runDetection(tslist, 3.0, null, 123, "day", Granularity.DAY, 1);
+            List<String> ids = new ArrayList<>();
+            for (Anomaly anomaly : result) {
+                ids.add(anomaly.id);
+            }
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                expected.add(String.valueOf(i));
+                if (i % 7 != 0) {
+                    expected.add(String.valueOf(i));
+                }
+            }
+            assertEquals(ids, expected);
+            tslist.get(13).meta.name = "fail";
+            try {
+                ds.runDetection(tslist, 3.0, null, 123, "day", Granularity.DAY, 1);
+                Assert.fail();
+            } catch (SherlockException e) {
+                assertEquals(e.getMessage(), "error in egads");
+            }
+        } finally {
+            CLISettings.DETECTION_PARALLELISM = parallelism;
+        }
     }
 
     @Test
     public void testDetectWithResults() throws Exception {
         EgadsResult res = new EgadsResult();
         initMocks();
-        when(egads.detectAnomaliesResult(any())).thenReturn(res);
+        when(egads.detectAnomaliesResult(any(), any(DetectionConfig.class))).thenReturn(res);
         List<TimeSeries> tslist = Lists.newArrayList(
                 new TimeSeries(), new TimeSeries(), new TimeSeries(), new TimeSeries(), new TimeSeries()
         );
-        when(ps.parseTimeSeries(any(), any())).thenReturn(tslist);
+        when(ds.queryTimeSeries(any(), any())).thenReturn(tslist);
         when(ds.detectWithResults(any(), any(), any(), any(), any())).thenCallRealMethod();
         Query query = new Query(null, 150000000, 159999999, Granularity.DAY, 1);
         List<EgadsResult> reslist = ds.detectWithResults(query, 3.0, new DruidCluster(), 1, new EgadsConfig());
         assertEquals(5, reslist.size());
-        verify(egads, times(1)).configureWith(any());
-        verify(egads, times(1)).preRunConfigure(any(), any(), anyInt());
-        verify(egads, times(1)).configureDetectionWindow(query.getRunTime() / 60, query.getGranularity().toString(), 2);
-        verify(egads, times(5)).detectAnomaliesResult(any());
+        DetectionConfig expected = DetectionConfig.of(new Properties())
+                .withSigmaThreshold(3.0)
+                .withBaseWindows(Granularity.DAY, 1)
+                .withDetectionWindow(query.getRunTime() / 60, Granularity.DAY.toString(), 2)
+                .withProperty("MAX_ANOMALY_TIME_AGO", "99999999");
+        verify(egads, times(1)).newDetectionConfig(any());
+        verify(egads, times(5)).detectAnomaliesResult(any(), Mockito.argThat(new ArgumentMatcher<DetectionConfig>() {
+            @Override
+            public boolean matches(Object argument) {
+                return expected.toProperties().equals(((DetectionConfig) argument).toProperties());
+            }
+        }));
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueryTimeSeries() throws Exception {
+        initMocks();
+        HttpService http = mock(HttpService.class);
+        inject(ds, "httpService", http);
+        inject(ds, "druidResultCache", new DruidResultCache(System::currentTimeMillis));
+        Query query = mock(Query.class);
+        List<TimeSeries> tslist = Lists.newArrayList(new TimeSeries());
+        JsonReader reader = new JsonReader(new StringReader("[]"));
+        when(ps.readTimeSeries(reader, query)).thenReturn(tslist);
+        when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class), any(HttpService.ResponseParser.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock iom) throws Throwable {
+                        return ((HttpService.ResponseParser<Object>) iom.getArguments()[2]).parse(reader);
+                    }
+                });
+        when(ds.queryTimeSeries(any(), any())).thenCallRealMethod();
+        assertEquals(ds.queryTimeSeries(query, new DruidCluster()), tslist);
+        verify(http, never()).queryDruid(any(), any());
+    }
+
+    private static TimeSeries series(String source, long start, int points) {
+        TimeSeries timeSeries = new TimeSeries();
+        timeSeries.meta.name = "m1";
+        timeSeries.meta.source = source;
+        for (int i = 0; i < points; i++) {
+            timeSeries.data.add(new TimeSeries.Entry(start + 3600L * i, i));
+        }
+        return timeSeries;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueryIncremental() throws Exception {
+        initMocks();
+        HttpService http = mock(HttpService.class);
+        inject(ds, "httpService", http);
+        inject(ds, "queryService", new DruidQueryService());
+        inject(ds, "seriesHistory", new SeriesHistory());
+        when(ps.isValidTimeSeries(any())).thenReturn(timeSeries -> true);
+        int end = 25000000;
+        long endSeconds = end * 60L;
+        List<String> intervals = new ArrayList<>();
+        List<List<TimeSeries>> responses = new ArrayList<>();
+        when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class), any(HttpService.ResponseParser.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock iom) throws Throwable {
+                        intervals.add(((JsonObject) iom.getArguments()[1]).get("intervals").getAsString());
+                        return responses.remove(0);
+                    }
+                });
+        when(ds.queryIncremental(any(), any(), any())).thenCallRealMethod();
+        JobMetadata job = new JobMetadata();
+        job.setJobId(1);
+        job.setClusterId(1);
+        job.setQuery(queryString);
+        job.setGranularity("hour");
+        job.setGranularityRange(1);
+        job.setTimeseriesRange(24);
+        job.setEffectiveQueryTime(end);
+        DruidCluster cluster = new DruidCluster();
+        Query query = new DruidQueryService().build(queryString, Granularity.HOUR, 1, end, 24);
+        // the first run queries the full range
+        responses.add(Lists.newArrayList(series("a", endSeconds - 24 * 3600L, 24)));
+        List<TimeSeries> result = ds.queryIncremental(query, cluster, job);
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).size(), 24);
+        // the next run only queries the last returned hour again and the new hour
+        job.setEffectiveQueryTime(end + 60);
+        query = new DruidQueryService().build(queryString, Granularity.HOUR, 1, end + 60, 24);
+        responses.add(Lists.newArrayList(series("a", endSeconds - 3600L, 2)));
+        result = ds.queryIncremental(query, cluster, job);
+        assertEquals(intervals.size(), 2);
+        assertEquals(intervals.get(1), "2017-07-14T01:40+00:00/2017-07-14T03:40+00:00");
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).size(), 24);
+        assertEquals(result.get(0).data.get(0).time, endSeconds - 23 * 3600L);
+        assertEquals(result.get(0).data.get(22).value, 0f);
+        assertEquals(result.get(0).data.get(23).time, endSeconds);
+        assertEquals(result.get(0).data.get(23).value, 1f);
+        assertEquals(result.get(0).meta.source, "a");
+        // a new series in the new intervals queries the full range
+        job.setEffectiveQueryTime(end + 120);
+        query = new DruidQueryService().build(queryString, Granularity.HOUR, 1, end + 120, 24);
+        responses.add(Lists.newArrayList(series("b", endSeconds + 3600L, 1)));
+        responses.add(Lists.newArrayList(series("a", endSeconds - 22 * 3600L, 24), series("b", endSeconds - 22 * 3600L, 24)));
+        result = ds.queryIncremental(query, cluster, job);
+        assertEquals(intervals.size(), 4);
+        assertEquals(intervals.get(3), "2017-07-13T04:40+00:00/2017-07-14T04:40+00:00");
+        assertEquals(result.size(), 2);
+        // a changed job queries the full range
+        job.setEffectiveQueryTime(end + 180);
+        job.setTimeseriesRange(48);
+        query = new DruidQueryService().build(queryString, Granularity.HOUR, 1, end + 180, 48);
+        responses.add(new ArrayList<>());
+        assertEquals(ds.queryIncremental(query, cluster, job).size(), 0);
+        assertEquals(intervals.size(), 5);
+        assertEquals(intervals.get(4), "2017-07-12T05:40+00:00/2017-07-14T05:40+00:00");
+    }
+
 }
@@ -8,6 +8,7 @@ package com.yahoo.sherlock.service;
 
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.exception.SherlockException;
+import com.yahoo.sherlock.query.Query;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -56,4 +57,13 @@ public class DruidQueryServiceTest {
             Assert.assertEquals(e.getMessage(), "Invalid query syntax! Check JSON brackets");
         }
     }
+
+    @Test
+    public void testBuildSince() throws Exception {
+        String queryString = new String(Files.readAllBytes(Paths.get("src/test/resources/druid_query_1.json")));
+        Query query = druidQueryService.buildSince(queryString, Granularity.HOUR, 1, 25000000, 25000120);
+        Assert.assertEquals((int) query.getStartTime(), 25000000 * 60);
+        Assert.assertEquals((int) query.getRunTime(), 25000120 * 60);
+        Assert.assertEquals(query.getQueryJsonObject().get("intervals").getAsString(), "2017-07-14T02:40+00:00/2017-07-14T04:40+00:00");
+    }
 }
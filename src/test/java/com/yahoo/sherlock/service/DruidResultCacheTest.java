@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.enums.Granularity;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test for the Druid result cache.
+ */
+public class DruidResultCacheTest {
+
+    private static final String QUERY = "{\"queryType\":\"groupBy\",\"dataSource\":\"s1\","
+                                        + "\"intervals\":\"2017-10-01T00:00:00+00:00/2017-10-02T00:00:00+00:00\"}";
+
+    private long[] now;
+    private DruidResultCache cache;
+    private DruidCluster cluster;
+    private Query query;
+    private int loads;
+    private int points;
+    private int ttl;
+    private int cachePoints;
+
+    @BeforeMethod
+    public void setUp() {
+        ttl = CLISettings.DRUID_CACHE_TTL;
+        cachePoints = CLISettings.DRUID_CACHE_POINTS;
+        CLISettings.DRUID_CACHE_TTL = 600;
+        CLISettings.DRUID_CACHE_POINTS = 10;
+        now = new long[]{1507000000000L};
+        cache = new DruidResultCache(() -> now[0]);
+        cluster = new DruidCluster();
+        cluster.setClusterId(1);
+        cluster.setBrokerHost("localhost");
+        cluster.setBrokerPort(8082);
+        cluster.setBrokerEndpoint("druid/v2");
+        cluster.setHoursOfLag(2);
+        query = query(QUERY, 1506902400);
+        loads = 0;
+        points = 3;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        CLISettings.DRUID_CACHE_TTL = ttl;
+        CLISettings.DRUID_CACHE_POINTS = cachePoints;
+    }
+
+    private static Query query(String json, int runTime) {
+        return new Query(new Gson().fromJson(json, JsonObject.class), runTime - 86400, runTime, Granularity.HOUR, 1);
+    }
+
+    private List<TimeSeries> load(Query query, DruidCluster cluster) throws DruidException {
+        loads++;
+        TimeSeries timeSeries = new TimeSeries();
+        timeSeries.meta.id = "id" + loads;
+        timeSeries.meta.name = "m1";
+        for (int i = 0; i < points; i++) {
+            timeSeries.data.add(new TimeSeries.Entry(3600L * i, loads));
+        }
+        List<TimeSeries> timeSeriesList = new ArrayList<>();
+        timeSeriesList.add(timeSeries);
+        return timeSeriesList;
+    }
+
+    @Test
+    public void testCachedWithinTtl() throws DruidException {
+        List<TimeSeries> first = cache.getTimeSeries(query, cluster, this::load);
+        now[0] += 300000L;
+        List<TimeSeries> second = cache.getTimeSeries(query(QUERY, 1506902400), cluster, this::load);
+        assertEquals(loads, 1);
+        assertNotSame(second.get(0), first.get(0));
+        assertNotSame(second.get(0).data.get(0), first.get(0).data.get(0));
+        assertNotEquals(second.get(0).meta.id, first.get(0).meta.id);
+        assertEquals(second.get(0).meta.name, "m1");
+        assertEquals(second.get(0).size(), 3);
+        // modifying a returned series does not change the cached one
+        second.get(0).data.get(0).value = 100f;
+        assertEquals(cache.getTimeSeries(query, cluster, this::load).get(0).data.get(0).value, 1f);
+        now[0] += 301000L;
+        assertEquals(cache.getTimeSeries(query, cluster, this::load).get(0).data.get(0).value, 2f);
+        assertEquals(loads, 2);
+    }
+
+    @Test
+    public void testTtlFollowsHoursOfLag() throws DruidException {
+        CLISettings.DRUID_CACHE_TTL = 86400;
+        cluster.setHoursOfLag(1);
+        assertEquals(DruidResultCache.getTtl(cluster), 3600000L);
+        cache.getTimeSeries(query, cluster, this::load);
+        now[0] += 3600000L;
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 1);
+        // the entry keeps the TTL it was loaded with
+        cluster.setHoursOfLag(2);
+        now[0] += 1000L;
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 2);
+        assertEquals(DruidResultCache.getTtl(cluster), 7200000L);
+        cluster.setHoursOfLag(48);
+        assertEquals(DruidResultCache.getTtl(cluster), 86400000L);
+        cluster.setHoursOfLag(0);
+        assertEquals(DruidResultCache.getTtl(cluster), 86400000L);
+    }
+
+    @Test
+    public void testNormalizedKey() {
+        JsonObject reordered = new Gson().fromJson("{\"intervals\":\"2017-10-01T00:00:00+00:00/2017-10-02T00:00:00+00:00\","
+                                                   + "\"dataSource\":\"s1\",\"queryType\":\"groupBy\"}", JsonObject.class);
+        String key = DruidResultCache.getKey(query.getQueryJsonObject(), cluster);
+        assertEquals(DruidResultCache.getKey(reordered, cluster), key);
+        reordered.addProperty("dataSource", "s2");
+        assertNotEquals(DruidResultCache.getKey(reordered, cluster), key);
+        cluster.setClusterId(2);
+        assertNotEquals(DruidResultCache.getKey(query.getQueryJsonObject(), cluster), key);
+    }
+
+    @Test
+    public void testOpenIntervalsAreNotCached() throws DruidException {
+        Query open = query(QUERY, (int) (now[0] / 1000) - 3600);
+        cache.getTimeSeries(open, cluster, this::load);
+        cache.getTimeSeries(open, cluster, this::load);
+        assertEquals(loads, 2);
+        cluster.setHoursOfLag(0);
+        assertTrue(cache.isCacheable(open, cluster));
+        cluster.setClusterId(null);
+        assertFalse(cache.isCacheable(query, cluster));
+        cluster.setClusterId(1);
+        CLISettings.DRUID_CACHE_TTL = 0;
+        assertFalse(cache.isCacheable(query, cluster));
+    }
+
+    @Test
+    public void testSizeEviction() throws DruidException {
+        CLISettings.DRUID_CACHE_POINTS = 8;
+        Query other = query(QUERY.replace("s1", "s2"), 1506902400);
+        cache.getTimeSeries(query, cluster, this::load);
+        cache.getTimeSeries(other, cluster, this::load);
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 2);
+        // the third result evicts the least recently used one
+        cache.getTimeSeries(query(QUERY.replace("s1", "s3"), 1506902400), cluster, this::load);
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 3);
+        cache.getTimeSeries(other, cluster, this::load);
+        assertEquals(loads, 4);
+        // results larger than the cache are not cached
+        points = 9;
+        Query large = query(QUERY.replace("s1", "s4"), 1506902400);
+        cache.getTimeSeries(large, cluster, this::load);
+        cache.getTimeSeries(large, cluster, this::load);
+        assertEquals(loads, 6);
+    }
+
+    @Test
+    public void testInvalidate() throws DruidException {
+        cache.getTimeSeries(query, cluster, this::load);
+        cache.invalidate(2);
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 1);
+        cache.invalidate(1);
+        cache.getTimeSeries(query, cluster, this::load);
+        assertEquals(loads, 2);
+        assertEquals(cache.getTimeSeries(query, cluster, (q, c) -> Collections.emptyList()).size(), 1);
+    }
+}
@@ -9,6 +9,8 @@ package com.yahoo.sherlock.service;
 import com.beust.jcommander.internal.Lists;
 import com.yahoo.sherlock.enums.Granularity;
 import com.yahoo.sherlock.exception.SherlockException;
+import com.yahoo.sherlock.query.DetectionConfig;
+import com.yahoo.sherlock.query.EgadsConfig;
 import com.yahoo.sherlock.query.QueryBuilderTest;
 import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.egads.control.ProcessableObject;
@@ -47,6 +49,11 @@ public class EgadsServiceTest {
         protected ProcessableObject getEgadsProcessableObject(TimeSeries timeseries) {
             return processableObject;
         }
+
+        @Override
+        protected ProcessableObject getEgadsProcessableObject(TimeSeries timeseries, Properties properties) {
+            return processableObject;
+        }
     }
 
     @BeforeMethod
@@ -150,6 +157,37 @@ public class EgadsServiceTest {
         fail();
     }
 
+    @Test
+    public void testRunEGADSWithConfig() throws Exception {
+        ProcessableObject mockProcessableObject = mock(ProcessableObject.class);
+        when(mockProcessableObject.result()).thenReturn(anomalies);
+        processableObject = mockProcessableObject;
+        EgadsService egadsService = new MockEgadsService();
+        DetectionConfig config = DetectionConfig.of(new Properties()).withSigmaThreshold(3.0);
+        Assert.assertEquals(egadsService.runEGADS(timeseries, config), anomalies);
+        Assert.assertNull(egadsService.getP());
+        when(mockProcessableObject.result()).thenThrow(new IOException("error in egads"));
+        try {
+            egadsService.runEGADS(timeseries, config);
+            fail();
+        } catch (SherlockException e) {
+            Assert.assertEquals(e.getMessage(), "error in egads");
+        }
+    }
+
+    @Test
+    public void testNewDetectionConfig() throws Exception {
+        CLISettings.EGADS_CONFIG_FILENAME = "/xxxxx.con";
+        EgadsService egadsService = new EgadsService();
+        DetectionConfig defaults = egadsService.newDetectionConfig(null);
+        assertEquals(defaults.getProperty("AD_MODEL"), "KSigmaModel");
+        Assert.assertSame(egadsService.newDetectionConfig(null), defaults);
+        EgadsConfig config = EgadsConfig.create().buildDefault();
+        config.setAdModel("NaiveAdaptiveKernelDensityChangePointDetectionModel");
+        assertEquals(egadsService.newDetectionConfig(config).getProperty("AD_MODEL"), config.getAdModel());
+        Assert.assertNull(egadsService.getP());
+    }
+
     @Test
     public void testConfigureDetectionWindow() throws Exception {
         EgadsService egadsService = new EgadsService();
@@ -14,10 +14,13 @@ import com.yahoo.sherlock.model.DruidCluster;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 import org.testng.annotations.Test;
 
 import java.io.ByteArrayInputStream;
@@ -26,7 +29,6 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -34,7 +36,11 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertEqualsNoOrder;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 /**
@@ -60,21 +66,52 @@ public class HttpServiceTest {
         mocks();
         when(http.newHttpGet(anyString())).thenReturn(get);
         when(http.newHttpPost(anyString())).thenReturn(post);
-        when(http.newHttpClient()).thenReturn(client);
-        when(http.newHttpClient(anyInt(), anyInt())).thenReturn(client);
+        when(http.getHttpClient(any(DruidCluster.class))).thenReturn(client);
     }
 
     @Test
     public void testNewHttpClientInstance() {
         mocks();
-        when(http.newHttpClient(anyInt(), anyInt())).thenCallRealMethod();
-        when(http.newHttpClient()).thenCallRealMethod();
-        HttpClient client = http.newHttpClient(1000, 4);
-        assertNotNull(client);
-        client = http.newHttpClient();
+        when(http.newHttpClient(anyString())).thenCallRealMethod();
+        HttpClient client = http.newHttpClient("http://localhost:8080/");
         assertNotNull(client);
     }
 
+    @Test
+    public void testHttpClientSharedPerBroker() {
+        HttpService service = new HttpService();
+        DruidCluster cluster = new DruidCluster();
+        cluster.setBrokerHost("localhost");
+        cluster.setBrokerPort(18080);
+        DruidCluster sameBroker = new DruidCluster();
+        sameBroker.setBrokerHost("localhost");
+        sameBroker.setBrokerPort(18080);
+        sameBroker.setBrokerEndpoint("druid/v2");
+        DruidCluster otherBroker = new DruidCluster();
+        otherBroker.setBrokerHost("localhost");
+        otherBroker.setBrokerPort(18081);
+        HttpClient client = service.getHttpClient(cluster);
+        assertSame(service.getHttpClient(cluster), client);
+        assertSame(new HttpService().getHttpClient(sameBroker), client);
+        assertNotSame(service.getHttpClient(otherBroker), client);
+        // an invalidated broker gets a new client
+        HttpService.invalidate(cluster.getBaseUrl());
+        assertNotSame(service.getHttpClient(sameBroker), client);
+        HttpService.invalidate(cluster.getBaseUrl());
+        HttpService.invalidate(otherBroker.getBaseUrl());
+    }
+
+    @Test
+    public void testRetriesReadFromContext() {
+        HttpService.RetryHandler handler = new HttpService.RetryHandler();
+        IOException e = new NoHttpResponseException("error");
+        assertFalse(handler.retryRequest(e, 1, HttpService.newContext(0)));
+        assertTrue(handler.retryRequest(e, 2, HttpService.newContext(2)));
+        assertFalse(handler.retryRequest(e, 3, HttpService.newContext(2)));
+        assertTrue(handler.retryRequest(e, 3, new BasicHttpContext()));
+        assertFalse(handler.retryRequest(e, 4, new BasicHttpContext()));
+    }
+
     @Test
     public void testNewPostMethodInstance() {
         mocks();
@@ -97,6 +134,7 @@ public class HttpServiceTest {
     public void testQueryDruid() throws DruidException, IOException {
         mockGets();
         when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class))).thenCallRealMethod();
+        when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class), any(HttpService.ResponseParser.class))).thenCallRealMethod();
         DruidCluster cluster = mock(DruidCluster.class);
         when(cluster.getBrokerUrl()).thenReturn("localhost:9999/druid/v2");
         JsonObject query = new JsonObject();
@@ -105,7 +143,7 @@ public class HttpServiceTest {
         StatusLine sl = mock(StatusLine.class);
         when(res.getStatusLine()).thenReturn(sl);
         when(sl.getStatusCode()).thenReturn(200);
-        when(client.execute(post)).thenReturn(res);
+        when(client.execute(any(HttpPost.class), any(HttpContext.class))).thenReturn(res);
         HttpEntity ent = mock(HttpEntity.class);
         JsonArray arr = new JsonArray();
         arr.add(5);
@@ -123,7 +161,7 @@ public class HttpServiceTest {
             resultArr[i] = result.get(i).getAsInt();
         }
         assertEqualsNoOrder(resultArr, expected);
-        verify(client, times(1)).execute(any(HttpPost.class));
+        verify(client, times(1)).execute(any(HttpPost.class), any(HttpContext.class));
         verify(sl, times(1)).getStatusCode();
         verify(post, times(1)).releaseConnection();
     }
@@ -132,6 +170,7 @@ public class HttpServiceTest {
     public void testQueryDruidBadResponse() throws DruidException, IOException {
         mockGets();
         when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class))).thenCallRealMethod();
+        when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class), any(HttpService.ResponseParser.class))).thenCallRealMethod();
         DruidCluster cluster = mock(DruidCluster.class);
         when(cluster.getBrokerUrl()).thenReturn("localhost:9999/druid/v2");
         JsonObject query = new JsonObject();
@@ -140,7 +179,7 @@ public class HttpServiceTest {
         StatusLine sl = mock(StatusLine.class);
         when(res.getStatusLine()).thenReturn(sl);
         when(sl.getStatusCode()).thenReturn(500);
-        when(client.execute(post)).thenReturn(res);
+        when(client.execute(any(HttpPost.class), any(HttpContext.class))).thenReturn(res);
         try {
             http.queryDruid(cluster, query);
         } catch (DruidException e) {
@@ -155,7 +194,8 @@ public class HttpServiceTest {
     public void testQueryDruidException() throws DruidException, IOException {
         mockGets();
         when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class))).thenCallRealMethod();
-        when(client.execute(any(HttpPost.class))).thenThrow(new IOException("error"));
+        when(http.queryDruid(any(DruidCluster.class), any(JsonObject.class), any(HttpService.ResponseParser.class))).thenCallRealMethod();
+        when(client.execute(any(HttpPost.class), any(HttpContext.class))).thenThrow(new IOException("error"));
         try {
             http.queryDruid(mock(DruidCluster.class), new JsonObject());
         } catch (DruidException e) {
@@ -176,7 +216,7 @@ public class HttpServiceTest {
         StatusLine sl = mock(StatusLine.class);
         when(sl.getStatusCode()).thenReturn(200);
         when(res.getStatusLine()).thenReturn(sl);
-        when(client.execute(any(HttpGet.class))).thenReturn(res);
+        when(client.execute(any(HttpGet.class), any(HttpContext.class))).thenReturn(res);
         JsonArray dsarr = new JsonArray();
         dsarr.add("shrek");
         dsarr.add("farquaad");
@@ -195,7 +235,7 @@ public class HttpServiceTest {
         String[] expected = {"shrek", "farquaad", "donkey"};
         assertEqualsNoOrder(expected, resultArr);
         verify(get, times(1)).releaseConnection();
-        verify(client, times(1)).execute(any(HttpGet.class));
+        verify(client, times(1)).execute(any(HttpGet.class), any(HttpContext.class));
     }
 
     @Test
@@ -208,7 +248,7 @@ public class HttpServiceTest {
         StatusLine sl = mock(StatusLine.class);
         when(sl.getStatusCode()).thenReturn(500);
         when(res.getStatusLine()).thenReturn(sl);
-        when(client.execute(any(HttpGet.class))).thenReturn(res);
+        when(client.execute(any(HttpGet.class), any(HttpContext.class))).thenReturn(res);
         try {
             http.queryDruidDatasources(cluster);
         } catch (DruidException e) {
@@ -223,7 +263,7 @@ public class HttpServiceTest {
     public void testQueryDruidDatasourcesException() throws DruidException, IOException {
         mockGets();
         when(http.queryDruidDatasources(any(DruidCluster.class))).thenCallRealMethod();
-        when(client.execute(any(HttpGet.class))).thenThrow(new IOException("error"));
+        when(client.execute(any(HttpGet.class), any(HttpContext.class))).thenThrow(new IOException("error"));
         try {
             http.queryDruidDatasources(mock(DruidCluster.class));
         } catch (DruidException e) {
@@ -240,7 +280,7 @@ public class HttpServiceTest {
         String url = "http://battlelog.battlefield.com/bf4";
         DruidCluster cluster = mock(DruidCluster.class);
         when(cluster.getBrokerUrl()).thenReturn(url);
-        when(client.execute(any(HttpGet.class))).thenReturn(res);
+        when(client.execute(any(HttpGet.class), any(HttpContext.class))).thenReturn(res);
         StatusLine sl = mock(StatusLine.class);
         when(sl.getStatusCode()).thenReturn(200);
         when(res.getStatusLine()).thenReturn(sl);
@@ -251,7 +291,7 @@ public class HttpServiceTest {
         when(sl.getStatusCode()).thenReturn(500);
         result = http.queryDruidClusterStatus(cluster);
         assertEquals(result, 500);
-        when(client.execute(any(HttpGet.class))).thenThrow(new IOException("error"));
+        when(client.execute(any(HttpGet.class), any(HttpContext.class))).thenThrow(new IOException("error"));
         try {
             http.queryDruidClusterStatus(cluster);
         } catch (DruidException e) {
@@ -6,7 +6,7 @@
 
 package com.yahoo.sherlock.service;
 
-import com.google.gson.JsonArray;
+import com.beust.jcommander.internal.Lists;
 import com.yahoo.sherlock.exception.DruidException;
 import com.yahoo.sherlock.exception.SherlockException;
 import com.yahoo.sherlock.exception.SlackNotFoundException;
@@ -16,6 +16,7 @@ import com.yahoo.sherlock.model.JobMetadata;
 import com.yahoo.sherlock.model.SlackMetaData;
 import com.yahoo.sherlock.query.Query;
 import com.yahoo.sherlock.scheduler.EgadsTask;
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.settings.Constants;
 import com.yahoo.sherlock.store.AnomalyReportAccessor;
 import com.yahoo.sherlock.store.DBTestHelper;
@@ -30,6 +31,8 @@ import com.yahoo.egads.data.MetricMeta;
 import com.yahoo.egads.data.TimeSeries;
 
 import com.yahoo.sherlock.store.SlackMetadataAccessor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -47,6 +50,7 @@ import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -279,11 +283,9 @@ public class JobExecutionServiceTest {
         initMocks();
         Query query = mock(Query.class);
         when(query.getGranularityRange()).thenReturn(1);
-        JsonArray response = new JsonArray();
-        when(ds.queryDruid(any(), any())).thenReturn(response);
-        @SuppressWarnings("unchecked")
-        List<TimeSeries>[] fillSeriesList = (List<TimeSeries>[]) new List[3];
-        when(ps.subseries(any(), anyLong(), anyLong(), any(), anyInt(), anyInt())).thenReturn(fillSeriesList);
+        when(ds.queryTimeSeries(any(), any())).thenReturn(new ArrayList<>());
+        List<List<TimeSeries>> fillSeriesList = Lists.newArrayList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        when(ps.subseriesIterator(any(), anyLong(), anyLong(), any(), anyInt(), anyInt())).thenReturn(fillSeriesList.iterator());
         doCallRealMethod().when(jes).performBackfillJob(any(), any(), any(), anyInt(), anyInt(), any(), anyInt());
         EgadsTask ftask = mock(EgadsTask.class);
         when(ftask.getReports()).thenReturn(Collections.singletonList(new AnomalyReport()));
@@ -292,6 +294,51 @@ public class JobExecutionServiceTest {
         DruidCluster c = new DruidCluster();
         jes.performBackfillJob(j, c, query, 123, 128, Granularity.HOUR, 10);
         verify(ara, times(1)).putAnomalyReportsForEmails(any(), anyList());
+        verify(ftask, times(3)).run();
+    }
+
+    @Test
+    public void testPerformBackfillJobBatches() throws Exception {
+        initMocks();
+        int threads = CLISettings.BACKFILL_THREADS;
+        int batchSize = CLISettings.BACKFILL_BATCH_SIZE;
+        CLISettings.BACKFILL_THREADS = 1;
+        CLISettings.BACKFILL_BATCH_SIZE = 2;
+        try {
+            Query query = mock(Query.class);
+            when(query.getGranularityRange()).thenReturn(1);
+            when(ds.queryTimeSeries(any(), any())).thenReturn(new ArrayList<>());
+            List<List<TimeSeries>> fillSeriesList = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                fillSeriesList.add(new ArrayList<>());
+            }
+            when(ps.subseriesIterator(any(), anyLong(), anyLong(), any(), anyInt(), anyInt())).thenReturn(fillSeriesList.iterator());
+            doCallRealMethod().when(jes).performBackfillJob(any(), any(), any(), anyInt(), anyInt(), any(), anyInt());
+            List<Integer> endTimes = new ArrayList<>();
+            when(jes.createTask(any(), anyInt(), any(), any())).then(new Answer<EgadsTask>() {
+                @Override
+                public EgadsTask answer(InvocationOnMock invocation) {
+                    endTimes.add((Integer) invocation.getArguments()[1]);
+                    EgadsTask task = mock(EgadsTask.class);
+                    when(task.getReports()).thenReturn(Collections.singletonList(new AnomalyReport()));
+                    return task;
+                }
+            });
+            List<Integer> batches = new ArrayList<>();
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    batches.add(((List<?>) invocation.getArguments()[0]).size());
+                    return null;
+                }
+            }).when(ara).putAnomalyReportsForEmails(any(), anyList());
+            jes.performBackfillJob(DBTestHelper.getNewJob(), new DruidCluster(), query, 120, 420, Granularity.HOUR, 10);
+            assertEquals(endTimes, Lists.newArrayList(180, 240, 300, 360, 420));
+            assertEquals(batches, Lists.newArrayList(2, 2, 1));
+        } finally {
+            CLISettings.BACKFILL_THREADS = threads;
+            CLISettings.BACKFILL_BATCH_SIZE = batchSize;
+        }
     }
 
     @Test
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.enums.Granularity;
+import com.yahoo.sherlock.exception.DruidException;
+import com.yahoo.sherlock.model.DruidCluster;
+import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.query.Query;
+import com.yahoo.sherlock.settings.CLISettings;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test for the coalescing of the queries of due jobs.
+ */
+public class QueryCoalescerTest {
+
+    private static final int END = 25000000;
+
+    private final DruidCluster cluster = new DruidCluster();
+    private final List<JsonObject> fetched = new ArrayList<>();
+    private final List<Query> loaded = new ArrayList<>();
+    private final List<Query> parsed = new ArrayList<>();
+    private final JsonArray response = new JsonArray();
+
+    private final DruidResultCache.Loader loader = (query, druidCluster) -> {
+        loaded.add(query);
+        return Collections.emptyList();
+    };
+    private final QueryCoalescer.Fetcher fetcher = (druidCluster, query) -> {
+        fetched.add(query);
+        return response;
+    };
+    private final QueryCoalescer.Parser parser = (json, query) -> {
+        assertTrue(json == response);
+        parsed.add(query);
+        return Collections.emptyList();
+    };
+
+    private static JobMetadata job(int jobId, String aggregations) {
+        JobMetadata job = new JobMetadata();
+        job.setJobId(jobId);
+        job.setClusterId(1);
+        job.setQuery("{\"queryType\":\"groupBy\",\"dataSource\":\"s1\",\"granularity\":\"hour\",\"dimensions\":[\"d1\"],"
+                     + "\"filter\":{\"type\":\"selector\",\"dimension\":\"d2\",\"value\":\"v2\"},"
+                     + "\"aggregations\":[" + aggregations + "],\"intervals\":\"2017-09-15T20:48:28+00:00/2017-10-13T20:48:28+00:00\"}");
+        job.setGranularity("hour");
+        job.setGranularityRange(1);
+        job.setTimeseriesRange(24);
+        job.setEffectiveQueryTime(END);
+        return job;
+    }
+
+    private static String sum(String name, String field) {
+        return "{\"type\":\"longSum\",\"name\":\"" + name + "\",\"fieldName\":\"" + field + "\"}";
+    }
+
+    private static Query query(JobMetadata job) throws Exception {
+        return new DruidQueryService().build(job.getQuery(), Granularity.HOUR, 1, END, 24);
+    }
+
+    private List<TimeSeries> get(QueryCoalescer coalescer, JobMetadata job) throws Exception {
+        return coalescer.getTimeSeries(job, query(job), cluster, loader, fetcher, parser);
+    }
+
+    private static List<String> names(JsonObject query) {
+        List<String> names = new ArrayList<>();
+        for (JsonElement aggregation : query.getAsJsonArray("aggregations")) {
+            names.add(aggregation.getAsJsonObject().get("name").getAsString());
+        }
+        return names;
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        CLISettings.COALESCE_QUERIES = true;
+        cluster.setClusterId(1);
+        fetched.clear();
+        loaded.clear();
+        parsed.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        CLISettings.COALESCE_QUERIES = false;
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer();
+        JobMetadata job1 = job(1, sum("m1", "f1"));
+        JobMetadata job2 = job(2, sum("m2", "f2") + "," + sum("m1", "f1"));
+        JobMetadata job3 = job(3, sum("m3", "f3"));
+        coalescer.register(Arrays.asList(job1, job2, job3));
+        get(coalescer, job1);
+        get(coalescer, job2);
+        get(coalescer, job3);
+        // one query with the aggregations of all jobs is sent
+        assertEquals(fetched.size(), 1);
+        assertEquals(names(fetched.get(0)), Arrays.asList("m1", "m2", "m3"));
+        assertEquals(fetched.get(0).get("dimensions").toString(), "[\"d1\"]");
+        assertTrue(loaded.isEmpty());
+        // each job parses the shared response with its own query
+        assertEquals(parsed.size(), 3);
+        assertEquals(names(parsed.get(1).getQueryJsonObject()), Arrays.asList("m2", "m1"));
+        // a job is only served once
+        get(coalescer, job1);
+        assertEquals(fetched.size(), 1);
+        assertEquals(loaded.size(), 1);
+    }
+
+    @Test
+    public void testNotCoalesced() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer();
+        JobMetadata job1 = job(1, sum("m1", "f1"));
+        // same name with another definition
+        JobMetadata job2 = job(2, sum("m1", "f2"));
+        // another filter
+        JobMetadata job3 = job(3, sum("m3", "f3"));
+        job3.setQuery(job3.getQuery().replace("\"v2\"", "\"v3\""));
+        // another cluster
+        JobMetadata job4 = job(4, sum("m4", "f4"));
+        job4.setClusterId(2);
+        coalescer.register(Arrays.asList(job1, job2, job3, job4));
+        for (JobMetadata job : Arrays.asList(job1, job2, job3, job4)) {
+            get(coalescer, job);
+        }
+        assertTrue(fetched.isEmpty());
+        assertEquals(loaded.size(), 4);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CLISettings.COALESCE_QUERIES = false;
+        QueryCoalescer coalescer = new QueryCoalescer();
+        JobMetadata job1 = job(1, sum("m1", "f1"));
+        JobMetadata job2 = job(2, sum("m2", "f2"));
+        coalescer.register(Arrays.asList(job1, job2));
+        get(coalescer, job1);
+        get(coalescer, job2);
+        assertTrue(fetched.isEmpty());
+        assertEquals(loaded.size(), 2);
+    }
+
+    @Test
+    public void testDisabledForIncrementalDetection() throws Exception {
+        boolean incremental = CLISettings.INCREMENTAL_DETECTION;
+        CLISettings.INCREMENTAL_DETECTION = true;
+        try {
+            assertFalse(QueryCoalescer.isEnabled());
+            QueryCoalescer coalescer = new QueryCoalescer();
+            JobMetadata job1 = job(1, sum("m1", "f1"));
+            JobMetadata job2 = job(2, sum("m2", "f2"));
+            coalescer.register(Arrays.asList(job1, job2));
+            get(coalescer, job1);
+            get(coalescer, job2);
+            assertTrue(fetched.isEmpty());
+            assertEquals(loaded.size(), 2);
+        } finally {
+            CLISettings.INCREMENTAL_DETECTION = incremental;
+        }
+    }
+
+    @Test
+    public void testChangedQueryAndRelease() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer();
+        JobMetadata job1 = job(1, sum("m1", "f1"));
+        JobMetadata job2 = job(2, sum("m2", "f2"));
+        JobMetadata job3 = job(3, sum("m3", "f3"));
+        coalescer.register(Arrays.asList(job1, job2, job3));
+        // a job whose query changed since it was registered queries alone
+        job1.setQuery(job1.getQuery().replace("\"f1\"", "\"f9\""));
+        get(coalescer, job1);
+        assertEquals(loaded.size(), 1);
+        coalescer.release(Collections.singletonList(job2));
+        get(coalescer, job2);
+        assertEquals(loaded.size(), 2);
+        get(coalescer, job3);
+        assertEquals(fetched.size(), 1);
+        assertEquals(parsed.size(), 1);
+    }
+
+    @Test
+    public void testFetchFailure() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer();
+        JobMetadata job1 = job(1, sum("m1", "f1"));
+        JobMetadata job2 = job(2, sum("m2", "f2"));
+        coalescer.register(Arrays.asList(job1, job2));
+        QueryCoalescer.Fetcher failing = (druidCluster, query) -> {
+            fetched.add(query);
+            throw new DruidException("failed");
+        };
+        coalescer.getTimeSeries(job1, query(job1), cluster, loader, failing, parser);
+        coalescer.getTimeSeries(job2, query(job2), cluster, loader, failing, parser);
+        // the failed query is not sent again and each job queries alone
+        assertEquals(fetched.size(), 1);
+        assertEquals(loaded.size(), 2);
+        assertTrue(parsed.isEmpty());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.service;
+
+import com.yahoo.egads.data.TimeSeries;
+import com.yahoo.sherlock.model.JobMetadata;
+import com.yahoo.sherlock.settings.CLISettings;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Test for the series history of incremental detection.
+ */
+public class SeriesHistoryTest {
+
+    private static TimeSeries series(String source, long... times) {
+        TimeSeries timeSeries = new TimeSeries();
+        timeSeries.meta.name = "m1";
+        timeSeries.meta.source = source;
+        timeSeries.meta.id = "id";
+        for (long time : times) {
+            timeSeries.data.add(new TimeSeries.Entry(time, time / 10f));
+        }
+        return timeSeries;
+    }
+
+    @Test
+    public void testUpdate() {
+        SeriesHistory history = new SeriesHistory();
+        assertNull(history.getNextStart(1, "s"));
+        assertNull(history.update(1, "s", Collections.emptyList(), 0));
+        List<TimeSeries> full = history.replace(1, "s", Arrays.asList(series("a", 0, 10, 20), series("b", 10, 20)), 0);
+        assertEquals(full.size(), 2);
+        assertNotEquals(full.get(0).meta.id, "id");
+        // the last returned interval is queried again
+        assertEquals((int) history.getNextStart(1, "s"), 20);
+        assertNull(history.getNextStart(1, "other"));
+        assertNull(history.getNextStart(2, "s"));
+        // points before the window are dropped and the queried intervals are replaced
+        List<TimeSeries> updated = history.update(1, "s", Collections.singletonList(series("a", 20, 30)), 10);
+        assertEquals(updated.size(), 2);
+        assertEquals(updated.get(0).meta.source, "a");
+        assertEquals(updated.get(0).data.getTimes(), new long[]{10L, 20L, 30L});
+        assertEquals(updated.get(0).data.get(2).value, 3f);
+        assertEquals(updated.get(1).data.getTimes(), new long[]{10L});
+        assertEquals((int) history.getNextStart(1, "s"), 30);
+        // a series without points in the window is removed
+        updated = history.update(1, "s", Collections.singletonList(series("a", 30, 40)), 20);
+        assertEquals(updated.size(), 1);
+        assertEquals(updated.get(0).data.getTimes(), new long[]{20L, 30L, 40L});
+        assertEquals((int) history.getNextStart(1, "s"), 40);
+        // an empty increment keeps the stored points and does not advance
+        updated = history.update(1, "s", Collections.emptyList(), 30);
+        assertEquals(updated.get(0).data.getTimes(), new long[]{30L, 40L});
+        assertEquals((int) history.getNextStart(1, "s"), 40);
+        // a series missing from the history keeps the previous history
+        assertNull(history.update(1, "s", Collections.singletonList(series("c", 40)), 30));
+        assertEquals((int) history.getNextStart(1, "s"), 40);
+        assertNull(history.update(1, "other", Collections.emptyList(), 30));
+        history.remove(1);
+        assertNull(history.getNextStart(1, "s"));
+    }
+
+    @Test
+    public void testUpdateOutOfOrder() {
+        SeriesHistory history = new SeriesHistory();
+        history.replace(1, "s", Collections.singletonList(series("a", 0, 10, 20)), 0);
+        // a point before the queried intervals
+        assertNull(history.update(1, "s", Collections.singletonList(series("a", 10, 20)), 0));
+        // a duplicate point
+        assertNull(history.update(1, "s", Collections.singletonList(series("a", 20, 20)), 0));
+        assertEquals((int) history.getNextStart(1, "s"), 20);
+    }
+
+    @Test
+    public void testEviction() {
+        int jobs = CLISettings.INCREMENTAL_HISTORY_JOBS;
+        try {
+            CLISettings.INCREMENTAL_HISTORY_JOBS = 2;
+            SeriesHistory history = new SeriesHistory();
+            history.replace(1, "s", Collections.singletonList(series("a", 0)), 0);
+            history.replace(2, "s", Collections.singletonList(series("a", 0)), 0);
+            history.getNextStart(1, "s");
+            history.replace(3, "s", Collections.singletonList(series("a", 0)), 0);
+            assertNotNull(history.getNextStart(1, "s"));
+            assertNull(history.getNextStart(2, "s"));
+            assertNotNull(history.getNextStart(3, "s"));
+        } finally {
+            CLISettings.INCREMENTAL_HISTORY_JOBS = jobs;
+        }
+    }
+
+    @Test
+    public void testSignature() {
+        JobMetadata job = new JobMetadata();
+        job.setClusterId(1);
+        job.setQuery("{}");
+        job.setGranularity("hour");
+        job.setGranularityRange(1);
+        job.setTimeseriesRange(24);
+        String signature = SeriesHistory.getSignature(job);
+        job.setSigmaThreshold(2.0);
+        assertEquals(SeriesHistory.getSignature(job), signature);
+        job.setTimeseriesRange(48);
+        assertNotEquals(SeriesHistory.getSignature(job), signature);
+    }
+}
@@ -10,6 +10,7 @@ import com.beust.jcommander.internal.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.enums.Granularity;
@@ -20,11 +21,16 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -59,6 +65,24 @@ public class TimeSeriesParserServiceTest {
         }
     }
 
+    @Test
+    public void testReadTimeSeries() throws Exception {
+        TimeSeriesParserService tsps = mock(TimeSeriesParserService.class);
+        when(tsps.readTimeSeries(any(JsonReader.class), any(Query.class))).thenCallRealMethod();
+        when(tsps.isValidTimeSeries(query)).thenReturn(timeSeries -> true);
+        List<TimeSeries> timeSeries = tsps.readTimeSeries(new JsonReader(new StringReader(jsonArray.toString())), query);
+        Assert.assertEquals(timeSeries.size(), jsonArray.get(0).getAsJsonObject().getAsJsonArray("result").size());
+        for (int i = 0; i < timeSeries.size(); i++) {
+            Assert.assertEquals(timeSeries.get(i).size(), jsonArray.size());
+        }
+        try {
+            new TimeSeriesParserService().readTimeSeries(new JsonReader(new StringReader("null")), query);
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertEquals(e.getMessage(), "Null druid response!");
+        }
+    }
+
     @Test
     public void testExceptions() {
         // test null druid response
@@ -154,6 +178,47 @@ public class TimeSeriesParserServiceTest {
         CLISettings.INTERVAL_HOURS = 672;
     }
 
+    @Test
+    public void testFirstAfter() throws Exception {
+        TimeSeries series = new TimeSeries(new long[]{60, 120, 180, 240}, new float[]{1, 2, 3, 4});
+        Assert.assertEquals(TimeSeriesParserService.firstAfter(series.data, 0), 0);
+        Assert.assertEquals(TimeSeriesParserService.firstAfter(series.data, 60), 1);
+        Assert.assertEquals(TimeSeriesParserService.firstAfter(series.data, 150), 2);
+        Assert.assertEquals(TimeSeriesParserService.firstAfter(series.data, 240), 4);
+        Assert.assertEquals(TimeSeriesParserService.firstAfter(new TimeSeries().data, 60), 0);
+    }
+
+    @Test
+    public void testSubSeriesIterator() throws Exception {
+        CLISettings.INTERVAL_HOURS = 7;
+        List<TimeSeries> sources = Lists.newArrayList(testSeries1(), testSeries2(), testSeries3());
+        Granularity granularity = Granularity.HOUR;
+        long jobWindowStart = times[6];
+        long end = times[times.length - 1];
+        TimeSeriesParserService parserService = new TimeSeriesParserService();
+        List<TimeSeries>[] results = parserService.subseries(sources, jobWindowStart, end, granularity, 1, CLISettings.INTERVAL_HOURS);
+        Iterator<List<TimeSeries>> iterator = parserService.subseriesIterator(sources, jobWindowStart, end, granularity, 1, CLISettings.INTERVAL_HOURS);
+        for (List<TimeSeries> result : results) {
+            Assert.assertTrue(iterator.hasNext());
+            List<TimeSeries> next = iterator.next();
+            Assert.assertEquals(next.size(), result.size());
+            for (int i = 0; i < result.size(); i++) {
+                Assert.assertEquals(next.get(i).data.getTimes(), result.get(i).data.getTimes());
+                Assert.assertEquals(next.get(i).data.getValues(), result.get(i).data.getValues());
+            }
+        }
+        Assert.assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            Assert.fail();
+        } catch (NoSuchElementException e) {
+            Assert.assertNotNull(e);
+        }
+        iterator = parserService.subseriesIterator(new ArrayList<>(), jobWindowStart, end, granularity, 1, CLISettings.INTERVAL_HOURS);
+        Assert.assertTrue(iterator.next().isEmpty());
+        CLISettings.INTERVAL_HOURS = 672;
+    }
+
     private static void checkEquals(float[][] result, float[][] expected) {
         for (int i = 0; i < result.length; i++) {
             for (int j = 0; j < result[i].length; j++) {
@@ -0,0 +1,117 @@
+package com.yahoo.sherlock.store.core;
+
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@SuppressWarnings("unchecked")
+public class SharedConnectionsTest {
+
+    private List<RedisConnection<?>> opened;
+
+    private <K> Function<RedisCodec<K, K>, RedisConnection<K>> opener() {
+        opened = new ArrayList<>();
+        return new Function<RedisCodec<K, K>, RedisConnection<K>>() {
+            @Override
+            public RedisConnection<K> apply(RedisCodec<K, K> codec) {
+                RedisConnection<K> conn = (RedisConnection<K>) mock(RedisConnection.class);
+                when(conn.isOpen()).thenReturn(true);
+                when(conn.sync()).thenReturn((SyncCommands<K>) mock(SyncCommands.class));
+                when(conn.async()).thenReturn((AsyncCommands<K>) mock(AsyncCommands.class));
+                opened.add(conn);
+                return conn;
+            }
+        };
+    }
+
+    @Test
+    public void testSyncCommandsShareOneConnection() {
+        SharedConnections connections = new SharedConnections(2);
+        Function<RedisCodec<String, String>, RedisConnection<String>> opener = opener();
+        RedisConnection<String> first = connections.produce(new StringCodec(), opener);
+        RedisConnection<String> second = connections.produce(new StringCodec(), opener);
+        assertSame(first.sync(), second.sync());
+        first.close();
+        second.close();
+        assertEquals(opened.size(), 1);
+        verify(opened.get(0), never()).close();
+    }
+
+    @Test
+    public void testSharedConnectionPerCodec() {
+        SharedConnections connections = new SharedConnections(2);
+        connections.produce(new StringCodec(), this.<String>opener()).sync();
+        List<RedisConnection<?>> strings = opened;
+        connections.produce(new ByteArrayCodec(), this.<byte[]>opener()).sync();
+        assertEquals(strings.size(), 1);
+        assertEquals(opened.size(), 1);
+    }
+
+    @Test
+    public void testClosedSharedConnectionIsReopened() {
+        SharedConnections connections = new SharedConnections(2);
+        Function<RedisCodec<String, String>, RedisConnection<String>> opener = opener();
+        connections.produce(new StringCodec(), opener).sync();
+        when(opened.get(0).isOpen()).thenReturn(false);
+        connections.produce(new StringCodec(), opener).sync();
+        assertEquals(opened.size(), 2);
+    }
+
+    @Test
+    public void testPipelinedConnectionsArePooled() {
+        SharedConnections connections = new SharedConnections(1);
+        Function<RedisCodec<String, String>, RedisConnection<String>> opener = opener();
+        RedisConnection<String> first = connections.produce(new StringCodec(), opener);
+        RedisConnection<String> second = connections.produce(new StringCodec(), opener);
+        AsyncCommands<String> cmd = first.async();
+        assertSame(first.async(), cmd);
+        assertSame(first.sync(), opened.get(0).sync());
+        second.async();
+        assertEquals(opened.size(), 2);
+        first.close();
+        second.close();
+        verify(cmd).setAutoFlushCommands(true);
+        verify(opened.get(0), never()).close();
+        verify(opened.get(1)).close();
+        RedisConnection<String> third = connections.produce(new StringCodec(), opener);
+        assertSame(third.async(), cmd);
+        assertEquals(opened.size(), 2);
+    }
+
+    @Test
+    public void testNoPoolClosesPipelinedConnections() {
+        SharedConnections connections = new SharedConnections(0);
+        Function<RedisCodec<String, String>, RedisConnection<String>> opener = opener();
+        RedisConnection<String> conn = connections.produce(new StringCodec(), opener);
+        conn.async();
+        conn.close();
+        verify(opened.get(0)).close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCloseClosesConnections() {
+        SharedConnections connections = new SharedConnections(2);
+        Function<RedisCodec<String, String>, RedisConnection<String>> opener = opener();
+        RedisConnection<String> conn = connections.produce(new StringCodec(), opener);
+        conn.sync();
+        assertTrue(conn.isOpen());
+        connections.close();
+        assertFalse(conn.isOpen());
+        verify(opened.get(0)).close();
+        connections.produce(new StringCodec(), opener);
+    }
+}
@@ -1,6 +1,10 @@
 package com.yahoo.sherlock.store.core;
 
 import io.lettuce.core.Range;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
 import io.lettuce.core.ScoredValue;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.StatefulRedisConnection;
@@ -11,6 +15,10 @@ import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
 import io.lettuce.core.codec.ByteArrayCodec;
 import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.ValueOutput;
+import io.lettuce.core.protocol.AsyncCommand;
+import io.lettuce.core.protocol.Command;
+import io.lettuce.core.protocol.CommandType;
 import com.yahoo.sherlock.exception.StoreException;
 import com.yahoo.sherlock.settings.DatabaseConstants;
 import com.yahoo.sherlock.store.Store;
@@ -26,6 +34,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -45,6 +55,9 @@ public class WrapperTests {
         verify(wrapped).flushCommands();
         cmd.keys("pattern:*");
         verify(wrapped).keys("pattern:*");
+        ScanArgs scanArgs = ScanArgs.Builder.limit(10);
+        cmd.scan(ScanCursor.INITIAL, scanArgs);
+        verify(wrapped).scan(ScanCursor.INITIAL, scanArgs);
         cmd.get("key");
         verify(wrapped).get("key");
         cmd.incr("key");
@@ -83,6 +96,9 @@ public class WrapperTests {
         verify(wrapped).flushCommands();
         cmd.keys("pattern:*");
         verify(wrapped).keys("pattern:*");
+        ScanArgs scanArgs = ScanArgs.Builder.limit(10);
+        cmd.scan(ScanCursor.INITIAL, scanArgs);
+        verify(wrapped).scan(ScanCursor.INITIAL, scanArgs);
         cmd.get("key");
         verify(wrapped).get("key");
         cmd.incr("key");
@@ -165,6 +181,63 @@ public class WrapperTests {
         verify(wrapped).eval("script", ScriptOutputType.MULTI, new String[]{"key1", "key2"}, "v1", "v2");
     }
 
+    @Test
+    public void testSyncCommandsScriptFunctions() {
+        @SuppressWarnings("unchecked")
+        RedisCommands<String, String> wrapped = (RedisCommands<String, String>)
+                mock(RedisCommands.class);
+        SyncCommands<String> cmd = new SyncCommandsImpl<>(wrapped);
+        String[] keys = {"key1", "key2"};
+        cmd.scriptLoad("script");
+        verify(wrapped).scriptLoad("script");
+        cmd.evalsha("digest", ScriptOutputType.MULTI, keys, "v1");
+        verify(wrapped).evalsha("digest", ScriptOutputType.MULTI, keys, "v1");
+        RedisScript script = new RedisScript("return 1;");
+        when(wrapped.evalsha(script.getDigest(), ScriptOutputType.INTEGER, keys, "v1")).thenReturn(1L);
+        assertEquals(1L, (long) cmd.eval(script, ScriptOutputType.INTEGER, keys, "v1"));
+        verify(wrapped, never()).eval(any(String.class), any(ScriptOutputType.class), any(String[].class), anyVararg());
+        when(wrapped.evalsha(script.getDigest(), ScriptOutputType.INTEGER, keys, "v2"))
+            .thenThrow(new RedisNoScriptException("NOSCRIPT No matching script"));
+        when(wrapped.eval("return 1;", ScriptOutputType.INTEGER, keys, "v2")).thenReturn(2L);
+        assertEquals(2L, (long) cmd.eval(script, ScriptOutputType.INTEGER, keys, "v2"));
+        verify(wrapped).eval("return 1;", ScriptOutputType.INTEGER, keys, "v2");
+    }
+
+    @Test(expectedExceptions = RedisCommandExecutionException.class)
+    public void testSyncCommandsScriptOtherError() {
+        @SuppressWarnings("unchecked")
+        RedisClusterCommands<String, String> wrapped = (RedisClusterCommands<String, String>)
+                mock(RedisClusterCommands.class);
+        SyncCommands<String> cmd = new SyncCommandsClusterImpl<>(wrapped);
+        String[] keys = {"key1"};
+        RedisScript script = new RedisScript("return 1;");
+        when(wrapped.evalsha(script.getDigest(), ScriptOutputType.INTEGER, keys, "v1"))
+            .thenThrow(new RedisCommandExecutionException("ERR"));
+        cmd.eval(script, ScriptOutputType.INTEGER, keys, "v1");
+    }
+
+    @Test
+    public void testAsyncCommandsScriptReload() throws Exception {
+        @SuppressWarnings("unchecked")
+        RedisClusterAsyncCommands<String, String> wrapped = (RedisClusterAsyncCommands<String, String>)
+                mock(RedisClusterAsyncCommands.class);
+        AsyncCommands<String> cmd = new AsyncCommandsClusterImpl<>(wrapped);
+        String[] keys = {"key1"};
+        RedisScript script = new RedisScript("return 1;");
+        AsyncCommand<String, String, String> missing = new AsyncCommand<>(
+                new Command<>(CommandType.EVALSHA, new ValueOutput<>(StringCodec.UTF8)));
+        missing.completeExceptionally(new RedisNoScriptException("NOSCRIPT No matching script"));
+        AsyncCommand<String, String, String> loaded = new AsyncCommand<>(
+                new Command<>(CommandType.EVAL, new ValueOutput<>(StringCodec.UTF8)));
+        loaded.complete("done");
+        when(wrapped.<String>evalsha(script.getDigest(), ScriptOutputType.VALUE, keys, "v1")).thenReturn(missing);
+        when(wrapped.<String>eval("return 1;", ScriptOutputType.VALUE, keys, "v1")).thenReturn(loaded);
+        assertEquals("done", cmd.<String>eval(script, ScriptOutputType.VALUE, keys, "v1").get());
+        verify(wrapped).flushCommands();
+        cmd.scriptLoad("script");
+        verify(wrapped).scriptLoad("script");
+    }
+
     @Test
     public void testRedisConnectionClusterImplCallsWrapperFunctions() {
         @SuppressWarnings("unchecked")
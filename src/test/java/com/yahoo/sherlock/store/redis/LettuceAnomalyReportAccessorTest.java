@@ -2,6 +2,8 @@ package com.yahoo.sherlock.store.redis;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import io.lettuce.core.Range;
 import io.lettuce.core.ScoredValue;
 import com.yahoo.sherlock.model.AnomalyReport;
 import com.yahoo.sherlock.settings.DatabaseConstants;
@@ -13,11 +15,14 @@ import com.yahoo.sherlock.store.core.SyncCommands;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.yahoo.sherlock.TestUtilities.inject;
 import static com.yahoo.sherlock.TestUtilities.obtain;
@@ -32,8 +37,10 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -73,6 +80,7 @@ public class LettuceAnomalyReportAccessorTest {
         inject(ara, LettuceAnomalyReportAccessor.class, "frequencyName", "freq");
         inject(ara, LettuceAnomalyReportAccessor.class, "timeName", "time");
         inject(ara, LettuceAnomalyReportAccessor.class, "emailIdReportName", "emailIdReportsIndex");
+        inject(ara, LettuceAnomalyReportAccessor.class, "timelineName", "timeline");
         inject(ara, AbstractLettuceAccessor.class, "keyName", "key");
         inject(ara, AbstractLettuceAccessor.class, "mapper", new HashMapper());
         RedisConnection<String> conn = (RedisConnection<String>) mock(RedisConnection.class);
@@ -135,16 +143,124 @@ public class LettuceAnomalyReportAccessorTest {
         verify(binAsync, times(7)).zadd(any(), any());
     }
 
+    @Test
+    public void testGetAnomalyReportsForJobInRange() throws IOException {
+        mocks();
+        when(async.exists("timeline:2:day:built")).thenReturn(fakeFuture(1L));
+        when(async.zrangebyscore(anyString(), any(Range.class))).thenReturn(fakeFuture(Lists.newArrayList("3", "2")));
+        when(async.hgetall("key:2")).thenReturn(fakeFuture(mapify(make(2, "2", 5000, "day"))));
+        when(async.hgetall("key:3")).thenReturn(fakeFuture(mapify(make(3, "2", 4000, "day"))));
+        when(binAsync.zrangeWithScores(any(byte[].class), anyLong(), anyLong()))
+                .thenReturn(fakeFuture(Collections.emptyList()));
+        when(ara.getAnomalyReportsForJobInRange(anyString(), anyString(), anyLong(), anyLong())).thenCallRealMethod();
+        when(ara.key(anyVararg())).thenCallRealMethod();
+        when(ara.unmap(any(Class.class), anyMap())).thenCallRealMethod();
+        List<AnomalyReport> result = ara.getAnomalyReportsForJobInRange("2", "day", 3000, 6000);
+        assertEquals(2, result.size());
+        assertEquals("3", result.get(0).getUniqueId());
+        assertEquals("2", result.get(1).getUniqueId());
+        verify(async).zrangebyscore("timeline:2:day", Range.create(3000L, 6000L));
+        verify(async, never()).sinter(anyVararg());
+        verify(async, never()).zadd(anyString(), anyVararg());
+    }
+
+    @Test
+    public void testGetLatestAnomalyReportsForJobBuildsTimeline() throws IOException {
+        mocks();
+        when(async.exists("timeline:2:day:built")).thenReturn(fakeFuture(0L));
+        when(async.sinter("jobId:2", "freq:day")).thenReturn(fakeFuture(Sets.newHashSet("2", "3")));
+        when(async.hgetall("key:2")).thenReturn(fakeFuture(mapify(make(2, "2", 5000, "day"))));
+        when(async.hgetall("key:3")).thenReturn(fakeFuture(mapify(make(3, "2", 4000, "day"))));
+        when(async.zrevrange("timeline:2:day", 1, 1)).thenReturn(fakeFuture(Lists.newArrayList("3")));
+        when(binAsync.zrangeWithScores(any(byte[].class), anyLong(), anyLong()))
+                .thenReturn(fakeFuture(Collections.emptyList()));
+        when(ara.getLatestAnomalyReportsForJob(anyString(), anyString(), anyInt(), anyInt())).thenCallRealMethod();
+        when(ara.key(anyVararg())).thenCallRealMethod();
+        when(ara.unmap(any(Class.class), anyMap())).thenCallRealMethod();
+        List<AnomalyReport> result = ara.getLatestAnomalyReportsForJob("2", "day", 1, 1);
+        assertEquals(1, result.size());
+        assertEquals("3", result.get(0).getUniqueId());
+        verify(async, times(2)).zadd(anyString(), anyVararg());
+        verify(async).set("timeline:2:day:built", "2");
+        verify(async).expire("timeline:2:day:built", LettuceAnomalyReportAccessor.expirationSeconds("day"));
+        assertTrue(ara.getLatestAnomalyReportsForJob("2", "day", 0, 0).isEmpty());
+    }
+
+    @Test
+    public void testRestoredReportsAreInBuiltTimeline() throws IOException {
+        mocks();
+        // a fake backend holding the report hashes and the timeline written by the restore
+        Map<String, Map<String, String>> hashes = new HashMap<>();
+        Map<String, Double> timeline = new HashMap<>();
+        when(async.hmset(anyString(), anyMap())).thenAnswer(iom -> {
+            hashes.put((String) iom.getArguments()[0], (Map<String, String>) iom.getArguments()[1]);
+            return fakeFuture("OK");
+        });
+        when(async.zadd(eq("timeline:1:hour"), anyVararg())).thenAnswer(iom -> {
+            ScoredValue<String> value = (ScoredValue<String>) iom.getArguments()[1];
+            timeline.put(value.getValue(), value.getScore());
+            return fakeFuture(1L);
+        });
+        when(async.hgetall(anyString())).thenAnswer(iom -> fakeFuture(hashes.get(iom.getArguments()[0])));
+        when(async.zrevrange("timeline:1:hour", 0, 9)).thenAnswer(iom -> fakeFuture(timeline.entrySet().stream()
+                .sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList())));
+        // the timeline was built before the restore
+        when(async.exists("timeline:1:hour:built")).thenReturn(fakeFuture(1L));
+        when(binAsync.zrangeWithScores(any(byte[].class), anyLong(), anyLong()))
+                .thenReturn(fakeFuture(Collections.emptyList()));
+        LettuceJsonDumper dumper = mock(LettuceJsonDumper.class);
+        inject(dumper, LettuceJsonDumper.class, "gson", new Gson());
+        inject(dumper, LettuceJsonDumper.class, "timelineName", "timeline");
+        RedisConnection<String> conn = (RedisConnection<String>) mock(RedisConnection.class);
+        when(conn.async()).thenReturn(async);
+        when(dumper.connect()).thenReturn(conn);
+        doCallRealMethod().when(dumper).restoreRawData(any(), anyLong(), any());
+        doCallRealMethod().when(dumper).writeObjectsToRedis(anyMap());
+        String dump = "{\"Reports:4\":{\"uniqueId\":\"4\",\"jobId\":\"1\",\"jobFrequency\":\"hour\",\"reportQueryEndTime\":\"4000\"},"
+                      + "\"Reports:5\":{\"uniqueId\":\"5\",\"jobId\":\"1\",\"jobFrequency\":\"hour\",\"reportQueryEndTime\":\"5000\"}}";
+        dumper.restoreRawData(new StringReader(dump), 0, entries -> { });
+        inject(ara, AbstractLettuceAccessor.class, "keyName", DatabaseConstants.REPORTS);
+        when(ara.getLatestAnomalyReportsForJob(anyString(), anyString(), anyInt(), anyInt())).thenCallRealMethod();
+        when(ara.key(anyVararg())).thenCallRealMethod();
+        when(ara.unmap(any(Class.class), anyMap())).thenCallRealMethod();
+        List<AnomalyReport> result = ara.getLatestAnomalyReportsForJob("1", "hour", 0, 10);
+        assertEquals(2, result.size());
+        assertEquals("5", result.get(0).getUniqueId());
+        assertEquals("4", result.get(1).getUniqueId());
+        verify(async, times(2)).expire("timeline:1:hour", LettuceAnomalyReportAccessor.expirationSeconds("hour"));
+    }
+
+    @Test
+    public void testGetAnomalyReportsForJobAtTimeClustered() throws IOException {
+        mocks();
+        when(ara.isClustered()).thenReturn(true);
+        when(async.smembers("jobId:2")).thenReturn(fakeFuture(Sets.newHashSet("1", "2", "3")));
+        when(async.sismember(anyString(), anyString())).thenReturn(fakeFuture(true));
+        when(async.sismember("time:5000", "1")).thenReturn(fakeFuture(false));
+        when(async.sismember("freq:day", "3")).thenReturn(fakeFuture(false));
+        AnomalyReport a2 = make(2, "2", 5000, "day");
+        when(async.hgetall("key:2")).thenReturn(fakeFuture(mapify(a2)));
+        when(binAsync.zrangeWithScores(any(byte[].class), anyLong(), anyLong()))
+                .thenReturn(fakeFuture(Collections.emptyList()));
+        when(ara.getAnomalyReportsForJobAtTime(anyString(), anyString(), anyString())).thenCallRealMethod();
+        when(ara.key(anyVararg())).thenCallRealMethod();
+        when(ara.unmap(any(Class.class), anyMap())).thenCallRealMethod();
+        List<AnomalyReport> result = ara.getAnomalyReportsForJobAtTime("2", "5000", "day");
+        assertEquals(1, result.size());
+        assertEquals("2", result.get(0).getUniqueId());
+        verify(async, times(6)).sismember(anyString(), anyString());
+        verify(async, never()).sinter(anyVararg());
+        verify(async, never()).smembers("freq:day");
+    }
+
     @Test
     public void testGetAnomalyReportsForJobAndForJobAtTimeAndDeleteReports() throws IOException {
         String jobId = "jobId:2";
         String freq = "freq:day";
-        Set<String> resId = Sets.newHashSet("1", "2", "3", "4", "5");
-        Set<String> resFreq = Sets.newHashSet("2", "3", "4", "5", "6");
-        // 2, 3, 4, 5
         mocks();
-        when(async.smembers(jobId)).thenReturn(fakeFuture(resId));
-        when(async.smembers(freq)).thenReturn(fakeFuture(resFreq));
+        when(async.sinter(jobId, freq)).thenReturn(fakeFuture(Sets.newHashSet("2", "3", "4", "5")));
         AnomalyReport a1 = make(2, "2", 5000, "day");
         AnomalyReport a2 = make(3, "2", 5000, "day");
         AnomalyReport a3 = make(4, "2", 5000, "day");
@@ -172,9 +288,7 @@ public class LettuceAnomalyReportAccessorTest {
         List<AnomalyReport> result = ara.getAnomalyReportsForJob("2", "day");
         assertEquals(4, result.size());
         assertEqualsNoOrder(aArr, result.toArray());
-        Set<String> timeId = Sets.newHashSet("3", "4", "10", "12");
-        // 3, 4
-        when(async.smembers("time:5000")).thenReturn(fakeFuture(timeId));
+        when(async.sinter(jobId, "time:5000", freq)).thenReturn(fakeFuture(Sets.newHashSet("3", "4")));
         when(ara.getAnomalyReportsForJobAtTime(anyString(), anyString(), anyString())).thenCallRealMethod();
         result = ara.getAnomalyReportsForJobAtTime("2", "5000", "day");
         assertEquals(2, result.size());
@@ -183,6 +297,7 @@ public class LettuceAnomalyReportAccessorTest {
         doCallRealMethod().when(ara).deleteAnomalyReportsForJobAtTime(anyString(), anyString(), anyString());
         ara.deleteAnomalyReportsForJobAtTime("2", "5000", "day");
         verify(async, times(6)).srem(anyString(), anyVararg());
+        verify(async, times(2)).zrem(anyString(), anyVararg());
         verify(async, times(2)).del(anyVararg());
         verify(binAsync, times(4)).del(anyVararg());
         // delete all
@@ -190,7 +305,7 @@ public class LettuceAnomalyReportAccessorTest {
         when(async.smembers(jobId)).thenReturn(fakeFuture(Sets.newHashSet("2", "3", "4", "5")));
         ara.deleteAnomalyReportsForJob("2");
         verify(async, times(14)).srem(anyString(), anyVararg());
-        verify(async, times(7)).del(anyVararg());
+        verify(async, times(8)).del(anyVararg());
         verify(binAsync, times(12)).del(anyVararg());
         // test getAnomalyReportsForEmailId()
         Set<String> reportIds = Sets.newHashSet("2", "3", "4", "5");
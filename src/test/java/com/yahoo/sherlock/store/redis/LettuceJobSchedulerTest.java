@@ -5,12 +5,14 @@ import io.lettuce.core.Range;
 import io.lettuce.core.ScoredValue;
 import io.lettuce.core.ScriptOutputType;
 import com.yahoo.sherlock.exception.JobNotFoundException;
+import com.yahoo.sherlock.model.JobMetadata;
 import com.yahoo.sherlock.settings.DatabaseConstants;
 import com.yahoo.sherlock.store.JobMetadataAccessor;
 import com.yahoo.sherlock.store.Store;
 import com.yahoo.sherlock.store.StoreParams;
 import com.yahoo.sherlock.store.core.AsyncCommands;
 import com.yahoo.sherlock.store.core.RedisConnection;
+import com.yahoo.sherlock.store.core.RedisScript;
 import com.yahoo.sherlock.store.core.SyncCommands;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -18,6 +20,7 @@ import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import static com.yahoo.sherlock.TestUtilities.inject;
@@ -25,14 +28,17 @@ import static com.yahoo.sherlock.TestUtilities.obtain;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anySet;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -146,7 +152,7 @@ public class LettuceJobSchedulerTest {
     public void testPopQueueEmpty() throws IOException {
         mocks();
         when(sch.popQueue(anyLong())).thenCallRealMethod();
-        when(sync.eval(anyString(), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Collections.emptyList());
+        when(sync.eval(any(RedisScript.class), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Collections.emptyList());
         assertNull(sch.popQueue(123455));
     }
 
@@ -154,7 +160,7 @@ public class LettuceJobSchedulerTest {
     public void testPopQueue() throws IOException, JobNotFoundException {
         mocks();
         when(sch.popQueue(anyLong())).thenCallRealMethod();
-        when(sync.eval(anyString(), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Lists.newArrayList("1"));
+        when(sync.eval(any(RedisScript.class), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Lists.newArrayList("1"));
         sch.popQueue(1234);
         verify(jma).getJobMetadata("1");
     }
@@ -163,11 +169,40 @@ public class LettuceJobSchedulerTest {
     public void testPopQueueNotFound() throws IOException, JobNotFoundException {
         mocks();
         when(sch.popQueue(anyLong())).thenCallRealMethod();
-        when(sync.eval(anyString(), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Lists.newArrayList("1"));
+        when(sync.eval(any(RedisScript.class), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Lists.newArrayList("1"));
         when(jma.getJobMetadata(anyString())).thenThrow(new JobNotFoundException());
         assertNull(sch.popQueue(1234));
     }
 
+    @Test
+    public void testPopQueueBatchEmpty() throws IOException {
+        mocks();
+        when(sch.popQueue(anyLong(), anyInt())).thenCallRealMethod();
+        when(sync.eval(any(RedisScript.class), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Collections.emptyList());
+        assertTrue(sch.popQueue(123455, 10).isEmpty());
+        verify(jma, times(0)).getJobMetadata(anySet());
+    }
+
+    @Test
+    public void testPopQueueBatch() throws IOException {
+        mocks();
+        when(sch.popQueue(anyLong(), anyInt())).thenCallRealMethod();
+        when(sync.eval(any(RedisScript.class), any(ScriptOutputType.class), any(), anyVararg())).thenReturn(Lists.newArrayList("1", "2", "3"));
+        JobMetadata j1 = new JobMetadata();
+        j1.setJobId(1);
+        JobMetadata j3 = new JobMetadata();
+        j3.setJobId(3);
+        when(jma.getJobMetadata(anySet())).thenReturn(Lists.newArrayList(j1, j3));
+        List<JobMetadata> jobs = sch.popQueue(1234, 3);
+        assertEquals(2, jobs.size());
+        assertEquals(1, (int) jobs.get(0).getJobId());
+        assertEquals(3, (int) jobs.get(1).getJobId());
+        verify(sync).eval(any(RedisScript.class), eq(ScriptOutputType.MULTI),
+                          eq(new String[] {"{queue}.job", "{queue}.pending"}), eq("1234"), eq("3"));
+        verify(jma).getJobMetadata(new LinkedHashSet<>(Lists.newArrayList("1", "2", "3")));
+        verify(sync).zrem("{queue}.pending", "2");
+    }
+
     @Test
     public void testRemovePending() throws IOException {
         mocks();
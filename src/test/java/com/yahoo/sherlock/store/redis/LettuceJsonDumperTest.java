@@ -3,24 +3,56 @@ package com.yahoo.sherlock.store.redis;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
+import com.yahoo.sherlock.settings.CLISettings;
 import com.yahoo.sherlock.settings.DatabaseConstants;
+import com.yahoo.sherlock.store.core.AsyncCommands;
+import com.yahoo.sherlock.store.core.RedisConnection;
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScoredValue;
+import org.mockito.ArgumentCaptor;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.yahoo.sherlock.TestUtilities.inject;
+import static com.yahoo.sherlock.store.redis.AbstractLettuceAccessorTest.fakeFuture;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * Test class for json dump.
@@ -64,4 +96,154 @@ public class LettuceJsonDumperTest {
         verify(lettuceJsonDumper, times(2)).writeIdsToRedis(anyMap());
     }
 
+    private static KeyScanCursor<String> cursor(String cursor, boolean finished, String... keys) {
+        KeyScanCursor<String> scan = new KeyScanCursor<>();
+        scan.setCursor(cursor);
+        scan.setFinished(finished);
+        scan.getKeys().addAll(Arrays.asList(keys));
+        return scan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AsyncCommands<String> mockBackend() {
+        RedisConnection<String> conn = (RedisConnection<String>) mock(RedisConnection.class);
+        RedisConnection<byte[]> bin = (RedisConnection<byte[]>) mock(RedisConnection.class);
+        AsyncCommands<String> async = (AsyncCommands<String>) mock(AsyncCommands.class);
+        AsyncCommands<byte[]> binAsync = (AsyncCommands<byte[]>) mock(AsyncCommands.class);
+        when(lettuceJsonDumper.connect()).thenReturn(conn);
+        when(lettuceJsonDumper.binary()).thenReturn(bin);
+        when(conn.async()).thenReturn(async);
+        when(bin.async()).thenReturn(binAsync);
+        when(async.zrangeWithScores(anyString(), anyLong(), anyLong())).thenReturn(fakeFuture(Collections.emptyList()));
+        when(async.get(anyString())).thenReturn(fakeFuture(null));
+        when(async.get(DatabaseConstants.JOB_ID)).thenReturn(fakeFuture("12"));
+        KeyScanCursor<String> first = cursor("7", false, "Jobs:1", "jobIdIndex:1", "unknown:1");
+        KeyScanCursor<String> last = cursor("0", true, "Reports:5:anomalyTimestamps:start", "Reports:5");
+        when(async.scan(any(), any())).thenReturn(fakeFuture(first), fakeFuture(last), fakeFuture(first), fakeFuture(last));
+        Map<String, String> job = new HashMap<>();
+        job.put("jobId", "1");
+        job.put("granularity", "hour");
+        job.put("timeseriesRange", "24");
+        when(async.hgetall("Jobs:1")).thenReturn(fakeFuture(job));
+        when(async.hgetall("Reports:5")).thenReturn(fakeFuture(Collections.singletonMap("jobId", "1")));
+        when(async.smembers("jobIdIndex:1")).thenReturn(fakeFuture(Collections.singleton("5")));
+        when(binAsync.zrangeWithScores(any(byte[].class), anyLong(), anyLong()))
+            .thenReturn(fakeFuture(Collections.singletonList(ScoredValue.fromNullable(10.0, "5".getBytes()))));
+        return async;
+    }
+
+    @Test
+    public void testDumpRawData() throws Exception {
+        AsyncCommands<String> async = mockBackend();
+        doCallRealMethod().when(lettuceJsonDumper).dumpRawData(any());
+        doCallRealMethod().when(lettuceJsonDumper).getRawData();
+        StringWriter writer = new StringWriter();
+        lettuceJsonDumper.dumpRawData(writer);
+        JsonObject dump = gson.fromJson(writer.toString(), JsonObject.class);
+        assertEquals(dump.get(DatabaseConstants.JOB_ID).getAsString(), "12");
+        assertFalse(dump.has(DatabaseConstants.CLUSTER_ID));
+        assertEquals(dump.getAsJsonObject("Jobs:1").get("jobId").getAsString(), "1");
+        assertEquals(dump.getAsJsonArray("jobIdIndex:1").get(0).getAsString(), "5");
+        assertEquals(dump.getAsJsonArray("Reports:5:anomalyTimestamps:start").size(), 1);
+        assertTrue(dump.has("Reports:5"));
+        assertFalse(dump.has("unknown:1"));
+        // the scan resumes from the returned cursor
+        ArgumentCaptor<ScanCursor> cursors = ArgumentCaptor.forClass(ScanCursor.class);
+        verify(async, times(2)).scan(cursors.capture(), any());
+        assertEquals(cursors.getAllValues().get(1).getCursor(), "7");
+        verify(async, never()).keys(anyString());
+        // the JSON object holds the same data, with the missing IDs as nulls
+        JsonObject raw = lettuceJsonDumper.getRawData();
+        assertTrue(raw.get(DatabaseConstants.CLUSTER_ID).isJsonNull());
+        for (String key : dump.keySet()) {
+            assertEquals(raw.get(key), dump.get(key));
+        }
+    }
+
+    @Test
+    public void testRestoreRawData() throws Exception {
+        doCallRealMethod().when(lettuceJsonDumper).restoreRawData(any(), anyLong(), any());
+        String jsonString = new String(Files.readAllBytes(Paths.get("src/test/resources/redis_json_dump.json")));
+        int size = new Gson().fromJson(jsonString, JsonObject.class).size();
+        List<Long> progress = new ArrayList<>();
+        int batchSize = CLISettings.BACKUP_BATCH_SIZE;
+        CLISettings.BACKUP_BATCH_SIZE = 10;
+        try {
+            long entries = lettuceJsonDumper.restoreRawData(new StringReader(jsonString), 0, progress::add);
+            assertEquals(entries, size);
+            // each batch is written before the next one is read
+            assertEquals(progress.size(), (size + 9) / 10);
+            assertEquals(progress.get(0), Long.valueOf(10));
+            assertEquals(progress.get(progress.size() - 1), Long.valueOf(size));
+            verify(lettuceJsonDumper, times(1)).writeIdsToRedis(anyMap());
+            // a resumed restore skips the written entries
+            progress.clear();
+            lettuceJsonDumper.restoreRawData(new StringReader(jsonString), size - 1, progress::add);
+            assertEquals(progress, Collections.singletonList((long) size));
+            verify(lettuceJsonDumper, times(1)).writeIdsToRedis(anyMap());
+        } finally {
+            CLISettings.BACKUP_BATCH_SIZE = batchSize;
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRestoreRawDataMalformed() throws Exception {
+        doCallRealMethod().when(lettuceJsonDumper).restoreRawData(any(), anyLong(), any());
+        lettuceJsonDumper.restoreRawData(new StringReader("[\"JobId\"]"), 0, entries -> { });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDumpAndRestoreSnapshot() throws Exception {
+        mockBackend();
+        doCallRealMethod().when(lettuceJsonDumper).dumpSnapshot(any(), anyBoolean());
+        doCallRealMethod().when(lettuceJsonDumper).restoreSnapshot(any(), anyLong(), any());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        lettuceJsonDumper.dumpSnapshot(Channels.newChannel(bytes), true);
+        List<Long> progress = new ArrayList<>();
+        long records = lettuceJsonDumper.restoreSnapshot(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), 0, progress::add);
+        // the job ID, the job, the index, the anomaly timestamps and the report
+        assertEquals(records, 5);
+        assertEquals(progress, Collections.singletonList(5L));
+        ArgumentCaptor<Map> ids = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map> objects = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map> indices = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map> timestamps = ArgumentCaptor.forClass(Map.class);
+        verify(lettuceJsonDumper).writeIdsToRedis(ids.capture());
+        verify(lettuceJsonDumper).writeObjectsToRedis(objects.capture());
+        verify(lettuceJsonDumper).writeIndexesToRedis(indices.capture());
+        verify(lettuceJsonDumper).writeAnomalyTimestampsToRedis(timestamps.capture());
+        assertEquals(ids.getValue(), Collections.singletonMap(DatabaseConstants.JOB_ID, "12"));
+        assertEquals(((Map<String, String>) objects.getValue().get("Jobs:1")).get("jobStatus"), "CREATED");
+        assertTrue(objects.getValue().containsKey("Reports:5"));
+        assertEquals((String[]) indices.getValue().get("jobIdIndex:1"), new String[]{"5"});
+        List<ScoredValue<byte[]>> restored = (List<ScoredValue<byte[]>>) timestamps.getValue().get("Reports:5:anomalyTimestamps:start");
+        assertEquals(restored.get(0).getValue(), "5".getBytes());
+    }
+
+    @Test
+    public void testRestoreTruncatedSnapshot() throws Exception {
+        mockBackend();
+        doCallRealMethod().when(lettuceJsonDumper).dumpSnapshot(any(), anyBoolean());
+        doCallRealMethod().when(lettuceJsonDumper).restoreSnapshot(any(), anyLong(), any());
+        int batchSize = CLISettings.BACKUP_BATCH_SIZE;
+        CLISettings.BACKUP_BATCH_SIZE = 1;
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            lettuceJsonDumper.dumpSnapshot(Channels.newChannel(bytes), false);
+            Files.write(path, Arrays.copyOf(bytes.toByteArray(), bytes.size() - 9));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                lettuceJsonDumper.restoreSnapshot(channel, 0, entries -> { });
+                fail();
+            } catch (IOException e) {
+                // nothing is written from a truncated snapshot
+                verify(lettuceJsonDumper, never()).writeIdsToRedis(anyMap());
+                verify(lettuceJsonDumper, never()).writeObjectsToRedis(anyMap());
+            }
+        } finally {
+            CLISettings.BACKUP_BATCH_SIZE = batchSize;
+            Files.deleteIfExists(path);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.store.redis;
+
+import io.lettuce.core.ScoredValue;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test for the binary snapshot format.
+ */
+public class RedisSnapshotTest {
+
+    private static byte[] write(boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RedisSnapshot.Encoder encoder = new RedisSnapshot.Encoder(Channels.newChannel(bytes), compress, 2);
+        encoder.id("JobId", "12");
+        for (int i = 0; i < 3; i++) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put("jobId", String.valueOf(i));
+            fields.put("jobStatus", "CREATED");
+            encoder.hash("Jobs:" + i, fields);
+        }
+        encoder.set("jobIdIndex:all", Arrays.asList("0", "1", "2"));
+        encoder.zset("Reports:5:anomalyTimestamps:start", Collections.singletonList(ScoredValue.fromNullable(10.0, new byte[]{1, 2})));
+        encoder.finish();
+        assertEquals(encoder.getRecords(), 6);
+        return bytes.toByteArray();
+    }
+
+    private static RedisSnapshot.Decoder read(byte[] bytes) throws IOException {
+        return new RedisSnapshot.Decoder(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            RedisSnapshot.Decoder decoder = read(write(compress));
+            RedisSnapshot.Record record = decoder.next();
+            assertEquals(record.type, RedisSnapshot.ID);
+            assertEquals(record.key, "JobId");
+            assertEquals(record.string, "12");
+            for (int i = 0; i < 3; i++) {
+                record = decoder.next();
+                assertEquals(record.type, RedisSnapshot.HASH);
+                assertEquals(record.key, "Jobs:" + i);
+                assertEquals(record.hash.get("jobId"), String.valueOf(i));
+                assertEquals(record.hash.get("jobStatus"), "CREATED");
+            }
+            record = decoder.next();
+            assertEquals(record.set, Arrays.asList("0", "1", "2"));
+            record = decoder.next();
+            assertEquals(record.zset.get(0).getScore(), 10.0);
+            assertEquals(record.zset.get(0).getValue(), new byte[]{1, 2});
+            assertNull(decoder.next());
+            assertEquals(decoder.getRecords(), 6);
+        }
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        assertTrue(write(true).length < write(false).length);
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        RedisSnapshot.Decoder decoder = read(write(true));
+        // skips the first two blocks and one record of the third
+        decoder.skip(5);
+        assertEquals(decoder.getRecords(), 5);
+        RedisSnapshot.Record record = decoder.next();
+        assertEquals(record.key, "Reports:5:anomalyTimestamps:start");
+        assertNull(decoder.next());
+        decoder = read(write(false));
+        decoder.skip(10);
+        assertEquals(decoder.getRecords(), 6);
+        assertNull(decoder.next());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] bytes = write(false);
+        RedisSnapshot.Decoder decoder = read(Arrays.copyOf(bytes, bytes.length - 4));
+        while (decoder.next() != null) {
+            continue;
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotSnapshot() throws IOException {
+        read("{\"JobId\":\"1\"}".getBytes());
+    }
+
+    @Test
+    public void testValidate() throws IOException {
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            byte[] bytes = write(true);
+            Files.write(path, bytes);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                assertEquals(RedisSnapshot.validate(channel), 6);
+                assertEquals(channel.position(), 0);
+            }
+            // truncated in the payload of the last block
+            Files.write(path, Arrays.copyOf(bytes, bytes.length - 12));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                RedisSnapshot.validate(channel);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e instanceof EOFException);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testIsSnapshot() throws IOException {
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            Files.write(path, write(false));
+            assertTrue(RedisSnapshot.isSnapshot(path));
+            Files.write(path, "{}".getBytes());
+            assertFalse(RedisSnapshot.isSnapshot(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
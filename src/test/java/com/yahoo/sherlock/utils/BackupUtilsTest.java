@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017, Yahoo Holdings Inc.
+ * Copyrights licensed under the GPL License.
+ * See the accompanying LICENSE file for terms.
+ */
+
+package com.yahoo.sherlock.utils;
+
+import com.yahoo.sherlock.store.JsonDumper;
+
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class BackupUtilsTest {
+
+    @Test
+    public void testRestoreFromJsonFileResumes() throws Exception {
+        Path backup = Files.createTempFile("backup", ".json");
+        Path checkpoint = backup.resolveSibling(backup.getFileName() + ".checkpoint");
+        Files.write(backup, "{\"JobId\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+        List<Long> skips = new ArrayList<>();
+        JsonDumper jsonDumper = mock(JsonDumper.class);
+        Answer<Long> failing = invocation -> {
+            skips.add((Long) invocation.getArguments()[1]);
+            ((JsonDumper.RestoreProgress) invocation.getArguments()[2]).restored(5);
+            throw new IOException("failed");
+        };
+        Answer<Long> restoring = invocation -> {
+            skips.add((Long) invocation.getArguments()[1]);
+            return 7L;
+        };
+        doAnswer(failing).doAnswer(restoring).when(jsonDumper).restoreRawData(any(), anyLong(), any());
+        try {
+            try {
+                BackupUtils.restoreFromFile(backup.toString(), jsonDumper);
+                fail();
+            } catch (IOException e) {
+                assertTrue(Files.exists(checkpoint));
+            }
+            // the second restore resumes after the checkpoint, which is then removed
+            BackupUtils.restoreFromFile(backup.toString(), jsonDumper);
+            assertEquals(skips, Arrays.asList(0L, 5L));
+            assertFalse(Files.exists(checkpoint));
+            // the checkpoint of another file is ignored
+            Files.write(checkpoint, "1 5".getBytes(StandardCharsets.UTF_8));
+            BackupUtils.restoreFromFile(backup.toString(), jsonDumper);
+            assertEquals(skips.get(2), Long.valueOf(0));
+            // the checkpoint of a newer backup of the same size is ignored
+            Files.write(checkpoint, (BackupUtils.getIdentity(backup) + " 5").getBytes(StandardCharsets.UTF_8));
+            Files.write(backup, "{\"JobId\":\"2\"}".getBytes(StandardCharsets.UTF_8));
+            BackupUtils.restoreFromFile(backup.toString(), jsonDumper);
+            assertEquals(skips.get(3), Long.valueOf(0));
+        } finally {
+            Files.deleteIfExists(checkpoint);
+            Files.deleteIfExists(backup);
+        }
+    }
+}
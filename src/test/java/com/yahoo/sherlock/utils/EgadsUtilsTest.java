@@ -9,6 +9,7 @@ package com.yahoo.sherlock.utils;
 import com.yahoo.egads.data.TimeSeries;
 import com.yahoo.sherlock.exception.SherlockException;
 
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.sql.Timestamp;
@@ -54,6 +55,21 @@ public class EgadsUtilsTest {
         );
     }
 
+    @Test
+    public void testFillMissingDataAggregation() throws Exception {
+        TimeSeries series = new TimeSeries(new long[]{3600L, 7200L, 14400L, 18000L}, new float[]{1.0f, 2.0f, 4.0f, 8.0f});
+        series.meta.id = "series";
+        TimeSeries filled = EgadsUtils.fillMissingData(series, 1, 1);
+        Assert.assertEquals(filled.data.getTimes(), new long[]{3600L, 7200L, 10800L, 14400L, 18000L});
+        Assert.assertEquals(filled.data.getValues(), new float[]{1.0f, 2.0f, 2.0f, 4.0f, 8.0f});
+        Assert.assertSame(filled.meta, series.meta);
+        TimeSeries aggregated = EgadsUtils.fillMissingData(series, 2, 1);
+        Assert.assertEquals(aggregated.data.getTimes(), new long[]{3600L, 10800L, 18000L});
+        Assert.assertEquals(aggregated.data.getValues(), new float[]{3.0f, 6.0f, 8.0f});
+        Assert.assertEquals(EgadsUtils.sumAggregator(series, 3).getValues(), new float[]{7.0f, 8.0f});
+        Assert.assertSame(EgadsUtils.fillMissingData(series, 2, 0), series);
+    }
+
     @Test(expectedExceptions = SherlockException.class)
     public void testFillMissingDataUnequalPeriodFrequency() throws SherlockException {
         TimeSeries ts = mock(TimeSeries.class);